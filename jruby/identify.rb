@@ -36,7 +36,10 @@ archive_read archive, "org/gavrog/apps/systre/zeolites.arc"
 #   Main loop: read nets and print their symbols if found
 # ============================================================
 
-Net.iterator(ARGV[0]).each do |net|
+# --- read nets in parallel, one thread per processor
+threads = java.lang.Runtime.runtime.available_processors
+
+Net.iterator(ARGV[0], 0, threads).each do |net|
     if not net.locally_stable?
         puts ">>>unstable<<<"
     elsif net.ladder?
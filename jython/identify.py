@@ -6,6 +6,8 @@
 
 import sys
 
+from java.lang import Runtime
+
 from org.gavrog.joss.pgraphs.io import Net
 from org.gavrog.joss.pgraphs.io import Archive
 
@@ -35,7 +37,10 @@ archive_read(archive, "org/gavrog/apps/systre/zeolites.arc")
 #   Main loop: read nets and print their symbols if found
 # ============================================================
 
-for G in Net.iterator(sys.argv[1]):
+# --- read nets in parallel, one thread per processor
+threads = Runtime.getRuntime().availableProcessors()
+
+for G in Net.iterator(sys.argv[1], 0, threads):
     if not G.isLocallyStable():
         print ">>>unstable<<<"
     else:
@@ -20,6 +20,7 @@ package org.gavrog.apps._3dt;
 import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -52,6 +53,7 @@ import org.gavrog.joss.dsyms.basic.DelaneySymbol;
 import org.gavrog.joss.dsyms.basic.DynamicDSymbol;
 import org.gavrog.joss.dsyms.basic.IndexList;
 import org.gavrog.joss.dsyms.derived.Signature;
+import org.gavrog.joss.dsyms.generators.InputIterator;
 import org.gavrog.joss.geometry.CoordinateChange;
 import org.gavrog.joss.geometry.Operator;
 import org.gavrog.joss.geometry.Point;
@@ -61,6 +63,8 @@ import org.gavrog.joss.geometry.Vector;
 import org.gavrog.joss.pgraphs.basic.IEdge;
 import org.gavrog.joss.pgraphs.basic.INode;
 import org.gavrog.joss.pgraphs.embed.Embedder;
+import org.gavrog.joss.pgraphs.io.BlockIndex;
+import org.gavrog.joss.pgraphs.io.BlockList;
 import org.gavrog.joss.pgraphs.io.GenericParser;
 import org.gavrog.joss.pgraphs.io.Net;
 import org.gavrog.joss.pgraphs.io.NetParser;
@@ -860,13 +864,68 @@ public class Document extends DisplayList {
 		}
 	}
 
+	/**
+	 * Opens a file of tilings or nets. Except for .gsl files, the file is
+	 * only indexed here, and each document is read when first requested.
+	 * 
+	 * @param path the name of the file.
+	 * @return the list of documents in the file.
+	 * @throws FileNotFoundException if the file does not exist.
+	 */
 	public static List<Document> load(final String path)
 			throws FileNotFoundException {
 		final String ext = path.substring(path.lastIndexOf('.') + 1)
 				.toLowerCase();
+		if (ext.equals("cgd") || ext.equals("pgr") || ext.equals("ds")
+				|| ext.equals("tgs")) {
+			final BlockIndex index;
+			try {
+				index = BlockIndex.forFile(new File(path), false);
+			} catch (FileNotFoundException ex) {
+				throw ex;
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+			return indexed(index);
+		}
 		return load(new FileReader(path), ext);
 	}
 
+	@SuppressWarnings("unchecked")
+	private static List<Document> indexed(final BlockIndex index) {
+		return new BlockList(index, 100) {
+			protected Object parse(final Reader input, final int i) {
+				if (index.holdsSymbols()) {
+					final DSymbol ds = (DSymbol) new InputIterator(input).next();
+					return new Document(ds, blockName(i));
+				} else {
+					final NetParser parser = new NetParser(input,
+							index.getLength(i));
+					parser.setLineNumber(index.getLineNumber(i));
+					return new Document(parser.parseDataBlock(), "#" + (i + 1));
+				}
+			}
+
+			// --- documents are changed by the user, so must not be re-read
+			protected boolean keep(final Object x) {
+				return true;
+			}
+
+			protected String nameOf(final Object x) {
+				return ((Document) x).getName();
+			}
+
+			protected String blockName(final int i) {
+				final String name = index.getName(i);
+				if (name == null || (name.length() == 0 && !index.holdsSymbols())) {
+					return "#" + (i + 1);
+				} else {
+					return name;
+				}
+			}
+		};
+	}
+
 	public static List<Document> load(final Reader input, final String ext) {
 		final BufferedReader reader = new BufferedReader(input);
 		final List<Document> result = new ArrayList<Document>();
@@ -93,6 +93,7 @@ import org.gavrog.joss.graphics.Surface;
 import org.gavrog.joss.pgraphs.basic.IEdge;
 import org.gavrog.joss.pgraphs.basic.INode;
 import org.gavrog.joss.pgraphs.io.Archive;
+import org.gavrog.joss.pgraphs.io.BlockList;
 import org.gavrog.joss.pgraphs.io.Output;
 import org.gavrog.joss.tilings.Tiling;
 import org.gavrog.joss.tilings.Tiling.Facet;
@@ -903,7 +904,13 @@ public class Main extends EventSource {
                     	}
 	                    if (documents != null) {
 							for (int n = 0; n < documents.size(); ++n) {
-								String name = documents .get(n).getName();
+								// --- avoids reading every document from the file
+								final String name;
+								if (documents instanceof BlockList) {
+									name = ((BlockList) documents).getName(n);
+								} else {
+									name = documents.get(n).getName();
+								}
 								if (name != null && p.matcher(name).find()) {
 									doTiling(n + 1);
 									return;
@@ -0,0 +1,196 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.apps.systre;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gavrog.joss.pgraphs.io.Archive;
+
+/**
+ * Records the progress of a batch run, so that it can be resumed after an
+ * interruption. For each structure completed, the archive entries it produced
+ * are appended to the checkpoint file, followed by a line of the form
+ * <code>done N "PATH"</code>, which states that the first N structures in the
+ * input file PATH have been processed. Entries after the last such line
+ * belong to an unfinished structure and are ignored when the file is read.
+ *
+ * The file is flushed after each structure, which protects against the
+ * process being killed. It is forced to the disk only at explicit
+ * synchronization points.
+ *
+ * @author Olaf Delgado
+ */
+public class Checkpoint {
+    final private Map completed = new LinkedHashMap();
+    final private List entries = new ArrayList();
+    final private FileOutputStream stream;
+    final private Writer writer;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param file the checkpoint file.
+     * @param resume if true, the progress recorded in the file is read,
+     *            otherwise it is discarded.
+     * @throws IOException if the file could not be read or written.
+     */
+    public Checkpoint(final File file, final boolean resume) throws IOException {
+        if (resume && file.exists()) {
+            read(file);
+        }
+
+        // --- write the valid part to a new file, so that no torn line is
+        //     left behind and the old file stays intact until it is replaced
+        final File tmp = new File(file.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            final Writer w = new BufferedWriter(new OutputStreamWriter(out));
+            for (final Iterator iter = this.entries.iterator(); iter.hasNext();) {
+                w.write(iter.next().toString());
+            }
+            for (final Iterator iter = this.completed.keySet().iterator(); iter
+                    .hasNext();) {
+                final String path = (String) iter.next();
+                w.write(doneLine(path, completed(path)));
+            }
+            w.flush();
+            out.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("could not replace " + file);
+            }
+        }
+
+        this.stream = new FileOutputStream(file, true);
+        this.writer = new BufferedWriter(new OutputStreamWriter(this.stream));
+    }
+
+    private void read(final File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            final List pending = new ArrayList();
+            final StringBuffer buf = new StringBuffer();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("done ")) {
+                    // --- a torn line lacks the closing quote
+                    final int k = line.indexOf(" \"", 5);
+                    if (k < 0 || !line.endsWith("\"") || line.length() < k + 3) {
+                        continue;
+                    }
+                    final int n;
+                    try {
+                        n = Integer.parseInt(line.substring(5, k));
+                    } catch (NumberFormatException ex) {
+                        continue;
+                    }
+                    this.completed.put(line.substring(k + 2, line.length() - 1),
+                            new Integer(n));
+                    this.entries.addAll(pending);
+                    pending.clear();
+                } else {
+                    buf.append(line);
+                    buf.append('\n');
+                    if (line.trim().equals("end")) {
+                        pending.add(Archive.Entry.read(new BufferedReader(
+                                new StringReader(buf.toString()))));
+                        buf.setLength(0);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String doneLine(final String path, final int count) {
+        return "done " + count + " \"" + path + "\"\n";
+    }
+
+    /**
+     * @param path the name of an input file.
+     * @return the number of structures completed for that file.
+     */
+    public synchronized int completed(final String path) {
+        final Integer n = (Integer) this.completed.get(path);
+        return n == null ? 0 : n.intValue();
+    }
+
+    /**
+     * @return the archive entries recorded for the completed structures.
+     */
+    public synchronized List entries() {
+        return new ArrayList(this.entries);
+    }
+
+    /**
+     * Records the completion of a structure.
+     *
+     * @param path the input file the structure was read from.
+     * @param count the running number of the structure in its file.
+     * @param newEntries the archive entries produced for it.
+     * @throws IOException if an output error occurred.
+     */
+    public synchronized void structureDone(final String path, final int count,
+            final List newEntries) throws IOException {
+        for (final Iterator iter = newEntries.iterator(); iter.hasNext();) {
+            final Archive.Entry entry = (Archive.Entry) iter.next();
+            this.writer.write(entry.toString());
+            this.entries.add(entry);
+        }
+        this.writer.write(doneLine(path, count));
+        this.writer.flush();
+        this.completed.put(path, new Integer(count));
+    }
+
+    /**
+     * Forces the checkpoint file to the disk.
+     *
+     * @throws IOException if an output error occurred.
+     */
+    public synchronized void sync() throws IOException {
+        this.writer.flush();
+        this.stream.getChannel().force(false);
+    }
+
+    /**
+     * Forces the checkpoint file to the disk and closes it.
+     *
+     * @throws IOException if an output error occurred.
+     */
+    public synchronized void close() throws IOException {
+        sync();
+        this.writer.close();
+    }
+}
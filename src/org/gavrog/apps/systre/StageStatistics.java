@@ -0,0 +1,231 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.apps.systre;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.DecimalFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.gavrog.box.simple.Strings;
+
+/**
+ * Collects the CPU and wall clock times spent in the stages of a computation,
+ * together with some named counters. Stages are timed one at a time; starting
+ * a new stage ends the current one. Times for stages with the same name are
+ * added up. CPU times are those of the thread that runs the stage, so each
+ * stage must begin and end in the same thread.
+ *
+ * @author Olaf Delgado
+ */
+public class StageStatistics {
+    final private static ThreadMXBean threadBean = ManagementFactory
+            .getThreadMXBean();
+
+    private static class Stage {
+        long calls = 0;
+        long cpu = 0;
+        long wall = 0;
+    }
+
+    final private Map stages = new LinkedHashMap();
+    final private Map counters = new LinkedHashMap();
+    final private DecimalFormat fmt = new DecimalFormat("0.0");
+    final private DecimalFormat fmtJSON = new DecimalFormat("0.###");
+    private Stage current = null;
+    private long cpuStart;
+    private long wallStart;
+
+    private static long cpuTime() {
+        if (threadBean.isCurrentThreadCpuTimeSupported()) {
+            return threadBean.getCurrentThreadCpuTime();
+        } else {
+            return 0;
+        }
+    }
+
+    private Stage stage(final String name) {
+        Stage s = (Stage) this.stages.get(name);
+        if (s == null) {
+            s = new Stage();
+            this.stages.put(name, s);
+        }
+        return s;
+    }
+
+    /**
+     * Ends the current stage, if any, and starts timing a new one.
+     *
+     * @param name the name of the new stage.
+     */
+    public void begin(final String name) {
+        end();
+        final Stage s = stage(name);
+        ++s.calls;
+        this.current = s;
+        this.cpuStart = cpuTime();
+        this.wallStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the current stage, if any.
+     */
+    public void end() {
+        if (this.current != null) {
+            this.current.wall += System.nanoTime() - this.wallStart;
+            this.current.cpu += cpuTime() - this.cpuStart;
+            this.current = null;
+        }
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param name the name of the counter.
+     * @param n the amount to add.
+     */
+    public void count(final String name, final long n) {
+        final Long old = (Long) this.counters.get(name);
+        this.counters.put(name, new Long((old == null ? 0 : old.longValue()) + n));
+    }
+
+    /**
+     * @param name the name of a counter.
+     * @return the current value of that counter.
+     */
+    public long getCount(final String name) {
+        final Long val = (Long) this.counters.get(name);
+        return val == null ? 0 : val.longValue();
+    }
+
+    /**
+     * @param name the name of a stage.
+     * @return how often that stage was entered.
+     */
+    public long getCalls(final String name) {
+        final Stage s = (Stage) this.stages.get(name);
+        return s == null ? 0 : s.calls;
+    }
+
+    /**
+     * @return the total CPU time over all stages in nanoseconds.
+     */
+    public long getCpuTime() {
+        long sum = 0;
+        for (final Iterator iter = this.stages.values().iterator(); iter.hasNext();) {
+            sum += ((Stage) iter.next()).cpu;
+        }
+        return sum;
+    }
+
+    /**
+     * @return the total wall clock time over all stages in nanoseconds.
+     */
+    public long getWallTime() {
+        long sum = 0;
+        for (final Iterator iter = this.stages.values().iterator(); iter.hasNext();) {
+            sum += ((Stage) iter.next()).wall;
+        }
+        return sum;
+    }
+
+    /**
+     * Adds the times and counters from another instance to this one.
+     *
+     * @param other the instance to add.
+     */
+    public void add(final StageStatistics other) {
+        for (final Iterator iter = other.stages.keySet().iterator(); iter.hasNext();) {
+            final String name = (String) iter.next();
+            final Stage s = (Stage) other.stages.get(name);
+            final Stage t = stage(name);
+            t.calls += s.calls;
+            t.cpu += s.cpu;
+            t.wall += s.wall;
+        }
+        for (final Iterator iter = other.counters.keySet().iterator(); iter.hasNext();) {
+            final String name = (String) iter.next();
+            count(name, other.getCount(name));
+        }
+    }
+
+    private String millis(final long nanos) {
+        final String s = this.fmt.format(nanos / 1e6);
+        return "          ".substring(Math.min(10, s.length())) + s;
+    }
+
+    /**
+     * Writes the times and counters in human readable form.
+     *
+     * @param out the stream to write to.
+     * @param prefix the indentation to use.
+     */
+    public void write(final PrintStream out, final String prefix) {
+        out.println(prefix + "Time used (milliseconds CPU / wall):");
+        for (final Iterator iter = this.stages.keySet().iterator(); iter.hasNext();) {
+            final String name = (String) iter.next();
+            final Stage s = (Stage) this.stages.get(name);
+            out.println(prefix + "  " + millis(s.cpu) + millis(s.wall) + "   "
+                    + name + (s.calls > 1 ? " (" + s.calls + "x)" : ""));
+        }
+        out.println(prefix + "  " + millis(getCpuTime()) + millis(getWallTime())
+                + "   Total");
+        if (this.counters.size() > 0) {
+            out.println(prefix + "Counts:");
+            for (final Iterator iter = this.counters.keySet().iterator(); iter
+                    .hasNext();) {
+                final String name = (String) iter.next();
+                out.println(prefix + "   " + name + " = " + this.counters.get(name));
+            }
+        }
+    }
+
+    /**
+     * Produces the JSON fields for the times and counters, without the
+     * enclosing braces, so that more fields can be added.
+     *
+     * @return the JSON text.
+     */
+    public String toJSONFields() {
+        final StringBuffer buf = new StringBuffer();
+        buf.append("\"cpuMillis\": " + this.fmtJSON.format(getCpuTime() / 1e6));
+        buf.append(", \"wallMillis\": " + this.fmtJSON.format(getWallTime() / 1e6));
+        buf.append(", \"stages\": [");
+        for (final Iterator iter = this.stages.keySet().iterator(); iter.hasNext();) {
+            final String name = (String) iter.next();
+            final Stage s = (Stage) this.stages.get(name);
+            buf.append("{\"stage\": " + Strings.jsonQuoted(name));
+            buf.append(", \"calls\": " + s.calls);
+            buf.append(", \"cpuMillis\": " + this.fmtJSON.format(s.cpu / 1e6));
+            buf.append(", \"wallMillis\": " + this.fmtJSON.format(s.wall / 1e6));
+            buf.append(iter.hasNext() ? "}, " : "}");
+        }
+        buf.append("], \"counters\": {");
+        for (final Iterator iter = this.counters.keySet().iterator(); iter.hasNext();) {
+            final String name = (String) iter.next();
+            buf.append(Strings.jsonQuoted(name) + ": " + this.counters.get(name));
+            if (iter.hasNext()) {
+                buf.append(", ");
+            }
+        }
+        buf.append("}");
+        return buf.toString();
+    }
+}
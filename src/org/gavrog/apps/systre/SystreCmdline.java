@@ -16,7 +16,9 @@ limitations under the License.
 
 package org.gavrog.apps.systre;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,14 +28,18 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -41,13 +47,25 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.gavrog.box.collections.Iterators;
 import org.gavrog.box.collections.Pair;
+import org.gavrog.box.collections.ParallelIterator;
 import org.gavrog.box.gui.Config;
 import org.gavrog.box.simple.DataFormatException;
+import org.gavrog.box.simple.JSONWriter;
 import org.gavrog.box.simple.Misc;
 import org.gavrog.box.simple.Strings;
+import org.gavrog.box.simple.TaskController;
+import org.gavrog.box.simple.TaskStoppedException;
 import org.gavrog.jane.numbers.FloatingPoint;
 import org.gavrog.jane.numbers.IArithmetic;
 import org.gavrog.jane.numbers.Real;
@@ -62,10 +80,16 @@ import org.gavrog.joss.geometry.Vector;
 import org.gavrog.joss.pgraphs.basic.INode;
 import org.gavrog.joss.pgraphs.basic.Morphism;
 import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
+import org.gavrog.joss.pgraphs.basic.SystreKey;
 import org.gavrog.joss.pgraphs.embed.Embedder;
+import org.gavrog.joss.pgraphs.embed.EmbeddingCache;
 import org.gavrog.joss.pgraphs.embed.ProcessedNet;
 import org.gavrog.joss.pgraphs.io.Archive;
+import org.gavrog.joss.pgraphs.io.ArchiveIndex;
+import org.gavrog.joss.pgraphs.io.ArchiveWriter;
+import org.gavrog.joss.pgraphs.io.MappedArchive;
 import org.gavrog.joss.pgraphs.io.Net;
+import org.gavrog.joss.pgraphs.io.NetFingerprint;
 import org.gavrog.joss.pgraphs.io.NetParser;
 
 import buoy.event.EventSource;
@@ -81,19 +105,46 @@ public class SystreCmdline extends EventSource {
     static {
         Locale.setDefault(Locale.US);
     }
-    private final static DecimalFormat fmtReal4 = new DecimalFormat("0.0000");
+    private final DecimalFormat fmtReal4 = new DecimalFormat("0.0000");
+    
+    // --- loads archives and checks them in the background
+    private final static ExecutorService loader = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "Systre archive loader");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
 
+    // --- signals the expiration of time limits
+    private static Timer watchdog = null;
+    
     // --- the last structure processed
     ProcessedNet lastStructure = null;
     
     // --- the output stream
     private PrintStream out = System.out;
     
-    // --- the various archives
-    private final Archive builtinArchive;
-    private final Archive zeoliteArchive;
-    private final Map name2archive = new HashMap();
-    private final Archive internalArchive = new Archive("1.0");
+    // --- the various archives, loaded on demand
+    private Future builtinArchive = null;
+    private Future zeoliteArchive = null;
+    private Future builtinIndex = null;
+    private final Map name2archive;
+    private final Map pendingArchives = new HashMap();
+    private final List archiveChecks = Collections.synchronizedList(new LinkedList());
+    private final Archive internalArchive;
+    
+    // --- in parallel mode, the instance which created this worker
+    private final SystreCmdline master;
+    
+    // --- in parallel mode, orders archive updates by input position
+    private final Turnstile turnstile;
+    private final int ticket;
+    private boolean holdArchiveTurn = false;
+    
+    // --- worker threads for parallel mode
+    private ExecutorService workers = null;
     
     // --- options
     private boolean computeEmbedding = true;
@@ -101,12 +152,72 @@ public class SystreCmdline extends EventSource {
     private int relaxPasses = 3;
     private int relaxSteps = 10000;
     private boolean useBuiltinArchive = true;
+    private boolean trustArchives = false;
+    private int nearestNets = 0;
     private boolean outputFullCell = false;
     private boolean outputSystreKey = false;
     private boolean duplicateIsError = false;
-    private BufferedWriter outputArchive = null;
+    private ArchiveWriter outputArchive = null;
+    private int archiveBatchSize = 100;
+    private int archiveFlushInterval = 5;
+    private String embeddingCacheLocation = null;
+    private int embeddingCacheSize = 10000;
+    private int warmStartSteps = 1000;
+    private int threads = 1;
+    private boolean showTimings = false;
+    private String timingsFile = null;
+    private int timeLimit = 0;
+    private int relaxStepBudget = 0;
+    private int maxSymmetries = 0;
+    private String checkpointFile = null;
+    private String jsonOutputFile = null;
+    private boolean topologyFirst = false;
+    private boolean embedKnown = false;
+    
+    // --- records the progress of the run, if enabled
+    private Checkpoint checkpoint = null;
+    
+    // --- the archive entries created for the current structure
+    private List newEntries = new LinkedList();
+    
+    // --- the time limit for the current structure, if any
+    private TimeLimit structureTimeLimit = null;
+    
+    // --- results for the current structure, as far as they are known
+    private String currentKey = null;
+    private String currentGroup = null;
+    private List currentMatches = new LinkedList();
+    private Throwable currentError = null;
+    
+    // --- timings and counters for the current structure, if enabled
+    private StageStatistics statistics = null;
+    
+    // --- timings and counters accumulated over all structures processed
+    private StageStatistics statisticsSummary = null;
+    private int timedStructures = 0;
+    private final List slowestStructures = new LinkedList();
+    private Writer timingsWriter = null;
+    
+    // --- structured results, one JSON object per line, if enabled
+    private Writer jsonOutput = null;
+    private JSONWriter record = null;
+    private String currentRecord = null;
+    
+    // --- the nets identified for the current structure, in topology-first mode
+    private List topologies = null;
+    
+    // --- the structures processed in topology-first mode, grouped by net
+    private final Map duplicateGroups = new LinkedHashMap();
+    private int identifiedStructures = 0;
+    
+    // --- the name of the last structure processed
+    private String lastStructureName = null;
+    
+    // --- relaxed embeddings from previous runs, if enabled
+    private EmbeddingCache embeddingCache = null;
     
     // --- the last file that was opened for processing
+    private String lastFilePath;
     private String lastFileNameWithoutExtension;
     
     // --- signals a cancel request from outside
@@ -115,23 +226,491 @@ public class SystreCmdline extends EventSource {
     // --- text of the last status reported
 	private String lastStatus;
     
+    /**
+     * Lets workers in parallel mode take turns in the order of their tickets,
+     * which are the positions of their structures in the input file.
+     */
+    private static class Turnstile {
+        private int turn;
+        
+        Turnstile(final int first) {
+            this.turn = first;
+        }
+        
+        synchronized void await(final int ticket) {
+            while (this.turn < ticket) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+        
+        synchronized void pass(final int ticket) {
+            await(ticket);
+            if (this.turn == ticket) {
+                this.turn = ticket + 1;
+                notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Stops the computation in the current thread, via its
+     * {@link TaskController}, when a given amount of time has passed. The
+     * clock can be paused while waiting for other threads.
+     */
+    private static class TimeLimit {
+        private final TaskController controller = TaskController.getInstance();
+        private long remaining;
+        private long started;
+        private TimerTask task = null;
+        private boolean expired = false;
+        
+        TimeLimit(final long millis) {
+            this.remaining = millis;
+            this.controller.reset();
+            resume();
+        }
+        
+        synchronized void resume() {
+            if (this.task == null && !this.expired) {
+                this.started = System.currentTimeMillis();
+                this.task = new TimerTask() {
+                    public void run() {
+                        expire(this);
+                    }
+                };
+                timer().schedule(this.task, Math.max(this.remaining, 0));
+            }
+        }
+        
+        synchronized void pause() {
+            if (this.task != null) {
+                this.task.cancel();
+                this.task = null;
+                this.remaining -= System.currentTimeMillis() - this.started;
+            }
+        }
+        
+        synchronized void stop() {
+            pause();
+            this.controller.reset();
+        }
+        
+        synchronized boolean isExpired() {
+            return this.expired;
+        }
+        
+        private synchronized void expire(final TimerTask source) {
+            if (source == this.task) {
+                this.task = null;
+                this.expired = true;
+                this.controller.cancel();
+            }
+        }
+        
+        private static synchronized Timer timer() {
+            if (watchdog == null) {
+                watchdog = new Timer("Systre watchdog", true);
+            }
+            return watchdog;
+        }
+    }
+    
+    /**
+     * The output and results of a structure processed in parallel mode.
+     */
+    private static class Result {
+        ByteArrayOutputStream output;
+        ProcessedNet net;
+        String name;
+        StageStatistics statistics;
+        List entries;
+        String record;
+        List topologies;
+        int count;
+    }
+    
+    /**
+     * A net identified in topology-first mode.
+     */
+    private static class Topology {
+        final String key;
+        final String name;
+        final String knownAs;
+        
+        Topology(final String key, final String name, final String knownAs) {
+            this.key = key;
+            this.name = name;
+            this.knownAs = knownAs;
+        }
+    }
+    
+    /**
+     * The structures found to have the same net in topology-first mode.
+     */
+    private static class DuplicateGroup {
+        final String knownAs;
+        final List members = new ArrayList();
+        
+        DuplicateGroup(final String knownAs) {
+            this.knownAs = knownAs;
+        }
+    }
+    
     /**
      * Constructs an instance.
      */
     public SystreCmdline() {
-        builtinArchive = new Archive("1.0");
-        zeoliteArchive = new Archive("1.0");
-
-        // --- read the default archives
-        final Package pkg = this.getClass().getPackage();
-        final String packagePath = pkg.getName().replaceAll("\\.", "/");
+        this.master = this;
+        this.name2archive = new HashMap();
+        this.internalArchive = new Archive("1.0");
+        this.turnstile = null;
+        this.ticket = 0;
+    }
+    
+    /**
+     * Constructs a worker for parallel mode, which shares archives, caches and
+     * options with the given instance, but writes to its own output stream.
+     * 
+     * @param master the instance to share state with.
+     * @param out the output stream for this worker.
+     * @param seen the archive of structures seen.
+     * @param turnstile orders archive updates between workers.
+     * @param ticket the position of the structure processed by this worker.
+     */
+    private SystreCmdline(final SystreCmdline master, final PrintStream out,
+            final Archive seen, final Turnstile turnstile, final int ticket) {
+        this.master = master;
+        this.name2archive = master.name2archive;
+        this.internalArchive = seen;
+        this.embeddingCache = master.embeddingCache;
+        this.outputArchive = master.outputArchive;
+        this.turnstile = turnstile;
+        this.ticket = ticket;
+        this.out = out;
+        this.lastStatus = master.lastStatus;
+        this.lastFileNameWithoutExtension = master.lastFileNameWithoutExtension;
         
-        final String rcsrPath = packagePath + "/rcsr.arc";
-        final InputStream rcsrStream = ClassLoader.getSystemResourceAsStream(rcsrPath);
-        builtinArchive.addAll(new InputStreamReader(rcsrStream));
-        final String zeoPath = packagePath + "/zeolites.arc";
-        final InputStream zeoStream = ClassLoader.getSystemResourceAsStream(zeoPath);
-        zeoliteArchive.addAll(new InputStreamReader(zeoStream));
+        this.computeEmbedding = master.computeEmbedding;
+        this.relaxPositions = master.relaxPositions;
+        this.relaxPasses = master.relaxPasses;
+        this.relaxSteps = master.relaxSteps;
+        this.useBuiltinArchive = master.useBuiltinArchive;
+        this.trustArchives = master.trustArchives;
+        this.nearestNets = master.nearestNets;
+        this.outputFullCell = master.outputFullCell;
+        this.outputSystreKey = master.outputSystreKey;
+        this.duplicateIsError = master.duplicateIsError;
+        this.embeddingCacheLocation = master.embeddingCacheLocation;
+        this.embeddingCacheSize = master.embeddingCacheSize;
+        this.warmStartSteps = master.warmStartSteps;
+        this.showTimings = master.showTimings;
+        this.timingsFile = master.timingsFile;
+        this.timeLimit = master.timeLimit;
+        this.relaxStepBudget = master.relaxStepBudget;
+        this.maxSymmetries = master.maxSymmetries;
+        this.jsonOutputFile = master.jsonOutputFile;
+        this.topologyFirst = master.topologyFirst;
+        this.embedKnown = master.embedKnown;
+    }
+    
+    /**
+     * Creates a worker for service mode, which shares archives, caches and
+     * options with this instance, but writes to its own output stream and
+     * does not remember the structures it has seen.
+     * 
+     * @param out the output stream for the worker.
+     * @return the new worker.
+     */
+    SystreCmdline serviceWorker(final PrintStream out) {
+        final SystreCmdline worker = new SystreCmdline(this, out,
+                new Archive("1.0"), null, 0);
+        worker.lastFileNameWithoutExtension = "request";
+        return worker;
+    }
+    
+    /**
+     * @return the Systre key of the last structure, if it was determined.
+     */
+    String getCurrentKey() {
+        return this.currentKey;
+    }
+    
+    /**
+     * @return the space group name of the last structure, if determined.
+     */
+    String getCurrentGroup() {
+        return this.currentGroup;
+    }
+    
+    /**
+     * @return the archive matches for the last structure, as pairs of archive
+     *         and net names.
+     */
+    List getCurrentMatches() {
+        return this.currentMatches;
+    }
+    
+    /**
+     * @return the error that stopped the last structure, or null.
+     */
+    Throwable getCurrentError() {
+        return this.currentError;
+    }
+    
+    /**
+     * Loads the built-in archives and the space group tables, so that later
+     * requests do not have to wait for them.
+     */
+    void warmUp() {
+        if (this.useBuiltinArchive) {
+            builtinArchive();
+            zeoliteArchive();
+        }
+        SpaceGroupCatalogue.transform(3, "P1");
+    }
+    
+    /**
+     * Starts loading the built-in archives in the background, unless this has
+     * already been done.
+     */
+    private synchronized void loadBuiltinArchives() {
+        if (this.builtinArchive == null) {
+            final Package pkg = this.getClass().getPackage();
+            final String packagePath = pkg.getName().replaceAll("\\.", "/");
+            final boolean trusted = getTrustArchives();
+            
+            this.builtinArchive = loadBuiltinArchive(packagePath + "/rcsr", trusted);
+            this.zeoliteArchive = loadBuiltinArchive(packagePath + "/zeolites",
+                    trusted);
+        }
+    }
+    
+    /**
+     * @return the built-in RCSR archive, loading it if necessary.
+     */
+    private Archive builtinArchive() {
+        if (this.master != this) {
+            return this.master.builtinArchive();
+        }
+        loadBuiltinArchives();
+        return (Archive) await(this.builtinArchive);
+    }
+    
+    /**
+     * @return the built-in zeolite archive, loading it if necessary.
+     */
+    private Archive zeoliteArchive() {
+        if (this.master != this) {
+            return this.master.zeoliteArchive();
+        }
+        loadBuiltinArchives();
+        return (Archive) await(this.zeoliteArchive);
+    }
+    
+    private static Object await(final Future future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+    
+    /**
+     * Starts loading a built-in archive in the background. A precompiled
+     * binary version is used if present and up to date, otherwise the text
+     * version is parsed. In trusted mode, both the up-to-date test and the
+     * entry checksums are checked later on.
+     * 
+     * @param path the resource path without the file extension.
+     * @param trusted if true, defer verification.
+     * @return the future archive.
+     */
+    private Future loadBuiltinArchive(final String path, final boolean trusted) {
+        return loader.submit(new Callable() {
+            public Object call() throws Exception {
+                try {
+                    final MappedArchive packed =
+                        MappedArchive.fromResource(path + ".barc");
+                    if (packed != null) {
+                        if (trusted) {
+                            verifyInBackground(path + ".barc", packed, path + ".arc");
+                            return packed;
+                        }
+                        final InputStream text =
+                            ClassLoader.getSystemResourceAsStream(path + ".arc");
+                        if (text == null || MappedArchive.checksum(text)
+                                == packed.getSourceChecksum()) {
+                            return packed;
+                        }
+                    }
+                } catch (Exception ex) {
+                    // --- fall back to the text version
+                }
+                final Archive arc = new Archive("1.0");
+                final InputStream text =
+                    ClassLoader.getSystemResourceAsStream(path + ".arc");
+                try {
+                    arc.addAll(new BufferedReader(new InputStreamReader(text)), !trusted);
+                } finally {
+                    text.close();
+                }
+                if (trusted) {
+                    verifyInBackground(path + ".arc", arc, null);
+                }
+                return arc;
+            }
+        });
+    }
+    
+    /**
+     * @return the fingerprint index for the built-in RCSR archive, or null.
+     */
+    private synchronized ArchiveIndex builtinIndex() {
+        if (this.master != this) {
+            return this.master.builtinIndex();
+        }
+        if (this.builtinIndex == null) {
+            final Package pkg = this.getClass().getPackage();
+            final String path = pkg.getName().replaceAll("\\.", "/") + "/rcsr.idx";
+            this.builtinIndex = loader.submit(new Callable() {
+                public Object call() throws Exception {
+                    final InputStream in = ClassLoader.getSystemResourceAsStream(path);
+                    if (in == null) {
+                        return null;
+                    }
+                    try {
+                        return ArchiveIndex.read(new BufferedReader(
+                                new InputStreamReader(in)));
+                    } finally {
+                        in.close();
+                    }
+                }
+            });
+        }
+        return (ArchiveIndex) await(this.builtinIndex);
+    }
+    
+    /**
+     * Lists the RCSR nets most similar to a given one.
+     * 
+     * @param G the net.
+     * @param groupName the name of its space group.
+     */
+    private void writeNearestNets(final PeriodicGraph G, final String groupName) {
+    	status("Looking for similar nets...");
+    	
+        final ArchiveIndex index = builtinIndex();
+        if (index == null) {
+            out.println("!!! WARNING (ARCHIVE) - No index for similarity search.");
+            out.println();
+            return;
+        }
+        final NetFingerprint query = new NetFingerprint(G, groupName);
+        final List matches = index.nearest(query, getNearestNets());
+        out.println("   Most similar nets in RCSR archive:");
+        for (final Iterator iter = matches.iterator(); iter.hasNext();) {
+            final ArchiveIndex.Match m = (ArchiveIndex.Match) iter.next();
+            out.println("       " + m.getName() + "\t(distance "
+                    + fmtReal4.format(m.getDistance()) + ")");
+        }
+        out.println();
+    }
+    
+    /**
+     * Starts loading an archive file in the background, unless this has
+     * already been done.
+     * 
+     * @param filename the name of the archive file.
+     * @return the future archive.
+     */
+    private synchronized Future loadArchive(final String filename) {
+        if (!this.pendingArchives.containsKey(filename)) {
+            final boolean trusted = getTrustArchives();
+            this.pendingArchives.put(filename, loader.submit(new Callable() {
+                public Object call() throws Exception {
+                    final File file = new File(filename);
+                    if (MappedArchive.isBinaryArchive(file)) {
+                        return new MappedArchive(file);
+                    }
+                    final Archive arc = new Archive("1.0");
+                    final BufferedReader reader =
+                        new BufferedReader(new FileReader(file));
+                    try {
+                        arc.addAll(reader, !trusted);
+                    } finally {
+                        reader.close();
+                    }
+                    if (trusted) {
+                        verifyInBackground(filename, arc, null);
+                    }
+                    return arc;
+                }
+            }));
+        }
+        return (Future) this.pendingArchives.get(filename);
+    }
+    
+    /**
+     * Schedules the deferred verification of an archive read in trusted mode.
+     * 
+     * @param name the name of the archive to use in messages.
+     * @param arc the archive.
+     * @param source for binary archives, the resource path of the text source.
+     */
+    private void verifyInBackground(final String name, final Archive arc,
+            final String source) {
+        final Future check = loader.submit(new Callable() {
+            public Object call() throws Exception {
+                final List problems = new LinkedList();
+                if (source != null) {
+                    final InputStream text =
+                        ClassLoader.getSystemResourceAsStream(source);
+                    if (text != null && MappedArchive.checksum(text)
+                            != ((MappedArchive) arc).getSourceChecksum()) {
+                        problems.add("binary archive is out of date");
+                    }
+                } else {
+                    for (final Iterator iter = arc.invalidEntries().iterator(); iter
+                            .hasNext();) {
+                        final Archive.Entry entry = (Archive.Entry) iter.next();
+                        problems.add("checksum mismatch for entry '"
+                                + entry.getName() + "'");
+                    }
+                }
+                return problems;
+            }
+        });
+        this.archiveChecks.add(new Pair(name, check));
+    }
+    
+    /**
+     * Waits for all deferred archive verifications and reports any problems.
+     */
+    private void reportArchiveChecks() {
+        final List checks;
+        synchronized (this.archiveChecks) {
+            checks = new LinkedList(this.archiveChecks);
+            this.archiveChecks.clear();
+        }
+        for (final Iterator iter = checks.iterator(); iter.hasNext();) {
+            final Pair check = (Pair) iter.next();
+            final List problems = (List) await((Future) check.getSecond());
+            for (final Iterator msgs = problems.iterator(); msgs.hasNext();) {
+                out.println("!!! WARNING (FILE) - " + msgs.next() + " in archive \""
+                        + check.getFirst() + "\".");
+            }
+        }
     }
     
     /**
@@ -144,18 +723,23 @@ public class SystreCmdline extends EventSource {
         if (this.name2archive.containsKey(name)) {
             out.println("!!! WARNING (USAGE) - Archive \"" + name + "\" was given twice.");
         } else {
-            final Archive arc = new Archive("1.0");
+            final Archive arc;
             try {
-                arc.addAll(new FileReader(filename));
-            } catch (FileNotFoundException ex) {
-				out.println("!!! ERROR (FILE) - Could not find file \"" + filename
-						+ "\".");
-				return;
-			} catch (Exception ex) {
-				out.println("!!! ERROR (FILE) - " + ex.getMessage()
-						+ " - ignoring archive \"" + filename + "\".");
-				return;
-			}
+                arc = (Archive) loadArchive(filename).get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof FileNotFoundException) {
+                    out.println("!!! ERROR (FILE) - Could not find file \""
+                            + filename + "\".");
+                } else {
+                    out.println("!!! ERROR (FILE) - " + ex.getCause().getMessage()
+                            + " - ignoring archive \"" + filename + "\".");
+                }
+                return;
+            } catch (InterruptedException ex) {
+                out.println("!!! ERROR (FILE) - Interrupted"
+                        + " - ignoring archive \"" + filename + "\".");
+                return;
+            }
             this.name2archive.put(name, arc);
             final int n = arc.size();
             out.println("Read " + n + " entr" + (n == 1 ? "y" : "ies")
@@ -192,6 +776,10 @@ public class SystreCmdline extends EventSource {
         out.println("   " + n + " node" + (n > 1 ? "s" : "") + " and " + m
 				+ " edge" + (m > 1 ? "s" : "") + " in repeat unit as given.");
         out.flush();
+        if (this.record != null) {
+            this.record.field("dimension", d).field("givenGroup", givenGroup);
+            this.record.field("givenNodes", n).field("givenEdges", m);
+        }
 
         // --- test if the net is connected
         if (!G.isConnected()) {
@@ -252,12 +840,24 @@ public class SystreCmdline extends EventSource {
         } else {
             out.println("   Given repeat unit is accurate.");
         }
+        count("nodes", G.numberOfNodes());
+        count("edges", G.numberOfEdges());
+        if (this.record != null) {
+            this.record.field("nodes", G.numberOfNodes());
+            this.record.field("edges", G.numberOfEdges());
+        }
         
         quitIfCancelled();
 
         // --- determine the ideal symmetries
     	status("Computing ideal symmetry group...");
     	
+    	final int maxSyms = getMaxSymmetries();
+    	if (maxSyms > 0 && G.characteristicBases().size() > maxSyms) {
+			final String msg = "Structure has " + G.characteristicBases().size()
+					+ " characteristic bases, more than the limit of " + maxSyms;
+			throw new SystreException(SystreException.LIMIT, msg);
+    	}
         final List ops = G.symmetryOperators();
         if (DEBUG) {
             out.println("\t\t@@@ symmetry operators:");
@@ -267,13 +867,32 @@ public class SystreCmdline extends EventSource {
         }
         out.println("   Point group has " + ops.size() + " elements.");
         out.flush();
+        if (this.statistics != null) {
+            count("characteristic bases", G.characteristicBases().size());
+            count("symmetries", G.symmetries().size());
+        }
         final int k = Iterators.size(G.nodeOrbits());
         out.println("   " + k + " kind" + (k > 1 ? "s" : "") + " of node.");
+        if (this.record != null) {
+            this.record.field("pointGroupOrder", ops.size());
+            this.record.field("nodeKinds", k);
+        }
         out.println();
         out.flush();
         
         quitIfCancelled();
         
+        // --- in topology-first mode, identify the net before anything else
+        //     and stop here if it is known, unless an embedding was requested
+        final boolean topologyFirst = getTopologyFirst();
+        final boolean isNew = topologyFirst && identifyNet(G, name, null);
+        if (topologyFirst && !isNew
+                && !(getEmbedKnown() && getComputeEmbedding())) {
+            out.println("   Skipping the remaining steps for this known net.");
+            out.flush();
+            return;
+        }
+        
         // --- name node orbits according to input names
         status("Mapping node names...");
         
@@ -336,11 +955,18 @@ public class SystreCmdline extends EventSource {
         out.println("   Coordination sequences:");
         int cum = 0;
         boolean cs_complete = true;
+        if (this.record != null) {
+            this.record.beginArray("coordinationSequences");
+        }
         for (final Iterator orbits = G.nodeOrbits(); orbits.hasNext();) {
             final Set orbit = (Set) orbits.next();
             final INode v = (INode) orbit.iterator().next();
             out.print("      Node " + Strings.parsable((String) node2name.get(v), false)
 					+ ":   ");
+            if (this.record != null) {
+                this.record.beginObject().field("node", (String) node2name.get(v));
+                this.record.beginArray("sequence");
+            }
             final List givenCS = (List) orbit2cs.get(orbit);
             final Iterator cs = G.coordinationSequence(v);
             cs.next();
@@ -349,6 +975,9 @@ public class SystreCmdline extends EventSource {
             for (int i = 0; i < 10; ++i) {
             	final int x = ((Integer) cs.next()).intValue();
                 out.print(" " + x);
+                if (this.record != null) {
+                    this.record.value(x);
+                }
                 out.flush();
                 sum += x;
                 if (givenCS != null && i < givenCS.size()) {
@@ -363,6 +992,9 @@ public class SystreCmdline extends EventSource {
                 }
             }
             out.println();
+            if (this.record != null) {
+                this.record.endArray().endObject();
+            }
             cum += orbit.size() * sum;
             if (mismatch) {
         		final String msg = "Computed CS does not match input";
@@ -370,10 +1002,16 @@ public class SystreCmdline extends EventSource {
             }
         }
         out.println();
+        if (this.record != null) {
+            this.record.endArray();
+        }
         if (cs_complete) {
             out.println("   TD10 = "
                     + fmtReal4.format(((double) cum) / G.numberOfNodes()));
             out.println();
+            if (this.record != null) {
+                this.record.field("td10", ((double) cum) / G.numberOfNodes());
+            }
         }
         out.flush();
         
@@ -386,6 +1024,10 @@ public class SystreCmdline extends EventSource {
         final SpaceGroupFinder finder = new SpaceGroupFinder(group);
         final String groupName = finder.getGroupName();
         final String extendedGroupName = finder.getExtendedGroupName();
+        this.currentGroup = groupName;
+        if (this.record != null) {
+            this.record.field("spaceGroup", groupName);
+        }
         final CoordinateChange toStd = finder.getToStd();
         out.println("   Ideal space group is " + groupName + ".");
         final String givenName = SpaceGroupCatalogue.normalizedName(givenGroup);
@@ -423,7 +1065,7 @@ public class SystreCmdline extends EventSource {
             final String msg = "Produced non-conventional space group setting.";
             throw new RuntimeException(msg);
         }
-        final Set conventionalOps = new SpaceGroup(d, extendedGroupName)
+        final Set conventionalOps = SpaceGroup.fromCatalogue(d, extendedGroupName)
 				.primitiveOperators();
         final Set opsFound = new HashSet();
         opsFound.addAll(ops);
@@ -447,9 +1089,39 @@ public class SystreCmdline extends EventSource {
         quitIfCancelled();
         
         // --- determine the Systre key and look it up in the archives
+        if (!topologyFirst) {
+            identifyNet(G, name, finder.getGroupName());
+        } else if (isNew && getNearestNets() > 0 && this.useBuiltinArchive) {
+            writeNearestNets(G, finder.getGroupName());
+        }
+        
+        // --- compute an embedding
+        if (getComputeEmbedding()) {
+        	embedGraph(G, name, node2name, finder);
+        } else {
+        	setLastStructure(new ProcessedNet(G, name, node2name, finder, null));
+        }
+    }
+
+    /**
+     * Computes the Systre key for a net, looks it up in the archives and
+     * among the structures seen so far, and stores it if the net is new.
+     * 
+     * @param G the net, given as its minimal image.
+     * @param name the name to use for archiving.
+     * @param groupName the space group name for listing nearest nets, or null.
+     * @return true if the net was not found.
+     */
+    private boolean identifyNet(final PeriodicGraph G, final String name,
+            final String groupName) {
     	status("Computing the unique invariant (a.k.a. Systre key) for this net...");
     	
-        final String invariant = G.getSystreKey();
+        final SystreKey packedKey = G.getPackedSystreKey();
+        final String invariant = packedKey.toString();
+        this.currentKey = invariant;
+        if (this.record != null) {
+            this.record.field("key", invariant);
+        }
         if (getOutputSystreKey()) {
         	out.println("   Systre key: \"" + invariant + "\"");
         }
@@ -457,18 +1129,27 @@ public class SystreCmdline extends EventSource {
         status("Looking for isomorphic nets...");
     	
         int countMatches = 0;
+        final int firstMatch = this.currentMatches.size();
         Archive.Entry found = null;
         if (this.useBuiltinArchive) {
-            found = builtinArchive.getByKey(invariant);
+            // --- the archives may still be loading
+            pauseTimeLimit();
+            builtinArchive();
+            zeoliteArchive();
+            resumeTimeLimit();
+            
+            found = builtinArchive().getByKey(packedKey);
             if (found != null) {
                 ++countMatches;
+                this.currentMatches.add(new Pair("RCSR", found.getName()));
                 out.println("   Structure was identified with RCSR symbol:");
                 writeEntry(out, found);
                 out.println();
             }
-            found = zeoliteArchive.getByKey(invariant);
+            found = zeoliteArchive().getByKey(packedKey);
             if (found != null) {
                 ++countMatches;
+                this.currentMatches.add(new Pair("zeolites", found.getName()));
                 out.println("   Structure was identified as zoelite framework type:");
                 writeEntry(out, found);
                 out.println();
@@ -477,15 +1158,37 @@ public class SystreCmdline extends EventSource {
         for (Iterator iter = this.name2archive.keySet().iterator(); iter.hasNext();) {
             final String arcName = (String) iter.next();
             final Archive arc = (Archive) this.name2archive.get(arcName);
-            found = arc.getByKey(invariant);
+            found = arc.getByKey(packedKey);
             if (found != null) {
                 ++countMatches;
+                this.currentMatches.add(new Pair(arcName, found.getName()));
                 out.println("   Structure was found in archive \"" + arcName + "\":");
                 writeEntry(out, found);
                 out.println();
             }
         }
-        found = this.internalArchive.getByKey(invariant);
+        count("archives searched", (this.useBuiltinArchive ? 3 : 1)
+                + this.name2archive.size());
+        // --- the test and the insertion are atomic, so that concurrent runs
+        //     never store the same net twice; in parallel mode, workers take
+        //     turns here in input order, so that the results are as in serial
+        //     mode
+        awaitArchiveTurn();
+        final String arcName = name == null ? "nameless" : name;
+        boolean seenKey = false;
+        boolean seenName = false;
+        Archive.Entry entry = null;
+        if (countMatches == 0) {
+            seenKey = this.internalArchive.get(invariant) != null;
+            seenName = this.internalArchive.get(arcName) != null;
+            entry = new Archive.Entry(packedKey, G.invariantVersion, arcName);
+            found = this.internalArchive.putIfAbsent(entry);
+            if (found == null) {
+                this.newEntries.add(entry);
+            }
+        } else {
+            found = this.internalArchive.getByKey(packedKey);
+        }
         if (found != null) {
             if (this.duplicateIsError) {
 				final String msg = "Duplicates structure "
@@ -493,50 +1196,73 @@ public class SystreCmdline extends EventSource {
 				throw new SystreException(SystreException.INPUT, msg);
 			}
             ++countMatches;
+            this.currentMatches.add(new Pair("seen", found.getName()));
             out.println("   Structure already seen in this run.");
             writeEntry(out, found);
             out.println();
         }
-        final String arcName = name == null ? "nameless" : name;
         if (countMatches == 0) {
         	status("Storing the Systre key for this net...");
         	
             out.println("   Structure is new for this run.");
             out.println();
-			if (this.internalArchive.get(invariant) != null) {
+            if (groupName != null && getNearestNets() > 0
+                    && this.useBuiltinArchive) {
+                writeNearestNets(G, groupName);
+            }
+			if (seenKey) {
                 final String msg = "!!! WARNING (ARCHIVE) - "
                 	+ "Overwriting previous isomorphic net.";
                 out.println(msg);
                 out.println();
 			}
-			if (this.internalArchive.get(arcName) != null) {
+			if (seenName) {
                 final String msg = "!!! WARNING (ARCHIVE) - "
                 	+ "Overwriting previous net with the same name";
                 out.println(msg);
                 out.println();
 			}
-            final Archive.Entry entry = this.internalArchive.add(G, arcName);
             if (this.outputArchive != null) {
                 try {
-                    this.outputArchive.write(entry.toString());
-                    this.outputArchive.write("\n");
-				this.outputArchive.flush();
+                    this.outputArchive.write(entry);
                 } catch (IOException ex) {
 					final String msg = "Could not write to archive";
 					throw new SystreException(SystreException.FILE, msg);
 				}
             }
         }
+        passArchiveTurn();
+        count("archive matches", countMatches);
+        if (this.record != null) {
+            this.record.beginArray("matches");
+            for (final Iterator iter = this.currentMatches.listIterator(firstMatch); iter
+                    .hasNext();) {
+                final Pair match = (Pair) iter.next();
+                this.record.beginObject();
+                this.record.field("archive", (String) match.getFirst());
+                this.record.field("name", (String) match.getSecond());
+                this.record.endObject();
+            }
+            this.record.endArray();
+            this.record.field("new", countMatches == 0);
+        }
+        if (this.topologies != null) {
+            String knownAs = null;
+            for (final Iterator iter = this.currentMatches.listIterator(firstMatch); iter
+                    .hasNext();) {
+                final Pair match = (Pair) iter.next();
+                if (!match.getFirst().equals("seen")) {
+                    knownAs = match.getSecond() + " (" + match.getFirst() + ")";
+                    break;
+                }
+            }
+            this.topologies.add(new Topology(invariant, arcName, knownAs));
+        }
         out.flush();
         
         quitIfCancelled();
         
-        // --- compute an embedding
-        if (getComputeEmbedding()) {
-        	embedGraph(G, name, node2name, finder);
-        } else {
-        	setLastStructure(new ProcessedNet(G, name, node2name, finder, null));
-        }
+        return countMatches == 0;
     }
 
     /**
@@ -552,21 +1278,42 @@ public class SystreCmdline extends EventSource {
 		out.println();
 		out.println("   ==========");
 		final List components = graph.connectedComponents();
-		for (int i = 1; i <= components.size(); ++i) {
-			final PeriodicGraph.Component c = (PeriodicGraph.Component) components
-					.get(i-1);
-			out.println("   Processing component " + i + ":");
-			if (c.getDimension() < graph.getDimension()) {
-				out.println("      dimension = " + c.getDimension());
-			} else {
-				out.println("      multiplicity = " + c.getMultiplicity());
+		final boolean held = this.holdArchiveTurn;
+		this.holdArchiveTurn = true;
+		if (this.record != null) {
+			this.record.beginArray("components");
+		}
+		try {
+			for (int i = 1; i <= components.size(); ++i) {
+				final PeriodicGraph.Component c = (PeriodicGraph.Component) components
+						.get(i-1);
+				out.println("   Processing component " + i + ":");
+				if (this.record != null) {
+					this.record.beginObject().field("component", i);
+				}
+				if (c.getDimension() < graph.getDimension()) {
+					out.println("      dimension = " + c.getDimension());
+				} else {
+					out.println("      multiplicity = " + c.getMultiplicity());
+					if (this.record != null) {
+						this.record.field("multiplicity", c.getMultiplicity().longValue());
+					}
+				}
+				final String cName = name + "_component_" + i;
+				processGraph(new Net(c.getGraph(), cName, "P1"), cName, false);
+				if (this.record != null) {
+					this.record.endObject();
+				}
+				out.println();
+				out.println("   Finished component " + i + ".");
+				out.println();
+				out.println("   ==========");
 			}
-			final String cName = name + "_component_" + i;
-			processGraph(new Net(c.getGraph(), cName, "P1"), cName, false);
-			out.println();
-			out.println("   Finished component " + i + ".");
-			out.println();
-			out.println("   ==========");
+			if (this.record != null) {
+				this.record.endArray();
+			}
+		} finally {
+			this.holdArchiveTurn = held;
 		}
 	}
 
@@ -586,17 +1333,32 @@ public class SystreCmdline extends EventSource {
     private void embedGraph(final PeriodicGraph G, final String name,
 			final Map node2name, final SpaceGroupFinder finder) {
 
+    	int stepsUsed = 0;
     	for (int pass = 0; pass <= 1; ++pass) {
         	status("Computing an embedding...");
         	
-            // --- relax the structure from the barycentric embedding
+            // --- relax the structure from a cached or the barycentric embedding
             Embedder embedder = new Embedder(G);
+            boolean warmStart = false;
+            if (this.relaxStepBudget > 0) {
+            	embedder.setStepLimit(Math.max(1, this.relaxStepBudget - stepsUsed));
+            }
             try {
-                embedder.setRelaxPositions(false);
-                embedder.go(500);
-                embedder.setRelaxPositions(relaxPositions && pass == 0);
+                warmStart = pass == 0 && relaxPositions
+                        && this.embeddingCache != null
+                        && this.embeddingCache.restore(embedder);
                 embedder.setPasses(this.relaxPasses);
-                embedder.go(relaxSteps);
+                if (warmStart) {
+                    embedder.setRelaxPositions(true);
+                    embedder.polish(warmStartSteps);
+                } else {
+                    embedder.setRelaxPositions(false);
+                    embedder.go(500);
+                    embedder.setRelaxPositions(relaxPositions && pass == 0);
+                    embedder.go(relaxSteps);
+                }
+            } catch (TaskStoppedException ex) {
+            	throw ex;
             } catch (Exception ex) {
                 out.println("==================================================");
                 final String msg = "!!! WARNING (INTERNAL) - Could not relax - ";
@@ -605,6 +1367,13 @@ public class SystreCmdline extends EventSource {
                 out.println("==================================================");
                 embedder.reset();
             }
+            count("relaxation steps", embedder.stepsPerformed());
+            stepsUsed += embedder.stepsPerformed();
+            if (embedder.stepLimitReached()) {
+				final String msg = "Relaxation step budget of "
+						+ this.relaxStepBudget + " exhausted";
+				throw new SystreException(SystreException.LIMIT, msg);
+            }
             embedder.normalize();
             
             quitIfCancelled();
@@ -677,12 +1446,20 @@ public class SystreCmdline extends EventSource {
                 
                 quitIfCancelled();
                 
+            } catch (TaskStoppedException ex) {
+            	throw ex;
             } catch (Exception ex) {
+            	if (timeLimitExpired()) {
+            		throw timeLimitExceeded();
+            	}
                 if (DEBUG) {
                     out.println("\t\t@@@ Failing output:");
                     out.println(cgdString);
                 }
                 if (pass == 0) {
+                    if (warmStart) {
+                        this.embeddingCache.remove(G.getSystreKey());
+                    }
                     if (relaxPositions) {
                         out.println("   Falling back to barycentric positions.");
                     }
@@ -697,9 +1474,21 @@ public class SystreCmdline extends EventSource {
             
             // --- now write the actual output
             if (success) {
+            	// --- the output is complete or not written at all
+            	if (this.structureTimeLimit != null) {
+            		this.structureTimeLimit.stop();
+            	}
             	status("Writing output...");
                 net.writeEmbedding(new PrintWriter(out), false, getOutputFullCell());
                 net.setVerified(true);
+                if (this.record != null) {
+                    this.record.beginObject("embedding");
+                    net.writeEmbedding(this.record, getOutputFullCell());
+                    this.record.endObject();
+                }
+                if (this.embeddingCache != null && embedder.positionsRelaxed()) {
+                    this.embeddingCache.store(embedder);
+                }
                 status("Done!");
                 break;
             }
@@ -715,92 +1504,534 @@ public class SystreCmdline extends EventSource {
     public void processDataFile(final String filePath) {
         // --- set up a parser for reading input from the given file
         Iterator inputs = null;
-        int count = 0;
+        // --- when resuming, skip the structures completed previously
+        final int skip = this.checkpoint == null ? 0 : this.checkpoint
+                .completed(filePath);
+        int count = skip;
         try {
-            inputs = Net.iterator(filePath);
+            // --- in parallel mode, nets are also read by several threads
+            inputs = Net.iterator(filePath, skip, this.workers == null ? 1
+                    : getThreads());
         } catch (FileNotFoundException ex) {
             out.println("!!! ERROR (FILE) - Could not find file \"" + filePath + "\".");
             return;
+        } catch (DataFormatException ex) {
+            out.println("!!! ERROR (FILE) - Could not skip to structure #"
+                    + (skip + 1) + " in \"" + filePath + "\" - " + ex.getMessage());
+            return;
         } catch (Net.IllegalFileNameException ex) {
             out.println("!!! ERROR (FILE) - " + ex.getMessage());
         }
+        this.lastFilePath = filePath;
         this.lastFileNameWithoutExtension = new File(filePath).getName().replaceFirst(
                 "\\..*$", "");
         out.println("Data file \"" + filePath + "\".");
+        if (skip > 0) {
+            out.println("Resuming after structure #" + skip + ".");
+        }
         
-        // --- loop through the structures specified in the input file
-        while (inputs.hasNext()) {
-            Net G = null;
-            Exception problem = null;
+        // --- loop through the structures specified in the input file; in
+        //     parallel mode, structures are read here, processed by the
+        //     workers and their output is written in input order
+        final Turnstile turnstile = new Turnstile(skip + 1);
+        final LinkedList results = new LinkedList();
+        try {
+            while (inputs.hasNext()) {
+                Net G = null;
+                Exception problem = null;
             
-            // --- read the next net
-            status("Reading...");
+                // --- read the next net
+                final StageStatistics stats = timingsEnabled() ? new StageStatistics()
+                        : null;
+                this.statistics = stats;
+                status("Reading...");
+                try {
+                    G = (Net) inputs.next();
+                } catch (Exception ex) {
+                    problem = ex;
+                }
+                ++count;
+                if (stats != null) {
+                    stats.end();
+                }
+                this.statistics = null;
+            
+                if (this.workers == null) {
+                    processStructure(G, problem, count, stats);
+                    recordStatistics(stats, count, this.lastStructureName);
+                    recordResult(this.currentRecord);
+                    recordTopologies(this.topologies, count);
+                    recordProgress(count, this.newEntries);
+                } else {
+                    results.addLast(submitStructure(G, problem, count, stats,
+                            turnstile));
+                    writeResults(results, 4 * getThreads());
+                }
+            }
+            writeResults(results, 0);
+        } finally {
+            if (inputs instanceof ParallelIterator) {
+                ((ParallelIterator) inputs).close();
+            }
+        }
+        if (this.checkpoint != null) {
             try {
-                G = (Net) inputs.next();
-            } catch (Exception ex) {
-                problem = ex;
+                this.checkpoint.sync();
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not write checkpoint: "
+                        + ex.getMessage());
+                this.checkpoint = null;
             }
-            ++count;
-            
-            // --- some blank lines as separators
+        }
+
+        out.println();
+        out.println("Finished data file \"" + filePath + "\".");
+    }
+    
+    /**
+     * Processes a single structure read from a data file and prints the
+     * results, including any errors.
+     * 
+     * @param G the structure or null if it could not be read.
+     * @param problem the error that occurred while reading, or null.
+     * @param count the running number of the structure in its file.
+     * @param stats collects timings and counters, or null.
+     */
+    void processStructure(final Net G, Exception problem, final int count,
+            final StageStatistics stats) {
+        this.statistics = stats;
+        this.currentKey = null;
+        this.currentGroup = null;
+        this.currentMatches = new LinkedList();
+        this.currentError = null;
+        this.newEntries = new LinkedList();
+        this.topologies = getTopologyFirst() ? new LinkedList() : null;
+        final StringWriter recordText;
+        if (getJsonOutputFile() != null) {
+            recordText = new StringWriter();
+            this.record = new JSONWriter(recordText);
+        } else {
+            recordText = null;
+            this.record = null;
+        }
+        
+
+        // --- some blank lines as separators
+        out.println();
+        if (count > 1) {
             out.println();
-            if (count > 1) {
-                out.println();
-                out.println();
+            out.println();
+        }
+        
+        // --- process the graph
+        String name = null;
+        try {
+            name = G.getName();
+        } catch (Exception ex) {
+            if (problem == null) {
+                problem = ex;
+            }
+        }
+        if (problem == null && !G.isOk()) {
+        	problem = (Exception) G.getErrors().next();
+        }
+        final String archiveName;
+        final String displayName;
+        if (name == null) {
+            archiveName = lastFileNameWithoutExtension + "-#" + count;
+            displayName = "";
+        } else {
+            archiveName = name;
+            displayName = Strings.parsable(name, true);
+        }
+        this.lastStructureName = name;
+        if (this.record != null) {
+            this.record.beginObject();
+            this.record.field("file", this.master.lastFilePath);
+            this.record.field("structure", count).field("name", name);
+        }
+        
+        out.println("Structure #" + count + " - " + displayName + ".");
+        out.println();
+        if (problem != null) {
+        	if (problem instanceof DataFormatException) {
+        		this.currentError = problem;
+                out.println("==================================================");
+        		out.println("!!! ERROR (INPUT) - " + problem.getMessage());
+        		reportErrorLocation(count, displayName);
+                out.println("==================================================");
+        	} else {
+        		reportError(problem, count, displayName);
+        	}
+        } else {
+            if (getTimeLimit() > 0) {
+                this.structureTimeLimit = new TimeLimit(getTimeLimit() * 1000L);
             }
-            
-            // --- process the graph
-            String name = null;
             try {
-                name = G.getName();
+                processGraph(G, archiveName, true);
+            } catch (TaskStoppedException ex) {
+                if (timeLimitExpired()) {
+                    reportSystreError(timeLimitExceeded(), count, displayName);
+                } else {
+                    reportSystreError(new SystreException(SystreException.CANCELLED,
+                            "Execution stopped for this structure"), count,
+                            displayName);
+                }
+            } catch (SystreException ex) {
+                reportSystreError(ex, count, displayName);
             } catch (Exception ex) {
-                if (problem == null) {
-                    problem = ex;
+            	reportError(ex, count, displayName);
+            } finally {
+                if (this.structureTimeLimit != null) {
+                    this.structureTimeLimit.stop();
+                    this.structureTimeLimit = null;
                 }
             }
-            if (problem == null && !G.isOk()) {
-            	problem = (Exception) G.getErrors().next();
+        }
+        if (stats != null) {
+            stats.end();
+            this.statistics = null;
+            if (getShowTimings()) {
+                out.println();
+                stats.write(out, "   ");
             }
-            final String archiveName;
-            final String displayName;
-            if (name == null) {
-                archiveName = lastFileNameWithoutExtension + "-#" + count;
-                displayName = "";
+        }
+        out.println();
+			out.println("Finished structure #" + count + " - " + displayName + ".");
+        
+        if (this.record != null) {
+            // --- close whatever was left open by an interrupted step
+            this.record.closeTo(1);
+            final Throwable error = this.currentError;
+            if (error == null) {
+                this.record.field("status", "ok");
             } else {
-                archiveName = name;
-                displayName = Strings.parsable(name, true);
+                this.record.field("status", "error");
+                this.record.beginArray("errors").beginObject();
+                this.record.field("type", errorType(error));
+                this.record.field("message", error.getMessage());
+                this.record.endObject().endArray();
             }
-            
-            out.println("Structure #" + count + " - " + displayName + ".");
-            out.println();
-            if (problem != null) {
-            	if (problem instanceof DataFormatException) {
-                    out.println("==================================================");
-            		out.println("!!! ERROR (INPUT) - " + problem.getMessage());
-            		reportErrorLocation(count, displayName);
-                    out.println("==================================================");
-            	} else {
-            		reportError(problem, count, displayName);
-            	}
-            } else {
+            this.record.endObject();
+            this.record.flush();
+            this.currentRecord = recordText.toString();
+            this.record = null;
+        }
+    }
+    
+    /**
+     * @param error an error that stopped the processing of a structure.
+     * @return the error type as used in the output.
+     */
+    static String errorType(final Throwable error) {
+        if (error instanceof SystreException) {
+            return ((SystreException) error).getType().toString();
+        } else if (error instanceof DataFormatException) {
+            return "INPUT";
+        } else {
+            return "INTERNAL";
+        }
+    }
+    
+    /**
+     * Hands a structure to a new worker in parallel mode.
+     * 
+     * @param G the structure or null if it could not be read.
+     * @param problem the error that occurred while reading, or null.
+     * @param count the running number of the structure in its file.
+     * @param stats collects timings and counters, or null.
+     * @param turnstile orders the archive updates for the current file.
+     * @return a future for the worker's results.
+     */
+    private Future submitStructure(final Net G, final Exception problem,
+            final int count, final StageStatistics stats, final Turnstile turnstile) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final SystreCmdline worker = new SystreCmdline(this, new PrintStream(
+                buffer), this.internalArchive, turnstile, count);
+        return this.workers.submit(new Callable() {
+            public Object call() throws Exception {
                 try {
-                    processGraph(G, archiveName, true);
-                } catch (SystreException ex) {
-                    out.println("==================================================");
-                    out.println("!!! ERROR (" + ex.getType() + ") - " + ex.getMessage()
-							+ ".");
-            		reportErrorLocation(count, displayName);
-                    out.println("==================================================");
-                } catch (Exception ex) {
-                	reportError(ex, count, displayName);
+                    worker.processStructure(G, problem, count, stats);
+                } finally {
+                    worker.holdArchiveTurn = false;
+                    worker.passArchiveTurn();
                 }
+                worker.out.flush();
+                final Result result = new Result();
+                result.output = buffer;
+                result.net = worker.getLastStructure();
+                result.name = worker.lastStructureName;
+                result.statistics = stats;
+                result.entries = worker.newEntries;
+                result.record = worker.currentRecord;
+                result.topologies = worker.topologies;
+                result.count = count;
+                return result;
             }
+        });
+    }
+    
+    /**
+     * Writes the output of finished workers in input order, waiting for more
+     * workers to finish until at most the given number is left.
+     * 
+     * @param results the futures for the worker outputs in input order.
+     * @param maxPending the number of workers that may be left unfinished.
+     */
+    private void writeResults(final LinkedList results, final int maxPending) {
+        while (results.size() > 0
+                && (results.size() > maxPending || ((Future) results.getFirst())
+                        .isDone())) {
+            final Result result = (Result) await((Future) results.removeFirst());
+            try {
+                result.output.writeTo(out);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            out.flush();
+            setLastStructure(result.net);
+            recordStatistics(result.statistics, result.count, result.name);
+            recordResult(result.record);
+            recordTopologies(result.topologies, result.count);
+            recordProgress(result.count, result.entries);
+        }
+    }
+    
+    /**
+     * Writes the structured results for a structure as a line of JSON, if
+     * requested.
+     * 
+     * @param record the results as a JSON object.
+     */
+    private void recordResult(final String record) {
+        if (this.jsonOutput != null && record != null) {
+            try {
+                this.jsonOutput.write(record);
+                this.jsonOutput.write("\n");
+                this.jsonOutput.flush();
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not write JSON output: "
+                        + ex.getMessage());
+                this.jsonOutput = null;
+            }
+        }
+    }
+    
+    /**
+     * Adds the nets identified for a structure to the duplicates report.
+     * 
+     * @param list the nets identified, or null.
+     * @param count the running number of the structure in its file.
+     */
+    private void recordTopologies(final List list, final int count) {
+        if (list == null) {
+            return;
+        }
+        for (final Iterator iter = list.iterator(); iter.hasNext();) {
+            final Topology t = (Topology) iter.next();
+            DuplicateGroup group = (DuplicateGroup) this.duplicateGroups.get(t.key);
+            if (group == null) {
+                group = new DuplicateGroup(t.knownAs);
+                this.duplicateGroups.put(t.key, group);
+            }
+            group.members.add("#" + count + " - " + Strings.parsable(t.name, true)
+                    + " in \"" + this.lastFilePath + "\"");
+            ++this.identifiedStructures;
+        }
+    }
+    
+    /**
+     * Lists the nets that occurred more than once in topology-first mode.
+     */
+    private void reportDuplicates() {
+        if (!getTopologyFirst() || this.identifiedStructures == 0) {
+            return;
+        }
+        out.println();
+        out.println();
+        out.println();
+        out.println("Duplicate nets:");
+        int duplicates = 0;
+        for (final Iterator iter = this.duplicateGroups.values().iterator(); iter
+                .hasNext();) {
+            final DuplicateGroup group = (DuplicateGroup) iter.next();
+            final int n = group.members.size();
+            if (n < 2) {
+                continue;
+            }
+            duplicates += n - 1;
             out.println();
-			out.println("Finished structure #" + count + " - " + displayName + ".");
+            out.println("   " + (group.knownAs == null ? "Unknown net" : group.knownAs)
+                    + " - " + n + " structures:");
+            for (final Iterator members = group.members.iterator(); members
+                    .hasNext();) {
+                out.println("      " + members.next());
+            }
         }
-
         out.println();
-        out.println("Finished data file \"" + filePath + "\".");
+        out.println("   " + this.identifiedStructures + " nets identified, "
+                + this.duplicateGroups.size() + " distinct, " + duplicates
+                + " duplicate" + (duplicates == 1 ? "" : "s") + ".");
+    }
+    
+    /**
+     * Records the completion of a structure in the checkpoint file, if one
+     * is used.
+     * 
+     * @param count the running number of the structure in its file.
+     * @param entries the archive entries created for the structure.
+     */
+    private void recordProgress(final int count, final List entries) {
+        if (this.checkpoint != null) {
+            try {
+                this.checkpoint.structureDone(this.lastFilePath, count, entries);
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not write checkpoint: "
+                        + ex.getMessage());
+                this.checkpoint = null;
+            }
+        }
+    }
+    
+    /**
+     * @return true if timings and counters are to be collected.
+     */
+    private boolean timingsEnabled() {
+        return getShowTimings() || this.timingsWriter != null;
+    }
+    
+    /**
+     * Adds the timings and counters for a structure to the summary and writes
+     * them to the JSON file, if one was requested.
+     * 
+     * @param stats the timings and counters, or null.
+     * @param count the running number of the structure in its file.
+     * @param name the name of the structure, or null.
+     */
+    private void recordStatistics(final StageStatistics stats, final int count,
+            final String name) {
+        if (stats == null) {
+            return;
+        }
+        if (this.statisticsSummary == null) {
+            this.statisticsSummary = new StageStatistics();
+        }
+        this.statisticsSummary.add(stats);
+        ++this.timedStructures;
+        
+        // --- keep the slowest structures by wall clock time
+        final String label = "#" + count
+                + (name == null ? "" : " - " + Strings.parsable(name, true))
+                + " in \"" + this.lastFilePath + "\"";
+        final Long wall = new Long(stats.getWallTime());
+        int i = 0;
+        for (final Iterator iter = this.slowestStructures.iterator(); iter
+                .hasNext(); ++i) {
+            if (((Long) ((Pair) iter.next()).getFirst()).longValue() < wall
+                    .longValue()) {
+                break;
+            }
+        }
+        this.slowestStructures.add(i, new Pair(wall, label));
+        if (this.slowestStructures.size() > 10) {
+            this.slowestStructures.remove(10);
+        }
+        
+        if (this.timingsWriter != null) {
+            try {
+                this.timingsWriter.write((this.timedStructures > 1 ? ",\n" : "")
+                        + "    {\"file\": " + Strings.jsonQuoted(this.lastFilePath)
+                        + ", \"structure\": " + count + ", \"name\": "
+                        + (name == null ? "null" : Strings.jsonQuoted(name)) + ", "
+                        + stats.toJSONFields() + "}");
+                this.timingsWriter.flush();
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not write timings: "
+                        + ex.getMessage());
+                this.timingsWriter = null;
+            }
+        }
+    }
+    
+    /**
+     * Prints the accumulated timings and counters and completes the JSON
+     * file, if one was requested.
+     */
+    private void reportStatistics() {
+        final StageStatistics summary = this.statisticsSummary;
+        if (summary != null && getShowTimings()) {
+            final int n = this.timedStructures;
+            out.println();
+            out.println();
+            out.println();
+            out.println("Timing summary for " + n + " structure" + (n > 1 ? "s" : "")
+                    + ":");
+            out.println();
+            summary.write(out, "   ");
+            out.println();
+            out.println("   Slowest structures (milliseconds wall):");
+            final DecimalFormat fmt = new DecimalFormat("0.0");
+            for (final Iterator iter = this.slowestStructures.iterator(); iter
+                    .hasNext();) {
+                final Pair item = (Pair) iter.next();
+                final String wall = fmt.format(((Long) item.getFirst())
+                        .longValue() / 1e6);
+                out.println("           ".substring(Math.min(10, wall.length()))
+                        + wall + "   " + item.getSecond());
+            }
+        }
+        if (this.timingsWriter != null) {
+            try {
+                this.timingsWriter.write((this.timedStructures > 0 ? "\n" : "")
+                        + "  ],\n  \"summary\": {\"structures\": "
+                        + this.timedStructures
+                        + (summary == null ? "" : ", " + summary.toJSONFields())
+                        + "}\n}\n");
+                this.timingsWriter.close();
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not write timings: "
+                        + ex.getMessage());
+            }
+            this.timingsWriter = null;
+        }
+    }
+    
+    /**
+     * In parallel mode, waits until all structures before the current one
+     * have been entered into the archive of structures seen.
+     */
+    private void awaitArchiveTurn() {
+        if (this.turnstile != null) {
+            pauseTimeLimit();
+            this.turnstile.await(this.ticket);
+            resumeTimeLimit();
+        }
+    }
+    
+    /**
+     * Stops the clock for the current structure's time limit, if any, while
+     * waiting for things the structure is not responsible for.
+     */
+    private void pauseTimeLimit() {
+        if (this.structureTimeLimit != null) {
+            this.structureTimeLimit.pause();
+        }
+    }
+    
+    private void resumeTimeLimit() {
+        if (this.structureTimeLimit != null) {
+            this.structureTimeLimit.resume();
+        }
+    }
+    
+    /**
+     * In parallel mode, lets the next structure access the archive of
+     * structures seen, unless the current one needs it further.
+     */
+    private void passArchiveTurn() {
+        if (this.turnstile != null && !this.holdArchiveTurn) {
+            this.turnstile.pass(this.ticket);
+        }
     }
     
     /**
@@ -811,6 +2042,7 @@ public class SystreCmdline extends EventSource {
      * @param name the name of the graph.
      */
     private void reportError(final Throwable ex, final int count, final String name) {
+        this.currentError = ex;
         out.println("==================================================");
         out.println("!!! ERROR (INTERNAL) - Unexpected " + ex.getClass().getName() + ": "
 				+ ex.getMessage());
@@ -820,6 +2052,31 @@ public class SystreCmdline extends EventSource {
         out.println("==================================================");
     }
     
+    /**
+     * Reports an error signalled by a {@link SystreException}. If a time or
+     * resource limit was hit, the Systre key is also reported if it was
+     * already determined.
+     * 
+     * @param ex the exception thrown.
+     * @param count the running number of the graph in the current file.
+     * @param name the name of the graph.
+     */
+    private void reportSystreError(final SystreException ex, final int count,
+            final String name) {
+        this.currentError = ex;
+        out.println("==================================================");
+        out.println("!!! ERROR (" + ex.getType() + ") - " + ex.getMessage() + ".");
+        reportErrorLocation(count, name);
+        if (ex.getType() == SystreException.TIMEOUT
+                || ex.getType() == SystreException.LIMIT) {
+            out.println("!!!    Skipping the remaining steps for this structure.");
+            if (this.currentKey != null && !getOutputSystreKey()) {
+                out.println("!!!    Systre key: \"" + this.currentKey + "\"");
+            }
+        }
+        out.println("==================================================");
+    }
+    
     private void reportErrorLocation(final int count, final String name) {
         out.println("!!!    In structure #" + count + " - " + name + ".");
         out.println("!!!    Last status: " + this.lastStatus);
@@ -842,7 +2099,7 @@ public class SystreCmdline extends EventSource {
      * @throws IOException if writing to the stream did not work.
      */
     public int writeBuiltinArchive(final Writer writer) throws IOException {
-    	return writeArchive(writer, this.builtinArchive);
+    	return writeArchive(writer, builtinArchive());
     }
     
     private int writeArchive(final Writer writer, final Archive archive)
@@ -867,6 +2124,9 @@ public class SystreCmdline extends EventSource {
         final List files = new LinkedList();
         final List archives = new LinkedList();
         boolean archivesAsInput = false;
+        boolean resume = false;
+        boolean serve = false;
+        int port = 0;
         String outputArchiveFileName = null;
         
         for (int i = 0; i < args.length; ++i) {
@@ -877,6 +2137,12 @@ public class SystreCmdline extends EventSource {
                 setRelaxPositions(false);
             } else if (s.equals("-d")) {
             	setDuplicateIsError(true);
+            } else if (s.equalsIgnoreCase("--topologyFirst")
+                    || s.equalsIgnoreCase("-topologyFirst")) {
+                setTopologyFirst(true);
+            } else if (s.equalsIgnoreCase("--embedKnown")
+                    || s.equalsIgnoreCase("-embedKnown")) {
+                setEmbedKnown(true);
             } else if (s.equals("-a")) {
                 if (i == args.length - 1) {
                     out.println("!!! WARNING (USAGE) - Argument missing for \""
@@ -884,12 +2150,121 @@ public class SystreCmdline extends EventSource {
                 } else {
                     outputArchiveFileName = args[++i];
                 }
+            } else if (s.equalsIgnoreCase("--archiveBatchSize")
+                    || s.equalsIgnoreCase("-archiveBatchSize")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setArchiveBatchSize(Integer.parseInt(args[++i]));
+                }
+            } else if (s.equalsIgnoreCase("--archiveFlushInterval")
+                    || s.equalsIgnoreCase("-archiveFlushInterval")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setArchiveFlushInterval(Integer.parseInt(args[++i]));
+                }
+            } else if (s.equalsIgnoreCase("--threads")
+                    || s.equalsIgnoreCase("-threads")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setThreads(Integer.parseInt(args[++i]));
+                }
+            } else if (s.equalsIgnoreCase("--timings")
+                    || s.equalsIgnoreCase("-timings")) {
+                setShowTimings(true);
+            } else if (s.equalsIgnoreCase("--timingsFile")
+                    || s.equalsIgnoreCase("-timingsFile")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setTimingsFile(args[++i]);
+                }
+            } else if (s.equalsIgnoreCase("--jsonOutput")
+                    || s.equalsIgnoreCase("-jsonOutput")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setJsonOutputFile(args[++i]);
+                }
+            } else if (s.equalsIgnoreCase("--timeLimit")
+                    || s.equalsIgnoreCase("-timeLimit")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setTimeLimit(Integer.parseInt(args[++i]));
+                }
+            } else if (s.equalsIgnoreCase("--relaxStepBudget")
+                    || s.equalsIgnoreCase("-relaxStepBudget")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setRelaxStepBudget(Integer.parseInt(args[++i]));
+                }
+            } else if (s.equalsIgnoreCase("--maxSymmetries")
+                    || s.equalsIgnoreCase("-maxSymmetries")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setMaxSymmetries(Integer.parseInt(args[++i]));
+                }
+            } else if (s.equalsIgnoreCase("--checkpoint")
+                    || s.equalsIgnoreCase("-checkpoint")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setCheckpointFile(args[++i]);
+                }
+            } else if (s.equalsIgnoreCase("--resume")
+                    || s.equalsIgnoreCase("-resume")) {
+                resume = true;
+            } else if (s.equalsIgnoreCase("--serve")
+                    || s.equalsIgnoreCase("-serve")) {
+                serve = true;
+                // --- keep standard output free for the responses
+                this.out = System.err;
+            } else if (s.equalsIgnoreCase("--port")
+                    || s.equalsIgnoreCase("-port")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    serve = true;
+                    port = Integer.parseInt(args[++i]);
+                }
             } else if (s.equalsIgnoreCase("--skipEmbedding")
                     || s.equalsIgnoreCase("-skipEmbedding")) {
                 setComputeEmbedding(false);
             } else if (s.equalsIgnoreCase("--noBuiltin")
                     || s.equalsIgnoreCase("-noBuiltin")) {
                 setUseBuiltinArchive(false);
+            } else if (s.equalsIgnoreCase("--trustArchives")
+                    || s.equalsIgnoreCase("-trustArchives")) {
+                setTrustArchives(true);
+            } else if (s.equalsIgnoreCase("--nearest")
+                    || s.equalsIgnoreCase("-nearest")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    final int k = Integer.parseInt(args[++i]);
+                    if (k < 0) {
+                        out.println("!!! WARNING (USAGE) - Argument for \""
+                                + s + "\" must not be negative.");
+                    } else {
+                        setNearestNets(k);
+                    }
+                }
             } else if (s.equalsIgnoreCase("--firstOrigin")
                     || s.equalsIgnoreCase("-firstOrigin")) {
                 SpaceGroupCatalogue.setPreferSecondOrigin(false);
@@ -938,10 +2313,27 @@ public class SystreCmdline extends EventSource {
                 } else {
                     loadOptions(args[++i]);
                 }
+            } else if (s.equalsIgnoreCase("--embeddingCache")
+            		|| s.equalsIgnoreCase("-embeddingCache")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setEmbeddingCacheLocation(args[++i]);
+                }
+            } else if (s.equalsIgnoreCase("--embeddingCacheSize")
+            		|| s.equalsIgnoreCase("-embeddingCacheSize")) {
+                if (i == args.length - 1) {
+                    out.println("!!! WARNING (USAGE) - Argument missing for \""
+                            + s + "\".");
+                } else {
+                    setEmbeddingCacheSize(Integer.parseInt(args[++i]));
+                }
             } else if (s.equals("-x")) {
                 archivesAsInput = !archivesAsInput;
             } else {
-                if (args[i].endsWith(".arc") && !archivesAsInput) {
+                if ((args[i].endsWith(".arc") || args[i].endsWith(".barc"))
+                        && !archivesAsInput) {
                     archives.add(args[i]);
                 } else {
                     files.add(args[i]);
@@ -949,7 +2341,7 @@ public class SystreCmdline extends EventSource {
             }
         }
         
-        if (files.size() == 0) {
+        if (files.size() == 0 && !serve) {
             out.println("!!! WARNING (USAGE) - No file names given.");
         }
         
@@ -958,12 +2350,103 @@ public class SystreCmdline extends EventSource {
         
         if (outputArchiveFileName != null) {
             try {
-                this.outputArchive = new BufferedWriter(new FileWriter(outputArchiveFileName));
+                this.outputArchive = new ArchiveWriter(new File(
+                        outputArchiveFileName), getArchiveBatchSize(),
+                        getArchiveFlushInterval() * 1000L);
+                final int n = this.outputArchive.recoveredEntries().size();
+                if (n > 0) {
+                    out.println("!!! WARNING (FILE) - Recovered " + n + " entr"
+                            + (n == 1 ? "y" : "ies")
+                            + " from an interrupted run in output archive.");
+                }
             } catch (IOException ex) {
                 out.println("!!! ERROR (FILE) - Could not open output archive:" + ex);
             }
         }
         
+        final String checkpointLocation = getCheckpointFile();
+        if (checkpointLocation != null && checkpointLocation.length() > 0) {
+            try {
+                this.checkpoint = new Checkpoint(new File(checkpointLocation),
+                        resume);
+            } catch (Exception ex) {
+                out.println("!!! ERROR (FILE) - Could not use checkpoint file: "
+                        + ex.getMessage());
+            }
+            if (this.checkpoint != null && resume) {
+                // --- restore the structures seen and the output archive
+                for (final Iterator iter = this.checkpoint.entries().iterator(); iter
+                        .hasNext();) {
+                    final Archive.Entry entry = (Archive.Entry) iter.next();
+                    this.internalArchive.putIfAbsent(entry);
+                    if (this.outputArchive != null) {
+                        try {
+                            this.outputArchive.write(entry);
+                        } catch (IOException ex) {
+                            out.println("!!! ERROR (FILE) - Could not write to"
+                                    + " output archive: " + ex.getMessage());
+                        }
+                    }
+                }
+            }
+        } else if (resume) {
+            out.println("!!! WARNING (USAGE) - No checkpoint file given to resume from.");
+        }
+        
+        final String cacheLocation = getEmbeddingCacheLocation();
+        if (cacheLocation != null && cacheLocation.length() > 0) {
+            try {
+                this.embeddingCache = new EmbeddingCache(new File(cacheLocation),
+                        getEmbeddingCacheSize());
+            } catch (Exception ex) {
+                out.println("!!! WARNING (FILE) - Could not read embedding cache: "
+                        + ex.getMessage());
+            }
+        }
+        
+        final String timingsLocation = getTimingsFile();
+        if (timingsLocation != null && timingsLocation.length() > 0) {
+            try {
+                this.timingsWriter = new BufferedWriter(new FileWriter(
+                        timingsLocation));
+                this.timingsWriter.write("{\n  \"structures\": [\n");
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not open timings file: "
+                        + ex.getMessage());
+                this.timingsWriter = null;
+            }
+        }
+        
+        final String jsonLocation = getJsonOutputFile();
+        if (jsonLocation != null && jsonLocation.length() > 0) {
+            try {
+                // --- when resuming, keep the results written previously
+                this.jsonOutput = new BufferedWriter(new FileWriter(
+                        jsonLocation, resume));
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not open JSON output file: "
+                        + ex.getMessage());
+                setJsonOutputFile(null);
+            }
+        } else {
+            setJsonOutputFile(null);
+        }
+        
+        if (getThreads() > 1) {
+            this.workers = Executors.newFixedThreadPool(getThreads(),
+                    new ThreadFactory() {
+                        public Thread newThread(final Runnable r) {
+                            final Thread t = new Thread(r, "Systre worker");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        
+        // --- read the given archives concurrently, report in order
+        for (final Iterator iter = archives.iterator(); iter.hasNext();) {
+            loadArchive((String) iter.next());
+        }
         for (final Iterator iter = archives.iterator(); iter.hasNext();) {
             final String filename = (String) iter.next();
             this.processArchive(filename);
@@ -978,16 +2461,78 @@ public class SystreCmdline extends EventSource {
                 out.println();
             }
             this.processDataFile(filename);
+            if (this.outputArchive != null) {
+                try {
+                    this.outputArchive.checkpoint();
+                } catch (IOException ex) {
+                    out.println("!!! ERROR (FILE) - Could not update output archive: "
+                            + ex.getMessage());
+                }
+            }
+        }
+        
+        if (serve) {
+            final SystreServer server = new SystreServer(this, getThreads());
+            warmUp();
+            try {
+                if (port > 0) {
+                    out.println("Listening on port " + port + ".");
+                    server.listen(port);
+                } else {
+                    server.serve(new BufferedReader(new InputStreamReader(
+                            System.in)), new OutputStreamWriter(System.out));
+                }
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - " + ex.getMessage());
+            }
+            server.shutdown();
+        }
+        
+        if (this.workers != null) {
+            this.workers.shutdown();
+            this.workers = null;
+        }
+        
+        reportArchiveChecks();
+        reportDuplicates();
+        reportStatistics();
+        
+        if (this.jsonOutput != null) {
+            try {
+                this.jsonOutput.close();
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not write JSON output: "
+                        + ex.getMessage());
+            }
+            this.jsonOutput = null;
+        }
+        
+        if (this.checkpoint != null) {
+            try {
+                this.checkpoint.close();
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not write checkpoint: "
+                        + ex.getMessage());
+            }
+            this.checkpoint = null;
         }
         
         if (this.outputArchive != null) {
             try {
-        	this.outputArchive.flush();
-        	this.outputArchive.close();
+                this.outputArchive.close();
             } catch (IOException ex) {
                 out.println("!!! ERROR (FILE) - Output archive not completely written.");
             }
         }
+        
+        if (this.embeddingCache != null) {
+            try {
+                this.embeddingCache.save();
+            } catch (IOException ex) {
+                out.println("!!! ERROR (FILE) - Could not write embedding cache: "
+                        + ex.getMessage());
+            }
+        }
     }
     
     public static void main(final String args[]) {
@@ -996,15 +2541,37 @@ public class SystreCmdline extends EventSource {
 
     private void status(final String text) {
     	this.lastStatus = text;
+    	if (this.statistics != null && text.endsWith("...")) {
+    		this.statistics.begin(text.substring(0, text.length() - 3));
+    	}
     	dispatchEvent(text);
     }
     
+    private void count(final String name, final long n) {
+    	if (this.statistics != null) {
+    		this.statistics.count(name, n);
+    	}
+    }
+    
 	public synchronized void cancel() {
 		this.cancelled = true;
 		status("Cancel request received!");
 	}
 	
+	private boolean timeLimitExpired() {
+		return this.structureTimeLimit != null && this.structureTimeLimit.isExpired();
+	}
+	
+	private SystreException timeLimitExceeded() {
+		final int n = getTimeLimit();
+		return new SystreException(SystreException.TIMEOUT, "Time limit of " + n
+				+ " second" + (n > 1 ? "s" : "") + " exceeded");
+	}
+	
 	private void quitIfCancelled() {
+		if (timeLimitExpired()) {
+			throw timeLimitExceeded();
+		}
 		if (this.cancelled) {
 			this.cancelled = false;
 			throw new SystreException(SystreException.CANCELLED,
@@ -1079,6 +2646,22 @@ public class SystreCmdline extends EventSource {
 		this.useBuiltinArchive = useBuiltinArchive;
 	}
 
+	public boolean getTrustArchives() {
+		return trustArchives;
+	}
+
+	public void setTrustArchives(boolean trustArchives) {
+		this.trustArchives = trustArchives;
+	}
+
+	public int getNearestNets() {
+		return nearestNets;
+	}
+
+	public void setNearestNets(int nearestNets) {
+		this.nearestNets = nearestNets;
+	}
+
 	public boolean getComputeEmbedding() {
 		return this.computeEmbedding;
 	}
@@ -1142,4 +2725,124 @@ public class SystreCmdline extends EventSource {
 	public void setOutputSystreKey(boolean outputSystreKey) {
 		this.outputSystreKey = outputSystreKey;
 	}
+
+	public String getEmbeddingCacheLocation() {
+		return this.embeddingCacheLocation;
+	}
+
+	public void setEmbeddingCacheLocation(String embeddingCacheLocation) {
+		this.embeddingCacheLocation = embeddingCacheLocation;
+	}
+
+	public int getEmbeddingCacheSize() {
+		return this.embeddingCacheSize;
+	}
+
+	public void setEmbeddingCacheSize(int embeddingCacheSize) {
+		this.embeddingCacheSize = embeddingCacheSize;
+	}
+
+	public int getArchiveBatchSize() {
+		return this.archiveBatchSize;
+	}
+
+	public void setArchiveBatchSize(int archiveBatchSize) {
+		this.archiveBatchSize = archiveBatchSize;
+	}
+
+	public int getArchiveFlushInterval() {
+		return this.archiveFlushInterval;
+	}
+
+	public void setArchiveFlushInterval(int archiveFlushInterval) {
+		this.archiveFlushInterval = archiveFlushInterval;
+	}
+
+	public int getThreads() {
+		return this.threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getWarmStartSteps() {
+		return this.warmStartSteps;
+	}
+
+	public void setWarmStartSteps(int warmStartSteps) {
+		this.warmStartSteps = warmStartSteps;
+	}
+
+	public boolean getShowTimings() {
+		return this.showTimings;
+	}
+
+	public void setShowTimings(boolean showTimings) {
+		this.showTimings = showTimings;
+	}
+
+	public String getTimingsFile() {
+		return this.timingsFile;
+	}
+
+	public void setTimingsFile(String timingsFile) {
+		this.timingsFile = timingsFile;
+	}
+
+	public int getTimeLimit() {
+		return this.timeLimit;
+	}
+
+	public void setTimeLimit(int timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public int getRelaxStepBudget() {
+		return this.relaxStepBudget;
+	}
+
+	public void setRelaxStepBudget(int relaxStepBudget) {
+		this.relaxStepBudget = relaxStepBudget;
+	}
+
+	public String getCheckpointFile() {
+		return this.checkpointFile;
+	}
+
+	public void setCheckpointFile(String checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public int getMaxSymmetries() {
+		return this.maxSymmetries;
+	}
+
+	public void setMaxSymmetries(int maxSymmetries) {
+		this.maxSymmetries = maxSymmetries;
+	}
+
+	public String getJsonOutputFile() {
+		return this.jsonOutputFile;
+	}
+
+	public void setJsonOutputFile(String jsonOutputFile) {
+		this.jsonOutputFile = jsonOutputFile;
+	}
+
+	public boolean getTopologyFirst() {
+		return this.topologyFirst;
+	}
+
+	public void setTopologyFirst(boolean topologyFirst) {
+		this.topologyFirst = topologyFirst;
+	}
+
+	public boolean getEmbedKnown() {
+		return this.embedKnown;
+	}
+
+	public void setEmbedKnown(boolean embedKnown) {
+		this.embedKnown = embedKnown;
+	}
 }
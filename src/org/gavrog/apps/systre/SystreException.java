@@ -45,6 +45,8 @@ public class SystreException extends RuntimeException {
     final public static Type INPUT = new Type("INPUT");
     final public static Type STRUCTURE = new Type("STRUCTURE");
     final public static Type CANCELLED = new Type("CANCELLED");
+    final public static Type TIMEOUT = new Type("TIMEOUT");
+    final public static Type LIMIT = new Type("LIMIT");
     
     final private Type type;
     
@@ -0,0 +1,395 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.apps.systre;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.gavrog.box.collections.Pair;
+import org.gavrog.box.simple.DataFormatException;
+import org.gavrog.box.simple.Strings;
+import org.gavrog.box.simple.TaskController;
+import org.gavrog.joss.pgraphs.embed.ProcessedNet;
+import org.gavrog.joss.pgraphs.io.Net;
+import org.gavrog.joss.pgraphs.io.NetParser;
+
+/**
+ * Serves Systre requests over a simple line based protocol, so that a single
+ * running instance, with its archives and tables loaded, can process many
+ * small requests. Requests are read one command per line:
+ *
+ * <pre>
+ *   SUBMIT id [EMBED]   followed by a single data block in .cgd format
+ *   CANCEL id           stops a request that has not yet been answered
+ *   QUIT                ends the session after all requests are answered
+ * </pre>
+ *
+ * Each request is answered by a single line holding a JSON object with the
+ * fields "id", "status" ("ok", "error" or "cancelled"), "name", "key",
+ * "group", "matches", "output" (the usual Systre text) and, for successful
+ * requests with the EMBED option, "embedding". Errors add the fields "error"
+ * and "message". Responses are sent as soon as they are ready, so their order
+ * may differ from that of the requests. A session starts with the line
+ * <code>{"status": "ready"}</code>.
+ *
+ * @author Olaf Delgado
+ */
+public class SystreServer {
+    final private SystreCmdline master;
+    final private ExecutorService workers;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param master provides the options, archives and caches.
+     * @param threads the number of requests to process concurrently.
+     */
+    public SystreServer(final SystreCmdline master, final int threads) {
+        this.master = master;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "Systre service worker");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * The requests and responses for a single client.
+     */
+    private class Session {
+        final private Writer output;
+        final private Map active = new HashMap();
+
+        Session(final Writer output) {
+            this.output = output;
+        }
+
+        synchronized void respond(final String text) {
+            try {
+                this.output.write(text);
+                this.output.write("\n");
+                this.output.flush();
+            } catch (IOException ex) {
+                // --- the client has gone away, nothing left to do
+            }
+        }
+
+        synchronized boolean start(final Request request) {
+            if (this.active.containsKey(request.id)) {
+                return false;
+            }
+            this.active.put(request.id, request);
+            workers.execute(request);
+            return true;
+        }
+
+        synchronized void finish(final Request request, final String response) {
+            this.active.remove(request.id);
+            respond(response);
+            notifyAll();
+        }
+
+        synchronized Request get(final String id) {
+            return (Request) this.active.get(id);
+        }
+
+        synchronized void awaitAll() {
+            while (this.active.size() > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A single request to process.
+     */
+    private class Request implements Runnable {
+        final private Session session;
+        final private String id;
+        final private String text;
+        final private boolean embed;
+        private SystreCmdline worker = null;
+        private Thread thread = null;
+        private boolean cancelled = false;
+        private boolean finished = false;
+
+        Request(final Session session, final String id, final String text,
+                final boolean embed) {
+            this.session = session;
+            this.id = id;
+            this.text = text;
+            this.embed = embed;
+        }
+
+        public void run() {
+            String response = null;
+            try {
+                response = process();
+            } catch (Throwable ex) {
+                response = "{\"id\": " + Strings.jsonQuoted(this.id)
+                        + ", \"status\": \"error\", \"error\": \"INTERNAL\", "
+                        + "\"message\": " + Strings.jsonQuoted(String.valueOf(ex))
+                        + "}";
+            } finally {
+                end();
+                this.session.finish(this, response);
+            }
+        }
+
+        private synchronized boolean begin(final SystreCmdline worker) {
+            if (this.cancelled) {
+                return false;
+            }
+            this.worker = worker;
+            this.thread = Thread.currentThread();
+            TaskController.getInstance().reset();
+            return true;
+        }
+
+        private synchronized void end() {
+            this.finished = true;
+            if (this.thread != null) {
+                TaskController.getInstance(this.thread).reset();
+                this.thread = null;
+            }
+        }
+
+        synchronized void cancel() {
+            this.cancelled = true;
+            if (this.thread != null && !this.finished) {
+                TaskController.getInstance(this.thread).cancel();
+                this.worker.cancel();
+            }
+        }
+
+        private synchronized boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        private String process() throws IOException {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final PrintStream out = new PrintStream(buffer);
+            final SystreCmdline worker = master.serviceWorker(out);
+            worker.setComputeEmbedding(this.embed);
+            worker.setEmbedKnown(this.embed);
+            final String quotedId = Strings.jsonQuoted(this.id);
+            if (!begin(worker)) {
+                return "{\"id\": " + quotedId + ", \"status\": \"cancelled\"}";
+            }
+
+            Net G = null;
+            Exception problem = null;
+            try {
+                G = new NetParser(new StringReader(this.text)).parseNet();
+            } catch (Exception ex) {
+                problem = ex;
+            }
+            if (G == null && problem == null) {
+                problem = new DataFormatException("no structure found");
+            }
+            worker.processStructure(G, problem, 1, null);
+            out.flush();
+
+            final Throwable error = worker.getCurrentError();
+            final StringBuffer buf = new StringBuffer(200);
+            buf.append("{\"id\": " + quotedId);
+            if (isCancelled()) {
+                buf.append(", \"status\": \"cancelled\"");
+            } else if (error != null) {
+                final String type = problem != null ? "INPUT" : SystreCmdline
+                        .errorType(error);
+                buf.append(", \"status\": \"error\", \"error\": "
+                        + Strings.jsonQuoted(type) + ", \"message\": "
+                        + Strings.jsonQuoted(String.valueOf(error.getMessage())));
+            } else {
+                buf.append(", \"status\": \"ok\"");
+            }
+            buf.append(", \"name\": " + json(G == null ? null : G.getName()));
+            buf.append(", \"key\": " + json(worker.getCurrentKey()));
+            buf.append(", \"group\": " + json(worker.getCurrentGroup()));
+            buf.append(", \"matches\": [");
+            for (final Iterator iter = worker.getCurrentMatches().iterator(); iter
+                    .hasNext();) {
+                final Pair match = (Pair) iter.next();
+                buf.append("{\"archive\": " + json((String) match.getFirst())
+                        + ", \"name\": " + json((String) match.getSecond()) + "}");
+                if (iter.hasNext()) {
+                    buf.append(", ");
+                }
+            }
+            buf.append("]");
+            final ProcessedNet net = worker.getLastStructure();
+            if (this.embed && error == null && !isCancelled() && net != null) {
+                final StringWriter cgd = new StringWriter();
+                net.writeEmbedding(cgd, true, master.getOutputFullCell());
+                buf.append(", \"embedding\": " + json(cgd.toString()));
+            }
+            buf.append(", \"output\": " + json(buffer.toString()));
+            buf.append("}");
+            return buf.toString();
+        }
+    }
+
+    private static String json(final String s) {
+        return s == null ? "null" : Strings.jsonQuoted(s);
+    }
+
+    /**
+     * Tests if a line ends a data block.
+     */
+    private static boolean isEnd(final String line) {
+        final String s = line.trim();
+        int j = 0;
+        while (j < s.length() && !Character.isWhitespace(s.charAt(j))
+                && s.charAt(j) != '#') {
+            ++j;
+        }
+        return j == 3 && s.regionMatches(true, 0, "END", 0, 3);
+    }
+
+    /**
+     * Serves requests read from a stream until the QUIT command is received
+     * or the input ends, then waits for the outstanding responses.
+     *
+     * @param input the stream to read requests from.
+     * @param output the stream to write responses to.
+     * @throws IOException if an input error occurred.
+     */
+    public void serve(final BufferedReader input, final Writer output)
+            throws IOException {
+        final Session session = new Session(output);
+        session.respond("{\"status\": \"ready\"}");
+
+        String line;
+        while ((line = input.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            final String fields[] = line.split("\\s+");
+            final String cmd = fields[0].toUpperCase();
+            final String id = fields.length > 1 ? fields[1] : null;
+
+            if (cmd.equals("QUIT")) {
+                break;
+            } else if (cmd.equals("SUBMIT")) {
+                final StringBuffer text = new StringBuffer();
+                boolean complete = false;
+                while ((line = input.readLine()) != null) {
+                    text.append(line);
+                    text.append('\n');
+                    if (isEnd(line)) {
+                        complete = true;
+                        break;
+                    }
+                }
+                if (id == null) {
+                    session.respond("{\"status\": \"error\", \"error\": \"USAGE\", "
+                            + "\"message\": \"request id missing\"}");
+                } else if (!complete) {
+                    session.respond("{\"id\": " + json(id) + ", \"status\": "
+                            + "\"error\", \"error\": \"INPUT\", "
+                            + "\"message\": \"end of input while reading data\"}");
+                } else {
+                    final boolean embed = fields.length > 2
+                            && fields[2].equalsIgnoreCase("EMBED");
+                    if (!session.start(new Request(session, id, text.toString(),
+                            embed))) {
+                        session.respond("{\"id\": " + json(id) + ", \"status\": "
+                                + "\"error\", \"error\": \"USAGE\", "
+                                + "\"message\": \"request id already in use\"}");
+                    }
+                }
+            } else if (cmd.equals("CANCEL")) {
+                final Request request = id == null ? null : session.get(id);
+                if (request == null) {
+                    session.respond("{\"id\": " + json(id) + ", \"status\": "
+                            + "\"error\", \"error\": \"USAGE\", "
+                            + "\"message\": \"no such request\"}");
+                } else {
+                    request.cancel();
+                }
+            } else {
+                session.respond("{\"status\": \"error\", \"error\": \"USAGE\", "
+                        + "\"message\": " + json("unknown command " + fields[0])
+                        + "}");
+            }
+        }
+        session.awaitAll();
+    }
+
+    /**
+     * Accepts connections on a local TCP port and serves each of them in its
+     * own thread. Does not return unless an error occurs.
+     *
+     * @param port the port to listen on.
+     * @throws IOException if the port could not be opened.
+     */
+    public void listen(final int port) throws IOException {
+        final ServerSocket server = new ServerSocket(port, 50, InetAddress
+                .getByName("127.0.0.1"));
+        while (true) {
+            final Socket socket = server.accept();
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        serve(new BufferedReader(new InputStreamReader(socket
+                                .getInputStream())), new OutputStreamWriter(socket
+                                .getOutputStream()));
+                    } catch (IOException ex) {
+                        // --- the client has gone away
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ex) {
+                        }
+                    }
+                }
+            }, "Systre connection").start();
+        }
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() {
+        this.workers.shutdown();
+    }
+}
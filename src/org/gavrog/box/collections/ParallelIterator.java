@@ -0,0 +1,239 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.box.collections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Modifies an iterator on the fly like {@link FilteredIterator}, but applies
+ * the modification to several elements in parallel. A single thread reads the
+ * original iterator and hands its elements to a fixed number of worker
+ * threads. The results are returned in the original order. Only a limited
+ * number of elements are read ahead, so that the reader waits while the
+ * consumer falls behind.
+ *
+ * Exceptions thrown by the original iterator or by {@link #filter(Object)}
+ * are rethrown by {@link #next()} in place of the corresponding element.
+ * A consumer which stops before the end must call {@link #close()}, since
+ * otherwise the reader thread waits forever.
+ *
+ * @author Olaf Delgado
+ */
+public abstract class ParallelIterator implements Iterator {
+    // --- marks the end of the original iterator
+    final private static Object END = new Object();
+
+    // --- stands in for an element the original iterator failed to produce
+    private static class Failure {
+        final Throwable cause;
+
+        Failure(final Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    final private Iterator original;
+    final private int threads;
+    final private BlockingQueue pending;
+    final private Closeable source;
+    private ExecutorService workers = null;
+    private Thread reader = null;
+    private Object next = null;
+
+    /**
+     * Constructs a ParallelIterator instance. No threads are started before
+     * the first element is requested.
+     *
+     * @param original the iterator to modify.
+     * @param threads the number of worker threads to use.
+     * @param capacity the number of elements to read ahead at most.
+     */
+    public ParallelIterator(final Iterator original, final int threads,
+            final int capacity) {
+        this(original, threads, capacity, null);
+    }
+
+    /**
+     * Constructs a ParallelIterator instance which closes the stream the
+     * original iterator reads from when it is closed itself.
+     *
+     * @param original the iterator to modify.
+     * @param threads the number of worker threads to use.
+     * @param capacity the number of elements to read ahead at most.
+     * @param source the stream read by the original iterator, or null.
+     */
+    public ParallelIterator(final Iterator original, final int threads,
+            final int capacity, final Closeable source) {
+        this.original = original;
+        this.threads = Math.max(1, threads);
+        this.pending = new ArrayBlockingQueue(Math.max(1, capacity));
+        this.source = source;
+    }
+
+    /**
+     * The filter method to be provided by derived classes. It is called from
+     * the worker threads, possibly for several elements at once.
+     *
+     * @param x the object to inspect.
+     * @return the modified object.
+     */
+    public abstract Object filter(Object x);
+
+    private void start() {
+        final ExecutorService workers = Executors.newFixedThreadPool(
+                this.threads, new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "Parallel iterator worker");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.workers = workers;
+        this.reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    read(workers);
+                } catch (InterruptedException ex) {
+                } finally {
+                    workers.shutdown();
+                }
+            }
+        }, "Parallel iterator reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void read(final ExecutorService workers) throws InterruptedException {
+        try {
+            while (this.original.hasNext()) {
+                Object item;
+                try {
+                    final Object x = this.original.next();
+                    item = workers.submit(new Callable() {
+                        public Object call() throws Exception {
+                            return filter(x);
+                        }
+                    });
+                } catch (Throwable ex) {
+                    item = new Failure(ex);
+                }
+                this.pending.put(item);
+            }
+        } catch (InterruptedException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            this.pending.put(new Failure(ex));
+        }
+        this.pending.put(END);
+    }
+
+    private static RuntimeException rethrow(final Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else {
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    public boolean hasNext() {
+        if (this.next == null) {
+            if (this.reader == null) {
+                start();
+            }
+            try {
+                this.next = this.pending.take();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+        return this.next != END;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("at end");
+        }
+        final Object item = this.next;
+        this.next = null;
+        if (item instanceof Failure) {
+            throw rethrow(((Failure) item).cause);
+        }
+        try {
+            return ((Future) item).get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw rethrow(ex.getCause());
+        }
+    }
+
+    /**
+     * Stops reading ahead, discards all pending elements and closes the
+     * source stream, if one was given. Afterwards, this iterator appears
+     * to be at its end.
+     */
+    public void close() {
+        if (this.reader != null) {
+            this.reader.interrupt();
+            this.workers.shutdownNow();
+        }
+        this.pending.clear();
+        this.next = END;
+        if (this.source != null) {
+            try {
+                this.source.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * @return true if the reader and all worker threads have finished.
+     */
+    public boolean isTerminated() {
+        if (this.reader == null) {
+            return true;
+        }
+        return !this.reader.isAlive() && this.workers.isTerminated();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#remove()
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("not supported");
+    }
+}
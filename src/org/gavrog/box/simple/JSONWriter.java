@@ -0,0 +1,230 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.box.simple;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+
+/**
+ * Writes JSON text to a stream as it is produced, without building a tree
+ * first. All output goes on a single line. Object members are written via
+ * the methods taking a key, array elements via those without one.
+ *
+ * As with {@link PrintWriter}, no method throws an I/O exception. Use
+ * {@link #checkError()} to find out if one has occurred.
+ *
+ * @author Olaf Delgado
+ */
+public class JSONWriter {
+    /**
+     * An object or array currently open.
+     */
+    private static class Level {
+        final char closer;
+        boolean empty = true;
+
+        Level(final char closer) {
+            this.closer = closer;
+        }
+    }
+
+    final private PrintWriter out;
+    final private LinkedList open = new LinkedList();
+
+    /**
+     * Constructs an instance.
+     *
+     * @param out the stream to write to.
+     */
+    public JSONWriter(final Writer out) {
+        this.out = new PrintWriter(out);
+    }
+
+    private void separate() {
+        if (this.open.size() > 0) {
+            final Level level = (Level) this.open.getLast();
+            if (level.empty) {
+                level.empty = false;
+            } else {
+                this.out.print(", ");
+            }
+        }
+    }
+
+    private void member(final String key) {
+        separate();
+        this.out.print(Strings.jsonQuoted(key));
+        this.out.print(": ");
+    }
+
+    private void begin(final char opener, final char closer) {
+        this.out.print(opener);
+        this.open.addLast(new Level(closer));
+    }
+
+    private void end(final char closer) {
+        final Level level = (Level) this.open.removeLast();
+        if (level.closer != closer) {
+            throw new IllegalStateException("mismatched '" + closer + "'");
+        }
+        this.out.print(closer);
+    }
+
+    private static String number(final double x) {
+        if (Double.isNaN(x) || Double.isInfinite(x)) {
+            return "null";
+        } else {
+            return String.valueOf(x);
+        }
+    }
+
+    private static String string(final String s) {
+        return s == null ? "null" : Strings.jsonQuoted(s);
+    }
+
+    public JSONWriter beginObject() {
+        separate();
+        begin('{', '}');
+        return this;
+    }
+
+    public JSONWriter beginObject(final String key) {
+        member(key);
+        begin('{', '}');
+        return this;
+    }
+
+    public JSONWriter endObject() {
+        end('}');
+        return this;
+    }
+
+    public JSONWriter beginArray() {
+        separate();
+        begin('[', ']');
+        return this;
+    }
+
+    public JSONWriter beginArray(final String key) {
+        member(key);
+        begin('[', ']');
+        return this;
+    }
+
+    public JSONWriter endArray() {
+        end(']');
+        return this;
+    }
+
+    public JSONWriter value(final String s) {
+        separate();
+        this.out.print(string(s));
+        return this;
+    }
+
+    public JSONWriter value(final long n) {
+        separate();
+        this.out.print(n);
+        return this;
+    }
+
+    public JSONWriter value(final double x) {
+        separate();
+        this.out.print(number(x));
+        return this;
+    }
+
+    public JSONWriter value(final boolean b) {
+        separate();
+        this.out.print(b);
+        return this;
+    }
+
+    public JSONWriter field(final String key, final String s) {
+        member(key);
+        this.out.print(string(s));
+        return this;
+    }
+
+    public JSONWriter field(final String key, final long n) {
+        member(key);
+        this.out.print(n);
+        return this;
+    }
+
+    public JSONWriter field(final String key, final double x) {
+        member(key);
+        this.out.print(number(x));
+        return this;
+    }
+
+    public JSONWriter field(final String key, final boolean b) {
+        member(key);
+        this.out.print(b);
+        return this;
+    }
+
+    /**
+     * Writes a list of numbers as an array member.
+     *
+     * @param key the member name.
+     * @param values the numbers to write.
+     * @return this instance.
+     */
+    public JSONWriter field(final String key, final double values[]) {
+        beginArray(key);
+        for (int i = 0; i < values.length; ++i) {
+            value(values[i]);
+        }
+        return endArray();
+    }
+
+    /**
+     * @return the number of objects and arrays currently open.
+     */
+    public int depth() {
+        return this.open.size();
+    }
+
+    /**
+     * Closes objects and arrays until the given depth is reached. This is
+     * used to recover a consistent state when the producer of some nested
+     * value was interrupted.
+     *
+     * @param depth the depth to return to.
+     */
+    public void closeTo(final int depth) {
+        while (this.open.size() > depth) {
+            end(((Level) this.open.getLast()).closer);
+        }
+    }
+
+    /**
+     * Flushes the underlying stream.
+     */
+    public void flush() {
+        this.out.flush();
+    }
+
+    /**
+     * @return true if an error occurred on the underlying stream.
+     */
+    public boolean checkError() {
+        return this.out.checkError();
+    }
+}
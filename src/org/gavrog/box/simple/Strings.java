@@ -100,4 +100,51 @@ public class Strings {
 		
 		return buf.toString();
 	}
+
+	/**
+	 * Converts the given string into a JSON string literal, enclosed in
+	 * double quotes and with double quotes, backslashes and control
+	 * characters escaped.
+	 * 
+	 * @param s
+	 *            the input string.
+	 * @return the JSON representation.
+	 */
+	public static String jsonQuoted(final String s) {
+		final StringBuffer buf = new StringBuffer(s.length() + 2);
+		buf.append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			final char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				buf.append("\\\"");
+				break;
+			case '\\':
+				buf.append("\\\\");
+				break;
+			case '\n':
+				buf.append("\\n");
+				break;
+			case '\r':
+				buf.append("\\r");
+				break;
+			case '\t':
+				buf.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					final String hex = Integer.toHexString(c);
+					buf.append("\\u00");
+					if (hex.length() < 2) {
+						buf.append('0');
+					}
+					buf.append(hex);
+				} else {
+					buf.append(c);
+				}
+			}
+		}
+		buf.append('"');
+		return buf.toString();
+	}
 }
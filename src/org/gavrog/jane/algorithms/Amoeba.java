@@ -94,6 +94,13 @@ public class Amoeba {
         this(f, 1e-6,  1000, 10, 1.0);
     }
     
+    /**
+     * @return the number of function evaluations in the last minimization.
+     */
+    public int getSteps() {
+        return this.steps;
+    }
+    
     /**
      * Performs the minimization.
      * 
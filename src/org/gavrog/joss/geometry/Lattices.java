@@ -16,16 +16,22 @@ limitations under the License.
 
 package org.gavrog.joss.geometry;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.gavrog.jane.compounds.Matrix;
 import org.gavrog.jane.numbers.FloatingPoint;
 import org.gavrog.jane.numbers.Fraction;
 import org.gavrog.jane.numbers.IArithmetic;
+import org.gavrog.jane.numbers.Rational;
 import org.gavrog.jane.numbers.Real;
+import org.gavrog.jane.numbers.Whole;
 
 /**
  * Various methods related to lattices and lattice bases.
@@ -61,6 +67,13 @@ public class Lattices {
 	        throw new IllegalArgumentException(msg);
 	    }
 	    
+	    final Vector fast[] = fastGaussReduced(v, M);
+	    if (fast != null) {
+	        v[0] = fast[0];
+	        v[1] = fast[1];
+	        return v;
+	    }
+	    
 	    final Real eps = new FloatingPoint(1e-12);
 	    IArithmetic sl[] = new IArithmetic[] { Vector.dot(v[0], v[0], M),
 				Vector.dot(v[1], v[1], M) };
@@ -125,6 +138,11 @@ public class Lattices {
 	        throw new IllegalArgumentException(msg);
 	    }
 	    
+	    final Vector fast[] = fastSellingReduced(v, M);
+	    if (fast != null) {
+	        return fast;
+	    }
+	    
 	    final Vector[] w = new Vector[] { v[0], v[1], v[2],
 	            (Vector) v[0].plus(v[1]).plus(v[2]).negative() };
 	    
@@ -133,7 +151,468 @@ public class Lattices {
 	    
 	    return new Vector[] { w[0], w[1], w[2] };
 	}
-
+	
+	/**
+	 * The maximal number of steps a fast reduction may take before giving up.
+	 */
+	final private static int MAX_FAST_STEPS = 10000;
+	
+	/**
+	 * Integral representation of a lattice basis and quadratic form for the
+	 * fast reduction methods. Vectors are given by integral coordinates, which
+	 * in the exact case are the original ones multiplied by a common factor.
+	 * 
+	 * All methods make precisely the same decisions as the generic code
+	 * applied to the original vectors would, including the comparisons with
+	 * the tolerance used there, so that the fast methods produce identical
+	 * results. Overflows are signalled by an ArithmeticException.
+	 */
+	private static abstract class Form {
+	    final long coords[][];
+	    
+	    Form(final long coords[][]) {
+	        this.coords = coords;
+	    }
+	    
+	    /**
+	     * @return the sign of |v|^2 - |w|^2.
+	     */
+	    abstract int compareNorms(long v[], long w[]);
+	    
+	    /**
+	     * @return true if |v|^2 >= |w|^2 - eps.
+	     */
+	    abstract boolean normAtLeast(long v[], long w[]);
+	    
+	    /**
+	     * @return the value of <v,w> / |v|^2, rounded to the nearest integer.
+	     */
+	    abstract long roundedRatio(long v[], long w[]);
+	    
+	    /**
+	     * @return true if <v,w> > eps.
+	     */
+	    abstract boolean dotGreaterThanEps(long v[], long w[]);
+	    
+	    /**
+	     * @return true if <v,w> > 0.
+	     */
+	    abstract boolean dotPositive(long v[], long w[]);
+	    
+	    /**
+	     * Constructs an integral representation, if possible.
+	     * 
+	     * @param v the basis vectors.
+	     * @param M the quadratic form.
+	     * @return the representation, or null if there is none.
+	     */
+	    static Form of(final Vector v[], final Matrix M) {
+	        final int d = M.numberOfRows();
+	        boolean exact = true;
+	        boolean floating = true;
+	        for (int i = 0; i < d; ++i) {
+	            for (int j = 0; j < d; ++j) {
+	                final IArithmetic x = M.get(i, j);
+	                exact &= x instanceof Rational;
+	                floating &= x instanceof FloatingPoint;
+	            }
+	        }
+	        try {
+	            if (exact) {
+	                final long f = commonDenominator(v);
+	                final long g = commonDenominator(M);
+	                // --- makes the tolerance irrelevant for the scaled values
+	                if ((double) f * f * g >= 1e12) {
+	                    return null;
+	                }
+	                final long B[][] = new long[d][d];
+	                for (int i = 0; i < d; ++i) {
+	                    for (int j = 0; j < d; ++j) {
+	                        B[i][j] = scaled((Rational) M.get(i, j), g);
+	                    }
+	                }
+	                return new ExactForm(scaled(v, f), B);
+	            } else if (floating && commonDenominator(v) == 1) {
+	                final double B[][] = new double[d][d];
+	                for (int i = 0; i < d; ++i) {
+	                    for (int j = 0; j < d; ++j) {
+	                        B[i][j] = ((FloatingPoint) M.get(i, j)).doubleValue();
+	                    }
+	                }
+	                return new FloatingForm(scaled(v, 1), B);
+	            } else {
+	                return null;
+	            }
+	        } catch (ArithmeticException ex) {
+	            return null;
+	        }
+	    }
+	}
+	
+	/**
+	 * Exact arithmetic on the scaled coordinates.
+	 */
+	private static class ExactForm extends Form {
+	    final long M[][];
+	    
+	    ExactForm(final long coords[][], final long M[][]) {
+	        super(coords);
+	        this.M = M;
+	    }
+	    
+	    long dot(final long v[], final long w[]) {
+	        long sum = 0;
+	        for (int i = 0; i < v.length; ++i) {
+	            for (int j = 0; j < w.length; ++j) {
+	                sum = add(sum, mul(mul(v[i], this.M[i][j]), w[j]));
+	            }
+	        }
+	        return sum;
+	    }
+	    
+	    int compareNorms(final long v[], final long w[]) {
+	        final long a = dot(v, v);
+	        final long b = dot(w, w);
+	        return a < b ? -1 : (a > b ? 1 : 0);
+	    }
+	    
+	    boolean normAtLeast(final long v[], final long w[]) {
+	        return dot(v, v) >= dot(w, w);
+	    }
+	    
+	    long roundedRatio(final long v[], final long w[]) {
+	        final long a = dot(v, w);
+	        final long b = dot(v, v);
+	        if (b <= 0) {
+	            throw new ArithmeticException("form is not positive definite");
+	        }
+	        long n = a / b;
+	        if (mul(n, b) > a) {
+	            --n;
+	        }
+	        // --- round half up, as IArithmetic.round() does
+	        if (mul(2, add(a, -mul(n, b))) < b) {
+	            return n;
+	        } else {
+	            return n + 1;
+	        }
+	    }
+	    
+	    boolean dotGreaterThanEps(final long v[], final long w[]) {
+	        return dot(v, w) > 0;
+	    }
+	    
+	    boolean dotPositive(final long v[], final long w[]) {
+	        return dot(v, w) > 0;
+	    }
+	}
+	
+	/**
+	 * Floating point arithmetic which repeats the exact sequence of operations
+	 * performed by {@link Vector#dot(Vector, Vector, Matrix)} and friends on
+	 * integral vectors and a floating point form.
+	 */
+	private static class FloatingForm extends Form {
+	    final static double eps = 1e-12;
+	    final double M[][];
+	    
+	    FloatingForm(final long coords[][], final double M[][]) {
+	        super(coords);
+	        this.M = M;
+	    }
+	    
+	    double dot(final long v[], final long w[]) {
+	        final int d = v.length;
+	        double sum = 0;
+	        for (int j = 0; j < d; ++j) {
+	            double x = v[0] * this.M[0][j];
+	            for (int k = 1; k < d; ++k) {
+	                x = x + v[k] * this.M[k][j];
+	            }
+	            if (j == 0) {
+	                sum = x * w[0];
+	            } else {
+	                sum = sum + x * w[j];
+	            }
+	        }
+	        return sum;
+	    }
+	    
+	    int compareNorms(final long v[], final long w[]) {
+	        final double x = dot(v, v) - dot(w, w);
+	        return x < 0 ? -1 : (x > 0 ? 1 : 0);
+	    }
+	    
+	    boolean normAtLeast(final long v[], final long w[]) {
+	        return dot(v, v) - (dot(w, w) - eps) >= 0;
+	    }
+	    
+	    long roundedRatio(final long v[], final long w[]) {
+	        final double q = dot(v, w) / dot(v, v);
+	        if (Double.isNaN(q) || Math.abs(q) > 1e15) {
+	            throw new ArithmeticException("ratio out of range");
+	        }
+	        final long n = (long) Math.floor(q);
+	        if ((q - n) - ((n + 1) - q) < 0) {
+	            return n;
+	        } else {
+	            return n + 1;
+	        }
+	    }
+	    
+	    boolean dotGreaterThanEps(final long v[], final long w[]) {
+	        return dot(v, w) - eps > 0;
+	    }
+	    
+	    boolean dotPositive(final long v[], final long w[]) {
+	        return dot(v, w) > 0;
+	    }
+	}
+	
+	private static long add(final long a, final long b) {
+	    final long r = a + b;
+	    if (((a ^ r) & (b ^ r)) < 0) {
+	        throw new ArithmeticException("long overflow");
+	    }
+	    return r;
+	}
+	
+	private static long mul(final long a, final long b) {
+	    final long r = a * b;
+	    if ((Math.abs(a) | Math.abs(b)) >>> 31 != 0
+	            && ((b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1))) {
+	        throw new ArithmeticException("long overflow");
+	    }
+	    return r;
+	}
+	
+	private static long[] combined(final long v[], final long t, final long w[]) {
+	    final long r[] = new long[v.length];
+	    for (int i = 0; i < v.length; ++i) {
+	        r[i] = add(v[i], mul(t, w[i]));
+	    }
+	    return r;
+	}
+	
+	private static long[] negated(final long v[]) {
+	    return combined(new long[v.length], -1, v);
+	}
+	
+	private static long toLong(final Whole n) {
+	    final long x = n.longValue();
+	    if (!new Whole(x).equals(n)) {
+	        throw new ArithmeticException("long overflow");
+	    }
+	    return x;
+	}
+	
+	private static long lcm(final long a, final long b) {
+	    long x = a;
+	    long y = b;
+	    while (y != 0) {
+	        final long t = x % y;
+	        x = y;
+	        y = t;
+	    }
+	    return mul(a / x, b);
+	}
+	
+	private static long commonDenominator(final Vector v[]) {
+	    long f = 1;
+	    for (int i = 0; i < v.length; ++i) {
+	        for (int j = 0; j < v[i].getDimension(); ++j) {
+	            final IArithmetic x = v[i].get(j);
+	            if (!(x instanceof Rational)) {
+	                throw new ArithmeticException("not a rational");
+	            }
+	            f = lcm(f, toLong(((Rational) x).denominator()));
+	        }
+	    }
+	    return f;
+	}
+	
+	private static long commonDenominator(final Matrix M) {
+	    long f = 1;
+	    for (int i = 0; i < M.numberOfRows(); ++i) {
+	        for (int j = 0; j < M.numberOfColumns(); ++j) {
+	            f = lcm(f, toLong(((Rational) M.get(i, j)).denominator()));
+	        }
+	    }
+	    return f;
+	}
+	
+	private static long scaled(final Rational x, final long f) {
+	    return mul(toLong(x.numerator()), f / toLong(x.denominator()));
+	}
+	
+	private static long[][] scaled(final Vector v[], final long f) {
+	    final long result[][] = new long[v.length][];
+	    for (int i = 0; i < v.length; ++i) {
+	        final int d = v[i].getDimension();
+	        result[i] = new long[d];
+	        for (int j = 0; j < d; ++j) {
+	            result[i][j] = scaled((Rational) v[i].get(j), f);
+	        }
+	    }
+	    return result;
+	}
+	
+	private static long[][] identity(final int n) {
+	    final long result[][] = new long[n][n];
+	    for (int i = 0; i < n; ++i) {
+	        result[i][i] = 1;
+	    }
+	    return result;
+	}
+	
+	private static long determinant(final long A[][]) {
+	    if (A.length == 2) {
+	        return add(mul(A[0][0], A[1][1]), -mul(A[0][1], A[1][0]));
+	    } else {
+	        long det = 0;
+	        for (int j = 0; j < 3; ++j) {
+	            final int k = (j + 1) % 3;
+	            final int l = (j + 2) % 3;
+	            det = add(det, mul(A[0][j], add(mul(A[1][k], A[2][l]),
+	                    -mul(A[1][l], A[2][k]))));
+	        }
+	        return det;
+	    }
+	}
+	
+	/**
+	 * Performs a Gauss reduction using integral or floating point
+	 * arithmetic. The result is certified by checking the reduction
+	 * conditions and the unimodularity of the accumulated basis change, then
+	 * the steps taken are applied to the original vectors.
+	 * 
+	 * @param v the input vectors.
+	 * @param M the quadratic form determining the metric.
+	 * @return the reduced vectors or null if the fast method failed.
+	 */
+	private static Vector[] fastGaussReduced(final Vector v[], final Matrix M) {
+	    final Form F = Form.of(v, M);
+	    if (F == null) {
+	        return null;
+	    }
+	    final long c[][] = F.coords;
+	    final long U[][] = identity(2);
+	    final List<long[]> steps = new ArrayList<long[]>();
+	    final boolean flip;
+	    try {
+	        while (true) {
+	            if (steps.size() > MAX_FAST_STEPS) {
+	                return null;
+	            }
+	            final int i = F.compareNorms(c[0], c[1]) < 0 ? 0 : 1;
+	            final int j = 1 - i;
+	            final long t = F.roundedRatio(c[i], c[j]);
+	            c[j] = combined(c[j], -t, c[i]);
+	            U[j] = combined(U[j], -t, U[i]);
+	            steps.add(new long[] { i, j, t });
+	            if (F.normAtLeast(c[j], c[i])) {
+	                break;
+	            }
+	        }
+	        flip = F.dotPositive(c[0], c[1]);
+	        if (flip) {
+	            c[1] = negated(c[1]);
+	        }
+	        
+	        // --- certify that the result is a reduced basis for the same lattice
+	        final int i = F.compareNorms(c[0], c[1]) < 0 ? 0 : 1;
+	        if (Math.abs(determinant(U)) != 1 || F.dotPositive(c[0], c[1])
+	                || F.roundedRatio(c[i], c[1 - i]) != 0
+	                || !F.normAtLeast(c[1 - i], c[i])) {
+	            return null;
+	        }
+	    } catch (ArithmeticException ex) {
+	        return null;
+	    }
+	    
+	    // --- replay on the original vectors
+	    final Vector w[] = new Vector[] { v[0], v[1] };
+	    for (final long step[]: steps) {
+	        final int i = (int) step[0];
+	        final int j = (int) step[1];
+	        w[j] = (Vector) w[j].minus(new Whole(step[2]).times(w[i]));
+	    }
+	    if (flip) {
+	        w[1] = (Vector) w[1].negative();
+	    }
+	    return w;
+	}
+	
+	/**
+	 * Performs a Selling reduction using integral or floating point
+	 * arithmetic. The result is certified by checking the unimodularity of the
+	 * accumulated basis change, then the steps taken are applied to the
+	 * original vectors.
+	 * 
+	 * @param v the input vectors.
+	 * @param M the quadratic form determining the metric.
+	 * @return the reduced vectors or null if the fast method failed.
+	 */
+	private static Vector[] fastSellingReduced(final Vector v[], final Matrix M) {
+	    final Form F = Form.of(v, M);
+	    if (F == null) {
+	        return null;
+	    }
+	    final long c[][] = F.coords;
+	    final List<int[]> steps = new ArrayList<int[]>();
+	    try {
+	        final long u[][] = new long[][] { c[0], c[1], c[2],
+	                negated(combined(combined(c[0], 1, c[1]), 1, c[2])) };
+	        final long U[][] = new long[][] { { 1, 0, 0 }, { 0, 1, 0 },
+	                { 0, 0, 1 }, { -1, -1, -1 } };
+	        boolean changed = true;
+	        while (changed) {
+	            if (steps.size() > MAX_FAST_STEPS) {
+	                return null;
+	            }
+	            changed = false;
+	            for (int i = 0; i < 3 && !changed; ++i) {
+	                for (int j = i+1; j < 4 && !changed; ++j) {
+	                    if (F.dotGreaterThanEps(u[i], u[j])) {
+	                        for (int k = 0; k < 4; ++k) {
+	                            if (k != i && k != j) {
+	                                u[k] = combined(u[k], 1, u[i]);
+	                                U[k] = combined(U[k], 1, U[i]);
+	                            }
+	                        }
+	                        u[i] = negated(u[i]);
+	                        U[i] = negated(U[i]);
+	                        steps.add(new int[] { i, j });
+	                        changed = true;
+	                    }
+	                }
+	            }
+	        }
+	        
+	        // --- certify that the first three vectors form a lattice basis
+	        if (Math.abs(determinant(new long[][] { U[0], U[1], U[2] })) != 1) {
+	            return null;
+	        }
+	    } catch (ArithmeticException ex) {
+	        return null;
+	    }
+	    
+	    // --- replay on the original vectors
+	    final Vector[] w = new Vector[] { v[0], v[1], v[2],
+	            (Vector) v[0].plus(v[1]).plus(v[2]).negative() };
+	    for (final int step[]: steps) {
+	        final int i = step[0];
+	        final int j = step[1];
+	        for (int k = 0; k < 4; ++k) {
+	            if (k != i && k != j) {
+	                w[k] = (Vector) w[k].plus(w[i]);
+	            }
+	        }
+	        w[i] = (Vector) w[i].negative();
+	    }
+	    return new Vector[] { w[0], w[1], w[2] };
+	}
+	
 	/**
 	 * Computes the Dirichlet domain for a given vector lattice and returns the
 	 * set of normal vectors for the pairs of parallel planes that bound it.
@@ -171,11 +650,15 @@ public class Lattices {
      */
 	public static Vector[] reducedLatticeBasis(final Vector[] v, final Matrix M) {
 	    final Vector tmp[] = dirichletVectors(v, M);
+	    final Map<Vector, IArithmetic> norm = new HashMap<Vector, IArithmetic>();
+	    for (int i = 0; i < tmp.length; ++i) {
+	        norm.put(tmp[i], Vector.dot(tmp[i], tmp[i], M));
+	    }
 	    Arrays.sort(tmp, new Comparator() {
 	        public int compare(final Object o1, final Object o2) {
 	            final Vector v1 = (Vector) o1;
 	            final Vector v2 = (Vector) o2;
-	            final int d = Vector.dot(v1, v1, M).compareTo(Vector.dot(v2, v2, M));
+	            final int d = norm.get(v1).compareTo(norm.get(v2));
 	            if (d == 0) {
 	                return v2.abs().compareTo(v1.abs());
 	            } else {
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -73,6 +74,17 @@ public class SpaceGroup {
     private final int dimension;
     private final Set operators;
     
+    // --- derived data, computed on first use (instances are immutable)
+    private volatile Matrix primitiveCell = null;
+    private volatile Operator toPrimitive = null;
+    private volatile Set primitiveOperators = null;
+    private volatile List primitiveOperatorsSorted = null;
+    private volatile Matrix gramSpace = null;
+    
+    // --- shared instances for groups from the catalogue
+    private static final Map<String, SpaceGroup> catalogueGroups =
+        new HashMap<String, SpaceGroup>();
+    
     /**
      * Constructs a new instance.
      * 
@@ -195,6 +207,35 @@ public class SpaceGroup {
         this(dimension, SpaceGroupCatalogue.operators(dimension, name), false, false);
     }
     
+    /**
+     * Retrieves a shared instance for a space group from the catalogue. Since
+     * space groups are immutable, the instance and all the data derived from
+     * it can be used safely by any number of clients and threads.
+     * 
+     * The name is interpreted as in {@link #SpaceGroup(int, String)}, taking
+     * the current origin and setting preferences of the catalogue into
+     * account.
+     * 
+     * @param dimension the dimension of the group.
+     * @param name the Hermann-Maugain symbol for the group.
+     * @return the group or null if the name is unknown.
+     */
+    public static SpaceGroup fromCatalogue(final int dimension, final String name) {
+        final String listed = SpaceGroupCatalogue.listedName(dimension, name);
+        if (listed == null) {
+            return null;
+        }
+        final String key = dimension + " " + listed;
+        synchronized (catalogueGroups) {
+            SpaceGroup result = catalogueGroups.get(key);
+            if (result == null) {
+                result = new SpaceGroup(dimension, listed);
+                catalogueGroups.put(key, result);
+            }
+            return result;
+        }
+    }
+    
     /**
      * Constructs a space group with a given set of generators.
      * 
@@ -238,6 +279,13 @@ public class SpaceGroup {
      * @return a matrix representing the primitive lattice.
      */
     public Matrix primitiveCell() {
+        if (this.primitiveCell == null) {
+            this.primitiveCell = computePrimitiveCell();
+        }
+        return this.primitiveCell;
+    }
+    
+    private Matrix computePrimitiveCell() {
         // --- some shortcuts
         final int d = getDimension();
         final Operator I = Operator.identity(d);
@@ -266,7 +314,9 @@ public class SpaceGroup {
         }
         
         // --- return the basis
-        return B.getSubMatrix(0, 0, d, d);
+        final Matrix result = B.getSubMatrix(0, 0, d, d);
+        result.makeImmutable();
+        return result;
     }
     
     /**
@@ -276,6 +326,13 @@ public class SpaceGroup {
      * @return the transformation matrix.
      */
     public Operator transformationToPrimitive() {
+        if (this.toPrimitive == null) {
+            this.toPrimitive = computeTransformationToPrimitive();
+        }
+        return this.toPrimitive;
+    }
+    
+    private Operator computeTransformationToPrimitive() {
         final Matrix P = Matrix.one(getDimension()+1).mutableClone();
         P.setSubMatrix(0, 0, primitiveCell());
         return (Operator) (new Operator(P)).inverse();
@@ -289,6 +346,14 @@ public class SpaceGroup {
      * @return a full set of operators for a primitive setting.
      */
     public Set primitiveOperators() {
+        if (this.primitiveOperators == null) {
+            this.primitiveOperators = Collections
+                    .unmodifiableSet(computePrimitiveOperators());
+        }
+        return this.primitiveOperators;
+    }
+    
+    private Set computePrimitiveOperators() {
         final Set result = new HashSet();
         final Operator T_1 = transformationToPrimitive();
         final Operator T = (Operator) T_1.inverse();
@@ -311,6 +376,14 @@ public class SpaceGroup {
      * @return the sorted list of operators for a primitive setting.
      */
     public List primitiveOperatorsSorted() {
+        if (this.primitiveOperatorsSorted == null) {
+            this.primitiveOperatorsSorted = Collections
+                    .unmodifiableList(computePrimitiveOperatorsSorted());
+        }
+        return this.primitiveOperatorsSorted;
+    }
+    
+    private List computePrimitiveOperatorsSorted() {
         final List res = new ArrayList();
         res.addAll(primitiveOperators());
         
@@ -354,6 +427,15 @@ public class SpaceGroup {
      * @return a matrix describing the configuration space.
      */
     public Matrix configurationSpaceForGramMatrix() {
+        if (this.gramSpace == null) {
+            final Matrix result = computeConfigurationSpaceForGramMatrix();
+            result.makeImmutable();
+            this.gramSpace = result;
+        }
+        return this.gramSpace;
+    }
+    
+    private Matrix computeConfigurationSpaceForGramMatrix() {
         // --- some preliminaries
         final int d = getDimension();
         final int m = d * (d+1) / 2;
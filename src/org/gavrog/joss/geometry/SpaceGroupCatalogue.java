@@ -16,19 +16,31 @@ limitations under the License.
 
 package org.gavrog.joss.geometry;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 import org.gavrog.box.simple.DataFormatException;
 import org.gavrog.box.simple.Strings;
+import org.gavrog.jane.compounds.Matrix;
+import org.gavrog.jane.numbers.Fraction;
+import org.gavrog.jane.numbers.IArithmetic;
+import org.gavrog.jane.numbers.Rational;
+import org.gavrog.jane.numbers.Whole;
 
 /**
  * This class handles catalogues of known space groups. For the time being, everything
@@ -58,14 +70,39 @@ public class SpaceGroupCatalogue {
         final public Map<String, CoordinateChange> nameToTransform =
         	new HashMap<String, CoordinateChange>();
         final public List<String> namesInOrder = new ArrayList<String>();
+        final public Map<String, byte[]> nameToEncodedOps =
+            new HashMap<String, byte[]>();
         
         public Table(final int dimension) {
             this.dimension = dimension;
         }
+        
+        /**
+         * Retrieves the operators for a group setting, decoding them from
+         * their binary form on first use if necessary.
+         * 
+         * @param name the name of the group setting.
+         * @return the list of operators or null if the name is unknown.
+         */
+        public synchronized List<Operator> operators(final String name) {
+            if (!this.nameToOps.containsKey(name)) {
+                final byte data[] = this.nameToEncodedOps.get(name);
+                if (data == null) {
+                    return null;
+                }
+                try {
+                    this.nameToOps.put(name, decodeOperators(data));
+                } catch (IOException ex) {
+                    throw new DataFormatException("corrupted space group table");
+                }
+                this.nameToEncodedOps.remove(name);
+            }
+            return this.nameToOps.get(name);
+        }
     }
     
-    private static Table groupTables[] = new Table[5];
-    private static Map<String, String> aliases = new HashMap<String, String>();
+    private static volatile Table groupTables[] = new Table[5];
+    private static volatile Map<String, String> aliases = new HashMap<String, String>();
     
     /**
      * Represents lookup information for groups, as used by {@link SpaceGroupFinder}.
@@ -85,7 +122,7 @@ public class SpaceGroupCatalogue {
         }
     }
     
-    private static Map<String, Lookup> lookup = new HashMap<String, Lookup>();
+    private static volatile Map<String, Lookup> lookup = new HashMap<String, Lookup>();
     
     /**
      * Represents the result of a table lookup.
@@ -119,6 +156,9 @@ public class SpaceGroupCatalogue {
         final InputStream inStream = ClassLoader.getSystemResourceAsStream(filename);
         final BufferedReader reader = new BufferedReader(new InputStreamReader(inStream));
     
+        final Table tables[] = new Table[5];
+        final Map<String, String> aliasMap = new HashMap<String, String>();
+        final Map<String, Lookup> lookupMap = new HashMap<String, Lookup>();
         Table table = null;
         String currentName = null;
         
@@ -139,49 +179,22 @@ public class SpaceGroupCatalogue {
             if (i > 0) {
                 final String fields[] = line.trim().split("\\s+");
                 if (fields[0].equalsIgnoreCase("alias")) {
-                    aliases.put(fields[1], fields[2]);
+                    aliasMap.put(fields[1], fields[2]);
                 } else if (fields[0].equalsIgnoreCase("lookup")) {
                     final String name = fields[1];
                     final char centering = fields[3].charAt(0);
                     final CoordinateChange fromStd = new CoordinateChange(new Operator(fields[4]));
                     final int d = fromStd.getDimension();
-                    final CrystalSystem system;
-                    if (fields[2].equals("oblique")) {
-                        system = CrystalSystem.OBLIQUE;
-                    } else if (fields[2].equals("rectangular")) {
-                        system = CrystalSystem.RECTANGULAR;
-                    } else if (fields[2].equals("square")) {
-                        system = CrystalSystem.SQUARE;
-                    } else if (fields[2].equals("monoclinic")) {
-                        system = CrystalSystem.MONOCLINIC;
-                    } else if (fields[2].equals("triclinic")) {
-                        system = CrystalSystem.TRICLINIC;
-                    } else if (fields[2].equals("orthorhombic")) {
-                        system = CrystalSystem.ORTHORHOMBIC;
-                    } else if (fields[2].equals("trigonal")) {
-                        system = CrystalSystem.TRIGONAL;
-                    } else if (fields[2].equals("tetragonal")) {
-                        system = CrystalSystem.TETRAGONAL;
-                    } else if (fields[2].equals("hexagonal")) {
-                    	if (d == 2) {
-                    		system = CrystalSystem.HEXAGONAL_2D;
-                    	} else {
-                    		system = CrystalSystem.HEXAGONAL_3D;
-                    	}
-                    } else if (fields[2].equals("cubic")) {
-                        system = CrystalSystem.CUBIC;
-                    } else {
-                        throw new RuntimeException(fields[2] + " system unknown");
-                    }
-                    lookup.put(name, new Lookup(name, system, centering, fromStd));
+                    final CrystalSystem system = crystalSystem(fields[2], d);
+                    lookupMap.put(name, new Lookup(name, system, centering, fromStd));
                 } else {
                     currentName = fields[0];
                     final Operator T = new Operator(line.substring(i + 1));
                     final int d = T.getDimension();
-                    if (groupTables[d] == null) {
-                        groupTables[d] = new Table(d);
+                    if (tables[d] == null) {
+                        tables[d] = new Table(d);
                     }
-                    table = groupTables[d];
+                    table = tables[d];
                     table.nameToOps.put(currentName, new LinkedList<Operator>());
                     table.nameToTransform.put(currentName, new CoordinateChange(T));
                     table.namesInOrder.add(currentName);
@@ -193,13 +206,308 @@ public class SpaceGroupCatalogue {
                 throw new DataFormatException("error in space group table file");
             }
         }
+        install(tables, aliasMap, lookupMap);
 	}
 
+    /**
+     * Translates the name of a crystal system as used in the table files into
+     * the corresponding constant.
+     * 
+     * @param name the lower case name of the system.
+     * @param d the dimension of the groups in question.
+     * @return the crystal system.
+     */
+    private static CrystalSystem crystalSystem(final String name, final int d) {
+        if (name.equals("oblique")) {
+            return CrystalSystem.OBLIQUE;
+        } else if (name.equals("rectangular")) {
+            return CrystalSystem.RECTANGULAR;
+        } else if (name.equals("square")) {
+            return CrystalSystem.SQUARE;
+        } else if (name.equals("monoclinic")) {
+            return CrystalSystem.MONOCLINIC;
+        } else if (name.equals("triclinic")) {
+            return CrystalSystem.TRICLINIC;
+        } else if (name.equals("orthorhombic")) {
+            return CrystalSystem.ORTHORHOMBIC;
+        } else if (name.equals("trigonal")) {
+            return CrystalSystem.TRIGONAL;
+        } else if (name.equals("tetragonal")) {
+            return CrystalSystem.TETRAGONAL;
+        } else if (name.equals("hexagonal")) {
+            if (d == 2) {
+                return CrystalSystem.HEXAGONAL_2D;
+            } else {
+                return CrystalSystem.HEXAGONAL_3D;
+            }
+        } else if (name.equals("cubic")) {
+            return CrystalSystem.CUBIC;
+        } else {
+            throw new RuntimeException(name + " system unknown");
+        }
+    }
+    
+    /**
+     * Makes freshly read tables the current ones. The group tables are set
+     * last, since their presence signals that the catalogue has been loaded.
+     */
+    private static void install(final Table tables[],
+            final Map<String, String> aliasMap,
+            final Map<String, Lookup> lookupMap) {
+        aliases = aliasMap;
+        lookup = lookupMap;
+        groupTables = tables;
+    }
+    
+    /**
+     * Reads the precompiled binary form of the space group tables. If the
+     * resource is missing, was written by an incompatible version or does not
+     * match the given checksum, nothing is changed.
+     * 
+     * @param filename the name of the binary resource.
+     * @param checksum the checksum of the text table, or -1 to accept any.
+     * @return true if the tables were read successfully.
+     */
+    private static boolean readBinaryTable(final String filename,
+            final long checksum) {
+        final InputStream inStream = ClassLoader.getSystemResourceAsStream(filename);
+        if (inStream == null) {
+            return false;
+        }
+        return readBinaryTable(inStream, checksum);
+    }
+    
+    /**
+     * Reads the binary form of the space group tables from a stream, which
+     * is closed afterwards.
+     * 
+     * @param inStream the stream to read from.
+     * @param checksum the checksum of the text table, or -1 to accept any.
+     * @return true if the tables were read successfully.
+     */
+    static boolean readBinaryTable(final InputStream inStream,
+            final long checksum) {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                inStream));
+        try {
+            if (in.readInt() != BINARY_MAGIC || in.readInt() != BINARY_VERSION) {
+                return false;
+            }
+            final long stored = in.readLong();
+            if (checksum >= 0 && stored != checksum) {
+                return false;
+            }
+            
+            final Map<String, String> aliasMap = new HashMap<String, String>();
+            for (int n = in.readInt(); n > 0; --n) {
+                final String key = in.readUTF();
+                aliasMap.put(key, in.readUTF());
+            }
+            
+            final Map<String, Lookup> lookupMap = new HashMap<String, Lookup>();
+            for (int n = in.readInt(); n > 0; --n) {
+                final String name = in.readUTF();
+                final String system = in.readUTF();
+                final char centering = in.readChar();
+                final CoordinateChange fromStd = new CoordinateChange(
+                        readOperator(in));
+                lookupMap.put(name, new Lookup(name, crystalSystem(system,
+                        fromStd.getDimension()), centering, fromStd));
+            }
+            
+            final Table tables[] = new Table[5];
+            for (int n = in.readInt(); n > 0; --n) {
+                final Table table = new Table(in.readInt());
+                for (int m = in.readInt(); m > 0; --m) {
+                    final String name = in.readUTF();
+                    table.nameToTransform.put(name, new CoordinateChange(
+                            readOperator(in)));
+                    final byte data[] = new byte[in.readInt()];
+                    in.readFully(data);
+                    table.nameToEncodedOps.put(name, data);
+                    table.namesInOrder.add(name);
+                }
+                tables[table.dimension] = table;
+            }
+            
+            install(tables, aliasMap, lookupMap);
+            return true;
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+    
+    /**
+     * Writes the space group tables in binary form, as read by
+     * {@link #load()} in preference to the text table. The text table is
+     * always parsed anew for this.
+     * 
+     * @param out the stream to write to.
+     * @throws IOException if an output error occurred.
+     */
+    public static void writeBinaryTable(final OutputStream out)
+            throws IOException {
+        parseGroups(tablePath);
+        final DataOutputStream data = new DataOutputStream(out);
+        
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(BINARY_VERSION);
+        data.writeLong(textTableChecksum());
+        
+        data.writeInt(aliases.size());
+        for (final Map.Entry<String, String> e: aliases.entrySet()) {
+            data.writeUTF(e.getKey());
+            data.writeUTF(e.getValue());
+        }
+        
+        data.writeInt(lookup.size());
+        for (final Lookup info: lookup.values()) {
+            data.writeUTF(info.name);
+            data.writeUTF(info.system.toString().toLowerCase());
+            data.writeChar(info.centering);
+            writeOperator(data, info.fromStd.getOperator());
+        }
+        
+        int count = 0;
+        for (int d = 0; d < groupTables.length; ++d) {
+            if (groupTables[d] != null) {
+                ++count;
+            }
+        }
+        data.writeInt(count);
+        for (int d = 0; d < groupTables.length; ++d) {
+            final Table table = groupTables[d];
+            if (table == null) {
+                continue;
+            }
+            data.writeInt(table.dimension);
+            data.writeInt(table.namesInOrder.size());
+            for (final String name: table.namesInOrder) {
+                data.writeUTF(name);
+                writeOperator(data, table.nameToTransform.get(name)
+                        .getOperator());
+                final byte ops[] = encodeOperators(table.operators(name));
+                data.writeInt(ops.length);
+                data.write(ops);
+            }
+        }
+        data.flush();
+    }
+    
+    /**
+     * Computes the checksum of the text table, as stored with the binary one.
+     * 
+     * @return the checksum, or -1 if the text table is not available.
+     */
+    private static long textTableChecksum() {
+        final InputStream inStream = ClassLoader.getSystemResourceAsStream(tablePath);
+        if (inStream == null) {
+            return -1;
+        }
+        final CRC32 crc = new CRC32();
+        final byte buffer[] = new byte[8192];
+        try {
+            try {
+                int n;
+                while ((n = inStream.read(buffer)) > 0) {
+                    crc.update(buffer, 0, n);
+                }
+            } finally {
+                inStream.close();
+            }
+        } catch (IOException ex) {
+            return -1;
+        }
+        return crc.getValue();
+    }
+    
+    private static byte[] encodeOperators(final List<Operator> ops)
+            throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        out.writeShort(ops.size());
+        for (final Operator op: ops) {
+            writeOperator(out, op);
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+    
+    private static List<Operator> decodeOperators(final byte data[])
+            throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(data));
+        final List<Operator> ops = new LinkedList<Operator>();
+        for (int n = in.readShort(); n > 0; --n) {
+            ops.add(readOperator(in));
+        }
+        return ops;
+    }
+    
+    /**
+     * Writes an operator as its dimension followed by the entries of its
+     * linear part and translation, each as a numerator/denominator pair.
+     */
+    private static void writeOperator(final DataOutputStream out,
+            final Operator op) throws IOException {
+        final int d = op.getDimension();
+        final Matrix M = op.getCoordinates();
+        out.writeByte(d);
+        for (int i = 0; i <= d; ++i) {
+            for (int j = 0; j < d; ++j) {
+                final Rational x = (Rational) M.get(i, j);
+                writeByte(out, x.numerator().longValue());
+                writeByte(out, x.denominator().longValue());
+            }
+        }
+    }
+    
+    private static void writeByte(final DataOutputStream out, final long n)
+            throws IOException {
+        if (n < Byte.MIN_VALUE || n > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("value " + n + " out of range");
+        }
+        out.writeByte((int) n);
+    }
+    
+    private static Operator readOperator(final DataInputStream in)
+            throws IOException {
+        final int d = in.readByte();
+        final IArithmetic A[][] = new IArithmetic[d + 1][d + 1];
+        for (int i = 0; i <= d; ++i) {
+            for (int j = 0; j < d; ++j) {
+                final int num = in.readByte();
+                final int den = in.readByte();
+                if (den == 1) {
+                    A[i][j] = new Whole(num);
+                } else {
+                    A[i][j] = new Fraction(num, den);
+                }
+            }
+            A[i][d] = i == d ? Whole.ONE : Whole.ZERO;
+        }
+        return new Operator(A);
+    }
+
     /**
 	 * The name of the file to read space group settings from.
 	 */
     final private static String tablePath = "org/gavrog/joss/geometry/sgtable.data";
     
+    /**
+     * The name of the precompiled binary version of the table file.
+     */
+    final private static String binaryTablePath =
+        "org/gavrog/joss/geometry/sgtable.bin";
+    
+    final private static int BINARY_MAGIC = 0x53475442; // "SGTB"
+    final private static int BINARY_VERSION = 1;
+    
     /**
      * Retrieves an iterator of all known names for group settings for a given
      * dimension. Names are returned in the order they appear in in the data
@@ -278,8 +586,8 @@ public class SpaceGroupCatalogue {
         
         for (int i = 0; i < candidates.length; ++i) {
 			final String key = candidates[i];
-			if (table.nameToOps.containsKey(key)) {
-				return new Entry(key, (List) table.nameToOps.get(key),
+			if (table.nameToTransform.containsKey(key)) {
+				return new Entry(key, table.operators(key),
 						(CoordinateChange) table.nameToTransform.get(key));
 			}
 		}
@@ -337,10 +645,14 @@ public class SpaceGroupCatalogue {
     }
 
     /**
-     * Load the catalogue from the specification file.
+     * Load the catalogue. The precompiled binary table is used if it is
+     * present and up to date with respect to the text table. Otherwise, the
+     * text table is parsed.
      */
-    public static void load() {
-    	parseGroups(tablePath);
+    public static synchronized void load() {
+        if (!readBinaryTable(binaryTablePath, textTableChecksum())) {
+            parseGroups(tablePath);
+        }
     }
     
     /**
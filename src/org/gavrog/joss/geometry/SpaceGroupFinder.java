@@ -16,11 +16,14 @@ limitations under the License.
 
 package org.gavrog.joss.geometry;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,12 +57,79 @@ public class SpaceGroupFinder {
     final private int dimension;
     
     /**
-     * Constructs a new instance.
+     * Represents a catalogue group as a candidate for matching, with its
+     * primitive operators already converted to the lookup setting and sorted.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        final public int order;
+        final public Lookup info;
+        final public List ops;
+        
+        public Candidate(final int order, final Lookup info, final List ops) {
+            this.order = order;
+            this.info = info;
+            this.ops = ops;
+        }
+
+        public int compareTo(final Candidate other) {
+            return this.order - other.order;
+        }
+    }
+    
+    /**
+     * Candidates for matching, grouped by dimension, crystal system, centering
+     * and catalogue preferences, and within each group indexed by the linear
+     * parts of their operators. Groups are filled in on demand.
+     */
+    final private static Map<List<Object>, Map<String, List<Candidate>>> candidateIndex =
+        new HashMap<List<Object>, Map<String, List<Candidate>>>();
+    
+    /**
+     * The maximal number of identification results remembered.
+     */
+    final private static int MAX_CACHED_RESULTS = 1000;
+    
+    /**
+     * Previous identification results, keyed by the canonical form of the
+     * operator set of the group and the catalogue preferences in effect.
+     */
+    final private static Map<String, SpaceGroupFinder> resultCache =
+        new LinkedHashMap<String, SpaceGroupFinder>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, SpaceGroupFinder> eldest) {
+                return size() > MAX_CACHED_RESULTS;
+            }
+        };
+    
+    /**
+     * Constructs a new instance. If a group with the same set of operators has
+     * been identified before, the previous result is reused.
      * 
      * @param G the group to identify.
      */
     public SpaceGroupFinder(final SpaceGroup G) {
+        this(G, cacheKey(G));
+    }
+    
+    /**
+     * Constructs a new instance, either by copying a previous result or by
+     * performing the full analysis.
+     * 
+     * @param G the group to identify.
+     * @param key the key for the result cache.
+     */
+    private SpaceGroupFinder(final SpaceGroup G, final String key) {
         final int d = this.dimension = G.getDimension();
+        final SpaceGroupFinder known = cachedResult(key);
+        if (known != null) {
+            this.G = G;
+            this.crystalSystem = known.crystalSystem;
+            this.groupName = known.groupName;
+            this.extension = known.extension;
+            this.toStd = known.toStd;
+            this.fromStd = known.fromStd;
+            return;
+        }
         this.G = G;
         
         if (d == 3 || d == 2) {
@@ -148,12 +218,65 @@ public class SpaceGroupFinder {
                 this.toStd = (CoordinateChange) toNormalized.times(c);
                 this.fromStd = (CoordinateChange) this.toStd.inverse();
             }
+            synchronized (resultCache) {
+                resultCache.put(key, this);
+            }
         } else {
             final String msg = "group dimension is " + d + ", must be 2 or 3";
             throw new UnsupportedOperationException(msg);
         }
     }
     
+    /**
+     * Computes a string which identifies the operator set of a group modulo
+     * lattice translations together with the catalogue preferences relevant
+     * for the identification.
+     * 
+     * @param G the group.
+     * @return the key string.
+     */
+    private static String cacheKey(final SpaceGroup G) {
+        final int d = G.getDimension();
+        final List<String> ops = new ArrayList<String>();
+        for (final Iterator iter = G.getOperators().iterator(); iter.hasNext();) {
+            final Operator op = ((Operator) iter.next()).modZ();
+            final StringBuffer buf = new StringBuffer(d * (d + 1) * 4);
+            for (int i = 0; i <= d; ++i) {
+                for (int j = 0; j < d; ++j) {
+                    final Rational x = (Rational) op.get(i, j);
+                    buf.append(x.numerator());
+                    buf.append('/');
+                    buf.append(x.denominator());
+                    buf.append(' ');
+                }
+            }
+            ops.add(buf.toString());
+        }
+        Collections.sort(ops);
+        
+        final StringBuffer buf = new StringBuffer(ops.size() * d * (d + 1) * 4);
+        buf.append(d);
+        buf.append(SpaceGroupCatalogue.getPreferSecondOrigin() ? " 2" : " 1");
+        buf.append(SpaceGroupCatalogue.getPreferHexagonal() ? " H" : " R");
+        for (final String op: ops) {
+            buf.append(';');
+            buf.append(op);
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Retrieves a previous identification result.
+     * 
+     * @param key the key as computed by {@link #cacheKey(SpaceGroup)}.
+     * @return the previous result or null.
+     */
+    private static SpaceGroupFinder cachedResult(final String key) {
+        synchronized (resultCache) {
+            return resultCache.get(key);
+        }
+    }
+    
     /**
      * Sorts a list of operators lexicographically by their linear components.
      * 
@@ -169,6 +292,75 @@ public class SpaceGroupFinder {
         });
     }
     
+    /**
+     * Computes a string which identifies the sequence of linear parts of a
+     * sorted list of operators. Numbers are written in lowest terms, so that
+     * equal values always produce equal strings.
+     * 
+     * @param ops the list of operators.
+     * @return the fingerprint string.
+     */
+    private static String linearFingerprint(final List ops) {
+        final StringBuffer buf = new StringBuffer(ops.size() * 20);
+        for (final Iterator iter = ops.iterator(); iter.hasNext();) {
+            final Operator op = (Operator) iter.next();
+            final int d = op.getDimension();
+            for (int i = 0; i < d; ++i) {
+                for (int j = 0; j < d; ++j) {
+                    final Rational x = (Rational) op.get(i, j);
+                    buf.append(x.numerator());
+                    buf.append('/');
+                    buf.append(x.denominator());
+                    buf.append(' ');
+                }
+            }
+            buf.append(';');
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Retrieves the index of candidate groups for a given dimension, crystal
+     * system and centering, building it on first use. Candidates are numbered
+     * in the order in which the catalogue lists them, so that lookups through
+     * the index give the same results as a sequential search.
+     * 
+     * @param d the dimension.
+     * @param system the crystal system.
+     * @param centering the lattice centering.
+     * @return the candidates, indexed by linear fingerprint.
+     */
+    private static synchronized Map<String, List<Candidate>> candidates(
+            final int d, final CrystalSystem system, final char centering) {
+        final List<Object> bucket = Arrays.asList(new Object[] {
+                new Integer(d), system, new Character(centering),
+                Boolean.valueOf(SpaceGroupCatalogue.getPreferSecondOrigin()),
+                Boolean.valueOf(SpaceGroupCatalogue.getPreferHexagonal()) });
+        Map<String, List<Candidate>> result = candidateIndex.get(bucket);
+        if (result == null) {
+            result = new HashMap<String, List<Candidate>>();
+            int order = 0;
+            for (final Iterator iter = SpaceGroupCatalogue.lookupInfo(); iter
+                    .hasNext();) {
+                final Lookup info = (Lookup) iter.next();
+                ++order;
+                if (info.centering != centering || info.system != system) {
+                    continue;
+                }
+                final SpaceGroup H = SpaceGroup.fromCatalogue(d, info.name);
+                final List ops = info.fromStd.applyTo(H.primitiveOperatorsSorted());
+                sortOps(ops);
+                final String key = linearFingerprint(ops);
+                if (!result.containsKey(key)) {
+                    result.put(key, new ArrayList<Candidate>());
+                }
+                result.get(key).add(new Candidate(order, info, ops));
+            }
+            candidateIndex.put(bucket, result);
+        }
+        return result;
+    }
+    
     /**
      * Generates an array of coordinate changes which the matching of normalized operator
      * lists needs to consider for a given crystal system and centering.
@@ -986,64 +1178,47 @@ public class SpaceGroupFinder {
         final Matrix I = Matrix.one(d);
         final int n = ops.size();
 
-        // --- iterate through the group catalogue
-        for (final Iterator iter = SpaceGroupCatalogue.lookupInfo(); iter.hasNext();) {
-            // --- retrieve the lookup info for the next group
-            final Lookup info = (Lookup) iter.next();
-
-            // --- skip if centering or system are different
-            if (info.centering != centering || info.system != this.crystalSystem) {
+        // --- convert the operators to each coordinate system variation and sort
+        final Map<String, List<Candidate>> index = candidates(d,
+                this.crystalSystem, centering);
+        final List allProbes[] = new List[variations.length];
+        final List<Candidate> found = new ArrayList<Candidate>();
+        final Map<Candidate, List<Integer>> candidate2variations =
+            new HashMap<Candidate, List<Integer>>();
+        for (int i = 0; i < variations.length; ++i) {
+            final List probes = variations[i].applyTo(ops);
+            sortOps(probes);
+            allProbes[i] = probes;
+            
+            // --- only groups with the same linear parts can match
+            final List<Candidate> matching = index.get(linearFingerprint(probes));
+            if (matching == null) {
                 continue;
             }
+            for (final Candidate c: matching) {
+                if (!candidate2variations.containsKey(c)) {
+                    candidate2variations.put(c, new ArrayList<Integer>());
+                    found.add(c);
+                }
+                candidate2variations.get(c).add(new Integer(i));
+            }
+        }
+        
+        // --- keep the catalogue order when testing the candidates
+        Collections.sort(found);
+        
+        for (final Candidate candidate: found) {
+            final Lookup info = candidate.info;
+            final List opsToMatch = candidate.ops;
 
             if (DEBUG > 0) {
                 System.err.println("  comparing with group " + info.name);
             }
             
-            // --- get the list of operators to match
-            final SpaceGroup H = new SpaceGroup(d, info.name);
-            final List primitive = H.primitiveOperatorsSorted();
-            final List opsToMatch = info.fromStd.applyTo(primitive);
-            sortOps(opsToMatch);
-            
-            // --- both operator lists must have the same length
-            if (opsToMatch.size() != n) {
-                if (DEBUG > 0) {
-                    System.err.println("    operator lists have different sizes: " + n
-                            + " <-> " + opsToMatch.size());
-                }
-                continue;
-            }
-            
-            // --- loop through the necessary coordinate system variations for this group
-            for (int i = 0; i < variations.length; ++i) {
-                // --- convert the operators to this coordinate system and sort
-                final List probes = variations[i].applyTo(ops);
-                sortOps(probes);
-
-                // --- check if linear parts are still equal
-                boolean good = true;
-                for (int j = 0; j < n; ++j) {
-                    final Operator op1 = (Operator) probes.get(j);
-                    final Operator op2 = (Operator) opsToMatch.get(j);
-                    if (!op1.linearPart().equals(op2.linearPart())) {
-                        good = false;
-                        break;
-                    }
-                }
-                if (!good) {
-                    if (DEBUG > 0) {
-                        System.err
-                                .println("    operator lists have different linear parts");
-                        if (DEBUG > 1) {
-                            for (int k = 0; k < n; ++k) {
-                                System.err.println("      " + probes.get(k) + " <-> "
-                                                   + opsToMatch.get(k));
-                            }
-                        }
-                    }
-                    continue;
-                }
+            // --- loop through the coordinate system variations with equal linear parts
+            for (final Integer variation: candidate2variations.get(candidate)) {
+                final int i = variation.intValue();
+                final List probes = allProbes[i];
                 
                 // --- find an origin shift that makes the lists coincide
                 final Matrix A = new Matrix(d, d * n);
@@ -0,0 +1,42 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.geometry;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the precompiled binary form of the space group table. Meant to be
+ * run at build time with the name of the output file as its only argument.
+ * 
+ * @author Olaf Delgado
+ */
+public class WriteSpaceGroupTable {
+	public static void main(final String args[]) {
+		try {
+			final OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(args[0]));
+			SpaceGroupCatalogue.writeBinaryTable(out);
+			out.flush();
+			out.close();
+		} catch (final IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+}
@@ -70,6 +70,7 @@ public class PeriodicGraph extends UndirectedGraph {
     final protected static Object CHARACTERISTIC_BASES = new Tag();
     final protected static Object SYMMETRIES = new Tag();
     final protected static Object INVARIANT = new Tag();
+    final protected static Object CANONICAL_MAP = new Tag();
     final protected static Object CONVENTIONAL_CELL = new Tag();
     final protected static Object TRANSLATIONAL_EQUIVALENCE_CLASSES = new Tag();
     final protected static Object MINIMAL_IMAGE_MAP = new Tag();
@@ -1952,7 +1953,7 @@ public class PeriodicGraph extends UndirectedGraph {
 			final Matrix B1 = (Matrix) bestBasis.inverse().times(
 					basisChange.getBasis().inverse());
 			try {
-				new Morphism(bestStart, nodes[1], B1);
+				cache.put(CANONICAL_MAP, new Morphism(bestStart, nodes[1], B1));
 			} catch (Morphism.NoSuchMorphismException ex) {
 				throw new RuntimeException(
 						"internal error - please contact author");
@@ -1980,6 +1981,34 @@ public class PeriodicGraph extends UndirectedGraph {
         return buffer.toString();
     }
     
+    /**
+     * Returns the Systre key for this graph in compact form.
+     * 
+     * @return the Systre key as a {@link SystreKey} instance.
+     */
+    public SystreKey getPackedSystreKey() {
+        return new SystreKey(invariant());
+    }
+    
+    /**
+     * Returns an isomorphism from this graph onto the canonical form that
+     * underlies its Systre key. The nodes of the image graph have the ids 1 to
+     * n in the order in which they first appear in the key, so that the image
+     * graph is node-for-node identical to the result of {@link #canonical()}.
+     * 
+     * @return the isomorphism onto the canonical form.
+     */
+    public Morphism canonicalMap() {
+        try {
+            return (Morphism) this.cache.get(CANONICAL_MAP);
+        } catch (Cache.NotFoundException ex) {
+        }
+        // --- the map is only produced along with the invariant
+        this.cache.remove(INVARIANT);
+        invariant();
+        return (Morphism) this.cache.get(CANONICAL_MAP);
+    }
+    
     /**
      * Computes a canonical form for this periodic graph. A canonical form is a
      * representation for a given graph that is unique for its isomorphism
@@ -2035,20 +2064,26 @@ public class PeriodicGraph extends UndirectedGraph {
      * @return the associated periodic graph.
      */
     public static PeriodicGraph fromInvariantString(final String key) {
-        final List numbers = new ArrayList();
-        final String fields[] = key.split("\\s+");
-        for (int i = 0; i < fields.length; ++i) {
-            numbers.add(new Integer(fields[i]));
-        }
-        final int d = ((Integer) numbers.get(0)).intValue();
-        final int n = (numbers.size() - 1) / (d + 2);
+        return fromSystreKey(SystreKey.fromString(key));
+    }
+    
+    /**
+     * Reconstructs the periodic graph associated to a Systre key.
+     * 
+     * @param key the invariant in compact form.
+     * @return the associated periodic graph.
+     */
+    public static PeriodicGraph fromSystreKey(final SystreKey key) {
+        final int numbers[] = key.toIntArray();
+        final int d = numbers[0];
+        final int n = (numbers.length - 1) / (d + 2);
         final PeriodicGraph G = new PeriodicGraph(d);
         final List nodes = new ArrayList();
         nodes.add(null);
         for (int i = 0; i < n; ++i) {
             final int offset = 1 + i * (d + 2);
-            final int s = ((Integer) numbers.get(offset)).intValue();
-            final int t = ((Integer) numbers.get(offset + 1)).intValue();
+            final int s = numbers[offset];
+            final int t = numbers[offset + 1];
             if (s == nodes.size()) {
                 nodes.add(G.newNode());
             }
@@ -2060,8 +2095,7 @@ public class PeriodicGraph extends UndirectedGraph {
             }
             final int[] shift = new int[d];
             for (int j = 0; j < d; ++j) {
-                final Integer x = (Integer) numbers.get(offset + 2 + j);
-                shift[j] = x.intValue();
+                shift[j] = numbers[offset + 2 + j];
             }
             G.newEdge((INode) nodes.get(s), (INode) nodes.get(t), shift);
         }
@@ -0,0 +1,255 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.basic;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact, immutable representation of a Systre key. The numbers in the key
+ * are stored as zig-zag encoded variable length integers, so that most of
+ * them take up a single byte. A 64-bit hash value is computed once on
+ * construction, which makes instances cheap to use as keys in hash tables.
+ *
+ * Instances are ordered like the sequences of numbers they represent, i.e.,
+ * in the same way as the invariants returned by {@link PeriodicGraph#invariant()}.
+ *
+ * @author Olaf Delgado
+ */
+public class SystreKey implements Comparable {
+    final private byte data[];
+    final private int size;
+    final private long hash;
+
+    /**
+     * Constructs an instance from a sequence of numbers.
+     *
+     * @param values the numbers in the key.
+     */
+    public SystreKey(final int values[]) {
+        this(values, values.length);
+    }
+
+    /**
+     * Constructs an instance from a list of integers.
+     *
+     * @param values the list of {@link Integer} instances in the key.
+     */
+    public SystreKey(final List values) {
+        this(toArray(values), values.size());
+    }
+
+    private SystreKey(final int values[], final int n) {
+        int length = 0;
+        for (int i = 0; i < n; ++i) {
+            length += encodedLength(values[i]);
+        }
+        final byte data[] = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < n; ++i) {
+            int v = (values[i] << 1) ^ (values[i] >> 31);
+            while ((v & ~0x7f) != 0) {
+                data[pos++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            data[pos++] = (byte) v;
+        }
+        this.data = data;
+        this.size = n;
+        this.hash = hash(data);
+    }
+
+    private static int[] toArray(final List values) {
+        final int result[] = new int[values.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((Integer) values.get(i)).intValue();
+        }
+        return result;
+    }
+
+    private static int encodedLength(final int value) {
+        int v = (value << 1) ^ (value >> 31);
+        int n = 1;
+        while ((v & ~0x7f) != 0) {
+            v >>>= 7;
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * The 64-bit FNV-1a hash of a byte sequence.
+     */
+    private static long hash(final byte bytes[]) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < bytes.length; ++i) {
+            h ^= bytes[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Parses the textual form of a Systre key, as produced by
+     * {@link PeriodicGraph#getSystreKey()}.
+     *
+     * @param key the key as text.
+     * @return the compact form of the key.
+     * @throws NumberFormatException if the text is not a sequence of integers.
+     */
+    public static SystreKey fromString(final String key) {
+        int values[] = new int[Math.max(key.length() / 2 + 1, 1)];
+        int n = 0;
+        int i = 0;
+        final int len = key.length();
+        while (i < len) {
+            while (i < len && Character.isWhitespace(key.charAt(i))) {
+                ++i;
+            }
+            if (i == len) {
+                break;
+            }
+            final int start = i;
+            while (i < len && !Character.isWhitespace(key.charAt(i))) {
+                ++i;
+            }
+            if (n == values.length) {
+                final int tmp[] = new int[2 * n];
+                System.arraycopy(values, 0, tmp, 0, n);
+                values = tmp;
+            }
+            values[n++] = Integer.parseInt(key.substring(start, i));
+        }
+        if (n == 0) {
+            throw new NumberFormatException("empty key");
+        }
+        return new SystreKey(values, n);
+    }
+
+    /**
+     * @return the numbers in this key.
+     */
+    public int[] toIntArray() {
+        final int result[] = new int[this.size];
+        int pos = 0;
+        for (int i = 0; i < this.size; ++i) {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = this.data[pos++];
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            result[i] = (v >>> 1) ^ -(v & 1);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of integers in this key.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of bytes used by the packed representation.
+     */
+    public int packedLength() {
+        return this.data.length;
+    }
+
+    /**
+     * @return the 64-bit hash value for this key.
+     */
+    public long longHashCode() {
+        return this.hash;
+    }
+
+    /**
+     * Returns the textual form of this key, as produced by
+     * {@link PeriodicGraph#getSystreKey()}.
+     */
+    public String toString() {
+        final int values[] = toIntArray();
+        final StringBuffer buffer = new StringBuffer(3 * values.length);
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                buffer.append(" ");
+            }
+            buffer.append(values[i]);
+        }
+        return buffer.toString();
+    }
+
+    public int hashCode() {
+        return (int) (this.hash ^ (this.hash >>> 32));
+    }
+
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        } else if (other instanceof SystreKey) {
+            final SystreKey key = (SystreKey) other;
+            return this.hash == key.hash && Arrays.equals(this.data, key.data);
+        } else {
+            return false;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    public int compareTo(final Object arg) {
+        if (!(arg instanceof SystreKey)) {
+            throw new IllegalArgumentException("argument must be a SystreKey");
+        }
+        final SystreKey other = (SystreKey) arg;
+        if (this.equals(other)) {
+            return 0;
+        }
+        // --- decode both keys in step, without unpacking them first
+        final byte a[] = this.data;
+        final byte b[] = other.data;
+        int p = 0;
+        int q = 0;
+        for (int i = 0; i < Math.min(this.size, other.size); ++i) {
+            int v = 0;
+            int shift = 0;
+            byte c;
+            do {
+                c = a[p++];
+                v |= (c & 0x7f) << shift;
+                shift += 7;
+            } while ((c & 0x80) != 0);
+            int w = 0;
+            shift = 0;
+            do {
+                c = b[q++];
+                w |= (c & 0x7f) << shift;
+                shift += 7;
+            } while ((c & 0x80) != 0);
+            if (v != w) {
+                v = (v >>> 1) ^ -(v & 1);
+                w = (w >>> 1) ^ -(w & 1);
+                return v < w ? -1 : 1;
+            }
+        }
+        return this.size - other.size;
+    }
+}
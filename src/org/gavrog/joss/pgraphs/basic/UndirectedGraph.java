@@ -64,7 +64,11 @@ public class UndirectedGraph implements IGraph {
      * Constructs an empty graph.
      */
     public UndirectedGraph() {
-        this.id = new Long(nextGraphId++);
+        this.id = new Long(newGraphId());
+    }
+    
+    private static synchronized long newGraphId() {
+        return nextGraphId++;
     }
     
     /* (non-Javadoc)
@@ -164,11 +168,13 @@ public class UndirectedGraph implements IGraph {
             }
         }
         
-        /* (non-Javadoc)
-         * @see java.lang.Object#hashCode()
+        /**
+         * The hash code does not depend on the graph, so that the iteration
+         * order of hashed collections of nodes, and with it the output of
+         * algorithms, does not depend on how many graphs were created before.
          */
         public int hashCode() {
-            return this.owner().id().hashCode() * 37 + id.hashCode();
+            return id.hashCode();
         }
         
         /* (non-Javadoc)
@@ -316,11 +322,11 @@ public class UndirectedGraph implements IGraph {
             }
         }
         
-        /* (non-Javadoc)
-         * @see java.lang.Object#hashCode()
+        /**
+         * Like node hash codes, this does not depend on the graph.
          */
         public int hashCode() {
-            final int code = this.owner().id().hashCode() * 37 + id.hashCode();
+            final int code = id.hashCode();
             if (this.compareAsOriented) {
                 return code * 37 + (this.isReverse ? 1 : 0);
             } else {
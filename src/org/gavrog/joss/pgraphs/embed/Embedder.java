@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.gavrog.box.collections.Partition;
+import org.gavrog.box.simple.TaskController;
 import org.gavrog.jane.algorithms.Amoeba;
 import org.gavrog.jane.compounds.LinearAlgebra;
 import org.gavrog.jane.compounds.Matrix;
@@ -126,6 +127,8 @@ public class Embedder {
 
 	private boolean _positionsRelaxed = false;
 	private boolean _cellRelaxed = false;
+	private int stepsPerformed = 0;
+	private int stepLimit = 0;
 
 	// --- Options:
 	private int passes = 3;
@@ -734,6 +737,49 @@ public class Embedder {
 			return 0;
 		}
 
+		// --- here's the relaxation procedure
+		final int nrPasses = Math.max(1, this.passes);
+		for (int pass = 0; pass < nrPasses; ++pass) {
+			relax(steps, pass, nrPasses);
+		}
+		this._positionsRelaxed = getRelaxPositions();
+		this._cellRelaxed = true;
+		return steps;
+	}
+
+	/**
+	 * Runs only the final pass of the relaxation procedure. This is meant for
+	 * starting configurations that are already close to an optimum, such as
+	 * ones restored from an {@link EmbeddingCache}.
+	 * 
+	 * @param steps the maximal number of steps to perform.
+	 * @return the number of steps allowed.
+	 */
+	public int polish(final int steps) {
+		if (dimParSpace == 0) {
+			this._positionsRelaxed = getRelaxPositions();
+			this._cellRelaxed = true;
+			return 0;
+		}
+
+		final int nrPasses = Math.max(1, this.passes);
+		relax(steps, nrPasses - 1, nrPasses);
+		this._positionsRelaxed = getRelaxPositions();
+		this._cellRelaxed = true;
+		return steps;
+	}
+
+	private void relax(final int steps, final int pass, final int nrPasses) {
+		final int allowed;
+		if (this.stepLimit > 0) {
+			allowed = Math.min(steps, this.stepLimit - this.stepsPerformed);
+			if (allowed <= 0) {
+				return;
+			}
+		} else {
+			allowed = steps;
+		}
+		final TaskController taskController = TaskController.getInstance();
 		final Amoeba.Function energy = new Amoeba.Function() {
 			public int dim() {
 				if (getRelaxPositions()) {
@@ -744,25 +790,47 @@ public class Embedder {
 			}
 
 			public double evaluate(final double[] p) {
+				taskController.bailOutIfCancelled();
 				return energy(p);
 			}
 		};
 
-		// --- here's the relaxation procedure
-		double p[] = this.p;
-		final int nrPasses = Math.max(1, this.passes);
-
-		for (int pass = 0; pass < nrPasses; ++pass) {
-			this.volumeWeight = Math.pow(10, -pass);
-			this.penaltyFactor = (pass == nrPasses - 1) ? 1 : 0;
-			p = new Amoeba(energy, 1e-6, steps, 10, 1.0).go(p);
-			for (int i = 0; i < p.length; ++i) {
-				this.p[i] = p[i];
-			}
+		this.volumeWeight = Math.pow(10, -pass);
+		this.penaltyFactor = (pass == nrPasses - 1) ? 1 : 0;
+		final Amoeba amoeba = new Amoeba(energy, 1e-6, allowed, 10, 1.0);
+		final double p[] = amoeba.go(this.p);
+		this.stepsPerformed += amoeba.getSteps();
+		for (int i = 0; i < p.length; ++i) {
+			this.p[i] = p[i];
 		}
-		this._positionsRelaxed = getRelaxPositions();
-		this._cellRelaxed = true;
-		return steps;
+	}
+
+	/**
+	 * @return the total number of energy evaluations performed so far.
+	 */
+	public int stepsPerformed() {
+		return this.stepsPerformed;
+	}
+
+	/**
+	 * Limits the total number of energy evaluations over all subsequent
+	 * relaxation runs.
+	 * 
+	 * @param stepLimit the new limit, or 0 for no limit.
+	 */
+	public void setStepLimit(final int stepLimit) {
+		this.stepLimit = stepLimit;
+	}
+
+	public int getStepLimit() {
+		return this.stepLimit;
+	}
+
+	/**
+	 * @return true if the limit on energy evaluations was reached.
+	 */
+	public boolean stepLimitReached() {
+		return this.stepLimit > 0 && this.stepsPerformed >= this.stepLimit;
 	}
 
 	public void reset() {
@@ -0,0 +1,343 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.embed;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gavrog.box.simple.DataFormatException;
+import org.gavrog.jane.compounds.Matrix;
+import org.gavrog.joss.geometry.Operator;
+import org.gavrog.joss.geometry.Point;
+import org.gavrog.joss.geometry.Vector;
+import org.gavrog.joss.pgraphs.basic.INode;
+import org.gavrog.joss.pgraphs.basic.Morphism;
+import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
+
+/**
+ * A persistent cache of relaxed embeddings, keyed by Systre key. Node
+ * positions and the Gram matrix are stored in the coordinates of the
+ * canonical form of a net, so that an entry can be used to warm-start an
+ * {@link Embedder} for any isomorphic input graph.
+ *
+ * Node positions are kept as displacements from the barycentric placement,
+ * which makes them independent of the choice of node representatives.
+ *
+ * @author Olaf Delgado
+ */
+public class EmbeddingCache {
+    /**
+     * The cached data for a single net in canonical coordinates.
+     */
+    private static class Entry {
+        final double gram[][];
+        final double shifts[][];
+
+        public Entry(final double gram[][], final double shifts[][]) {
+            this.gram = gram;
+            this.shifts = shifts;
+        }
+    }
+
+    final private File location;
+    final private int maxSize;
+    final private Map<String, Entry> entries;
+    private boolean modified = false;
+
+    /**
+     * Constructs an instance. If the given file exists, the cache is
+     * initialized with its contents. If the file is damaged, the entries up
+     * to the first problem are used and the rest is dropped on the next save.
+     *
+     * @param location the file to read the cache from and save it to.
+     * @param maxSize the maximal number of entries kept, or 0 for no limit.
+     * @throws IOException if the cache file exists but could not be read.
+     */
+    public EmbeddingCache(final File location, final int maxSize)
+            throws IOException {
+        this.location = location;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, Entry> eldest) {
+                return EmbeddingCache.this.maxSize > 0
+                        && size() > EmbeddingCache.this.maxSize;
+            }
+        };
+        if (location.exists()) {
+            final BufferedReader reader = new BufferedReader(new FileReader(
+                    location));
+            try {
+                read(reader);
+            } catch (DataFormatException ex) {
+                this.modified = true;
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * @return the file this cache is associated with.
+     */
+    public File getLocation() {
+        return this.location;
+    }
+
+    /**
+     * @return the maximal number of entries kept, or 0 for no limit.
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * @return the number of entries currently in the cache.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Removes the entry for the given key, if present.
+     *
+     * @param key the Systre key of the net to forget.
+     */
+    public synchronized void remove(final String key) {
+        if (this.entries.remove(key) != null) {
+            this.modified = true;
+        }
+    }
+
+    /**
+     * Sets the positions and Gram matrix of the given embedder from the
+     * cached entry for its graph, if there is one. The graph must be connected
+     * and minimal, so that it has a Systre key.
+     *
+     * @param embedder the embedder to initialize.
+     * @return true if an entry was found and successfully applied.
+     */
+    public boolean restore(final Embedder embedder) {
+        final PeriodicGraph G = embedder.getGraph();
+        final Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(G.getSystreKey());
+        }
+        if (entry == null || entry.shifts.length != G.numberOfNodes()) {
+            return false;
+        }
+
+        final int d = G.getDimension();
+        final Morphism phi = G.canonicalMap();
+        final Operator L = phi.getLinearOperator();
+        final Operator L_1 = (Operator) L.inverse();
+        final Map bari = G.barycentricPlacement();
+
+        final Map<INode, Point> pos = new HashMap<INode, Point>();
+        for (final Iterator nodes = G.nodes(); nodes.hasNext();) {
+            final INode v = (INode) nodes.next();
+            final int i = canonicalIndex((INode) phi.get(v));
+            final Vector s = (Vector) new Vector(entry.shifts[i]).times(L_1);
+            pos.put(v, (Point) ((Point) bari.get(v)).plus(s));
+        }
+
+        final Matrix A = L.getCoordinates().getSubMatrix(0, 0, d, d);
+        final Matrix gram = (Matrix) A.times(new Matrix(entry.gram)).times(
+                A.transposed());
+
+        try {
+            embedder.setPositions(pos);
+            embedder.setGramMatrix(gram);
+        } catch (RuntimeException ex) {
+            // --- the cached data does not fit the symmetry, so start over
+            embedder.reset();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stores the current positions and Gram matrix of the given embedder,
+     * replacing any previous entry for the same net.
+     *
+     * @param embedder the embedder to take the data from.
+     */
+    public void store(final Embedder embedder) {
+        final PeriodicGraph G = embedder.getGraph();
+        final int d = G.getDimension();
+        final Morphism phi = G.canonicalMap();
+        final Operator L = phi.getLinearOperator();
+        final Map bari = G.barycentricPlacement();
+        final Map pos = embedder.getPositions();
+
+        final double shifts[][] = new double[G.numberOfNodes()][];
+        for (final Iterator nodes = G.nodes(); nodes.hasNext();) {
+            final INode v = (INode) nodes.next();
+            final int i = canonicalIndex((INode) phi.get(v));
+            final Vector s = (Vector) ((Point) pos.get(v)).minus(bari.get(v));
+            shifts[i] = ((Vector) s.times(L)).asDoubleArray();
+        }
+
+        final Matrix A_1 = (Matrix) L.getCoordinates().getSubMatrix(0, 0, d, d)
+                .inverse();
+        final Matrix gram = (Matrix) A_1.times(embedder.getGramMatrix()).times(
+                A_1.transposed());
+
+        synchronized (this) {
+            this.entries.put(G.getSystreKey(), new Entry(gram.asDoubleArray(),
+                    shifts));
+            this.modified = true;
+        }
+    }
+
+    /**
+     * Writes the cache back to its file if it has been modified. The data is
+     * first written to a temporary file which then replaces the original, so
+     * that an interrupted write does not destroy the previous contents.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+        final File tmp = new File(this.location.getPath() + ".tmp");
+        final BufferedWriter writer = new BufferedWriter(new FileWriter(tmp));
+        try {
+            for (final Iterator<Map.Entry<String, Entry>> iter = this.entries
+                    .entrySet().iterator(); iter.hasNext();) {
+                final Map.Entry<String, Entry> item = iter.next();
+                write(writer, item.getKey(), item.getValue());
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(this.location)) {
+            this.location.delete();
+            if (!tmp.renameTo(this.location)) {
+                throw new IOException("could not replace " + this.location);
+            }
+        }
+        this.modified = false;
+    }
+
+    private static int canonicalIndex(final INode w) {
+        return ((Number) w.id()).intValue() - 1;
+    }
+
+    private static void write(final BufferedWriter out, final String key,
+            final Entry entry) throws IOException {
+        out.write("key      " + key + "\n");
+        out.write("gram    ");
+        for (int i = 0; i < entry.gram.length; ++i) {
+            for (int j = 0; j < entry.gram[i].length; ++j) {
+                out.write(" " + entry.gram[i][j]);
+            }
+        }
+        out.write("\n");
+        for (int k = 0; k < entry.shifts.length; ++k) {
+            out.write("node    ");
+            for (int i = 0; i < entry.shifts[k].length; ++i) {
+                out.write(" " + entry.shifts[k][i]);
+            }
+            out.write("\n");
+        }
+        out.write("end\n");
+    }
+
+    private void read(final BufferedReader input) throws IOException {
+        String key = null;
+        double gram[] = null;
+        final List<double[]> shifts = new ArrayList<double[]>();
+
+        String line;
+        while ((line = input.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+            final String fields[] = line.split("\\s+", 2);
+            final String tag = fields[0];
+            final String arg = fields.length > 1 ? fields[1] : "";
+            if (tag.equals("key")) {
+                key = arg;
+            } else if (tag.equals("gram")) {
+                gram = parseNumbers(arg);
+            } else if (tag.equals("node")) {
+                shifts.add(parseNumbers(arg));
+            } else if (tag.equals("end")) {
+                if (key == null || gram == null) {
+                    throw new DataFormatException("incomplete cache entry");
+                }
+                final int d;
+                try {
+                    d = Integer.parseInt(key.split("\\s+", 2)[0]);
+                } catch (NumberFormatException ex) {
+                    throw new DataFormatException("bad key '" + key + "'");
+                }
+                if (gram.length != d * d) {
+                    throw new DataFormatException("bad Gram matrix for key '"
+                            + key + "'");
+                }
+                for (final Iterator<double[]> iter = shifts.iterator(); iter
+                        .hasNext();) {
+                    if (iter.next().length != d) {
+                        throw new DataFormatException("bad node for key '"
+                                + key + "'");
+                    }
+                }
+                final double g[][] = new double[d][d];
+                for (int i = 0; i < d; ++i) {
+                    for (int j = 0; j < d; ++j) {
+                        g[i][j] = gram[i * d + j];
+                    }
+                }
+                final double s[][] = new double[shifts.size()][];
+                shifts.toArray(s);
+                this.entries.put(key, new Entry(g, s));
+                key = null;
+                gram = null;
+                shifts.clear();
+            } else {
+                throw new DataFormatException("unknown tag '" + tag + "'");
+            }
+        }
+    }
+
+    private static double[] parseNumbers(final String text) {
+        final String fields[] = text.trim().split("\\s+");
+        final double result[] = new double[fields.length];
+        try {
+            for (int i = 0; i < fields.length; ++i) {
+                result[i] = Double.parseDouble(fields[i]);
+            }
+        } catch (NumberFormatException ex) {
+            throw new DataFormatException("bad number in '" + text + "'");
+        }
+        return result;
+    }
+}
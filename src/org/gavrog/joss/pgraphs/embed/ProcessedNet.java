@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.gavrog.box.collections.Pair;
+import org.gavrog.box.simple.JSONWriter;
 import org.gavrog.box.simple.Strings;
 import org.gavrog.jane.compounds.Matrix;
 import org.gavrog.jane.numbers.IArithmetic;
@@ -54,8 +55,9 @@ import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
  * @version $Id: ProcessedNet.java,v 1.9 2008/07/12 08:44:04 odf Exp $
  */
 public class ProcessedNet {
-    private final static DecimalFormat fmtReal4 = new DecimalFormat("0.0000");
-    private final static DecimalFormat fmtReal5 = new DecimalFormat("0.00000");
+    // --- formats are not thread-safe, so each instance has its own
+    private final DecimalFormat fmtReal4 = new DecimalFormat("0.0000");
+    private final DecimalFormat fmtReal5 = new DecimalFormat("0.00000");
     
     final static boolean DEBUG = false;
     
@@ -134,6 +136,26 @@ public class ProcessedNet {
         }
     };
 
+    /*
+     * The corrected unit cell for the output.
+     */
+    private static class Cell {
+        CoordinateChange correction;
+        String groupName;
+        boolean settingModified = false;
+        double parameters[];
+        double volume = Double.NaN;
+    }
+    
+    /*
+     * The nodes and edges to print, placed in a conventional unit cell.
+     */
+    private static class Layout {
+        Cover cover;
+        Map nodes;
+        List edges;
+    }
+
     private boolean verified = false;
     private final PeriodicGraph graph;
     private final String name;
@@ -161,69 +183,22 @@ public class ProcessedNet {
         }
         
         final int d = graph.getDimension();
-        final CoordinateChange toStd = finder.getToStd();
         final boolean posRelaxed = embedder.positionsRelaxed();
         final Matrix gram = embedder.getGramMatrix();
+        final Map pos = embedder.getPositions();
         
         // --- process unit cell parameters (possibly correcting settings)
         if (DEBUG) {
         	System.out.println("\t\t@@@ Computing cell parameters...");
         }
         
-        CoordinateChange correction = processCellParameters(out,
+        final CoordinateChange correction = processCellParameters(out,
 				cgdFormat, fullCell);
         
-        // --- compute orbit graph with respect to a conventional unit cell
-        if (DEBUG) {
-        	System.out.println("\t\t@@@ Computing full unit cell...");
-        }
-        
-        final Cover cov = graph.conventionalCellCover();
-
-        // --- lift relaxed node positions to the conventional unit cell
-        if (DEBUG) {
-        	System.out.println("\t\t@@@ Computing full list of node positions...");
-        }
-        
-        final Map pos = embedder.getPositions();
-		final INode v0 = (INode) cov.nodes().next();
-		final Vector shift = (Vector) ((Point) pos.get(cov.image(v0))).times(
-				toStd).minus(cov.liftedPosition(v0, pos));
-		final Map lifted = new HashMap();
-		for (final Iterator nodes = cov.nodes(); nodes.hasNext();) {
-			final INode v = (INode) nodes.next();
-			lifted.put(v, cov.liftedPosition(v, pos).plus(shift).times(
-					correction));
-		}
-        
-        // --- if there's translational freedom, shift some node to a nice place
-		final Vector tmp[] = graph.getSpaceGroup().shiftSpace();
-		if (tmp.length > 0) {
-			for (int i = 0; i < tmp.length; ++i) {
-				tmp[i] = (Vector) tmp[i].times(toStd).times(correction);
-			}
-			final Matrix shiftSpace = Vector.toMatrix(tmp);
-			final Operator proj = Operator.orthogonalProjection(shiftSpace,
-					Matrix.one(d));
-			final INode v = (INode) lifted.keySet().iterator().next();
-			final Point p = (Point) lifted.get(v);
-			final Vector s = (Vector) Point.origin(d).minus(p.times(proj));
-			final CoordinateChange corrective_shift = new CoordinateChange(
-					new Operator(s));
-			for (Iterator iter = lifted.keySet().iterator(); iter.hasNext();) {
-				final INode w = (INode) iter.next();
-				lifted.put(w, ((Point) lifted.get(w)).times(corrective_shift));
-			}
-			correction = (CoordinateChange) correction.times(corrective_shift);
-		}
-        
-		// --- find the node representatives to print
+        final Layout layout = layout(correction, fullCell);
+        final Cover cov = layout.cover;
+        final Map reps = layout.nodes;
         final boolean allNodes = fullCell;
-        if (DEBUG) {
-        	System.out.println("\t\t@@@ Computing node representatives...");
-        }
-        
-        final Map reps = nodeReps(cov, lifted, allNodes);
         
         // --- print the node positions
         if (!cgdFormat) {
@@ -267,7 +242,7 @@ public class ProcessedNet {
         if (!cgdFormat) {
             out.println("   Edges:");
         }
-        final List ereps = edgeReps(cov, reps, lifted, correction, fullCell);
+        final List ereps = layout.edges;
         for (final Iterator iter = ereps.iterator(); iter.hasNext();) {
             final Pair pair = (Pair) iter.next();
             final Point p = ((PlacedNode) pair.getFirst()).p;
@@ -333,6 +308,74 @@ public class ProcessedNet {
         
     }
 
+    /**
+     * Writes the embedding as members of the JSON object currently open:
+     * the space group, cell parameters, node positions and edges.
+     * 
+     * @param out the JSON stream to write to.
+     * @param fullCell if true, a full conventional cell is written.
+     */
+    public void writeEmbedding(final JSONWriter out, final boolean fullCell) {
+        final int d = graph.getDimension();
+        final Cell cell = cellParameters();
+        final Layout layout = layout(cell.correction, fullCell);
+        final Cover cov = layout.cover;
+        
+        out.field("positionsRelaxed", embedder.positionsRelaxed());
+        out.field("cellRelaxed", embedder.cellRelaxed());
+        if (fullCell) {
+            out.field("group", d == 3 ? "P1" : "p1");
+        } else {
+            out.field("group", cell.groupName);
+        }
+        
+        out.beginObject("cell");
+        final double p[] = cell.parameters;
+        out.field("a", p[0]).field("b", p[1]);
+        if (d == 3) {
+            out.field("c", p[2]).field("alpha", p[3]).field("beta", p[4]);
+            out.field("gamma", p[5]).field("volume", cell.volume);
+        } else {
+            out.field("gamma", p[2]);
+        }
+        out.endObject();
+        
+        out.beginArray("nodes");
+        int last = 0;
+        for (final Iterator iter = layout.nodes.keySet().iterator(); iter
+                .hasNext();) {
+            final INode v = (INode) iter.next();
+            out.beginObject();
+            if (fullCell) {
+                out.field("name", "" + (++last));
+            } else {
+                out.field("name", (String) this.node2name.get(cov.image(v)));
+            }
+            out.field("degree", cov.new CoverNode(v).degree());
+            out.field("position", coordinates((Point) layout.nodes.get(v)));
+            out.endObject();
+        }
+        out.endArray();
+        
+        out.beginArray("edges");
+        for (final Iterator iter = layout.edges.iterator(); iter.hasNext();) {
+            final Pair pair = (Pair) iter.next();
+            out.beginObject();
+            out.field("from", coordinates(((PlacedNode) pair.getFirst()).p));
+            out.field("to", coordinates(((PlacedNode) pair.getSecond()).p));
+            out.endObject();
+        }
+        out.endArray();
+    }
+    
+    private static double[] coordinates(final Point p) {
+        final double result[] = new double[p.getDimension()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((Real) p.get(i)).doubleValue();
+        }
+        return result;
+    }
+
 	/**
 	 * @param out
 	 * @param gram
@@ -422,37 +465,101 @@ public class ProcessedNet {
 		}
 	}
 
+    /**
+     * Places the nodes and edges to print in a conventional unit cell.
+     * 
+     * @param correction the cell correction from the cell parameter step.
+     * @param fullCell if true, all nodes and edges in the cell are included.
+     * @return the placed nodes and edges.
+     */
+    private Layout layout(CoordinateChange correction, final boolean fullCell) {
+        final int d = graph.getDimension();
+        final CoordinateChange toStd = finder.getToStd();
+        
+        // --- compute orbit graph with respect to a conventional unit cell
+        if (DEBUG) {
+        	System.out.println("\t\t@@@ Computing full unit cell...");
+        }
+        
+        final Cover cov = graph.conventionalCellCover();
+
+        // --- lift relaxed node positions to the conventional unit cell
+        if (DEBUG) {
+        	System.out.println("\t\t@@@ Computing full list of node positions...");
+        }
+        
+        final Map pos = embedder.getPositions();
+		final INode v0 = (INode) cov.nodes().next();
+		final Vector shift = (Vector) ((Point) pos.get(cov.image(v0))).times(
+				toStd).minus(cov.liftedPosition(v0, pos));
+		final Map lifted = new HashMap();
+		for (final Iterator nodes = cov.nodes(); nodes.hasNext();) {
+			final INode v = (INode) nodes.next();
+			lifted.put(v, cov.liftedPosition(v, pos).plus(shift).times(
+					correction));
+		}
+        
+        // --- if there's translational freedom, shift some node to a nice place
+		final Vector tmp[] = graph.getSpaceGroup().shiftSpace();
+		if (tmp.length > 0) {
+			for (int i = 0; i < tmp.length; ++i) {
+				tmp[i] = (Vector) tmp[i].times(toStd).times(correction);
+			}
+			final Matrix shiftSpace = Vector.toMatrix(tmp);
+			final Operator proj = Operator.orthogonalProjection(shiftSpace,
+					Matrix.one(d));
+			final INode v = (INode) lifted.keySet().iterator().next();
+			final Point p = (Point) lifted.get(v);
+			final Vector s = (Vector) Point.origin(d).minus(p.times(proj));
+			final CoordinateChange corrective_shift = new CoordinateChange(
+					new Operator(s));
+			for (Iterator iter = lifted.keySet().iterator(); iter.hasNext();) {
+				final INode w = (INode) iter.next();
+				lifted.put(w, ((Point) lifted.get(w)).times(corrective_shift));
+			}
+			correction = (CoordinateChange) correction.times(corrective_shift);
+		}
+        
+		// --- find the node representatives to print
+        if (DEBUG) {
+        	System.out.println("\t\t@@@ Computing node representatives...");
+        }
+        final Layout layout = new Layout();
+        layout.cover = cov;
+        layout.nodes = nodeReps(cov, lifted, fullCell);
+        layout.edges = edgeReps(cov, layout.nodes, lifted, correction, fullCell);
+        return layout;
+    }
+
 	/**
-	 * @param out
-	 * @param cgdFormat
-	 * @param fullCell
-	 * @return
+	 * Computes the cell parameters for the output, correcting the cell where
+	 * necessary.
+	 * 
+	 * @return the correction and parameters.
 	 */
-	private CoordinateChange processCellParameters(final PrintWriter out,
-			final boolean cgdFormat, boolean fullCell) {
+	private Cell cellParameters() {
         final int d = graph.getDimension();
         final String extendedGroupName = finder.getExtendedGroupName();
         final CoordinateChange toStd = finder.getToStd();
         final CoordinateChange fromStd = (CoordinateChange) toStd.inverse();
-        final boolean cellRelaxed = embedder.cellRelaxed();
         final Matrix gram = embedder.getGramMatrix();
+        final Cell cell = new Cell();
         
-		final CoordinateChange correction;
 		if (d == 3) {
 			// --- correct to a reduced cell for monoclinic and triclinic groups
         	final CellCorrection cc = new CellCorrection(finder, gram);
-			correction = cc.getCoordinateChange();
-			final String correctedGroupName;
+			cell.correction = cc.getCoordinateChange();
 			if (cc.getGroupName().equals(finder.getGroupName())) {
-				correctedGroupName = extendedGroupName;
+				cell.groupName = extendedGroupName;
 			} else {
-				correctedGroupName = cc.getGroupName();
+				cell.groupName = cc.getGroupName();
+				cell.settingModified = true;
 			}
 			
 			if (DEBUG) {
-				System.out.println("\t\t@@@   cell correction = " + correction);
+				System.out.println("\t\t@@@   cell correction = " + cell.correction);
 			}
-			final CoordinateChange ctmp = (CoordinateChange) correction
+			final CoordinateChange ctmp = (CoordinateChange) cell.correction
 					.inverse().times(fromStd);
 			final Vector x = (Vector) Vector.unit(3, 0).times(ctmp);
 			final Vector y = (Vector) Vector.unit(3, 1).times(ctmp);
@@ -479,60 +586,17 @@ public class ProcessedNet {
 					((Real) Vector.dot(x, z, gram)).doubleValue() / (a * c));
 			final double gamma = f * Math.acos(
 					((Real) Vector.dot(x, y, gram)).doubleValue() / (a * b));
-
-			// --- print the cell parameters
-			if (DEBUG) {
-				System.out.println("\t\t@@@ Writing cell parameters...");
-			}
-
-	        // --- print a header if necessary
-	        if (DEBUG) {
-	        	System.out.println("\t\t@@@ Writing header...");
-	        }
-	        
-	        if (cgdFormat) {
-	            out.println("CRYSTAL");
-	            out.println("  NAME " + Strings.parsable(name, false));
-	            if (fullCell) {
-	            		out.println("  GROUP P1");
-	            } else {
-	                out.println("  GROUP " + correctedGroupName);
-	            }
-	        } else if (correctedGroupName != extendedGroupName && ! fullCell) {
-	        	out.println("   Group setting modified to " + correctedGroupName);
-	        }
-	        
-	        // --- print the cell info
-			if (cgdFormat) {
-				out.println("  CELL " + fmtReal5.format(a) + " "
-                        + fmtReal5.format(b) + " " + fmtReal5.format(c) + " "
-                        + fmtReal4.format(alpha) + " " + fmtReal4.format(beta)
-                        + " " + fmtReal4.format(gamma));
-			} else {
-				if (fullCell) {
-					out.println("   Coordinates below are given for a full "
-                            + "conventional cell.");
-				}
-				out.println("   " + (cellRelaxed ? "R" : "Unr")
-                        + "elaxed cell parameters:");
-                out.println("       a = " + fmtReal5.format(a) + ", b = "
-                        + fmtReal5.format(b) + ", c = " + fmtReal5.format(c));
-                out.println("       alpha = " + fmtReal4.format(alpha)
-                        + ", beta = " + fmtReal4.format(beta) + ", gamma = "
-                        + fmtReal4.format(gamma));
-				out.println("   Cell volume: "
-                        + fmtReal5.format(((Real) Vector.volume3D(x, y, z))
-                                .doubleValue()
-                                * Math.sqrt(((Real) gram.determinant())
-                                        .doubleValue())));
-			}
+			cell.parameters = new double[] { a, b, c, alpha, beta, gamma };
+			cell.volume = ((Real) Vector.volume3D(x, y, z)).doubleValue()
+					* Math.sqrt(((Real) gram.determinant()).doubleValue());
 		} else if (d == 2){
 			// --- the cell vectors in the embedder's coordinate system
 			Vector x = (Vector) Vector.unit(2, 0).times(fromStd);
 			Vector y = (Vector) Vector.unit(2, 1).times(fromStd);
 
 			// --- correct to a reduced cell for monoclinic and triclinic groups
-			correction = new CoordinateChange(Operator.identity(d));
+			cell.correction = new CoordinateChange(Operator.identity(d));
+			cell.groupName = extendedGroupName;
 
 			// --- compute the cell parameters
 			final double a = Math.sqrt(((Real) Vector.dot(x, x, gram))
@@ -542,44 +606,85 @@ public class ProcessedNet {
 			final double f = 180.0 / Math.PI;
 			final double gamma = Math.acos(((Real) Vector.dot(x, y, gram))
 					.doubleValue() / (a * b)) * f;
+			cell.parameters = new double[] { a, b, gamma };
+		} else {
+			throw new RuntimeException("dimension must be 2 or 3");
+		}
+		return cell;
+	}
 
-	        // --- print a header if necessary
-	        if (DEBUG) {
-	        	System.out.println("\t\t@@@ Writing header...");
-	        }
-	        
-	        if (cgdFormat) {
-	            out.println("CRYSTAL");
-	            out.println("  NAME " + Strings.parsable(name, false));
-	            if (fullCell) {
-	            	out.println("  GROUP p1");
-	            } else {
-	                out.println("  GROUP " + extendedGroupName);
-	            }
-	        }
-	        
-			// --- print the cell parameters
-			if (DEBUG) {
-				System.out.println("\t\t@@@ Writing cell parameters...");
-			}
+	/**
+	 * @param out
+	 * @param cgdFormat
+	 * @param fullCell
+	 * @return
+	 */
+	private CoordinateChange processCellParameters(final PrintWriter out,
+			final boolean cgdFormat, boolean fullCell) {
+        final int d = graph.getDimension();
+        final boolean cellRelaxed = embedder.cellRelaxed();
+        final Cell cell = cellParameters();
+        final double p[] = cell.parameters;
+        
+		// --- print the cell parameters
+		if (DEBUG) {
+			System.out.println("\t\t@@@ Writing cell parameters...");
+		}
 
+        // --- print a header if necessary
+        if (DEBUG) {
+        	System.out.println("\t\t@@@ Writing header...");
+        }
+        
+        if (cgdFormat) {
+            out.println("CRYSTAL");
+            out.println("  NAME " + Strings.parsable(name, false));
+            if (fullCell) {
+            	out.println(d == 3 ? "  GROUP P1" : "  GROUP p1");
+            } else {
+                out.println("  GROUP " + cell.groupName);
+            }
+        } else if (cell.settingModified && !fullCell) {
+        	out.println("   Group setting modified to " + cell.groupName);
+        }
+        
+		if (d == 3) {
+	        // --- print the cell info
 			if (cgdFormat) {
-				out.println("  CELL " + fmtReal5.format(a) + " "
-						+ fmtReal5.format(b) + " " + fmtReal4.format(gamma));
+				out.println("  CELL " + fmtReal5.format(p[0]) + " "
+                        + fmtReal5.format(p[1]) + " " + fmtReal5.format(p[2]) + " "
+                        + fmtReal4.format(p[3]) + " " + fmtReal4.format(p[4])
+                        + " " + fmtReal4.format(p[5]));
+			} else {
+				if (fullCell) {
+					out.println("   Coordinates below are given for a full "
+                            + "conventional cell.");
+				}
+				out.println("   " + (cellRelaxed ? "R" : "Unr")
+                        + "elaxed cell parameters:");
+                out.println("       a = " + fmtReal5.format(p[0]) + ", b = "
+                        + fmtReal5.format(p[1]) + ", c = " + fmtReal5.format(p[2]));
+                out.println("       alpha = " + fmtReal4.format(p[3])
+                        + ", beta = " + fmtReal4.format(p[4]) + ", gamma = "
+                        + fmtReal4.format(p[5]));
+				out.println("   Cell volume: " + fmtReal5.format(cell.volume));
+			}
+		} else {
+			if (cgdFormat) {
+				out.println("  CELL " + fmtReal5.format(p[0]) + " "
+						+ fmtReal5.format(p[1]) + " " + fmtReal4.format(p[2]));
 			} else {
 				if (fullCell) {
 					out.println("   Coordinates are for a full conventional cell.");
 				}
 				out.println("   " + (cellRelaxed ? "R" : "Unr")
 						+ "elaxed cell parameters:");
-				out.println("       a = " + fmtReal5.format(a) + ", b = "
-						+ fmtReal5.format(b) + ", gamma = "
-						+ fmtReal4.format(gamma));
+				out.println("       a = " + fmtReal5.format(p[0]) + ", b = "
+						+ fmtReal5.format(p[1]) + ", gamma = "
+						+ fmtReal4.format(p[2]));
 			}
-		} else {
-			throw new RuntimeException("dimension must be 2 or 3");
 		}
-		return correction;
+		return cell.correction;
 	}
 
     private Map nodeReps(final PeriodicGraph cov, final Map lifted,
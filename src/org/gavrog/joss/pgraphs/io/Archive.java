@@ -23,21 +23,29 @@ import java.io.IOException;
 import java.io.Reader;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.gavrog.box.collections.Pair;
 import org.gavrog.box.simple.DataFormatException;
 import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
+import org.gavrog.joss.pgraphs.basic.SystreKey;
 
 /**
  * A class to represent an archive of periodic nets.
  * 
+ * Archives can be shared between threads. Lookups do not lock, while
+ * modifications are serialized, so that the overwrite checks and the
+ * combined update of the key and name tables are atomic.
+ * 
  * @author Olaf Delgado
  * @version $Id: Archive.java,v 1.1 2007/05/12 01:32:27 odf Exp $
  */
@@ -45,7 +53,8 @@ public class Archive {
     final String keyVersion;
     final private Map byKey;
     final private Map byName;
-    private boolean errorOnOverwrite = false;
+    final private Set order;
+    private volatile boolean errorOnOverwrite = false;
     
     /**
      * Represents an individual archive entry.
@@ -55,12 +64,13 @@ public class Archive {
             '0', '1', '2', '3', '4', '5', '6', '7',
             '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
     
-        final private String key;
+        final private SystreKey key;
         final private String keyVersion;
         final private String name;
         private String description;
         private String reference;
         private String url;
+        private String checksum;
         
         /**
          * Constructs an entry with explicit values.
@@ -70,6 +80,17 @@ public class Archive {
          * @param name the name of the structure.
          */
         public Entry(final String key, final String version, final String name) {
+            this(SystreKey.fromString(key), version, name);
+        }
+        
+        /**
+         * Constructs an entry with explicit values and a key in compact form.
+         * 
+         * @param key the invariant key describing the structure.
+         * @param version the version of the key generation process used.
+         * @param name the name of the structure.
+         */
+        public Entry(final SystreKey key, final String version, final String name) {
             this.key = key;
             this.keyVersion = version;
             this.name = name;
@@ -82,13 +103,20 @@ public class Archive {
          * @param name the name for the graph.
          */
         public Entry(final PeriodicGraph G, final String name) {
-            this(G.getSystreKey(), G.invariantVersion, name);
+            this(G.getPackedSystreKey(), G.invariantVersion, name);
         }
         
         /**
          * @return Returns the key.
          */
         public String getKey() {
+            return key.toString();
+        }
+        
+        /**
+         * @return Returns the key in compact form.
+         */
+        public SystreKey getPackedKey() {
             return key;
         }
         
@@ -117,7 +145,7 @@ public class Archive {
             try {
                 final MessageDigest md = MessageDigest.getInstance("MD5");
                 final StringBuffer buf = new StringBuffer(100);
-                buf.append(key);
+                buf.append(getKey());
                 buf.append("\n");
                 buf.append(keyVersion);
                 buf.append("\n");
@@ -177,6 +205,19 @@ public class Archive {
          * @return the entry read or null if the stream is at its end.
          */
         public static Entry read(final BufferedReader input) {
+            return read(input, true);
+        }
+        
+        /**
+         * Reads an entry from a stream, optionally deferring the checksum test.
+         * If the test is deferred, the checksum read is kept with the entry
+         * and can later be tested via {@link #hasValidChecksum()}.
+         * 
+         * @param input represents the input stream.
+         * @param verify if true, the checksum is tested immediately.
+         * @return the entry read or null if the stream is at its end.
+         */
+        public static Entry read(final BufferedReader input, final boolean verify) {
             String line;
             final Map fields = new HashMap();
             while (true) {
@@ -207,8 +248,16 @@ public class Archive {
                     final String version = (String) fields.get("version");
                     final String name = (String) fields.get("id");
                     final String checksum = (String) fields.get("checksum");
-                    final Entry entry = new Entry(key, version, name);
-                    if (!entry.getDigestString().equals(checksum)) {
+                    final Entry entry;
+                    try {
+                        entry = new Entry(key, version, name);
+                    } catch (RuntimeException ex) {
+                        throw new DataFormatException("invalid key for entry '"
+                                + name + "'.");
+                    }
+                    if (!verify) {
+                        entry.checksum = checksum;
+                    } else if (!entry.getDigestString().equals(checksum)) {
                         throw new DataFormatException("checksum mismatch for entry '"
 								+ name + "'.");
                     }
@@ -223,6 +272,16 @@ public class Archive {
             return null;
         }
         
+        /**
+         * Tests the checksum this entry was read with, if it was not tested
+         * while reading.
+         * 
+         * @return false if there is an untested checksum which does not match.
+         */
+        public boolean hasValidChecksum() {
+            return this.checksum == null || this.checksum.equals(getDigestString());
+        }
+        
         /**
          * @return the current value of description.
          */
@@ -273,8 +332,9 @@ public class Archive {
      */
     public Archive(final String keyVersion) {
         this.keyVersion = keyVersion;
-        this.byKey = new LinkedHashMap();
-        this.byName = new HashMap();
+        this.byKey = new ConcurrentHashMap();
+        this.byName = new ConcurrentHashMap();
+        this.order = new LinkedHashSet();
     }
     
     /**
@@ -295,9 +355,10 @@ public class Archive {
     /**
      * Removes all entries from this archive.
      */
-    public void clear() {
+    public synchronized void clear() {
         this.byKey.clear();
         this.byName.clear();
+        this.order.clear();
     }
     
     /**
@@ -305,9 +366,9 @@ public class Archive {
      * 
      * @param entry the new entry.
      */
-    public void add(final Entry entry) {
+    public synchronized void add(final Entry entry) {
         final String version = entry.getKeyVersion();
-        final String key = entry.getKey();
+        final SystreKey key = entry.getPackedKey();
         final String name = entry.getName();
 		if (!version.equals(getKeyVersion())) {
 			throw new IllegalArgumentException("entry '" + name
@@ -327,7 +388,25 @@ public class Archive {
 			}
 		}
         this.byKey.put(key, entry);
-        this.byName.put(name, entry);
+        if (name != null) {
+            this.byName.put(name, entry);
+        }
+        this.order.add(key);
+    }
+    
+    /**
+     * Adds the given entry unless an entry with the same key is present. The
+     * test and the addition are performed atomically.
+     * 
+     * @param entry the new entry.
+     * @return the entry previously present with the same key, or null.
+     */
+    public synchronized Entry putIfAbsent(final Entry entry) {
+        final Entry previous = getByKey(entry.getPackedKey());
+        if (previous == null) {
+            add(entry);
+        }
+        return previous;
     }
     
     /**
@@ -348,17 +427,20 @@ public class Archive {
      * 
      * @param entry the entry to remove.
      */
-    public void delete(final Entry entry) {
+    public synchronized void delete(final Entry entry) {
         if (entry == null) {
             throw new IllegalArgumentException("null argument");
         }
-        final String key = entry.getKey();
+        final SystreKey key = entry.getPackedKey();
         final String name = entry.getName();
         if (entry != getByKey(key)) {
             throw new IllegalArgumentException("no such entry");
         }
         this.byKey.remove(key);
-        this.byName.remove(name);
+        if (name != null) {
+            this.byName.remove(name);
+        }
+        this.order.remove(key);
     }
     
     /**
@@ -367,6 +449,21 @@ public class Archive {
      * @return the entry with the given key or null.
      */
     public Entry getByKey(final String key) {
+        final SystreKey packed;
+        try {
+            packed = SystreKey.fromString(key);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return getByKey(packed);
+    }
+    
+    /**
+     * Retrieves an entry.
+     * @param key the key for the entry to get in compact form.
+     * @return the entry with the given key or null.
+     */
+    public Entry getByKey(final SystreKey key) {
         return (Entry) this.byKey.get(key);
     }
     
@@ -376,6 +473,9 @@ public class Archive {
      * @return the entry with the given name or null.
      */
     public Entry getByName(final String name) {
+        if (name == null) {
+            return null;
+        }
         return (Entry) this.byName.get(name);
     }
     
@@ -401,8 +501,20 @@ public class Archive {
      * @param input represents the input stream.
      */
     public void addAll(final BufferedReader input) {
+        addAll(input, true);
+    }
+    
+    /**
+     * Adds all archive entries read from a stream, optionally deferring the
+     * checksum tests.
+     * 
+     * @param input represents the input stream.
+     * @param verify if true, checksums are tested while reading.
+     * @see #invalidEntries()
+     */
+    public void addAll(final BufferedReader input, final boolean verify) {
         while (true) {
-            final Entry entry = Entry.read(input);
+            final Entry entry = Entry.read(input, verify);
             if (entry == null) {
                 return;
             } else {
@@ -420,11 +532,57 @@ public class Archive {
     }
     
     /**
-     * Retrieves the set of all Systre keys present in this archive. 
+     * Lists the entries whose checksums were not tested while reading and
+     * turn out not to match.
+     * 
+     * @return the list of invalid entries.
+     */
+    public List invalidEntries() {
+        final List result = new ArrayList();
+        for (final Iterator iter = keySet().iterator(); iter.hasNext();) {
+            final Entry entry = getByKey((String) iter.next());
+            if (entry != null && !entry.hasValidChecksum()) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Retrieves the set of all Systre keys present in this archive. Iterators
+     * run over a snapshot of the keys taken when they are created.
      * @return the set of Systre keys.
      */
     public Set keySet() {
-        return this.byKey.keySet();
+        return new AbstractSet() {
+            public int size() {
+                return Archive.this.byKey.size();
+            }
+            
+            public boolean contains(final Object o) {
+                return o instanceof String && getByKey((String) o) != null;
+            }
+            
+            public Iterator iterator() {
+                final Iterator keys;
+                synchronized (Archive.this) {
+                    keys = new ArrayList(Archive.this.order).iterator();
+                }
+                return new Iterator() {
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+                    
+                    public Object next() {
+                        return keys.next().toString();
+                    }
+                    
+                    public void remove() {
+                        throw new UnsupportedOperationException("not implemented");
+                    }
+                };
+            }
+        };
     }
 
 	public boolean getErrorOnOverwrite() {
@@ -523,7 +681,7 @@ public class Archive {
 					renamed.add(new Pair(name, newEntry.name));
 				}
 				final Archive.Entry sameName = newArc.getByName(name);
-				if (sameName != null && !sameName.key.equals(key)) {
+				if (sameName != null && !sameName.getKey().equals(key)) {
 					changed.add(name);
 				}
 			}			
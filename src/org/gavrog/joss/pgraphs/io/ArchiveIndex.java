@@ -0,0 +1,292 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.gavrog.box.simple.DataFormatException;
+import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
+
+/**
+ * An index of precomputed {@link NetFingerprint} descriptors for the entries
+ * of an archive, which supports searching for the nets most similar to a given
+ * one. Queries scan the complete index, which is fast because distances are
+ * computed from a few dozen precomputed numbers.
+ *
+ * Index files consist of one record per net, as follows:
+ * <pre>
+ * net      name
+ * key      Systre key
+ * dim      dimension
+ * group    space group name
+ * edges    number of edge orbits
+ * orbit    size cs1 cs2 ... cs10
+ * ...
+ * end
+ * </pre>
+ *
+ * @author Olaf Delgado
+ */
+public class ArchiveIndex {
+    final private List names = new ArrayList();
+    final private List keys = new ArrayList();
+    final private List fingerprints = new ArrayList();
+
+    /**
+     * A single result of a similarity search.
+     */
+    public static class Match {
+        final private String name;
+        final private String key;
+        final private double distance;
+
+        private Match(final String name, final String key, final double distance) {
+            this.name = name;
+            this.key = key;
+            this.distance = distance;
+        }
+
+        /**
+         * @return the name of the archive entry.
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the Systre key of the archive entry.
+         */
+        public String getKey() {
+            return this.key;
+        }
+
+        /**
+         * @return the distance from the query net.
+         */
+        public double getDistance() {
+            return this.distance;
+        }
+
+        public String toString() {
+            return this.name + " (" + this.distance + ")";
+        }
+    }
+
+    /**
+     * Constructs an empty index.
+     */
+    public ArchiveIndex() {
+    }
+
+    /**
+     * Builds an index for all entries of an archive. This computes symmetries
+     * and coordination sequences for all nets and is correspondingly slow.
+     * Entries for which no fingerprint can be computed are skipped.
+     *
+     * @param archive the archive to index.
+     * @param skipped if not null, the names of skipped entries are added here.
+     * @return the new index.
+     */
+    public static ArchiveIndex build(final Archive archive, final List skipped) {
+        final ArchiveIndex index = new ArchiveIndex();
+        for (final Iterator iter = archive.keySet().iterator(); iter.hasNext();) {
+            final Archive.Entry entry = archive.getByKey((String) iter.next());
+            try {
+                final PeriodicGraph G = PeriodicGraph.fromSystreKey(entry
+                        .getPackedKey());
+                index.add(entry.getName(), entry.getKey(), new NetFingerprint(G));
+            } catch (RuntimeException ex) {
+                if (skipped != null) {
+                    skipped.add(entry.getName());
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds an entry to this index.
+     *
+     * @param name the name of the net.
+     * @param key the Systre key of the net.
+     * @param fingerprint the fingerprint of the net.
+     */
+    public void add(final String name, final String key,
+            final NetFingerprint fingerprint) {
+        this.names.add(name);
+        this.keys.add(key);
+        this.fingerprints.add(fingerprint);
+    }
+
+    /**
+     * @return the number of entries in this index.
+     */
+    public int size() {
+        return this.names.size();
+    }
+
+    /**
+     * Finds the entries with the smallest distances from a given fingerprint.
+     * Entries with equal distances are reported in index order.
+     *
+     * @param query the fingerprint to compare with.
+     * @param k the maximal number of results.
+     * @return the list of {@link Match} instances found, closest first;
+     *         empty if k is not positive.
+     */
+    public List nearest(final NetFingerprint query, final int k) {
+        if (k <= 0) {
+            return new ArrayList();
+        }
+        final int best[] = new int[k];
+        final double dist[] = new double[k];
+        int n = 0;
+        for (int i = 0; i < this.fingerprints.size(); ++i) {
+            final double d = query
+                    .distance((NetFingerprint) this.fingerprints.get(i));
+            if (Double.isInfinite(d) || (n == k && d >= dist[k - 1])) {
+                continue;
+            }
+            int j = Math.min(n, k - 1);
+            while (j > 0 && dist[j - 1] > d) {
+                best[j] = best[j - 1];
+                dist[j] = dist[j - 1];
+                --j;
+            }
+            best[j] = i;
+            dist[j] = d;
+            n = Math.min(n + 1, k);
+        }
+        final List result = new ArrayList();
+        for (int j = 0; j < n; ++j) {
+            result.add(new Match((String) this.names.get(best[j]),
+                    (String) this.keys.get(best[j]), dist[j]));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the entries most similar to a given net. Optionally, only those
+     * entries are returned which are isomorphic to the query net, as
+     * determined by direct comparison of the graphs. Only entries with
+     * distance 0 need to be compared in that case.
+     *
+     * @param G a connected, minimal periodic graph.
+     * @param k the maximal number of results.
+     * @param isomorphicOnly if true, return only isomorphic entries.
+     * @return the list of {@link Match} instances found, closest first;
+     *         empty if k is not positive.
+     */
+    public List nearest(final PeriodicGraph G, final int k,
+            final boolean isomorphicOnly) {
+        final NetFingerprint query = new NetFingerprint(G);
+        if (!isomorphicOnly) {
+            return nearest(query, k);
+        }
+        final List result = new ArrayList();
+        for (int i = 0; i < this.fingerprints.size() && result.size() < k; ++i) {
+            if (query.distance((NetFingerprint) this.fingerprints.get(i)) == 0) {
+                final String key = (String) this.keys.get(i);
+                if (G.equals(PeriodicGraph.fromInvariantString(key))) {
+                    result.add(new Match((String) this.names.get(i), key, 0));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads an index file.
+     *
+     * @param input the input stream.
+     * @return the index read.
+     */
+    public static ArchiveIndex read(final BufferedReader input) {
+        final ArchiveIndex index = new ArchiveIndex();
+        while (true) {
+            final List lines = NetFingerprint.readRecord(input);
+            if (lines == null) {
+                return index;
+            }
+            String name = null;
+            String key = null;
+            for (final Iterator iter = lines.iterator(); iter.hasNext();) {
+                final String line = (String) iter.next();
+                if (line.startsWith("net ")) {
+                    name = line.substring(4).trim();
+                } else if (line.startsWith("key ")) {
+                    key = line.substring(4).trim();
+                }
+            }
+            if (name == null || key == null) {
+                throw new DataFormatException("index record without net or key");
+            }
+            index.add(name, key, NetFingerprint.parse(lines));
+        }
+    }
+
+    /**
+     * Writes this index to a stream.
+     *
+     * @param writer the output stream.
+     * @throws IOException if an output error occurred.
+     */
+    public void write(final Writer writer) throws IOException {
+        for (int i = 0; i < size(); ++i) {
+            writer.write("net      " + this.names.get(i) + "\n");
+            writer.write("key      " + this.keys.get(i) + "\n");
+            writer.write(this.fingerprints.get(i).toString());
+            writer.write("end\n\n");
+        }
+        writer.flush();
+    }
+
+    public static void main(final String args[]) {
+        if (args.length < 2) {
+            System.err.println("Usage: ArchiveIndex archive index");
+            return;
+        }
+        try {
+            final Archive arc = new Archive("1.0");
+            arc.addAll(new FileReader(args[0]));
+            final List skipped = new ArrayList();
+            final ArchiveIndex index = build(arc, skipped);
+            final Writer writer = new BufferedWriter(new FileWriter(args[1]));
+            try {
+                index.write(writer);
+            } finally {
+                writer.close();
+            }
+            final int n = index.size();
+            System.err.println("Wrote " + n + " entr" + (n == 1 ? "y" : "ies")
+                    + " to " + args[1] + ".");
+            if (skipped.size() > 0) {
+                System.err.println("Skipped " + skipped + ".");
+            }
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage() + " - indexing \"" + args[0] + "\".");
+        }
+    }
+}
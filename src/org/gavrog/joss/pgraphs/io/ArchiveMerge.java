@@ -0,0 +1,463 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Compares and merges archive files without holding them in memory. The first
+ * archive given is the base, the others are updates which are applied in
+ * order. Entries are sorted by key via an external merge sort, so that memory
+ * usage is bounded by a configurable number of entries.
+ *
+ * The report lists removed entries (keys in the base, but not in any update),
+ * renamed entries, added entries (with neither key nor name in the base),
+ * names used for different nets in the base and the updates, and keys for
+ * which the updates disagree on the name. The merged archive contains each
+ * key once, with the entry from the last archive containing it, in key order.
+ * Removed entries are reported, but kept in the merged archive.
+ *
+ * @author Olaf Delgado
+ */
+public class ArchiveMerge {
+    final private static String sections[] = new String[] {
+        "Removed:", "Renamed:", "Added:", "Same name for different nets:",
+        "Conflicting names for the same net:"
+    };
+
+    final private int maxInMemory;
+    final private File tmpDir;
+
+    /**
+     * Sorts lines of text with bounded memory. Lines are collected in memory
+     * and written to sorted temporary files whenever the limit is reached.
+     * The final iteration merges these files.
+     */
+    static class ExternalSorter {
+        final private int maxInMemory;
+        final private File tmpDir;
+        final private List buffer = new ArrayList();
+        final private List runs = new LinkedList();
+        final private List readers = new LinkedList();
+
+        ExternalSorter(final int maxInMemory, final File tmpDir) {
+            this.maxInMemory = Math.max(maxInMemory, 1);
+            this.tmpDir = tmpDir;
+        }
+
+        void add(final String line) throws IOException {
+            this.buffer.add(line);
+            if (this.buffer.size() >= this.maxInMemory) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            Collections.sort(this.buffer);
+            final File run = File.createTempFile("arcmerge", ".run", this.tmpDir);
+            run.deleteOnExit();
+            final Writer out = new BufferedWriter(new FileWriter(run));
+            try {
+                for (final Iterator iter = this.buffer.iterator(); iter.hasNext();) {
+                    out.write((String) iter.next());
+                    out.write("\n");
+                }
+            } finally {
+                out.close();
+            }
+            this.runs.add(run);
+            this.buffer.clear();
+        }
+
+        int numberOfRuns() {
+            return this.runs.size();
+        }
+
+        /**
+         * Returns the sorted lines. May only be called once.
+         */
+        Iterator iterator() throws IOException {
+            if (this.runs.size() == 0) {
+                Collections.sort(this.buffer);
+                return this.buffer.iterator();
+            }
+            if (this.buffer.size() > 0) {
+                flush();
+            }
+            final PriorityQueue queue = new PriorityQueue();
+            for (final Iterator iter = this.runs.iterator(); iter.hasNext();) {
+                final BufferedReader reader = new BufferedReader(new FileReader(
+                        (File) iter.next()));
+                this.readers.add(reader);
+                final String line = reader.readLine();
+                if (line != null) {
+                    queue.add(new Head(line, reader));
+                }
+            }
+            return new Iterator() {
+                public boolean hasNext() {
+                    return !queue.isEmpty();
+                }
+
+                public Object next() {
+                    if (queue.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+                    final Head head = (Head) queue.poll();
+                    try {
+                        final String line = head.reader.readLine();
+                        if (line != null) {
+                            queue.add(new Head(line, head.reader));
+                        }
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                    return head.line;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException("not implemented");
+                }
+            };
+        }
+
+        /**
+         * Closes and deletes all temporary files.
+         */
+        void dispose() {
+            for (final Iterator iter = this.readers.iterator(); iter.hasNext();) {
+                try {
+                    ((BufferedReader) iter.next()).close();
+                } catch (IOException ex) {
+                }
+            }
+            for (final Iterator iter = this.runs.iterator(); iter.hasNext();) {
+                ((File) iter.next()).delete();
+            }
+            this.readers.clear();
+            this.runs.clear();
+            this.buffer.clear();
+        }
+
+        private static class Head implements Comparable {
+            final String line;
+            final BufferedReader reader;
+
+            Head(final String line, final BufferedReader reader) {
+                this.line = line;
+                this.reader = reader;
+            }
+
+            public int compareTo(final Object other) {
+                return this.line.compareTo(((Head) other).line);
+            }
+        }
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param maxInMemory the maximal number of records to sort in memory.
+     * @param tmpDir the directory for temporary files, or null for the default.
+     */
+    public ArchiveMerge(final int maxInMemory, final File tmpDir) {
+        this.maxInMemory = maxInMemory;
+        this.tmpDir = tmpDir;
+    }
+
+    // --- entries are sorted as single tab-separated lines; archive entries
+    //     never contain tabs, as whitespace is normalized on reading
+
+    private static String encode(final Archive.Entry entry, final int source,
+            final long seq) {
+        final StringBuffer buf = new StringBuffer(200);
+        buf.append(entry.getKey());
+        buf.append('\t');
+        buf.append(pad(source, 4));
+        buf.append('\t');
+        buf.append(pad(seq, 12));
+        buf.append('\t');
+        buf.append(entry.getKeyVersion());
+        buf.append('\t');
+        buf.append(entry.getName());
+        buf.append('\t');
+        buf.append(field(entry.getReference()));
+        buf.append('\t');
+        buf.append(field(entry.getDescription()));
+        buf.append('\t');
+        buf.append(field(entry.getURL()));
+        return buf.toString();
+    }
+
+    private static String pad(final long n, final int width) {
+        final String s = String.valueOf(n);
+        final StringBuffer buf = new StringBuffer(width);
+        for (int i = s.length(); i < width; ++i) {
+            buf.append('0');
+        }
+        return buf.append(s).toString();
+    }
+
+    private static String field(final String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String unfield(final String s) {
+        return s.length() == 0 ? null : s;
+    }
+
+    private static Archive.Entry decode(final String fields[]) {
+        final Archive.Entry entry = new Archive.Entry(fields[0], fields[3],
+                fields[4]);
+        entry.setReference(unfield(fields[5]));
+        entry.setDescription(unfield(fields[6]));
+        entry.setURL(unfield(fields[7]));
+        return entry;
+    }
+
+    /**
+     * Compares and merges a list of archive files.
+     *
+     * @param inputs the archive files, starting with the base.
+     * @param merged where to write the merged archive, or null.
+     * @param report where to write the report.
+     * @return the number of entries in the merged archive.
+     * @throws IOException if an input or output error occurred.
+     */
+    public int merge(final List inputs, final Writer merged, final PrintStream report)
+            throws IOException {
+        final ExternalSorter byKey = new ExternalSorter(this.maxInMemory, this.tmpDir);
+        final ExternalSorter byName = new ExternalSorter(this.maxInMemory, this.tmpDir);
+        final ExternalSorter lines = new ExternalSorter(this.maxInMemory, this.tmpDir);
+        try {
+            // --- read all archives
+            long seq = 0;
+            for (int i = 0; i < inputs.size(); ++i) {
+                final BufferedReader reader = new BufferedReader(new FileReader(
+                        (File) inputs.get(i)));
+                try {
+                    while (true) {
+                        final Archive.Entry entry = Archive.Entry.read(reader);
+                        if (entry == null) {
+                            break;
+                        }
+                        byKey.add(encode(entry, i, seq++));
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+
+            // --- process entries grouped by key
+            int count = 0;
+            final List group = new ArrayList();
+            for (final Iterator iter = byKey.iterator(); iter.hasNext() || group.size() > 0;) {
+                final String fields[] = iter.hasNext() ? ((String) iter.next())
+                        .split("\t", -1) : null;
+                if (group.size() > 0
+                        && (fields == null || !fields[0].equals(((String[]) group
+                                .get(0))[0]))) {
+                    final Archive.Entry entry = processKey(group, byName, lines);
+                    if (merged != null) {
+                        merged.write(entry.toString());
+                        merged.write("\n");
+                    }
+                    ++count;
+                    group.clear();
+                }
+                if (fields != null) {
+                    group.add(fields);
+                }
+            }
+
+            // --- process entries grouped by name
+            for (final Iterator iter = byName.iterator(); iter.hasNext() || group.size() > 0;) {
+                final String fields[] = iter.hasNext() ? ((String) iter.next())
+                        .split("\t", -1) : null;
+                if (group.size() > 0
+                        && (fields == null || !fields[0].equals(((String[]) group
+                                .get(0))[0]))) {
+                    processName(group, lines);
+                    group.clear();
+                }
+                if (fields != null) {
+                    group.add(fields);
+                }
+            }
+
+            // --- write the report
+            int current = -1;
+            for (final Iterator iter = lines.iterator(); iter.hasNext();) {
+                final String line = (String) iter.next();
+                final int k = line.indexOf('\t');
+                final int section = Integer.parseInt(line.substring(0, k));
+                if (section != current) {
+                    report.println(sections[section]);
+                    current = section;
+                }
+                report.println("    " + line.substring(k + 1));
+            }
+            report.flush();
+            if (merged != null) {
+                merged.flush();
+            }
+            return count;
+        } finally {
+            byKey.dispose();
+            byName.dispose();
+            lines.dispose();
+        }
+    }
+
+    /**
+     * Processes all records for a single key, sorted by source and sequence.
+     *
+     * @return the entry to use in the merged archive.
+     */
+    private Archive.Entry processKey(final List group, final ExternalSorter byName,
+            final ExternalSorter lines) throws IOException {
+        String base[] = null;
+        String update[] = null;
+        final List names = new ArrayList();
+        for (final Iterator iter = group.iterator(); iter.hasNext();) {
+            final String fields[] = (String[]) iter.next();
+            if (Integer.parseInt(fields[1]) == 0) {
+                base = fields;
+            } else {
+                update = fields;
+                if (!names.contains(fields[4])) {
+                    names.add(fields[4]);
+                }
+            }
+        }
+        final String key = ((String[]) group.get(0))[0];
+        if (base != null) {
+            byName.add(base[4] + "\t0\t" + (update != null ? 1 : 0) + "\t" + key);
+        }
+        if (update != null) {
+            byName.add(update[4] + "\t1\t" + (base != null ? 1 : 0) + "\t" + key);
+        }
+        if (base != null && update != null && !base[4].equals(update[4])) {
+            lines.add("1\t" + base[4] + " => " + update[4]);
+        }
+        if (names.size() > 1) {
+            final StringBuffer buf = new StringBuffer(100);
+            for (int i = 0; i < names.size(); ++i) {
+                if (i > 0) {
+                    buf.append(", ");
+                }
+                buf.append(names.get(i));
+            }
+            lines.add("4\t" + buf);
+        }
+        return decode(update != null ? update : base);
+    }
+
+    /**
+     * Processes all key records for a single name.
+     */
+    private void processName(final List group, final ExternalSorter lines)
+            throws IOException {
+        final List baseKeys = new ArrayList();
+        final List updateKeys = new ArrayList();
+        for (final Iterator iter = group.iterator(); iter.hasNext();) {
+            final String fields[] = (String[]) iter.next();
+            if (fields[1].equals("0")) {
+                baseKeys.add(fields[3]);
+            } else {
+                updateKeys.add(fields[3]);
+            }
+        }
+        final String name = ((String[]) group.get(0))[0];
+        for (final Iterator iter = group.iterator(); iter.hasNext();) {
+            final String fields[] = (String[]) iter.next();
+            if (fields[2].equals("0")) {
+                if (fields[1].equals("0")) {
+                    lines.add("0\t" + name);
+                } else if (baseKeys.size() == 0) {
+                    lines.add("2\t" + name);
+                }
+            }
+        }
+        for (final Iterator iter = baseKeys.iterator(); iter.hasNext();) {
+            final Object key = iter.next();
+            if (updateKeys.size() > 0 && !updateKeys.contains(key)) {
+                lines.add("3\t" + name);
+                break;
+            }
+        }
+    }
+
+    public static void main(final String args[]) {
+        String output = null;
+        File tmpDir = null;
+        int max = 100000;
+        final List inputs = new ArrayList();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                output = args[++i];
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                tmpDir = new File(args[++i]);
+            } else if (args[i].equals("-m") && i + 1 < args.length) {
+                max = Integer.parseInt(args[++i]);
+            } else {
+                inputs.add(new File(args[i]));
+            }
+        }
+        if (inputs.size() < 1) {
+            System.err.println("Usage: ArchiveMerge [-o merged] [-t tmpdir]"
+                    + " [-m entries] base update ...");
+            return;
+        }
+
+        try {
+            final Writer merged = output == null ? null : new BufferedWriter(
+                    new FileWriter(output));
+            try {
+                final int n = new ArchiveMerge(max, tmpDir).merge(inputs, merged,
+                        System.out);
+                if (output != null) {
+                    System.err.println("Wrote " + n + " entr" + (n == 1 ? "y" : "ies")
+                            + " to " + output + ".");
+                }
+            } finally {
+                if (merged != null) {
+                    merged.close();
+                }
+            }
+        } catch (FileNotFoundException ex) {
+            System.err.println(ex.getMessage());
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage() + " - merging archives.");
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes archive entries to a file in batches. Entries are collected in memory
+ * and appended to a journal file next to the target, either when a given
+ * number of entries is pending or when a given time has passed since the last
+ * commit. Each commit forces the journal to the disk. At checkpoints, the
+ * journal is copied to a temporary file which then replaces the target, so
+ * that the target always holds a complete archive.
+ *
+ * If a journal is found when the writer is created, as after a crash, its
+ * complete and valid entries are kept and a partial final entry is dropped.
+ * Entries written later with the same keys as recovered ones are skipped.
+ *
+ * @author Olaf Delgado
+ */
+public class ArchiveWriter {
+    final private File target;
+    final private File journal;
+    final private int batchSize;
+    final private long maxDelay;
+    final private List pending = new ArrayList();
+    final private List recovered = new ArrayList();
+    final private Set recoveredKeys = new HashSet();
+    private FileOutputStream stream;
+    private Writer writer;
+    private long lastCommit;
+
+    /**
+     * Constructs an instance which commits after every 100 entries or every 5
+     * seconds.
+     *
+     * @param target the archive file to write.
+     * @throws IOException if the journal could not be opened.
+     */
+    public ArchiveWriter(final File target) throws IOException {
+        this(target, 100, 5000);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param target the archive file to write.
+     * @param batchSize the number of pending entries that triggers a commit.
+     * @param maxDelay the time in milliseconds after which pending entries are
+     *            committed with the next write.
+     * @throws IOException if the journal could not be opened.
+     */
+    public ArchiveWriter(final File target, final int batchSize, final long maxDelay)
+            throws IOException {
+        this.target = target;
+        this.journal = new File(target.getPath() + ".part");
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxDelay = maxDelay;
+        if (this.journal.exists()) {
+            recover();
+        }
+        this.stream = new FileOutputStream(this.journal, true);
+        this.writer = new BufferedWriter(new OutputStreamWriter(this.stream));
+        this.lastCommit = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads the valid entries from an existing journal and rewrites it to
+     * contain exactly those.
+     */
+    private void recover() throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(
+                this.journal));
+        try {
+            while (true) {
+                final Archive.Entry entry = Archive.Entry.read(reader);
+                if (entry == null) {
+                    break;
+                }
+                this.recovered.add(entry);
+                this.recoveredKeys.add(entry.getPackedKey());
+            }
+        } catch (RuntimeException ex) {
+            // --- a torn final entry, everything before it is usable
+        } finally {
+            reader.close();
+        }
+
+        final File tmp = new File(this.journal.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            final Writer w = new BufferedWriter(new OutputStreamWriter(out));
+            for (final Iterator iter = this.recovered.iterator(); iter.hasNext();) {
+                w.write(iter.next().toString());
+                w.write("\n");
+            }
+            w.flush();
+            out.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+        replace(tmp, this.journal);
+    }
+
+    private static void replace(final File source, final File dest)
+            throws IOException {
+        if (!source.renameTo(dest)) {
+            dest.delete();
+            if (!source.renameTo(dest)) {
+                throw new IOException("could not replace " + dest);
+            }
+        }
+    }
+
+    /**
+     * @return the entries recovered from an existing journal.
+     */
+    public List recoveredEntries() {
+        return new ArrayList(this.recovered);
+    }
+
+    /**
+     * Adds an entry. The entry is committed immediately if this makes the
+     * batch complete or the maximal delay has passed.
+     *
+     * @param entry the entry to write.
+     * @throws IOException if a commit failed.
+     */
+    public synchronized void write(final Archive.Entry entry) throws IOException {
+        if (this.recoveredKeys.contains(entry.getPackedKey())) {
+            return;
+        }
+        this.pending.add(entry);
+        if (this.pending.size() >= this.batchSize
+                || System.currentTimeMillis() - this.lastCommit >= this.maxDelay) {
+            commit();
+        }
+    }
+
+    /**
+     * Appends all pending entries to the journal and forces it to the disk.
+     *
+     * @throws IOException if an output error occurred.
+     */
+    public synchronized void commit() throws IOException {
+        if (this.pending.size() > 0) {
+            for (final Iterator iter = this.pending.iterator(); iter.hasNext();) {
+                this.writer.write(iter.next().toString());
+                this.writer.write("\n");
+            }
+            this.writer.flush();
+            this.stream.getChannel().force(false);
+            this.pending.clear();
+        }
+        this.lastCommit = System.currentTimeMillis();
+    }
+
+    /**
+     * Commits all pending entries and replaces the target file by the
+     * contents of the journal.
+     *
+     * @throws IOException if an output error occurred.
+     */
+    public synchronized void checkpoint() throws IOException {
+        commit();
+        final File tmp = new File(this.target.getPath() + ".tmp");
+        final InputStream in = new FileInputStream(this.journal);
+        try {
+            final FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                final byte buffer[] = new byte[65536];
+                int k;
+                while ((k = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, k);
+                }
+                out.getChannel().force(false);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        replace(tmp, this.target);
+    }
+
+    /**
+     * Writes a final checkpoint and removes the journal.
+     *
+     * @throws IOException if an output error occurred.
+     */
+    public synchronized void close() throws IOException {
+        checkpoint();
+        this.writer.close();
+        this.journal.delete();
+    }
+}
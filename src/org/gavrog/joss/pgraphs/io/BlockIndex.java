@@ -0,0 +1,523 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+
+import org.gavrog.box.simple.DataFormatException;
+
+/**
+ * An index of the data blocks in a .cgd, .pgr, .ds or .tgs file, which
+ * allows reading any single block without going through the ones before it.
+ * For each block, the index holds its byte offset within the file, the number
+ * of lines before it and its name, if given. The index is built in a single
+ * pass which only looks at block boundaries and names.
+ *
+ * A block extends from the end of the previous one to the end of its last
+ * line, so that comments in front of a block, including the name comments
+ * used in .ds files, belong to it. The file is assumed to use an encoding in
+ * which line breaks and ASCII characters are single bytes, as is the case for
+ * UTF-8 and the ISO-8859 family.
+ *
+ * Indexes can be stored in a sidecar file next to the original. The format is
+ * <pre>
+ * BLOCKS version file-length last-modified end-of-last-block
+ * offset line [name]
+ * ...
+ * </pre>
+ *
+ * @author Olaf Delgado
+ */
+public class BlockIndex {
+    final private static int FORMAT_VERSION = 1;
+    final private static String SUFFIX = ".index";
+
+    final private File file;
+    final private boolean symbols;
+    private long offsets[] = new long[64];
+    private int lines[] = new int[64];
+    private String names[] = new String[64];
+    private int count = 0;
+    private long end = 0;
+
+    private BlockIndex(final File file) {
+        this.file = file;
+        this.symbols = isSymbolFile(file);
+    }
+
+    /**
+     * @param file a file name.
+     * @return true if the file holds Delaney symbols rather than data blocks.
+     */
+    private static boolean isSymbolFile(final File file) {
+        final String name = file.getName();
+        final String ext = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        if (ext.equals("ds") || ext.equals("tgs")) {
+            return true;
+        } else if (ext.equals("cgd") || ext.equals("pgr")) {
+            return false;
+        } else {
+            throw new Net.IllegalFileNameException("Unrecognized extension \"."
+                    + ext + "\"");
+        }
+    }
+
+    /**
+     * Builds the index for a file by reading through it once.
+     *
+     * @param file the file to index.
+     * @return the new index.
+     * @throws IOException if the file could not be read.
+     */
+    public static BlockIndex build(final File file) throws IOException {
+        final BlockIndex index = new BlockIndex(file);
+        final InputStream input = new FileInputStream(file);
+        try {
+            index.scan(input);
+        } finally {
+            input.close();
+        }
+        return index;
+    }
+
+    /**
+     * Retrieves the index for a file. A sidecar file is used if it matches
+     * the current state of the indexed file, otherwise the index is built and
+     * optionally stored. Failure to store the index is not considered an
+     * error.
+     *
+     * @param file the file to index.
+     * @param persist if true, a newly built index is stored in a sidecar file.
+     * @return the index.
+     * @throws IOException if the file could not be read.
+     */
+    public static BlockIndex forFile(final File file, final boolean persist)
+            throws IOException {
+        final File sidecar = sidecar(file);
+        if (sidecar.exists()) {
+            final BlockIndex index = new BlockIndex(file);
+            if (index.read(sidecar)) {
+                return index;
+            }
+        }
+        final BlockIndex index = build(file);
+        if (persist) {
+            try {
+                index.write(sidecar);
+            } catch (IOException ex) {
+                sidecar.delete();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param file an indexed file.
+     * @return the sidecar file used to store its index.
+     */
+    public static File sidecar(final File file) {
+        return new File(file.getPath() + SUFFIX);
+    }
+
+    /**
+     * @return the number of blocks in the file.
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return the indexed file.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return true if the file holds Delaney symbols.
+     */
+    public boolean holdsSymbols() {
+        return this.symbols;
+    }
+
+    /**
+     * @param i a block number.
+     * @return the byte offset at which the block starts.
+     */
+    public long getOffset(final int i) {
+        checkIndex(i);
+        return this.offsets[i];
+    }
+
+    /**
+     * @param i a block number.
+     * @return the length of the block in bytes.
+     */
+    public int getLength(final int i) {
+        checkIndex(i);
+        final long to = (i + 1 < this.count) ? this.offsets[i + 1] : this.end;
+        return (int) (to - this.offsets[i]);
+    }
+
+    /**
+     * @param i a block number.
+     * @return the number of lines in the file before the block.
+     */
+    public int getLineNumber(final int i) {
+        checkIndex(i);
+        return this.lines[i];
+    }
+
+    /**
+     * Returns the name of a block as the respective parser would determine
+     * it. For data blocks, this is the content of all entries under the name
+     * key, for Delaney symbols the last name comment before the symbol.
+     *
+     * @param i a block number.
+     * @return the name of the block or null if none was given.
+     */
+    public String getName(final int i) {
+        checkIndex(i);
+        return this.names[i];
+    }
+
+    private void checkIndex(final int i) {
+        if (i < 0 || i >= this.count) {
+            throw new IndexOutOfBoundsException("block " + i + " of " + this.count);
+        }
+    }
+
+    /**
+     * Opens a block for reading.
+     *
+     * @param i a block number.
+     * @return a reader for the text of the block.
+     * @throws IOException if the file could not be read.
+     */
+    public Reader open(final int i) throws IOException {
+        final byte bytes[] = new byte[getLength(i)];
+        final RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+        try {
+            raf.seek(this.offsets[i]);
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        return new InputStreamReader(new ByteArrayInputStream(bytes));
+    }
+
+    // --- building the index
+
+    private void add(final long offset, final int line, final String name) {
+        if (this.count == this.offsets.length) {
+            final int n = 2 * this.count;
+            final long newOffsets[] = new long[n];
+            final int newLines[] = new int[n];
+            final String newNames[] = new String[n];
+            System.arraycopy(this.offsets, 0, newOffsets, 0, this.count);
+            System.arraycopy(this.lines, 0, newLines, 0, this.count);
+            System.arraycopy(this.names, 0, newNames, 0, this.count);
+            this.offsets = newOffsets;
+            this.lines = newLines;
+            this.names = newNames;
+        }
+        this.offsets[this.count] = offset;
+        this.lines[this.count] = line;
+        this.names[this.count] = name;
+        ++this.count;
+    }
+
+    /**
+     * Scans the file line by line. Lines consisting of ASCII characters only
+     * are handled without decoding them.
+     */
+    private void scan(final InputStream input) throws IOException {
+        final byte buffer[] = new byte[65536];
+        byte raw[] = new byte[256];
+        char line[] = new char[256];
+        int bufferPos = 0;
+        int bufferEnd = 0;
+        long position = 0;
+        int lineno = 0;
+
+        final Map synonyms = NetParser.makeSynonyms();
+        long blockStart = 0;
+        int blockLine = 0;
+        boolean inBlock = false;
+        String key = null;
+        StringBuffer name = null;
+        String symbolName = null;
+
+        while (true) {
+            // --- read the next line
+            int n = 0;
+            boolean any = false;
+            boolean ascii = true;
+            boolean cr = false;
+            while (true) {
+                if (bufferPos >= bufferEnd) {
+                    bufferEnd = Math.max(input.read(buffer), 0);
+                    bufferPos = 0;
+                    if (bufferEnd == 0) {
+                        break;
+                    }
+                }
+                final byte b = buffer[bufferPos++];
+                ++position;
+                any = true;
+                if (b == '\n') {
+                    break;
+                } else if (b == '\r') {
+                    cr = true;
+                    break;
+                }
+                if (n == raw.length) {
+                    final byte tmp[] = new byte[2 * n];
+                    System.arraycopy(raw, 0, tmp, 0, n);
+                    raw = tmp;
+                    line = new char[2 * n];
+                }
+                raw[n++] = b;
+                ascii &= b >= 0;
+            }
+            if (!any) {
+                break;
+            }
+            ++lineno;
+            if (cr) {
+                // --- a line feed right after a carriage return belongs to this line
+                if (bufferPos >= bufferEnd) {
+                    bufferEnd = Math.max(input.read(buffer), 0);
+                    bufferPos = 0;
+                }
+                if (bufferPos < bufferEnd && buffer[bufferPos] == '\n') {
+                    ++bufferPos;
+                    ++position;
+                }
+            }
+
+            final String decoded;
+            if (ascii) {
+                for (int k = 0; k < n; ++k) {
+                    line[k] = (char) raw[k];
+                }
+                decoded = null;
+            } else {
+                decoded = new String(raw, 0, n);
+                n = decoded.length();
+                if (n > line.length) {
+                    line = new char[n];
+                }
+                decoded.getChars(0, n, line, 0);
+            }
+
+            // --- find the first character on the line
+            int i = 0;
+            while (i < n && (line[i] <= ' ' || Character.isWhitespace(line[i]))) {
+                ++i;
+            }
+            if (i >= n) {
+                continue;
+            }
+
+            if (this.symbols) {
+                if (line[i] == '#') {
+                    if (i + 1 < n && line[i + 1] == '@') {
+                        final String s = new String(line, i + 2, n - i - 2).trim();
+                        if (s.startsWith("name ")) {
+                            symbolName = s.substring(5);
+                        }
+                    }
+                    continue;
+                }
+                int k = i;
+                while (k < n && line[k] != '#') {
+                    ++k;
+                }
+                while (k > i && line[k - 1] <= ' ') {
+                    --k;
+                }
+                if (k > i && line[k - 1] == '>') {
+                    add(blockStart, blockLine, symbolName);
+                    symbolName = null;
+                    blockStart = position;
+                    blockLine = lineno;
+                    this.end = position;
+                }
+                continue;
+            }
+
+            if (line[i] == '#') {
+                continue;
+            } else if (!inBlock) {
+                inBlock = true;
+                key = "edge"; // --- the default key used by NetParser
+                name = null;
+                continue;
+            }
+            boolean keyword = false;
+            if (Character.isLetter(line[i])) {
+                int j = i;
+                while (j < n && !Character.isWhitespace(line[j]) && line[j] != '#') {
+                    ++j;
+                }
+                key = new String(line, i, j - i).toLowerCase();
+                if (key.equals("end")) {
+                    add(blockStart, blockLine, name == null ? null : name.toString());
+                    inBlock = false;
+                    blockStart = position;
+                    blockLine = lineno;
+                    this.end = position;
+                    continue;
+                }
+                while (synonyms.containsKey(key)) {
+                    key = (String) synonyms.get(key);
+                }
+                keyword = true;
+            }
+            if (key.equals("name")) {
+                final String s = nameEntry(line, n, keyword);
+                if (s != null) {
+                    if (name == null) {
+                        name = new StringBuffer(s);
+                    } else {
+                        name.append("; ");
+                        name.append(s);
+                    }
+                }
+            }
+        }
+
+        if (inBlock) {
+            // --- an incomplete block, which will cause an error when parsed
+            add(blockStart, blockLine, name == null ? null : name.toString());
+            this.end = position;
+        }
+    }
+
+    /**
+     * Converts the values on a line under the name key in the same way as
+     * {@link GenericParser.Block#getEntriesAsString(String)} does.
+     *
+     * @return the converted values or null if there were none.
+     */
+    private static String nameEntry(final char line[], final int n,
+            final boolean keyword) {
+        final Tokenizer tokens = new Tokenizer(new CharArrayReader(line, 0, n), n);
+        final StringBuffer buf = new StringBuffer(n);
+        boolean empty = true;
+        try {
+            tokens.nextLine();
+            boolean more = tokens.nextField();
+            if (keyword) {
+                more = tokens.nextField();
+            }
+            while (more) {
+                if (!empty) {
+                    buf.append(" ");
+                }
+                buf.append(String.valueOf(tokens.value()));
+                empty = false;
+                more = tokens.nextField();
+            }
+        } catch (DataFormatException ex) {
+            // --- will be reported when the block is parsed
+            return null;
+        }
+        return empty ? null : buf.toString();
+    }
+
+    // --- storing the index
+
+    /**
+     * Writes this index to a file.
+     *
+     * @param target the file to write to.
+     * @throws IOException if the file could not be written.
+     */
+    public void write(final File target) throws IOException {
+        final Writer out = new BufferedWriter(new FileWriter(target));
+        try {
+            out.write("BLOCKS " + FORMAT_VERSION + " " + this.file.length() + " "
+                    + this.file.lastModified() + " " + this.end + "\n");
+            for (int i = 0; i < this.count; ++i) {
+                out.write(this.offsets[i] + " " + this.lines[i]);
+                if (this.names[i] != null) {
+                    out.write(" " + this.names[i]);
+                }
+                out.write("\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads an index from a file if it matches the indexed file.
+     *
+     * @param source the file to read from.
+     * @return true if the index was read successfully.
+     */
+    private boolean read(final File source) {
+        try {
+            final BufferedReader in = new BufferedReader(new FileReader(source));
+            try {
+                final String header[] = String.valueOf(in.readLine()).split(" ");
+                if (header.length != 5 || !header[0].equals("BLOCKS")
+                        || Integer.parseInt(header[1]) != FORMAT_VERSION
+                        || Long.parseLong(header[2]) != this.file.length()
+                        || Long.parseLong(header[3]) != this.file.lastModified()) {
+                    return false;
+                }
+                this.end = Long.parseLong(header[4]);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final int a = line.indexOf(' ');
+                    final int b = line.indexOf(' ', a + 1);
+                    final long offset = Long.parseLong(line.substring(0, a));
+                    if (b < 0) {
+                        add(offset, Integer.parseInt(line.substring(a + 1)), null);
+                    } else {
+                        add(offset, Integer.parseInt(line.substring(a + 1, b)), line
+                                .substring(b + 1));
+                    }
+                }
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+        } catch (RuntimeException ex) {
+        }
+        this.count = 0;
+        return false;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A list of the objects described by the blocks of an indexed file, which
+ * parses a block only when its element is requested. The most recently used
+ * elements are kept, so stepping back and forth between a few of them is
+ * cheap. Elements can also be added, replaced and removed. Those not coming
+ * from the file are kept permanently, as are parsed elements for which
+ * {@link #keep(Object)} returns true.
+ *
+ * @author Olaf Delgado
+ */
+public abstract class BlockList extends AbstractList {
+    final private BlockIndex index;
+    final private List slots;
+    final private Map cache;
+
+    // --- marks a list element that is read from the file on demand
+    private static class Block {
+        final int number;
+
+        Block(final int number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param index the index for the file to read from.
+     * @param cacheSize the number of parsed blocks to keep.
+     */
+    public BlockList(final BlockIndex index, final int cacheSize) {
+        this.index = index;
+        this.slots = new ArrayList(index.size());
+        for (int i = 0; i < index.size(); ++i) {
+            this.slots.add(new Block(i));
+        }
+        this.cache = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(final Map.Entry eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Constructs the object described by a block of the file.
+     *
+     * @param input the text of the block.
+     * @param i the block number.
+     * @return the object described.
+     */
+    protected abstract Object parse(final Reader input, final int i);
+
+    /**
+     * Determines the name for an element of this list.
+     *
+     * @param x an element, either parsed from the file or added directly.
+     * @return the name.
+     */
+    protected abstract String nameOf(final Object x);
+
+    /**
+     * Decides whether a parsed element is kept permanently once it has been
+     * handed out, instead of being cached. Elements which may be modified by
+     * their users must be kept, since reading the block again would lose
+     * the changes. By default, no elements are kept.
+     *
+     * @param x an element parsed from the file.
+     * @return true if the element is to be kept.
+     */
+    protected boolean keep(final Object x) {
+        return false;
+    }
+
+    /**
+     * Determines the name for a block without parsing it. By default, this
+     * is the name found by the index.
+     *
+     * @param i the block number.
+     * @return the name.
+     */
+    protected String blockName(final int i) {
+        return this.index.getName(i);
+    }
+
+    /**
+     * @return the index for the file read from.
+     */
+    public BlockIndex getIndex() {
+        return this.index;
+    }
+
+    public synchronized Object get(final int n) {
+        final Object x = this.slots.get(n);
+        if (!(x instanceof Block)) {
+            return x;
+        }
+        final Integer key = new Integer(((Block) x).number);
+        Object result = this.cache.get(key);
+        if (result == null) {
+            final int i = key.intValue();
+            final Reader input;
+            try {
+                input = this.index.open(i);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            result = parse(input, i);
+            if (keep(result)) {
+                this.slots.set(n, result);
+            } else {
+                this.cache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the name of an element, without parsing it if possible.
+     *
+     * @param n the position of the element.
+     * @return the name of the element.
+     */
+    public synchronized String getName(final int n) {
+        final Object x = this.slots.get(n);
+        if (x instanceof Block) {
+            return blockName(((Block) x).number);
+        } else {
+            return nameOf(x);
+        }
+    }
+
+    public synchronized int size() {
+        return this.slots.size();
+    }
+
+    public synchronized void add(final int n, final Object x) {
+        this.slots.add(n, x);
+        ++this.modCount;
+    }
+
+    public synchronized Object set(final int n, final Object x) {
+        final Object old = get(n);
+        this.slots.set(n, x);
+        return old;
+    }
+
+    public synchronized Object remove(final int n) {
+        final Object old = get(n);
+        this.slots.remove(n);
+        ++this.modCount;
+        return old;
+    }
+}
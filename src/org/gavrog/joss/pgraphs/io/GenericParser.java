@@ -17,21 +17,16 @@
 package org.gavrog.joss.pgraphs.io;
 
 import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.gavrog.box.simple.DataFormatException;
-import org.gavrog.jane.numbers.FloatingPoint;
-import org.gavrog.jane.numbers.Fraction;
-import org.gavrog.jane.numbers.IArithmetic;
-import org.gavrog.jane.numbers.Whole;
 
 
 /**
@@ -39,11 +34,10 @@ import org.gavrog.jane.numbers.Whole;
  * @version $Id: GenericParser.java,v 1.8 2008/07/07 05:21:22 odf Exp $
  */
 public class GenericParser {
-    private BufferedReader input;
+    private Tokenizer input;
     protected Map synonyms;
     protected String defaultKey;
-    private int lineno;
-    private LinkedList bufferedLine = null;
+    private boolean lineBuffered = false;
     private Block block;
 
     public class Entry {
@@ -58,6 +52,20 @@ public class GenericParser {
         }
     }
     
+    /**
+     * The text of a data block and the number of the line preceding it, as
+     * returned by {@link GenericParser#readBlockText()}.
+     */
+    public static class RawBlock {
+        public final int lineNumber;
+        public final String text;
+
+        public RawBlock(final int lineNumber, final String text) {
+            this.lineNumber = lineNumber;
+            this.text = text;
+        }
+    }
+
     public class Block {
         private final String type;
         private final Entry entries[];
@@ -135,167 +143,75 @@ public class GenericParser {
     }
     
     public GenericParser(final BufferedReader input) {
-        this.input = input;
-        this.lineno = 0;
-        this.synonyms = null;
-        this.defaultKey = null;
+        this((Reader) input);
     }
     
     public GenericParser(final Reader input) {
-        this(new BufferedReader(input));
+        this(input, 65536);
     }
     
-    private LinkedList nextLineChopped() {
-    	if (this.bufferedLine != null) {
-    		final LinkedList tmp = this.bufferedLine;
-    		this.bufferedLine = null;
-    		return tmp;
-    	}
-    	
-        while (true) {
-            final String rawLine;
-            try {
-                rawLine = this.input.readLine();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-            if (rawLine == null) {
-                return null;
-            }
-            ++this.lineno;
-            final String line = rawLine.trim();
-            if (line.length() == 0 || line.charAt(0) == '#') {
-                continue;
-            }
-
-            final LinkedList fields = new LinkedList();
-            int i = 0;
-            while (i < line.length()) {
-                while (i < line.length()
-						&& Character.isWhitespace(line.charAt(i))) {
-                    ++i;
-                }
-                if (i >= line.length()) {
-                    break;
-                }
-                int j = i;
-                if (line.charAt(i) == '"') {
-                    ++j;
-                    while (j < line.length() - 1 && line.charAt(j) != '"') {
-                        ++j;
-                    }
-                    if (line.charAt(j) == '"') {
-                        ++j;
-                    } else {
-                        final String msg = "no closing quotes at line ";
-                        throw new DataFormatException(msg + this.lineno);
-                    }
-                    if (j < line.length()) {
-                        final char c = line.charAt(j);
-                        if (!Character.isWhitespace(c) && c != '#') {
-                            String msg = "missing space after string at line ";
-                            throw new DataFormatException(msg + this.lineno);
-                        }
-                    }
-                } else {
-                    while (j < line.length()) {
-                        final char c = line.charAt(j);
-                        if (Character.isWhitespace(c) || c == '#') {
-                            break;
-                        }
-                        ++j;
-                    }
-                }
-                if (j > i) {
-                	fields.add(line.substring(i, j));
-                }
-                i = j;
-                if (i < line.length() && line.charAt(i) == '#') {
-                    break;
-                }
-            }
-            
-            return fields;
+    /**
+     * Constructs an instance with a given input buffer size. Small buffers
+     * are useful when parsing many short texts one by one.
+     * 
+     * @param input the stream to read from.
+     * @param bufferSize the number of characters to read at once.
+     */
+    public GenericParser(final Reader input, final int bufferSize) {
+        this.input = new Tokenizer(input, bufferSize);
+        this.synonyms = null;
+        this.defaultKey = null;
+    }
+    
+    /**
+     * Advances to the next line that is neither empty nor a comment.
+     * 
+     * @return false if the end of the input was reached.
+     */
+    private boolean nextLine() {
+        if (this.lineBuffered) {
+            this.lineBuffered = false;
+            return true;
         }
+        return this.input.nextLine();
     }
     
     public Block parseDataBlock() {
-        final LinkedList fields0 = nextLineChopped();
-        if (fields0 == null) {
+        if (!nextLine()) {
             return null;
         }
-        final String type = ((String) fields0.getFirst()).toLowerCase();
+        this.input.nextField();
+        final String type = this.input.text().toLowerCase();
         final List result = new LinkedList();
         final Map byKey = new HashMap();
         String key = this.defaultKey;
         
         while (true) {
-            final LinkedList fields = nextLineChopped();
-            if (fields == null) {
+            if (!nextLine()) {
                 throw new DataFormatException("end of file while reading block");
             }
-            final String first = (String) fields.getFirst();
-            if (Character.isLetter(first.charAt(0))) {
-                if (first.equalsIgnoreCase("END")) {
+            boolean more = this.input.nextField();
+            if (Character.isLetter(this.input.firstChar())) {
+                if (this.input.startsWithWord("END")) {
                     break;
                 }
-                key = first.toLowerCase();
+                key = this.input.text().toLowerCase();
                 if (this.synonyms != null) {
                     while (this.synonyms.containsKey(key)) {
                         key = (String) this.synonyms.get(key);
                     }
                 }
-                fields.removeFirst();
+                more = this.input.nextField();
             }
             
-            final LinkedList row = new LinkedList();
-            for (final Iterator iter = fields.iterator(); iter.hasNext();) {
-                final String item = (String) iter.next();
-                final char c = item.charAt(0);
-                if (c == '"') {
-                    row.add(item.substring(1, item.length() - 1));
-                } else if (Character.isDigit(c) || "+-.".indexOf(c) >= 0) {
-                    IArithmetic number = null;
-                    if (item.indexOf('/') > 0) {
-                        final String parts[] = item.split("/");
-                        if (parts.length == 2) {
-                            final int n;
-                            final int d;
-                            try {
-                                n = Integer.parseInt(parts[0]);
-                                d = Integer.parseInt(parts[1]);
-                                number = new Fraction(n, d);
-                            } catch (NumberFormatException ex) {
-                            }
-                        }
-                    } else {
-                        try {
-                        	if (item.startsWith("+")) {
-                        		number = new Whole(Integer.parseInt(item
-										.substring(1)));
-                        	} else {
-                        		number = new Whole(Integer.parseInt(item));
-                        	}
-                        } catch (NumberFormatException ex1) {
-                            try {
-                                number = new FloatingPoint(Double
-										.parseDouble(item));
-                            } catch (NumberFormatException ex2) {
-                            }
-                        }
-                    }
-                    if (number != null) {
-                        row.add(number);
-                    } else {
-                        row.add(item);
-                    }
-                } else {
-                    row.add(item);
-                }
+            final List row = new ArrayList();
+            while (more) {
+                row.add(this.input.value());
+                more = this.input.nextField();
             }
             if (key != null) {
                 if (row.size() > 0) {
-                    final Entry entry = new Entry(this.lineno, key, row);
+                    final Entry entry = new Entry(getLineNumber(), key, row);
                     result.add(entry);
                     if (!byKey.containsKey(key)) {
                         byKey.put(key, new LinkedList());
@@ -304,7 +220,7 @@ public class GenericParser {
                 }
             } else {
                 final String msg = "keyless data found at line ";
-                throw new DataFormatException(msg + lineno);
+                throw new DataFormatException(msg + getLineNumber());
             }
         }
         
@@ -314,6 +230,61 @@ public class GenericParser {
         return this.block;
     }
     
+    /**
+     * Skips the next data block without interpreting its contents. Lines are
+     * only scanned for the terminating END keyword, so this is much faster
+     * than {@link #parseDataBlock()}.
+     * 
+     * @return false if there was no block left to skip.
+     */
+    public boolean skipBlock() {
+        if (!nextLine()) {
+            return false;
+        }
+        while (true) {
+            if (!this.input.nextLine()) {
+                throw new DataFormatException("end of file while reading block");
+            }
+            if (this.input.startsWithWord("END")) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Reads the next data block without interpreting its contents, in the
+     * same way as {@link #skipBlock()}. Comment lines within the block are
+     * replaced by empty ones, so that a parser for the text which starts with
+     * the line number given reports the same line numbers as this one would.
+     * An incomplete block at the end of the input is returned as is, so that
+     * the error is reported when the text is parsed.
+     *
+     * @return the text of the block, or null if there was no block left.
+     */
+    public RawBlock readBlockText() {
+        if (!nextLine()) {
+            return null;
+        }
+        final int start = getLineNumber() - 1;
+        final StringBuffer buf = new StringBuffer(1000);
+        int last = start;
+        while (true) {
+            for (int i = last + 1; i < getLineNumber(); ++i) {
+                buf.append('\n');
+            }
+            last = getLineNumber();
+            this.input.appendLine(buf);
+            buf.append('\n');
+            if (last > start + 1 && this.input.startsWithWord("END")) {
+                break;
+            }
+            if (!this.input.nextLine()) {
+                break;
+            }
+        }
+        return new RawBlock(start, buf.toString());
+    }
+
     /**
      * @return the type of the block last parsed.
      */
@@ -325,7 +296,17 @@ public class GenericParser {
      * @return the last line number.
      */
     public int getLineNumber() {
-        return this.lineno;
+        return this.input.getLineNumber();
+    }
+    
+    /**
+     * Sets the number of the last line read. This is used to report correct
+     * line numbers for input starting in the middle of a file.
+     * 
+     * @param lineno the new line number.
+     */
+    public void setLineNumber(final int lineno) {
+        this.input.setLineNumber(lineno);
     }
     
     /**
@@ -366,7 +347,9 @@ public class GenericParser {
      * @return true if there's nothing more to read
      */
     public boolean atEnd() {
-    	this.bufferedLine = nextLineChopped();
-    	return this.bufferedLine == null;
+        if (!this.lineBuffered) {
+            this.lineBuffered = this.input.nextLine();
+        }
+        return !this.lineBuffered;
     }
 }
@@ -0,0 +1,695 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.gavrog.box.simple.DataFormatException;
+import org.gavrog.joss.pgraphs.basic.SystreKey;
+
+/**
+ * A read-only archive of periodic nets stored in a binary, memory-mapped
+ * file. Entries are located via hash tables on keys and names which are part
+ * of the file, and are only turned into {@link Archive.Entry} objects when
+ * they are retrieved. Opening an archive thus takes constant time and memory,
+ * independent of the number of entries.
+ *
+ * The file starts with a header, followed by the hash tables for keys and
+ * names and finally the entry records in the order they were written. Each
+ * table slot holds the upper half of the 64-bit hash of the string it refers
+ * to and the position of the corresponding record, or zero if unused.
+ *
+ * @author Olaf Delgado
+ */
+public class MappedArchive extends Archive {
+    final private static int MAGIC = 0x42415243; // "BARC"
+    final private static int FORMAT_VERSION = 1;
+    final private static int HEADER_SIZE = 32;
+
+    final private ByteBuffer data;
+    final private long sourceChecksum;
+    final private int count;
+    final private int tableSize;
+    final private int keyTable;
+    final private int nameTable;
+    final private int records;
+
+    /**
+     * Opens a binary archive file.
+     *
+     * @param file the file to open.
+     * @throws IOException if the file could not be read.
+     */
+    public MappedArchive(final File file) throws IOException {
+        this(map(file));
+    }
+
+    /**
+     * Constructs an instance from the complete contents of a binary archive.
+     *
+     * @param data the archive contents.
+     */
+    public MappedArchive(final ByteBuffer data) {
+        super(keyVersion(data));
+        this.data = data;
+        this.sourceChecksum = data.getLong(8);
+        this.count = data.getInt(16);
+        this.tableSize = data.getInt(20);
+        this.keyTable = data.getInt(24);
+        this.nameTable = this.keyTable + 8 * this.tableSize;
+        this.records = this.nameTable + 8 * this.tableSize;
+        if (this.tableSize <= 0 || (this.tableSize & (this.tableSize - 1)) != 0
+                || this.records > data.limit()) {
+            throw new DataFormatException("corrupted archive header");
+        }
+    }
+
+    private static MappedByteBuffer map(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String keyVersion(final ByteBuffer data) {
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new DataFormatException("not a binary archive");
+        }
+        if (data.getInt(4) != FORMAT_VERSION) {
+            throw new DataFormatException("unsupported binary archive version "
+                    + data.getInt(4));
+        }
+        return stringAt(data, 28);
+    }
+
+    /**
+     * Checks if a file starts like a binary archive.
+     *
+     * @param file the file to check.
+     * @return true if the file looks like a binary archive.
+     */
+    public static boolean isBinaryArchive(final File file) {
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                final byte head[] = new byte[4];
+                return in.read(head) == 4 && ByteBuffer.wrap(head).getInt() == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a binary archive stored as a system resource. If the resource
+     * resides in a file, it is mapped into memory directly, otherwise its
+     * contents are read in one go.
+     *
+     * @param path the resource path.
+     * @return the archive or null if there is no such resource.
+     * @throws IOException if the resource could not be read.
+     */
+    public static MappedArchive fromResource(final String path) throws IOException {
+        final URL url = ClassLoader.getSystemResource(path);
+        if (url == null) {
+            return null;
+        }
+        if (url.getProtocol().equals("file")) {
+            try {
+                return new MappedArchive(new File(url.toURI()));
+            } catch (java.net.URISyntaxException ex) {
+            }
+        }
+        final InputStream in = url.openStream();
+        try {
+            final java.io.ByteArrayOutputStream buffer =
+                new java.io.ByteArrayOutputStream();
+            final byte chunk[] = new byte[65536];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                buffer.write(chunk, 0, n);
+            }
+            return new MappedArchive(ByteBuffer.wrap(buffer.toByteArray()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the checksum of the text archive this was converted from, or -1.
+     */
+    public long getSourceChecksum() {
+        return this.sourceChecksum;
+    }
+
+    /**
+     * Computes the checksum of a text archive, as stored by the converter.
+     *
+     * @param input the stream to read the text from; it is closed afterwards.
+     * @return the checksum.
+     * @throws IOException if the stream could not be read.
+     */
+    public static long checksum(final InputStream input) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte buffer[] = new byte[65536];
+        try {
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            input.close();
+        }
+        return crc.getValue();
+    }
+
+    // --- lookup
+
+    public int size() {
+        return this.count;
+    }
+
+    public Entry getByKey(final String key) {
+        final int pos = find(this.keyTable, key, 0);
+        return pos < 0 ? null : entryAt(pos);
+    }
+
+    public Entry getByKey(final SystreKey key) {
+        return getByKey(key.toString());
+    }
+
+    public Entry getByName(final String name) {
+        final int pos = find(this.nameTable, name, 1);
+        return pos < 0 ? null : entryAt(pos);
+    }
+
+    /**
+     * Retrieves the set of all Systre keys present in this archive. The set
+     * is backed by the archive file and lists keys in their original order.
+     *
+     * @return the set of Systre keys.
+     */
+    public Set keySet() {
+        return new AbstractSet() {
+            public int size() {
+                return MappedArchive.this.count;
+            }
+
+            public boolean contains(final Object o) {
+                return o instanceof String
+                        && find(MappedArchive.this.keyTable, (String) o, 0) >= 0;
+            }
+
+            public Iterator iterator() {
+                return new Iterator() {
+                    int pos = nextLive(MappedArchive.this.records);
+
+                    public boolean hasNext() {
+                        return this.pos < MappedArchive.this.data.limit();
+                    }
+
+                    public Object next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final String key = stringAt(MappedArchive.this.data,
+                                this.pos + 1);
+                        this.pos = nextLive(skipRecord(this.pos));
+                        return key;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("read-only");
+                    }
+                };
+            }
+        };
+    }
+
+    // --- this class is read-only
+
+    public void add(final Entry entry) {
+        throw new UnsupportedOperationException("binary archives are read-only");
+    }
+
+    public void delete(final Entry entry) {
+        throw new UnsupportedOperationException("binary archives are read-only");
+    }
+
+    public void clear() {
+        throw new UnsupportedOperationException("binary archives are read-only");
+    }
+
+    public void addAll(final BufferedReader input) {
+        throw new UnsupportedOperationException("binary archives are read-only");
+    }
+
+    // --- low level access
+
+    /**
+     * Looks up a string in one of the hash tables.
+     *
+     * @param table the position of the table.
+     * @param s the string to look for.
+     * @param field the record field to compare with: 0 for key, 1 for name.
+     * @return the position of the matching record or -1.
+     */
+    private int find(final int table, final String s, final int field) {
+        final byte bytes[] = utf8(s);
+        final long h = hash(bytes, 0, bytes.length);
+        final int mask = this.tableSize - 1;
+        int slot = (int) h & mask;
+        while (true) {
+            final long e = this.data.getLong(table + 8 * slot);
+            if (e == 0) {
+                return -1;
+            }
+            if ((int) (e >>> 32) == (int) (h >>> 32)) {
+                final int pos = this.records + (int) e - 1;
+                int p = pos + 1;
+                for (int i = 0; i < field; ++i) {
+                    p = skipString(p);
+                }
+                if (equalsAt(p, bytes)) {
+                    return pos;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean equalsAt(final int pos, final byte bytes[]) {
+        if (this.data.getInt(pos) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            if (this.data.get(pos + 4 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipString(final int pos) {
+        final int n = this.data.getInt(pos);
+        return pos + 4 + Math.max(n, 0);
+    }
+
+    private int skipRecord(final int pos) {
+        int p = pos + 1;
+        for (int i = 0; i < 5; ++i) {
+            p = skipString(p);
+        }
+        return p;
+    }
+
+    private int nextLive(int pos) {
+        while (pos < this.data.limit() && this.data.get(pos) == 0) {
+            pos = skipRecord(pos);
+        }
+        return pos;
+    }
+
+    private Entry entryAt(final int pos) {
+        int p = pos + 1;
+        final String key = stringAt(this.data, p);
+        p = skipString(p);
+        final String name = stringAt(this.data, p);
+        p = skipString(p);
+        final Entry entry = new Entry(key, getKeyVersion(), name);
+        entry.setDescription(stringAt(this.data, p));
+        p = skipString(p);
+        entry.setReference(stringAt(this.data, p));
+        p = skipString(p);
+        entry.setURL(stringAt(this.data, p));
+        return entry;
+    }
+
+    private static String stringAt(final ByteBuffer data, final int pos) {
+        final int n = data.getInt(pos);
+        if (n < 0) {
+            return null;
+        }
+        final byte bytes[] = new byte[n];
+        for (int i = 0; i < n; ++i) {
+            bytes[i] = data.get(pos + 4 + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static byte[] utf8(final String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * The 64-bit FNV-1a hash of a byte sequence.
+     */
+    private static long hash(final byte bytes[], final int offset, final int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; ++i) {
+            h ^= bytes[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long hashAt(final ByteBuffer data, final int pos) {
+        final int n = data.getInt(pos);
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < n; ++i) {
+            h ^= data.get(pos + 4 + i) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // --- writing
+
+    /**
+     * Writes archive entries in binary form. If several entries have the same
+     * key or name, later ones take precedence in lookups, as they do for
+     * {@link Archive#add(Archive.Entry)}. The output is first written to a
+     * temporary file which then replaces the target.
+     *
+     * @param entries an iterator over the entries to write.
+     * @param keyVersion the key version all entries must have.
+     * @param sourceChecksum the checksum of the source text, or -1.
+     * @param output the file to write to.
+     * @return the number of distinct keys written.
+     * @throws IOException if an output error occurred.
+     */
+    public static int write(final Iterator entries, final String keyVersion,
+            final long sourceChecksum, final File output) throws IOException {
+        // --- write the records into a temporary file
+        final File recordFile = new File(output.getPath() + ".records.tmp");
+        final DataOutputStream rec = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(recordFile)));
+        long offsets[] = new long[1024];
+        int n = 0;
+        long pos = 0;
+        try {
+            while (entries.hasNext()) {
+                final Entry entry = (Entry) entries.next();
+                if (!entry.getKeyVersion().equals(keyVersion)) {
+                    throw new IllegalArgumentException("entry '" + entry.getName()
+                            + "' has key of version " + entry.getKeyVersion()
+                            + ", but " + keyVersion + " is required.");
+                }
+                if (n == offsets.length) {
+                    final long tmp[] = new long[2 * n];
+                    System.arraycopy(offsets, 0, tmp, 0, n);
+                    offsets = tmp;
+                }
+                offsets[n++] = pos;
+                rec.writeByte(1);
+                pos += 1;
+                pos += writeString(rec, entry.getKey());
+                pos += writeString(rec, entry.getName());
+                pos += writeString(rec, entry.getDescription());
+                pos += writeString(rec, entry.getReference());
+                pos += writeString(rec, entry.getURL());
+            }
+        } finally {
+            rec.close();
+        }
+
+        final byte version[] = utf8(keyVersion);
+        final int headerSize = (HEADER_SIZE + version.length + 7) & ~7;
+        int tableSize = 16;
+        while (tableSize < 2 * n) {
+            tableSize *= 2;
+        }
+        if (headerSize + 16L * tableSize + pos >= Integer.MAX_VALUE) {
+            recordFile.delete();
+            throw new IllegalArgumentException("archive too large");
+        }
+
+        // --- build the hash tables, marking records superseded by later ones
+        final long keys[] = new long[tableSize];
+        final long names[] = new long[tableSize];
+        int live = n;
+        final RandomAccessFile raf = new RandomAccessFile(recordFile, "rw");
+        try {
+            final ByteBuffer records = raf.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, pos);
+            for (int i = 0; i < n; ++i) {
+                final int p = (int) offsets[i];
+                if (insert(keys, records, p, false)) {
+                    --live;
+                }
+                insert(names, records, p, true);
+            }
+        } finally {
+            raf.close();
+        }
+
+        // --- write the final file
+        final File tmp = new File(output.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(sourceChecksum);
+            out.writeInt(live);
+            out.writeInt(tableSize);
+            out.writeInt(headerSize);
+            out.writeInt(version.length);
+            out.write(version);
+            for (int i = HEADER_SIZE + version.length; i < headerSize; ++i) {
+                out.writeByte(0);
+            }
+            for (int i = 0; i < tableSize; ++i) {
+                out.writeLong(keys[i]);
+            }
+            for (int i = 0; i < tableSize; ++i) {
+                out.writeLong(names[i]);
+            }
+            final InputStream in = new FileInputStream(recordFile);
+            try {
+                final byte buffer[] = new byte[65536];
+                int k;
+                while ((k = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, k);
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+            recordFile.delete();
+        }
+        if (!tmp.renameTo(output)) {
+            output.delete();
+            if (!tmp.renameTo(output)) {
+                throw new IOException("could not replace " + output);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Enters a record into a hash table under its key or name. If a record
+     * with the same string is present, it is replaced. A record replaced in
+     * the key table is marked as superseded; one replaced in the name table
+     * stays live, since it can still be found by its key.
+     *
+     * @return true if a previous record was replaced.
+     */
+    private static boolean insert(final long table[], final ByteBuffer records,
+            final int record, final boolean byName) {
+        final int field = fieldAt(records, record, byName);
+        final long h = hashAt(records, field);
+        final int mask = table.length - 1;
+        int slot = (int) h & mask;
+        final long value = (h & 0xffffffff00000000L) | (record + 1);
+        while (table[slot] != 0) {
+            final long e = table[slot];
+            if ((int) (e >>> 32) == (int) (h >>> 32)) {
+                final int other = (int) e - 1;
+                if (sameString(records, fieldAt(records, other, byName), field)) {
+                    table[slot] = value;
+                    if (!byName) {
+                        records.put(other, (byte) 0);
+                    }
+                    return true;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        return false;
+    }
+
+    // --- the position of a record's key or name
+    private static int fieldAt(final ByteBuffer records, final int record,
+            final boolean name) {
+        if (name) {
+            return record + 5 + Math.max(records.getInt(record + 1), 0);
+        } else {
+            return record + 1;
+        }
+    }
+
+    private static boolean sameString(final ByteBuffer data, final int p, final int q) {
+        final int n = data.getInt(p);
+        if (data.getInt(q) != n) {
+            return false;
+        }
+        for (int i = 0; i < n; ++i) {
+            if (data.get(p + 4 + i) != data.get(q + 4 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int writeString(final DataOutputStream out, final String s)
+            throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return 4;
+        } else {
+            final byte bytes[] = utf8(s);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            return 4 + bytes.length;
+        }
+    }
+
+    // --- conversion between formats
+
+    /**
+     * Converts a text archive into binary form.
+     *
+     * @param input the text archive.
+     * @param output the binary file to write.
+     * @return the number of distinct keys written.
+     * @throws IOException if an input or output error occurred.
+     */
+    public static int pack(final File input, final File output) throws IOException {
+        final long checksum = checksum(new FileInputStream(input));
+        final BufferedReader reader = new BufferedReader(new FileReader(input));
+        try {
+            return write(new Iterator() {
+                Entry nextEntry = Entry.read(reader);
+
+                public boolean hasNext() {
+                    return this.nextEntry != null;
+                }
+
+                public Object next() {
+                    if (this.nextEntry == null) {
+                        throw new NoSuchElementException();
+                    }
+                    final Entry result = this.nextEntry;
+                    this.nextEntry = Entry.read(reader);
+                    return result;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException("not implemented");
+                }
+            }, "1.0", checksum, output);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes all entries of this archive in text form.
+     *
+     * @param writer the output stream.
+     * @return the number of entries written.
+     * @throws IOException if an output error occurred.
+     */
+    public int unpack(final Writer writer) throws IOException {
+        int n = 0;
+        for (final Iterator iter = keySet().iterator(); iter.hasNext();) {
+            writer.write(getByKey((String) iter.next()).toString());
+            writer.write("\n");
+            ++n;
+        }
+        writer.flush();
+        return n;
+    }
+
+    public static void main(final String args[]) {
+        if (args.length < 3) {
+            System.err.println("Usage: MappedArchive (pack|unpack) input output");
+            return;
+        }
+        final String cmd = args[0];
+        final File input = new File(args[1]);
+        final File output = new File(args[2]);
+        try {
+            final int n;
+            if ("pack".equalsIgnoreCase(cmd)) {
+                n = pack(input, output);
+            } else if ("unpack".equalsIgnoreCase(cmd)) {
+                final Writer writer = new BufferedWriter(new FileWriter(output));
+                try {
+                    n = new MappedArchive(input).unpack(writer);
+                } finally {
+                    writer.close();
+                }
+            } else {
+                System.err.println("Unknown command \"" + cmd + "\".");
+                return;
+            }
+            System.err.println("Wrote " + n + " entr" + (n == 1 ? "y" : "ies")
+                    + " to " + output + ".");
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage() + " - converting \"" + input + "\".");
+        }
+    }
+}
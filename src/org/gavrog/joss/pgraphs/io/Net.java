@@ -1,8 +1,12 @@
 package org.gavrog.joss.pgraphs.io;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -13,6 +17,7 @@ import java.util.NoSuchElementException;
 import org.gavrog.box.collections.FilteredIterator;
 import org.gavrog.box.collections.IteratorAdapter;
 import org.gavrog.box.collections.Pair;
+import org.gavrog.box.collections.ParallelIterator;
 import org.gavrog.joss.dsyms.basic.DelaneySymbol;
 import org.gavrog.joss.dsyms.generators.InputIterator;
 import org.gavrog.joss.pgraphs.basic.IEdge;
@@ -120,15 +125,76 @@ public class Net extends PeriodicGraph {
     
     public static Iterator iterator(final String filePath)
             throws FileNotFoundException {
+        return iterator(filePath, 0);
+    }
+    
+    /**
+     * Returns an iterator over the nets in a file, skipping a number of them
+     * at the beginning. Where possible, the skipped nets are not fully read.
+     * 
+     * @param filePath the name of the file to read.
+     * @param skip the number of nets to skip.
+     * @return the iterator over the remaining nets.
+     * @throws FileNotFoundException if the file does not exist.
+     */
+    public static Iterator iterator(final String filePath, final int skip)
+            throws FileNotFoundException {
+        return iterator(filePath, skip, 1);
+    }
+    
+    /**
+     * Returns an iterator over the nets in a file which reads several nets in
+     * parallel. A single thread splits the input into blocks, which are then
+     * turned into nets by the given number of worker threads. The nets are
+     * returned in file order, and a net that cannot be read causes an
+     * exception in the corresponding call to {@link Iterator#next()}, just as
+     * for the sequential iterator. With a single thread, the sequential
+     * iterator is returned. A parallel iterator which is not read to the end
+     * must be closed via {@link ParallelIterator#close()}.
+     * 
+     * @param filePath the name of the file to read.
+     * @param skip the number of nets to skip.
+     * @param threads the number of threads to use for constructing nets.
+     * @return the iterator over the remaining nets.
+     * @throws FileNotFoundException if the file does not exist.
+     */
+    public static Iterator iterator(final String filePath, final int skip,
+            final int threads) throws FileNotFoundException {
         
         final String extension = filePath
                 .substring(filePath.lastIndexOf('.') + 1);
 
         final BufferedReader reader;
         reader = new BufferedReader(new FileReader(filePath));
+        
+        // --- the number of nets read ahead by the parallel iterator
+        final int capacity = 4 * threads;
 
         if ("cgd".equals(extension) || "pgr".equals(extension)) {
             final NetParser parser = new NetParser(reader);
+            for (int i = 0; i < skip && parser.skipBlock(); ++i) {
+            }
+            
+            if (threads > 1) {
+                final Iterator blocks = new IteratorAdapter() {
+                    protected Object findNext() throws NoSuchElementException {
+                        final GenericParser.RawBlock block = parser.readBlockText();
+                        if (block == null) {
+                            throw new NoSuchElementException("at end");
+                        }
+                        return block;
+                    }
+                };
+                return new ParallelIterator(blocks, threads, capacity, reader) {
+                    public Object filter(final Object x) {
+                        final GenericParser.RawBlock block = (GenericParser.RawBlock) x;
+                        final NetParser p = new NetParser(new StringReader(block.text),
+                                block.text.length());
+                        p.setLineNumber(block.lineNumber);
+                        return p.parseNet();
+                    }
+                };
+            }
             
             return new Iterator() {
                 public boolean hasNext() {
@@ -144,27 +210,44 @@ public class Net extends PeriodicGraph {
                 }
             };
         } else if ("ds".equals(extension) || "tgs".equals(extension)) {
-            return new FilteredIterator(new InputIterator(reader)) {
+            final Iterator symbols = new InputIterator(reader);
+            for (int i = 0; i < skip && symbols.hasNext(); ++i) {
+                symbols.next();
+            }
+            if (threads > 1) {
+                return new ParallelIterator(symbols, threads, capacity, reader) {
+                    public Object filter(final Object x) {
+                        return skeleton((DelaneySymbol) x);
+                    }
+                };
+            }
+            return new FilteredIterator(symbols) {
                 public Object filter(Object x) {
-                    final DelaneySymbol ds = (DelaneySymbol) x;
-                    final PeriodicGraph graph = new Tiling(ds).getSkeleton();
-                    final String group = (ds.dim() == 3) ? "P1" : "p1";
-                    return new Net(graph, null, group);
+                    return skeleton((DelaneySymbol) x);
                 }
             };
         } else if ("arc".equals(extension)) {
-            return new IteratorAdapter() {
+            for (int i = 0; i < skip && Archive.Entry.read(reader, false) != null; ++i) {
+            }
+            final Iterator entries = new IteratorAdapter() {
                 protected Object findNext() throws NoSuchElementException {
                     final Archive.Entry entry = Archive.Entry.read(reader);
                     if (entry == null) {
                         throw new NoSuchElementException("at end");
                     }
-                    final String key = entry.getKey();
-                    final PeriodicGraph graph = PeriodicGraph
-                            .fromInvariantString(key);
-                    final String group = (graph.getDimension() == 3) ? "P1"
-                            : "p1";
-                    return new Net(graph, entry.getName(), group);
+                    return entry;
+                }
+            };
+            if (threads > 1) {
+                return new ParallelIterator(entries, threads, capacity, reader) {
+                    public Object filter(final Object x) {
+                        return fromArchiveEntry((Archive.Entry) x);
+                    }
+                };
+            }
+            return new FilteredIterator(entries) {
+                public Object filter(Object x) {
+                    return fromArchiveEntry((Archive.Entry) x);
                 }
             };
         } else {
@@ -172,4 +255,59 @@ public class Net extends PeriodicGraph {
                     + extension + "\"");
         }
     }
+    
+    /**
+     * Constructs the net described by an archive entry.
+     */
+    private static Net fromArchiveEntry(final Archive.Entry entry) {
+        final String key = entry.getKey();
+        final PeriodicGraph graph = PeriodicGraph.fromInvariantString(key);
+        final String group = (graph.getDimension() == 3) ? "P1" : "p1";
+        return new Net(graph, entry.getName(), group);
+    }
+    
+    /**
+     * Constructs the net formed by the skeleton of a tiling.
+     */
+    private static Net skeleton(final DelaneySymbol ds) {
+        final PeriodicGraph graph = new Tiling(ds).getSkeleton();
+        final String group = (ds.dim() == 3) ? "P1" : "p1";
+        return new Net(graph, null, group);
+    }
+    
+    /**
+     * Returns a list of the nets in a .cgd, .pgr, .ds or .tgs file. The file
+     * is indexed first, so that each net can be read without going through
+     * the ones before it. Nets are only read when requested, and the ones
+     * used most recently are kept.
+     * 
+     * @param filePath the name of the file to read.
+     * @param persist if true, the file index is stored in a sidecar file.
+     * @return the list of nets.
+     * @throws IOException if the file could not be read.
+     */
+    public static BlockList list(final String filePath, final boolean persist)
+            throws IOException {
+        final BlockIndex index = BlockIndex.forFile(new File(filePath), persist);
+        return new BlockList(index, 64) {
+            protected Object parse(final Reader input, final int i) {
+                if (index.holdsSymbols()) {
+                    return skeleton((DelaneySymbol) new InputIterator(input).next());
+                } else {
+                    final NetParser parser = new NetParser(input,
+                            index.getLength(i));
+                    parser.setLineNumber(index.getLineNumber(i));
+                    return parser.parseNet();
+                }
+            }
+            
+            protected String nameOf(final Object x) {
+                return ((Net) x).getName();
+            }
+            
+            protected String blockName(final int i) {
+                return index.holdsSymbols() ? null : index.getName(i);
+            }
+        };
+    }
 }
\ No newline at end of file
@@ -0,0 +1,353 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.gavrog.box.simple.DataFormatException;
+import org.gavrog.joss.geometry.SpaceGroupFinder;
+import org.gavrog.joss.pgraphs.basic.INode;
+import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
+
+/**
+ * A collection of cheap topological descriptors for a periodic net, used to
+ * find similar nets in an archive. The descriptors are the space group, the
+ * numbers of node and edge orbits, and for each node orbit its size within
+ * the repeat unit and the first terms of its coordination sequence, which
+ * start with the node degree.
+ *
+ * The distance between two fingerprints is the sum of the following terms:
+ * <ul>
+ * <li>1 if the space group names differ, 0 otherwise;
+ * <li>the absolute differences in the numbers of node and edge orbits;
+ * <li>the L1 distance between the degree distributions, where each node
+ * contributes in proportion to its orbit size;
+ * <li>the mean absolute difference of the natural logarithms of the averaged
+ * coordination sequence terms, where again each node contributes in
+ * proportion to its orbit size.
+ * </ul>
+ * Isomorphic nets have distance 0, but distance 0 does not imply isomorphism.
+ *
+ * @author Olaf Delgado
+ */
+public class NetFingerprint {
+    /**
+     * The number of coordination sequence terms recorded.
+     */
+    final public static int CS_LENGTH = 10;
+
+    final private int dimension;
+    final private String groupName;
+    final private int edgeOrbits;
+    final private int orbits[][];
+
+    // --- derived data used in distance computations
+    final private double logCS[];
+    final private int maxDegree;
+    final private double degrees[];
+
+    /**
+     * Computes the fingerprint for a connected, minimal periodic graph.
+     *
+     * @param G the graph.
+     */
+    public NetFingerprint(final PeriodicGraph G) {
+        this(G, groupName(G));
+    }
+
+    /**
+     * Computes the fingerprint for a connected, minimal periodic graph, with
+     * an already known space group.
+     *
+     * @param G the graph.
+     * @param groupName the name of the space group for the graph.
+     */
+    public NetFingerprint(final PeriodicGraph G, final String groupName) {
+        final List list = new ArrayList();
+        for (final Iterator iter = G.nodeOrbits(); iter.hasNext();) {
+            final Set orbit = (Set) iter.next();
+            final INode v = (INode) orbit.iterator().next();
+            final int entry[] = new int[CS_LENGTH + 1];
+            entry[0] = orbit.size();
+            final Iterator cs = G.coordinationSequence(v);
+            cs.next();
+            for (int i = 1; i <= CS_LENGTH; ++i) {
+                entry[i] = ((Integer) cs.next()).intValue();
+            }
+            list.add(entry);
+        }
+        int count = 0;
+        for (final Iterator iter = G.edgeOrbits(); iter.hasNext();) {
+            iter.next();
+            ++count;
+        }
+        this.dimension = G.getDimension();
+        this.groupName = groupName;
+        this.edgeOrbits = count;
+        this.orbits = sorted(list);
+        this.logCS = new double[CS_LENGTH];
+        this.degrees = new double[maxDegree(this.orbits) + 1];
+        this.maxDegree = this.degrees.length - 1;
+        derive();
+    }
+
+    private NetFingerprint(final int dimension, final String groupName,
+            final int edgeOrbits, final List orbits) {
+        this.dimension = dimension;
+        this.groupName = groupName;
+        this.edgeOrbits = edgeOrbits;
+        this.orbits = sorted(orbits);
+        this.logCS = new double[CS_LENGTH];
+        this.degrees = new double[maxDegree(this.orbits) + 1];
+        this.maxDegree = this.degrees.length - 1;
+        derive();
+    }
+
+    private static String groupName(final PeriodicGraph G) {
+        final int d = G.getDimension();
+        if (d == 2 || d == 3) {
+            return new SpaceGroupFinder(G.getSpaceGroup()).getGroupName();
+        } else {
+            return null;
+        }
+    }
+
+    private static int[][] sorted(final List orbits) {
+        final List tmp = new ArrayList(orbits);
+        Collections.sort(tmp, new Comparator() {
+            public int compare(final Object o1, final Object o2) {
+                final int a[] = (int[]) o1;
+                final int b[] = (int[]) o2;
+                for (int i = 1; i < a.length; ++i) {
+                    if (a[i] != b[i]) {
+                        return a[i] - b[i];
+                    }
+                }
+                return a[0] - b[0];
+            }
+        });
+        return (int[][]) tmp.toArray(new int[tmp.size()][]);
+    }
+
+    private static int maxDegree(final int orbits[][]) {
+        int max = 0;
+        for (int i = 0; i < orbits.length; ++i) {
+            max = Math.max(max, orbits[i][1]);
+        }
+        return max;
+    }
+
+    private void derive() {
+        int total = 0;
+        for (int i = 0; i < this.orbits.length; ++i) {
+            total += this.orbits[i][0];
+        }
+        for (int i = 0; i < this.orbits.length; ++i) {
+            final int orbit[] = this.orbits[i];
+            final double weight = orbit[0] / (double) total;
+            this.degrees[orbit[1]] += weight;
+            for (int k = 0; k < CS_LENGTH; ++k) {
+                this.logCS[k] += weight * orbit[k + 1];
+            }
+        }
+        for (int k = 0; k < CS_LENGTH; ++k) {
+            this.logCS[k] = Math.log(Math.max(this.logCS[k], 1));
+        }
+    }
+
+    /**
+     * Computes the distance to another fingerprint, as described in the class
+     * documentation. Fingerprints for nets of different dimensions have
+     * infinite distance.
+     *
+     * @param other the other fingerprint.
+     * @return the distance.
+     */
+    public double distance(final NetFingerprint other) {
+        if (this.dimension != other.dimension) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double d = 0;
+        if (this.groupName == null ? other.groupName != null
+                : !this.groupName.equals(other.groupName)) {
+            d += 1;
+        }
+        d += Math.abs(this.orbits.length - other.orbits.length);
+        d += Math.abs(this.edgeOrbits - other.edgeOrbits);
+        for (int i = 0; i <= Math.max(this.maxDegree, other.maxDegree); ++i) {
+            final double a = i <= this.maxDegree ? this.degrees[i] : 0;
+            final double b = i <= other.maxDegree ? other.degrees[i] : 0;
+            d += Math.abs(a - b);
+        }
+        double s = 0;
+        for (int k = 0; k < CS_LENGTH; ++k) {
+            s += Math.abs(this.logCS[k] - other.logCS[k]);
+        }
+        return d + s / CS_LENGTH;
+    }
+
+    /**
+     * @return the dimension of the net.
+     */
+    public int getDimension() {
+        return this.dimension;
+    }
+
+    /**
+     * @return the space group name or null if unknown.
+     */
+    public String getGroupName() {
+        return this.groupName;
+    }
+
+    /**
+     * @return the number of node orbits.
+     */
+    public int numberOfNodeOrbits() {
+        return this.orbits.length;
+    }
+
+    /**
+     * @return the number of edge orbits.
+     */
+    public int numberOfEdgeOrbits() {
+        return this.edgeOrbits;
+    }
+
+    /**
+     * Returns the coordination sequence for a node orbit. Orbits are sorted
+     * by their coordination sequences.
+     *
+     * @param i the index of the orbit.
+     * @return the first terms of the coordination sequence.
+     */
+    public int[] coordinationSequence(final int i) {
+        final int result[] = new int[CS_LENGTH];
+        System.arraycopy(this.orbits[i], 1, result, 0, CS_LENGTH);
+        return result;
+    }
+
+    public boolean equals(final Object other) {
+        if (other instanceof NetFingerprint) {
+            return toString().equals(other.toString());
+        } else {
+            return false;
+        }
+    }
+
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * Returns the text form of this fingerprint as used in index files.
+     */
+    public String toString() {
+        final StringBuffer buf = new StringBuffer(200);
+        buf.append("dim      " + this.dimension + "\n");
+        buf.append("group    " + (this.groupName == null ? "" : this.groupName)
+                + "\n");
+        buf.append("edges    " + this.edgeOrbits + "\n");
+        for (int i = 0; i < this.orbits.length; ++i) {
+            buf.append("orbit   ");
+            for (int k = 0; k < this.orbits[i].length; ++k) {
+                buf.append(" " + this.orbits[i][k]);
+            }
+            buf.append("\n");
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Parses the lines written by {@link #toString()}.
+     *
+     * @param lines the trimmed lines, each starting with its tag.
+     * @return the fingerprint.
+     */
+    static NetFingerprint parse(final List lines) {
+        int dim = 0;
+        String group = null;
+        int edges = 0;
+        final List orbits = new ArrayList();
+        for (final Iterator iter = lines.iterator(); iter.hasNext();) {
+            final String line = (String) iter.next();
+            final String fields[] = line.split("\\s+");
+            final String tag = fields[0];
+            if (tag.equals("dim")) {
+                dim = Integer.parseInt(fields[1]);
+            } else if (tag.equals("group")) {
+                final String arg = line.substring(tag.length()).trim();
+                group = arg.length() > 0 ? arg : null;
+            } else if (tag.equals("edges")) {
+                edges = Integer.parseInt(fields[1]);
+            } else if (tag.equals("orbit")) {
+                if (fields.length != CS_LENGTH + 2) {
+                    throw new DataFormatException("bad orbit line: " + line);
+                }
+                final int entry[] = new int[CS_LENGTH + 1];
+                for (int k = 0; k <= CS_LENGTH; ++k) {
+                    entry[k] = Integer.parseInt(fields[k + 1]);
+                }
+                orbits.add(entry);
+            }
+        }
+        if (dim == 0 || orbits.size() == 0) {
+            throw new DataFormatException("incomplete fingerprint");
+        }
+        return new NetFingerprint(dim, group, edges, orbits);
+    }
+
+    /**
+     * Reads the lines of a single record from an index file, up to and
+     * excluding the closing "end" line.
+     *
+     * @param input the input stream.
+     * @return the trimmed lines or null if the stream is at its end.
+     */
+    static List readRecord(final BufferedReader input) {
+        final List lines = new ArrayList();
+        while (true) {
+            final String line;
+            try {
+                line = input.readLine();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            if (line == null) {
+                if (lines.size() > 0) {
+                    throw new DataFormatException("unexpected end of index file");
+                }
+                return null;
+            }
+            final String trimmed = line.trim();
+            if (trimmed.length() == 0 || trimmed.startsWith("#")) {
+                continue;
+            } else if (trimmed.equals("end")) {
+                return lines;
+            } else {
+                lines.add(trimmed);
+            }
+        }
+    }
+}
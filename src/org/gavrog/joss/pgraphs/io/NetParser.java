@@ -143,6 +143,18 @@ public class NetParser extends GenericParser {
         this(new BufferedReader(input));
     }
     
+    /**
+     * Constructs an instance with a given input buffer size.
+     * 
+     * @param input the stream to read from.
+     * @param bufferSize the number of characters to read at once.
+     */
+    public NetParser(final Reader input, final int bufferSize) {
+        super(input, bufferSize);
+        this.synonyms = makeSynonyms();
+        this.defaultKey = "edge";
+    }
+    
     /**
      * Constructs an instance.
      * 
@@ -158,7 +170,7 @@ public class NetParser extends GenericParser {
      * 
      * @return the mapping of keywords.
      */
-    private static Map makeSynonyms() {
+    static Map makeSynonyms() {
         final Map result = new HashMap();
         result.put("vertex", "node");
         result.put("vertices", "node");
@@ -339,12 +351,7 @@ public class NetParser extends GenericParser {
         } else {
             dim = 3;
         }
-        final Collection ops = SpaceGroupCatalogue.operators(dim, name);
-        if (ops == null) {
-            return null;
-        } else {
-            return new SpaceGroup(dim, ops, false, false);
-        }
+        return SpaceGroup.fromCatalogue(dim, name);
     }
     
     
@@ -549,6 +556,18 @@ public class NetParser extends GenericParser {
         }
     }
     
+    /**
+     * @param p a point.
+     * @return the coordinates of the point as floating point numbers.
+     */
+    private static double[] doubleCoordinates(final Point p) {
+        final double result[] = new double[p.getDimension()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((Real) p.get(i)).doubleValue();
+        }
+        return result;
+    }
+    
     /**
      * Parses a crystal descriptor and constructs the corresponding atom-bond
      * network.
@@ -837,6 +856,7 @@ public class NetParser extends GenericParser {
         final Net G = new Net(dim, getName(), getSpaceGroup());
         final Map nodeToPosition = new HashMap();
         final Map nodeToDescriptorAddress = new HashMap();
+        final OperatorTable table = new OperatorTable(ops);
         
         for (final Iterator itNodes = nodeDescriptors.iterator(); itNodes.hasNext();) {
             final NodeDescriptor desc = (NodeDescriptor) itNodes.next();
@@ -845,40 +865,28 @@ public class NetParser extends GenericParser {
                 System.err.println("Mapping node " + desc);
             }
             final Point site = (Point) desc.site;
-            final Set stabilizer = pointStabilizer(site, ops, precision);
+            final int stabilizer[] = pointStabilizer(site, table, precision);
             if (DEBUG) {
-                System.err.println("  stabilizer has size " + stabilizer.size());
+                System.err.println("  stabilizer has size " + stabilizer.length);
             }
             // --- loop through the cosets of the stabilizer
-            final Set opsSeen = new HashSet();
-            for (final Iterator itOps = ops.iterator(); itOps.hasNext();) {
-                // --- get the next coset representative
-                final Operator op = ((Operator) itOps.next()).modZ();
-                if (!opsSeen.contains(op)) {
-                    if (DEBUG) {
-                        System.err.println("  applying " + op);
-                    }
-                    // --- compute mapped node position
-                    final Point p = (Point) site.times(op);
-                    // --- construct a new node
-                    final INode v = G.newNode("" + desc.name);
-                    // --- store some temporary data for it
-                    nodeToPosition.put(v, p);
-                    nodeToDescriptorAddress.put(v, new Pair(desc, op));
-                    // --- also store some permanent information
-                    G.setNodeInfo(v, CONNECTIVITY, new Integer(desc.connectivity));
-                    G.setNodeInfo(v, COORDINATION_SEQUENCE, name2cs.get(desc.name));
-                    G.setNodeInfo(v, POSITION, p);
-                    // --- mark operators that should not be used anymore
-                    for (final Iterator iter = stabilizer.iterator(); iter.hasNext();) {
-                        final Operator a = (Operator) ((Operator) iter.next()).times(op);
-                        final Operator aModZ = a.modZ();
-                        opsSeen.add(aModZ);
-                        if (DEBUG) {
-                            System.err.println("  marking operator " + aModZ + " as used");
-                        }
-                    }
+            final int reps[] = table.cosetRepresentatives(stabilizer);
+            for (int i = 0; i < reps.length; ++i) {
+                final Operator op = table.get(reps[i]);
+                if (DEBUG) {
+                    System.err.println("  applying " + op);
                 }
+                // --- compute mapped node position
+                final Point p = (Point) site.times(op);
+                // --- construct a new node
+                final INode v = G.newNode("" + desc.name);
+                // --- store some temporary data for it
+                nodeToPosition.put(v, p);
+                nodeToDescriptorAddress.put(v, new Pair(desc, op));
+                // --- also store some permanent information
+                G.setNodeInfo(v, CONNECTIVITY, new Integer(desc.connectivity));
+                G.setNodeInfo(v, COORDINATION_SEQUENCE, name2cs.get(desc.name));
+                G.setNodeInfo(v, POSITION, p);
             }
         }
 
@@ -1023,6 +1031,23 @@ public class NetParser extends GenericParser {
 						+ " nodes in extended Dirichlet domain.");
 			}
 
+			// --- index the extended points for the neighbor search
+			final int m = extended.size();
+			final INode extendedNode[] = new INode[m];
+			final boolean atOrigin[] = new boolean[m];
+			final boolean isCenter[] = new boolean[m];
+			final double extendedCoords[][] = new double[m][];
+			for (int i = 0; i < m; ++i) {
+				final Pair adr = (Pair) extended.get(i);
+				extendedNode[i] = (INode) adr.getFirst();
+				atOrigin[i] = adr.getSecond().equals(zero);
+				isCenter[i] = ((NodeDescriptor) ((Pair) nodeToDescriptorAddress
+						.get(extendedNode[i])).getFirst()).isEdgeCenter;
+				extendedCoords[i] = doubleCoordinates((Point) addressToPosition
+						.get(adr));
+			}
+			final PointIndex pointIndex = new PointIndex(extendedCoords, cellGram);
+
 			// --- compute potential edges
 			final List edges = new ArrayList();
 			for (final Iterator iter = G.nodes(); iter.hasNext();) {
@@ -1030,23 +1055,20 @@ public class NetParser extends GenericParser {
 				final INode v = (INode) iter.next();
 				final Pair adrV = (Pair) nodeToDescriptorAddress.get(v);
 				final NodeDescriptor descV = (NodeDescriptor) adrV.getFirst();
-				final Pair adr0 = new Pair(v, zero);
 				final Point pv = (Point) nodeToPosition.get(v);
+				
+				// --- only candidates for the nearest points are measured exactly
+				final int candidates[] = pointIndex.nearest(doubleCoordinates(pv),
+						descV.connectivity, new PointIndex.Filter() {
+							public boolean accept(final int i) {
+								return !(atOrigin[i] && extendedNode[i].equals(v))
+										&& !(descV.isEdgeCenter && isCenter[i]);
+							}
+						});
 				final List distances = new ArrayList();
-				for (int i = 0; i < extended.size(); ++i) {
-					TaskController.getInstance().bailOutIfCancelled();
+				for (int j = 0; j < candidates.length; ++j) {
+					final int i = candidates[j];
 					final Pair adr = (Pair) extended.get(i);
-					if (adr.equals(adr0)) {
-						continue;
-					}
-					final INode w = (INode) adr.getFirst();
-					final Pair adrW = (Pair) nodeToDescriptorAddress.get(w);
-					final NodeDescriptor descW = (NodeDescriptor) adrW
-							.getFirst();
-					if (descV.isEdgeCenter && descW.isEdgeCenter) {
-						continue;
-					}
-
 					final Point pos = (Point) addressToPosition.get(adr);
 					final Vector diff0 = (Vector) pos.minus(pv);
 					final Matrix diff = diff0.getCoordinates();
@@ -1457,6 +1479,7 @@ public class NetParser extends GenericParser {
         
         // --- apply group operators to generate all corner points
         final Map indexToPos = new HashMap();
+        final OperatorTable table = new OperatorTable(ops);
         
         for (final Iterator itert = faceLists.iterator(); itert.hasNext();) {
             final List list = (List) itert.next();
@@ -1475,37 +1498,22 @@ public class NetParser extends GenericParser {
                         System.err.println();
                         System.err.println("Mapping point " + site);
                     }
-                    final Set stabilizer = pointStabilizer(site, ops, precision);
+                    final int stabilizer[] = pointStabilizer(site, table,
+                            precision);
                     if (DEBUG) {
                         System.err.println("  stabilizer has size "
-                                + stabilizer.size());
+                                + stabilizer.length);
                     }
                     // --- loop through the cosets of the stabilizer
-                    final Set opsSeen = new HashSet();
-                    for (final Iterator itOps = ops.iterator(); itOps.hasNext();) {
-                        // --- get the next coset representative
-                        final Operator op = ((Operator) itOps.next()).modZ();
-                        if (!opsSeen.contains(op)) {
-                            if (DEBUG) {
-                                System.err.println("  applying " + op);
-                            }
-                            // --- compute mapped node position
-                            final Point p = (Point) site.times(op);
-                            indexToPos.put(new Integer(indexToPos.size()), p);
-
-                            // --- mark operators that should not be used anymore
-                            for (final Iterator iter = stabilizer.iterator(); iter
-                                    .hasNext();) {
-                                final Operator a = (Operator) ((Operator) iter
-                                        .next()).times(op);
-                                final Operator aModZ = a.modZ();
-                                opsSeen.add(aModZ);
-                                if (DEBUG) {
-                                    System.err.println("  marking operator "
-                                            + aModZ + " as used");
-                                }
-                            }
+                    final int reps[] = table.cosetRepresentatives(stabilizer);
+                    for (int k = 0; k < reps.length; ++k) {
+                        final Operator op = table.get(reps[k]);
+                        if (DEBUG) {
+                            System.err.println("  applying " + op);
                         }
+                        // --- compute mapped node position
+                        final Point p = (Point) site.times(op);
+                        indexToPos.put(new Integer(indexToPos.size()), p);
                     }
                 }
             }
@@ -1745,27 +1753,37 @@ public class NetParser extends GenericParser {
      * Currently only tested for point sites.
      * 
      * @param site the site.
-     * @param ops operators forming the symmetry group.
+     * @param table operators forming the symmetry group.
      * @param precision points this close are considered equal.
-     * @return the set of operators forming the stabilizer
+     * @return the numbers of the operators forming the stabilizer
      */
-    private static Set pointStabilizer(final Point site, final List ops, final double precision) {
-        final Set stabilizer = new HashSet();
+    private static int[] pointStabilizer(final Point site,
+            final OperatorTable table, final double precision) {
+        final double p[] = doubleCoordinates(site);
+        final List stabilizer = new ArrayList();
         
-        for (final Iterator it2 = ops.iterator(); it2.hasNext();) {
-            final Operator op = (Operator) it2.next();
-            final double dist = distModZ(site, (Point) site.times(op));
+        for (int i = 0; i < table.size(); ++i) {
+            // --- rule out most operators using floating point arithmetic
+            if (distModZ(p, table.approximateImage(p, i)) > precision
+                    + PointIndex.SLACK) {
+                continue;
+            }
+            final double dist = distModZ(site, (Point) site.times(table.get(i)));
             if (dist <= precision) { // using "<=" allows for precision 0
-                stabilizer.add(op.modZ());
+                stabilizer.add(new Integer(i));
             }
         }
+        final int result[] = new int[stabilizer.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((Integer) stabilizer.get(i)).intValue();
+        }
         
         // --- check if stabilizer forms a group
-        if (!formGroup(stabilizer)) {
+        if (!table.formGroup(result)) {
             throw new RuntimeException("precision problem in stabilizer computation");
         }
 
-        return stabilizer;
+        return result;
     }
     
     /**
@@ -1792,22 +1810,16 @@ public class NetParser extends GenericParser {
     }
     
     /**
-     * Determines if the given operators form a group modulo Z^d.
-     * @param operators a collection of operators.
-     * @return true if the operators form a group.
+     * Floating point version of {@link #distModZ(Point, Point)}.
      */
-    final static boolean formGroup(final Collection operators) {
-        for (final Iterator iter1 = operators.iterator(); iter1.hasNext();) {
-            final Operator A = (Operator) iter1.next();
-            for (final Iterator iter2 = operators.iterator(); iter2.hasNext();) {
-                final Operator B = (Operator) iter2.next();
-                final Operator AB_ = ((Operator) A.times(B.inverse())).modZ();
-                if (!operators.contains(AB_)) {
-                    return false;
-                }
-            }
+    private static double distModZ(final double p[], final double q[]) {
+        double maxD = 0.0;
+        for (int j = 0; j < p.length; ++j) {
+            final double x = p[j] - q[j];
+            final double d = x - Math.floor(x);
+            maxD = Math.max(maxD, Math.min(d, 1.0 - d));
         }
-        return true;
+        return maxD;
     }
     
     public static void main(final String args[]) {
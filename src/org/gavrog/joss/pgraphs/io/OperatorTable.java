@@ -0,0 +1,201 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.gavrog.jane.numbers.Real;
+import org.gavrog.joss.geometry.Operator;
+
+/**
+ * A multiplication table for the operators of a space group modulo Z^d.
+ * Operators are numbered in the order given, and products and inverses are
+ * looked up by number. Each table entry is computed when first needed, so
+ * that only the part of the table actually used is ever filled in.
+ *
+ * @author Olaf Delgado
+ */
+class OperatorTable {
+    final private int dim;
+    final private Operator ops[];
+    final private double coords[][][];
+    final private Map opToIndex = new HashMap();
+    final private int products[][];
+    final private int inverses[];
+
+    /**
+     * Constructs an instance.
+     *
+     * @param operators the group operators, duplicates modulo Z^d are ignored.
+     */
+    public OperatorTable(final List operators) {
+        final List tmp = new ArrayList();
+        for (final Iterator iter = operators.iterator(); iter.hasNext();) {
+            final Operator op = ((Operator) iter.next()).modZ();
+            if (!this.opToIndex.containsKey(op)) {
+                this.opToIndex.put(op, new Integer(tmp.size()));
+                tmp.add(op);
+            }
+        }
+        final int n = tmp.size();
+        this.ops = (Operator[]) tmp.toArray(new Operator[n]);
+        this.dim = n > 0 ? this.ops[0].getDimension() : 0;
+
+        this.coords = new double[n][this.dim + 1][this.dim + 1];
+        for (int k = 0; k < n; ++k) {
+            for (int i = 0; i <= this.dim; ++i) {
+                for (int j = 0; j <= this.dim; ++j) {
+                    this.coords[k][i][j] = ((Real) this.ops[k].get(i, j))
+                            .doubleValue();
+                }
+            }
+        }
+
+        this.products = new int[n][n];
+        for (int i = 0; i < n; ++i) {
+            Arrays.fill(this.products[i], -1);
+        }
+        this.inverses = new int[n];
+        Arrays.fill(this.inverses, -1);
+    }
+
+    /**
+     * @return the number of operators.
+     */
+    public int size() {
+        return this.ops.length;
+    }
+
+    /**
+     * @param i an operator number.
+     * @return the operator with that number, reduced modulo Z^d.
+     */
+    public Operator get(final int i) {
+        return this.ops[i];
+    }
+
+    /**
+     * @param op an operator.
+     * @return the number of the operator modulo Z^d, or -1 if not present.
+     */
+    public int indexOf(final Operator op) {
+        final Integer k = (Integer) this.opToIndex.get(op.modZ());
+        return k == null ? -1 : k.intValue();
+    }
+
+    private int lookup(final Operator op) {
+        final int k = indexOf(op);
+        if (k < 0) {
+            throw new IllegalArgumentException("operators do not form a group");
+        }
+        return k;
+    }
+
+    /**
+     * @param i the number of the first operator.
+     * @param j the number of the second operator.
+     * @return the number of the product of the two, applied in that order.
+     */
+    public int product(final int i, final int j) {
+        if (this.products[i][j] < 0) {
+            this.products[i][j] = lookup((Operator) this.ops[i].times(this.ops[j]));
+        }
+        return this.products[i][j];
+    }
+
+    /**
+     * @param i an operator number.
+     * @return the number of the inverse operator.
+     */
+    public int inverse(final int i) {
+        if (this.inverses[i] < 0) {
+            this.inverses[i] = lookup((Operator) this.ops[i].inverse());
+        }
+        return this.inverses[i];
+    }
+
+    /**
+     * Applies an operator to a point in floating point arithmetic.
+     *
+     * @param p the coordinates of the point.
+     * @param i the operator number.
+     * @return the coordinates of the image point.
+     */
+    public double[] approximateImage(final double p[], final int i) {
+        final double M[][] = this.coords[i];
+        final double result[] = new double[this.dim];
+        for (int j = 0; j < this.dim; ++j) {
+            double s = M[this.dim][j];
+            for (int k = 0; k < this.dim; ++k) {
+                s += p[k] * M[k][j];
+            }
+            result[j] = s;
+        }
+        return result;
+    }
+
+    /**
+     * Determines if the given operators form a group modulo Z^d.
+     *
+     * @param subset a list of operator numbers.
+     * @return true if the operators form a group.
+     */
+    public boolean formGroup(final int subset[]) {
+        final boolean member[] = new boolean[size()];
+        for (int i = 0; i < subset.length; ++i) {
+            member[subset[i]] = true;
+        }
+        for (int i = 0; i < subset.length; ++i) {
+            for (int j = 0; j < subset.length; ++j) {
+                if (!member[product(subset[i], inverse(subset[j]))]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Picks a representative for each right coset of a subgroup, namely the
+     * first operator in the table which lies in it.
+     *
+     * @param subgroup the operator numbers for the subgroup.
+     * @return the operator numbers for the coset representatives.
+     */
+    public int[] cosetRepresentatives(final int subgroup[]) {
+        final boolean seen[] = new boolean[size()];
+        final List reps = new ArrayList();
+        for (int i = 0; i < size(); ++i) {
+            if (!seen[i]) {
+                reps.add(new Integer(i));
+                for (int k = 0; k < subgroup.length; ++k) {
+                    seen[product(subgroup[k], i)] = true;
+                }
+            }
+        }
+        final int result[] = new int[reps.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((Integer) reps.get(i)).intValue();
+        }
+        return result;
+    }
+}
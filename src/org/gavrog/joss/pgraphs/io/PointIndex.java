@@ -0,0 +1,284 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gavrog.jane.compounds.Matrix;
+import org.gavrog.jane.numbers.Real;
+
+/**
+ * A k-d tree over a fixed set of points in floating point coordinates, used
+ * to find the candidates for nearest neighbors quickly. Since floating point
+ * distances are only approximate, queries return all points that might be
+ * among the k nearest, including near ties, and the caller decides using
+ * exact distances.
+ *
+ * Points are given in coordinates with respect to a cell with a given Gram
+ * matrix and are converted to cartesian coordinates internally.
+ *
+ * @author Olaf Delgado
+ */
+class PointIndex {
+    /**
+     * Decides which points may be returned by a query.
+     */
+    public static interface Filter {
+        public boolean accept(int index);
+    }
+
+    // --- relative slack for comparing floating point distances
+    final static double SLACK = 1e-9;
+
+    final private int dim;
+    final private double factor[][];
+    final private double coords[][];
+    final private int order[];
+    final private int axis[];
+
+    /**
+     * Constructs an instance.
+     *
+     * @param points the points in cell coordinates.
+     * @param gram the Gram matrix for the cell.
+     */
+    public PointIndex(final double points[][], final Matrix gram) {
+        this.dim = gram.numberOfRows();
+        this.factor = cholesky(gram);
+        final int n = points.length;
+        this.coords = new double[n][];
+        for (int k = 0; k < n; ++k) {
+            this.coords[k] = cartesian(points[k]);
+        }
+        this.order = new int[n];
+        for (int k = 0; k < n; ++k) {
+            this.order[k] = k;
+        }
+        this.axis = new int[n];
+        build(0, n);
+    }
+
+    /**
+     * Computes a lower triangular matrix L with L times L transposed equal to
+     * the given positive definite matrix.
+     */
+    private static double[][] cholesky(final Matrix gram) {
+        final int d = gram.numberOfRows();
+        final double L[][] = new double[d][d];
+        for (int i = 0; i < d; ++i) {
+            for (int j = 0; j <= i; ++j) {
+                double s = ((Real) gram.get(i, j)).doubleValue();
+                for (int k = 0; k < j; ++k) {
+                    s -= L[i][k] * L[j][k];
+                }
+                if (i == j) {
+                    if (s <= 0) {
+                        throw new IllegalArgumentException(
+                                "Gram matrix must be positive definite");
+                    }
+                    L[i][i] = Math.sqrt(s);
+                } else {
+                    L[i][j] = s / L[j][j];
+                }
+            }
+        }
+        return L;
+    }
+
+    /**
+     * Converts cell coordinates to cartesian ones via the transposed Cholesky
+     * factor of the Gram matrix.
+     */
+    private double[] cartesian(final double point[]) {
+        final double result[] = new double[this.dim];
+        for (int i = 0; i < this.dim; ++i) {
+            double s = 0;
+            for (int j = i; j < this.dim; ++j) {
+                s += this.factor[j][i] * point[j];
+            }
+            result[i] = s;
+        }
+        return result;
+    }
+
+    /**
+     * Arranges the points in the given range of the order array as a subtree,
+     * with the median along the axis of largest extent in the middle.
+     */
+    private void build(final int lo, final int hi) {
+        if (hi - lo < 2) {
+            return;
+        }
+        int best = 0;
+        double extent = -1;
+        for (int i = 0; i < this.dim; ++i) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int k = lo; k < hi; ++k) {
+                final double x = this.coords[this.order[k]][i];
+                min = Math.min(min, x);
+                max = Math.max(max, x);
+            }
+            if (max - min > extent) {
+                extent = max - min;
+                best = i;
+            }
+        }
+        final int mid = (lo + hi) / 2;
+        select(lo, hi, mid, best);
+        this.axis[mid] = best;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    /**
+     * Partially sorts the range so that the given position holds the element
+     * it would hold in sorted order, with no larger elements before it and
+     * no smaller ones after it.
+     */
+    private void select(int lo, int hi, final int k, final int ax) {
+        while (hi - lo > 1) {
+            final double pivot = this.coords[this.order[(lo + hi) / 2]][ax];
+            int i = lo;
+            int j = hi - 1;
+            while (i <= j) {
+                while (this.coords[this.order[i]][ax] < pivot) {
+                    ++i;
+                }
+                while (this.coords[this.order[j]][ax] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    final int t = this.order[i];
+                    this.order[i] = this.order[j];
+                    this.order[j] = t;
+                    ++i;
+                    --j;
+                }
+            }
+            if (k <= j) {
+                hi = j + 1;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double dist2(final double p[], final int k) {
+        double s = 0;
+        for (int i = 0; i < this.dim; ++i) {
+            final double d = this.coords[k][i] - p[i];
+            s += d * d;
+        }
+        return s;
+    }
+
+    /**
+     * Finds the candidates for the k nearest neighbors of a point.
+     *
+     * @param point the query point in cell coordinates.
+     * @param k the number of neighbors wanted.
+     * @param accept decides which points may be returned, or null for all.
+     * @return the indices of all points that are at most as far from the
+     *         query as the k-th nearest one, allowing for rounding errors.
+     */
+    public int[] nearest(final double point[], final int k, final Filter accept) {
+        if (k <= 0) {
+            return new int[0];
+        }
+        final double p[] = cartesian(point);
+
+        // --- find the k-th smallest squared distance
+        final double best[] = new double[k];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        searchNearest(0, this.order.length, p, best, accept);
+        final double radius2 = best[k - 1] * (1 + SLACK) + SLACK;
+
+        // --- collect all points within that distance
+        final List found = new ArrayList();
+        searchRange(0, this.order.length, p, radius2, accept, found);
+        final int result[] = new int[found.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((Integer) found.get(i)).intValue();
+        }
+        return result;
+    }
+
+    private void searchNearest(final int lo, final int hi, final double p[],
+            final double best[], final Filter accept) {
+        if (lo >= hi) {
+            return;
+        }
+        final int mid = (lo + hi) / 2;
+        final int k = this.order[mid];
+        if (accept == null || accept.accept(k)) {
+            final double d = dist2(p, k);
+            if (d < best[best.length - 1]) {
+                // --- insert into the sorted list of best distances
+                int i = best.length - 1;
+                while (i > 0 && best[i - 1] > d) {
+                    best[i] = best[i - 1];
+                    --i;
+                }
+                best[i] = d;
+            }
+        }
+        if (hi - lo < 2) {
+            return;
+        }
+        final int ax = this.axis[mid];
+        final double delta = p[ax] - this.coords[k][ax];
+        if (delta < 0) {
+            searchNearest(lo, mid, p, best, accept);
+            if (delta * delta <= best[best.length - 1] * (1 + SLACK) + SLACK) {
+                searchNearest(mid + 1, hi, p, best, accept);
+            }
+        } else {
+            searchNearest(mid + 1, hi, p, best, accept);
+            if (delta * delta <= best[best.length - 1] * (1 + SLACK) + SLACK) {
+                searchNearest(lo, mid, p, best, accept);
+            }
+        }
+    }
+
+    private void searchRange(final int lo, final int hi, final double p[],
+            final double radius2, final Filter accept, final List found) {
+        if (lo >= hi) {
+            return;
+        }
+        final int mid = (lo + hi) / 2;
+        final int k = this.order[mid];
+        if ((accept == null || accept.accept(k)) && dist2(p, k) <= radius2) {
+            found.add(new Integer(k));
+        }
+        if (hi - lo < 2) {
+            return;
+        }
+        final int ax = this.axis[mid];
+        final double delta = p[ax] - this.coords[k][ax];
+        if (delta <= 0 || delta * delta <= radius2) {
+            searchRange(lo, mid, p, radius2, accept, found);
+        }
+        if (delta >= 0 || delta * delta <= radius2) {
+            searchRange(mid + 1, hi, p, radius2, accept, found);
+        }
+    }
+}
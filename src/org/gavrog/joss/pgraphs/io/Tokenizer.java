@@ -0,0 +1,425 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.gavrog.box.simple.DataFormatException;
+import org.gavrog.jane.numbers.FloatingPoint;
+import org.gavrog.jane.numbers.Fraction;
+import org.gavrog.jane.numbers.IArithmetic;
+import org.gavrog.jane.numbers.Whole;
+
+/**
+ * Splits the input for a {@link GenericParser} into lines and fields. Lines
+ * are read into a reusable buffer, and a field is only turned into a string
+ * or number when its value is requested, so that uninteresting lines can be
+ * skipped cheaply. Empty lines and comment lines are skipped automatically.
+ *
+ * @author Olaf Delgado
+ */
+class Tokenizer {
+    // --- shared instances for small integers, which are by far the most common
+    final private static Whole small[] = new Whole[256];
+    static {
+        for (int i = 0; i < small.length; ++i) {
+            small[i] = new Whole(i);
+        }
+    }
+
+    final private Reader input;
+    final private char buffer[];
+    private int bufferPos = 0;
+    private int bufferEnd = 0;
+    private boolean skipLF = false;
+    private int lineno = 0;
+
+    // --- the current line, with leading and trailing white space removed
+    private char line[] = new char[256];
+    private int lineEnd = 0;
+    private int lineStart = 0;
+
+    // --- the current field and the position to look for the next one
+    private int start = 0;
+    private int end = 0;
+    private int pos = 0;
+    private boolean quoted = false;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param input the stream to read from.
+     */
+    public Tokenizer(final Reader input) {
+        this(input, 65536);
+    }
+
+    /**
+     * Constructs an instance with a given buffer size.
+     *
+     * @param input the stream to read from.
+     * @param bufferSize the number of characters to read at once.
+     */
+    public Tokenizer(final Reader input, final int bufferSize) {
+        this.input = input;
+        this.buffer = new char[Math.max(bufferSize, 1)];
+    }
+
+    private boolean fill() {
+        try {
+            int n = 0;
+            while (n == 0) {
+                n = this.input.read(this.buffer, 0, this.buffer.length);
+            }
+            if (n < 0) {
+                return false;
+            }
+            this.bufferPos = 0;
+            this.bufferEnd = n;
+            return true;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Reads the next raw line into the line buffer. Lines can be terminated
+     * by a line feed, a carriage return or both, as in
+     * {@link java.io.BufferedReader#readLine()}.
+     */
+    private boolean readLine() {
+        int n = 0;
+        boolean any = false;
+        while (true) {
+            if (this.bufferPos >= this.bufferEnd && !fill()) {
+                if (any) {
+                    break;
+                } else {
+                    return false;
+                }
+            }
+            final char c = this.buffer[this.bufferPos++];
+            if (this.skipLF) {
+                this.skipLF = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            any = true;
+            if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                this.skipLF = true;
+                break;
+            }
+            if (n == this.line.length) {
+                final char tmp[] = new char[2 * n];
+                System.arraycopy(this.line, 0, tmp, 0, n);
+                this.line = tmp;
+            }
+            this.line[n++] = c;
+        }
+        this.lineEnd = n;
+        return true;
+    }
+
+    /**
+     * Advances to the next line that is neither empty nor a comment.
+     *
+     * @return false if the end of the input was reached.
+     */
+    public boolean nextLine() {
+        while (readLine()) {
+            ++this.lineno;
+            int i = 0;
+            int n = this.lineEnd;
+            while (n > 0 && this.line[n - 1] <= ' ') {
+                --n;
+            }
+            while (i < n
+                    && (this.line[i] <= ' ' || Character.isWhitespace(this.line[i]))) {
+                ++i;
+            }
+            if (i < n && this.line[i] != '#') {
+                this.lineStart = i;
+                this.lineEnd = n;
+                this.pos = i;
+                this.start = this.end = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of the current line.
+     */
+    public int getLineNumber() {
+        return this.lineno;
+    }
+
+    /**
+     * @param lineno the new number for the current line.
+     */
+    public void setLineNumber(final int lineno) {
+        this.lineno = lineno;
+    }
+
+    /**
+     * Appends the current line, without leading and trailing white space, to
+     * a buffer.
+     *
+     * @param buf the buffer to append to.
+     */
+    public void appendLine(final StringBuffer buf) {
+        buf.append(this.line, this.lineStart, this.lineEnd - this.lineStart);
+    }
+
+    /**
+     * Tests if the first word on the current line is the given one, ignoring
+     * case. This does not look at the remaining fields.
+     *
+     * @param word the word to test for.
+     * @return true if the line starts with the given word.
+     */
+    public boolean startsWithWord(final String word) {
+        int j = this.lineStart;
+        while (j < this.lineEnd) {
+            final char c = this.line[j];
+            if (Character.isWhitespace(c) || c == '#') {
+                break;
+            }
+            ++j;
+        }
+        if (j - this.lineStart != word.length()) {
+            return false;
+        }
+        for (int k = 0; k < word.length(); ++k) {
+            final char c = this.line[this.lineStart + k];
+            final char d = word.charAt(k);
+            if (Character.toUpperCase(c) != Character.toUpperCase(d)
+                    && Character.toLowerCase(c) != Character.toLowerCase(d)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Advances to the next field on the current line. A field is either a
+     * string in double quotes or a sequence of characters up to the next white
+     * space or comment character.
+     *
+     * @return false if there are no more fields on the current line.
+     */
+    public boolean nextField() {
+        final char line[] = this.line;
+        final int n = this.lineEnd;
+        int i = this.pos;
+        while (i < n && Character.isWhitespace(line[i])) {
+            ++i;
+        }
+        if (i >= n || line[i] == '#') {
+            this.pos = n;
+            return false;
+        }
+        int j = i;
+        if (line[i] == '"') {
+            ++j;
+            while (j < n && line[j] != '"') {
+                ++j;
+            }
+            if (j >= n) {
+                final String msg = "no closing quotes at line ";
+                throw new DataFormatException(msg + this.lineno);
+            }
+            ++j;
+            if (j < n && !Character.isWhitespace(line[j]) && line[j] != '#') {
+                String msg = "missing space after string at line ";
+                throw new DataFormatException(msg + this.lineno);
+            }
+            this.quoted = true;
+        } else {
+            while (j < n && !Character.isWhitespace(line[j]) && line[j] != '#') {
+                ++j;
+            }
+            this.quoted = false;
+        }
+        this.start = i;
+        this.end = j;
+        this.pos = j;
+        return true;
+    }
+
+    /**
+     * @return the first character of the current field.
+     */
+    public char firstChar() {
+        return this.line[this.start];
+    }
+
+    /**
+     * @return the text of the current field exactly as given.
+     */
+    public String text() {
+        return new String(this.line, this.start, this.end - this.start);
+    }
+
+    /**
+     * Interprets the current field. Strings in quotes are returned without
+     * the quotes. Integers, fractions and decimal numbers are converted into
+     * {@link Whole}, {@link Fraction} and {@link FloatingPoint} instances,
+     * respectively. Everything else is returned as a string.
+     *
+     * @return the value of the current field.
+     */
+    public Object value() {
+        if (this.quoted) {
+            return new String(this.line, this.start + 1, this.end - this.start - 2);
+        }
+        final char c = this.line[this.start];
+        if (Character.isDigit(c) || "+-.".indexOf(c) >= 0) {
+            Object number = simpleNumber();
+            if (number == null) {
+                number = number(text());
+            }
+            if (number != null) {
+                return number;
+            }
+        }
+        return text();
+    }
+
+    private int skipSign(final int i) {
+        if (i < this.end && (this.line[i] == '+' || this.line[i] == '-')) {
+            return i + 1;
+        } else {
+            return i;
+        }
+    }
+
+    private int skipDigits(int i) {
+        while (i < this.end && this.line[i] >= '0' && this.line[i] <= '9') {
+            ++i;
+        }
+        return i;
+    }
+
+    private int intValue(final int from, final int to) {
+        int n = 0;
+        for (int i = skipSign(from); i < to; ++i) {
+            n = 10 * n + this.line[i] - '0';
+        }
+        return this.line[from] == '-' ? -n : n;
+    }
+
+    private static Whole whole(final int n) {
+        if (n >= 0 && n < small.length) {
+            return small[n];
+        } else {
+            return new Whole(n);
+        }
+    }
+
+    /**
+     * Converts the current field if it has one of the common numeric forms,
+     * without creating intermediate objects where possible. Anything that
+     * would not fit into an int is left to {@link #number(String)}.
+     */
+    private Object simpleNumber() {
+        final int i = skipSign(this.start);
+        final int j = skipDigits(i);
+
+        if (j > i && j - i <= 9) {
+            if (j == this.end) {
+                return whole(intValue(this.start, j));
+            } else if (this.line[j] == '/') {
+                final int k = skipSign(j + 1);
+                final int m = skipDigits(k);
+                if (m == this.end && m > k && m - k <= 9) {
+                    final int d = intValue(j + 1, m);
+                    if (d != 0) {
+                        return new Fraction(whole(intValue(this.start, j)), whole(d));
+                    }
+                }
+                return null;
+            }
+        }
+
+        // --- decimal number with optional fraction and exponent
+        int f = j;
+        boolean digits = j > i;
+        if (f < this.end && this.line[f] == '.') {
+            final int g = skipDigits(f + 1);
+            digits |= g > f + 1;
+            f = g;
+        }
+        if (!digits) {
+            return null;
+        }
+        if (f < this.end && (this.line[f] == 'e' || this.line[f] == 'E')) {
+            final int k = skipSign(f + 1);
+            final int m = skipDigits(k);
+            if (m == k) {
+                return null;
+            }
+            f = m;
+        }
+        if (f == this.end && f > j) {
+            return new FloatingPoint(Double.parseDouble(text()));
+        }
+        return null;
+    }
+
+    /**
+     * Converts a string into a number if it represents one.
+     *
+     * @param item the string to convert.
+     * @return the number, or null if the string does not represent one.
+     */
+    private static IArithmetic number(final String item) {
+        IArithmetic number = null;
+        if (item.indexOf('/') > 0) {
+            final String parts[] = item.split("/");
+            if (parts.length == 2) {
+                final int n;
+                final int d;
+                try {
+                    n = Integer.parseInt(parts[0]);
+                    d = Integer.parseInt(parts[1]);
+                    number = new Fraction(n, d);
+                } catch (NumberFormatException ex) {
+                }
+            }
+        } else {
+            try {
+                if (item.startsWith("+")) {
+                    number = new Whole(Integer.parseInt(item.substring(1)));
+                } else {
+                    number = new Whole(Integer.parseInt(item));
+                }
+            } catch (NumberFormatException ex1) {
+                try {
+                    number = new FloatingPoint(Double.parseDouble(item));
+                } catch (NumberFormatException ex2) {
+                }
+            }
+        }
+        return number;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.apps.systre;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gavrog.joss.pgraphs.io.Archive.Entry;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestCheckpoint extends TestCase {
+    private File file;
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("test", ".chk");
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static Entry entry(final int n) {
+        return new Entry("1 1 1 " + n, "1.0", "net" + n);
+    }
+
+    public void testResume() throws Exception {
+        final Checkpoint first = new Checkpoint(file, false);
+        assertEquals(0, first.completed("a.cgd"));
+        first.structureDone("a.cgd", 1, Collections.singletonList(entry(1)));
+        first.structureDone("a.cgd", 2, Collections.EMPTY_LIST);
+        final List two = new LinkedList();
+        two.add(entry(2));
+        two.add(entry(3));
+        first.structureDone("b.cgd", 1, two);
+        first.close();
+
+        // --- simulate an interruption while recording the next structure
+        final FileWriter out = new FileWriter(file, true);
+        out.write(entry(4).toString());
+        out.write("done 2 \"b.cg");
+        out.close();
+
+        final Checkpoint second = new Checkpoint(file, true);
+        assertEquals(2, second.completed("a.cgd"));
+        assertEquals(1, second.completed("b.cgd"));
+        assertEquals(3, second.entries().size());
+        assertEquals("net3", ((Entry) second.entries().get(2)).getName());
+        second.structureDone("b.cgd", 2, Collections.singletonList(entry(5)));
+        second.close();
+
+        final Checkpoint third = new Checkpoint(file, true);
+        assertEquals(2, third.completed("b.cgd"));
+        assertEquals(4, third.entries().size());
+        third.close();
+
+        final Checkpoint fresh = new Checkpoint(file, false);
+        assertEquals(0, fresh.completed("a.cgd"));
+        assertEquals(0, fresh.entries().size());
+        fresh.close();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.apps.systre;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestStageStatistics extends TestCase {
+    private static void spin(final long millis) {
+        final long end = System.nanoTime() + millis * 1000000;
+        while (System.nanoTime() < end) {
+        }
+    }
+
+    public void testStages() {
+        final StageStatistics stats = new StageStatistics();
+        stats.begin("one");
+        spin(5);
+        stats.begin("two");
+        spin(5);
+        stats.begin("one");
+        spin(5);
+        stats.end();
+        stats.count("steps", 3);
+        stats.count("steps", 4);
+
+        assertEquals(2, stats.getCalls("one"));
+        assertEquals(1, stats.getCalls("two"));
+        assertEquals(0, stats.getCalls("three"));
+        assertEquals(7, stats.getCount("steps"));
+        assertTrue(stats.getWallTime() >= 15000000);
+
+        final StageStatistics sum = new StageStatistics();
+        sum.add(stats);
+        sum.add(stats);
+        assertEquals(4, sum.getCalls("one"));
+        assertEquals(14, sum.getCount("steps"));
+        assertEquals(2 * stats.getWallTime(), sum.getWallTime());
+        assertEquals(2 * stats.getCpuTime(), sum.getCpuTime());
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(buffer);
+        stats.write(out, "");
+        out.flush();
+        final String lines[] = buffer.toString().split("\r?\n");
+        assertEquals(6, lines.length);
+        assertTrue(lines[1].endsWith("   one (2x)"));
+        assertTrue(lines[2].endsWith("   two"));
+        assertTrue(lines[3].endsWith("   Total"));
+        assertEquals("   steps = 7", lines[5]);
+
+        final String json = stats.toJSONFields();
+        assertTrue(json.indexOf("{\"stage\": \"one\", \"calls\": 2, ") > 0);
+        assertTrue(json.endsWith("\"counters\": {\"steps\": 7}"));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.apps.systre;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestSystreCmdline extends TestCase {
+    private static String dia(final String name) {
+        return "PERIODIC_GRAPH\n"
+                + "  NAME " + name + "\n"
+                + "  EDGES\n"
+                + "  1 2  0 0 0\n"
+                + "  1 2  1 0 0\n"
+                + "  1 2  0 1 0\n"
+                + "  1 2  0 0 1\n"
+                + "END\n";
+    }
+
+    private static String pcu(final String name) {
+        return "PERIODIC_GRAPH\n"
+                + "  NAME " + name + "\n"
+                + "  EDGES\n"
+                + "  1 1  1 0 0\n"
+                + "  1 1  0 1 0\n"
+                + "  1 1  0 0 1\n"
+                + "END\n";
+    }
+
+    private File file(final String extension, final String text)
+            throws IOException {
+        final File file = File.createTempFile("test", extension);
+        file.deleteOnExit();
+        final Writer out = new FileWriter(file);
+        out.write(text);
+        out.close();
+        return file;
+    }
+
+    private String run(final String args[]) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final SystreCmdline systre = new SystreCmdline();
+        systre.setOutStream(new PrintStream(buffer));
+        systre.run(args);
+        return buffer.toString();
+    }
+
+    private static int occurrences(final String text, final String pattern) {
+        int n = 0;
+        for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern,
+                i + 1)) {
+            ++n;
+        }
+        return n;
+    }
+
+    // --- makes an archive which knows dia, but not pcu
+    private File archive() throws IOException {
+        final File known = file(".cgd", dia("diamond"));
+        final File archive = file(".arc", "");
+        run(new String[] { "--noBuiltin", "-a", archive.getPath(),
+                known.getPath() });
+        assertTrue(archive.length() > 0);
+        return archive;
+    }
+
+    public void testDuplicates() throws IOException {
+        final File archive = archive();
+
+        final File input = file(".cgd", dia("d1") + pcu("p1") + dia("d2")
+                + pcu("p2") + dia("d3"));
+        final String path = input.getPath();
+        final String output = run(new String[] { "--noBuiltin",
+                "--topologyFirst", archive.getPath(), path });
+
+        // --- only the first pcu is new
+        assertEquals(4, occurrences(output, "Skipping the remaining steps"));
+        assertEquals(1, occurrences(output, "Coordination sequences"));
+
+        final String report = output.substring(output.indexOf("Duplicate nets:"));
+        assertTrue(report.indexOf("diamond (" + archive.getPath()
+                + ") - 3 structures:\n"
+                + "      #1 - \"d1\" in \"" + path + "\"\n"
+                + "      #3 - \"d2\" in \"" + path + "\"\n"
+                + "      #5 - \"d3\" in \"" + path + "\"\n") > 0);
+        assertTrue(report.indexOf("Unknown net - 2 structures:\n"
+                + "      #2 - \"p1\" in \"" + path + "\"\n"
+                + "      #4 - \"p2\" in \"" + path + "\"\n") > 0);
+        assertTrue(report.indexOf("5 nets identified, 2 distinct, 3 duplicates.") > 0);
+    }
+
+    public void testEmbedKnown() throws IOException {
+        final File archive = archive();
+        final File input = file(".cgd", dia("d1") + pcu("p1") + dia("d2"));
+        final String output = run(new String[] { "--noBuiltin",
+                "--topologyFirst", "--embedKnown", archive.getPath(),
+                input.getPath() });
+        assertEquals(0, occurrences(output, "Skipping the remaining steps"));
+        assertEquals(3, occurrences(output, "Relaxed positions:"));
+        assertTrue(output.indexOf("3 nets identified, 2 distinct, 1 duplicate.") > 0);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.apps.systre;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestSystreServer extends TestCase {
+    private static final String dia = ""
+            + "PERIODIC_GRAPH\n"
+            + "  NAME dia\n"
+            + "  EDGES\n"
+            + "  1 2  0 0 0\n"
+            + "  1 2  1 0 0\n"
+            + "  1 2  0 1 0\n"
+            + "  1 2  0 0 1\n"
+            + "END\n";
+
+    private static String find(final String lines[], final String id) {
+        for (int i = 0; i < lines.length; ++i) {
+            if (lines[i].startsWith("{\"id\": \"" + id + "\"")) {
+                return lines[i];
+            }
+        }
+        return null;
+    }
+
+    public void testSession() throws Exception {
+        final SystreCmdline master = new SystreCmdline();
+        master.setUseBuiltinArchive(false);
+        final SystreServer server = new SystreServer(master, 2);
+
+        final String input = ""
+                + "SUBMIT one EMBED\n" + dia
+                + "SUBMIT two\n" + "PERIODIC_GRAPH\n  1 2 0 0\nEND\n"
+                + "CANCEL three\n"
+                + "FROB\n"
+                + "QUIT\n"
+                + "SUBMIT four\n" + dia;
+        final StringWriter output = new StringWriter();
+        server.serve(new BufferedReader(new StringReader(input)), output);
+        server.shutdown();
+
+        final String lines[] = output.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("{\"status\": \"ready\"}", lines[0]);
+
+        final String one = find(lines, "one");
+        assertNotNull(one);
+        assertTrue(one.indexOf("\"status\": \"ok\"") > 0);
+        assertTrue(one.indexOf("\"name\": \"dia\"") > 0);
+        assertTrue(one.indexOf("\"group\": \"Fd-3m\"") > 0);
+        assertTrue(one.indexOf("\"key\": \"3 1 2 0 0 0 1 2 0 0 1 1 2 0 1 0 1 2 1 0 0\"") > 0);
+        assertTrue(one.indexOf("\"embedding\": \"CRYSTAL") > 0);
+
+        final String two = find(lines, "two");
+        assertNotNull(two);
+        assertTrue(two.indexOf("\"status\": \"error\"") > 0);
+        assertTrue(two.indexOf("\"embedding\"") < 0);
+
+        final String three = find(lines, "three");
+        assertNotNull(three);
+        assertTrue(three.indexOf("no such request") > 0);
+
+        assertNull(find(lines, "four"));
+    }
+
+    public void testTopologyFirst() throws Exception {
+        final SystreCmdline master = new SystreCmdline();
+        master.setTopologyFirst(true);
+        final SystreServer server = new SystreServer(master, 1);
+        final StringWriter output = new StringWriter();
+        server.serve(new BufferedReader(new StringReader("SUBMIT one EMBED\n"
+                + dia + "SUBMIT two\n" + dia)), output);
+        server.shutdown();
+        final String lines[] = output.toString().split("\n");
+
+        // --- a known net is still embedded when this is requested
+        final String one = find(lines, "one");
+        assertNotNull(one);
+        assertTrue(one.indexOf("\"status\": \"ok\"") > 0);
+        assertTrue(one.indexOf("{\"archive\": \"RCSR\", \"name\": \"dia\"}") > 0);
+        assertTrue(one.indexOf("Skipping the remaining steps") < 0);
+        assertTrue(one.indexOf("\"embedding\": \"CRYSTAL") > 0);
+
+        // --- otherwise, the remaining steps are skipped
+        final String two = find(lines, "two");
+        assertNotNull(two);
+        assertTrue(two.indexOf("\"status\": \"ok\"") > 0);
+        assertTrue(two.indexOf("{\"archive\": \"RCSR\", \"name\": \"dia\"}") > 0);
+        assertTrue(two.indexOf("Skipping the remaining steps") > 0);
+        assertTrue(two.indexOf("Coordination sequences") < 0);
+        assertTrue(two.indexOf("\"embedding\"") < 0);
+    }
+}
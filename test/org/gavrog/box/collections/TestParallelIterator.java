@@ -0,0 +1,132 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.box.collections;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for class ParallelIterator.
+ * @author Olaf Delgado
+ */
+public class TestParallelIterator extends TestCase {
+    private Iterator squares(final Iterator original) {
+        return new ParallelIterator(original, 4, 3) {
+            public Object filter(final Object x) {
+                final int n = ((Integer) x).intValue();
+                if (n % 10 == 7) {
+                    throw new IllegalArgumentException("bad " + n);
+                }
+                // --- make later elements finish first now and then
+                try {
+                    Thread.sleep((5 - n % 5) % 3);
+                } catch (InterruptedException ex) {
+                }
+                return new Integer(n * n);
+            }
+        };
+    }
+
+    public void testOrder() {
+        final Iterator iter = squares(Iterators.range(0, 100));
+        for (int n = 0; n < 100; ++n) {
+            assertTrue(iter.hasNext());
+            if (n % 10 == 7) {
+                try {
+                    iter.next();
+                    fail("should throw an exception");
+                } catch (IllegalArgumentException success) {
+                    assertEquals("bad " + n, success.getMessage());
+                }
+            } else {
+                assertEquals(new Integer(n * n), iter.next());
+            }
+        }
+        assertFalse(iter.hasNext());
+        try {
+            iter.next();
+            fail("should throw a NoSuchElementException");
+        } catch (NoSuchElementException success) {
+        }
+    }
+
+    public void testOriginalFails() {
+        final Iterator original = new Iterator() {
+            int n = 0;
+
+            public boolean hasNext() {
+                return n < 5;
+            }
+
+            public Object next() {
+                ++n;
+                if (n == 3) {
+                    throw new IllegalStateException("unreadable");
+                }
+                return new Integer(n);
+            }
+
+            public void remove() {
+            }
+        };
+        final Iterator iter = squares(original);
+        assertEquals(new Integer(1), iter.next());
+        assertEquals(new Integer(4), iter.next());
+        try {
+            iter.next();
+            fail("should throw an exception");
+        } catch (IllegalStateException success) {
+        }
+        assertEquals(new Integer(16), iter.next());
+        assertEquals(new Integer(25), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    public void testClose() throws Exception {
+        final boolean closed[] = new boolean[] { false };
+        final ParallelIterator iter = new ParallelIterator(Iterators.range(0,
+                1000), 2, 3, new Closeable() {
+            public void close() {
+                closed[0] = true;
+            }
+        }) {
+            public Object filter(final Object x) {
+                return x;
+            }
+        };
+        assertEquals(new Integer(0), iter.next());
+        assertEquals(new Integer(1), iter.next());
+        iter.close();
+        assertTrue(closed[0]);
+        assertFalse(iter.hasNext());
+        for (int i = 0; i < 100 && !iter.isTerminated(); ++i) {
+            Thread.sleep(10);
+        }
+        assertTrue(iter.isTerminated());
+    }
+
+    public void testRemove() {
+        try {
+            squares(Iterators.range(0, 1)).remove();
+            fail("should raise an UnsupportedOperationException");
+        } catch (UnsupportedOperationException success) {
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.box.simple;
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestJSONWriter extends TestCase {
+    public void testNesting() {
+        final StringWriter buffer = new StringWriter();
+        final JSONWriter out = new JSONWriter(buffer);
+        out.beginObject().field("name", "a \"b\"").field("n", 3);
+        out.beginArray("list").value(1.5).value(true).value((String) null);
+        out.beginObject().endObject().endArray();
+        out.field("x", new double[] { 0.25, Double.NaN });
+        out.endObject();
+        out.flush();
+        assertEquals("{\"name\": \"a \\\"b\\\"\", \"n\": 3, "
+                + "\"list\": [1.5, true, null, {}], \"x\": [0.25, null]}",
+                buffer.toString());
+        assertEquals(0, out.depth());
+    }
+
+    public void testCloseTo() {
+        final StringWriter buffer = new StringWriter();
+        final JSONWriter out = new JSONWriter(buffer);
+        out.beginObject().beginArray("a").beginObject().field("b", 1);
+        assertEquals(3, out.depth());
+        out.closeTo(1);
+        out.field("c", false).endObject();
+        out.flush();
+        assertEquals("{\"a\": [{\"b\": 1}], \"c\": false}", buffer.toString());
+    }
+}
@@ -13,4 +13,10 @@ public class TestStrings extends TestCase {
 		assertEquals("\"_Under_%_Scores_\"", Strings
 				.parsable("_Under_%_Scores_", true));
 	}
+
+	public void testJsonQuoted() {
+		assertEquals("\"\"", Strings.jsonQuoted(""));
+		assertEquals("\"a \\\"b\\\" \\\\ c\\n\\u0001\"", Strings
+				.jsonQuoted("a \"b\" \\ c\n\001"));
+	}
 }
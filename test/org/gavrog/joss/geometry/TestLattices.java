@@ -19,6 +19,8 @@ package org.gavrog.joss.geometry;
 import junit.framework.TestCase;
 
 import org.gavrog.jane.compounds.Matrix;
+import org.gavrog.jane.numbers.FloatingPoint;
+import org.gavrog.jane.numbers.Fraction;
 import org.gavrog.jane.numbers.Whole;
 
 /**
@@ -100,4 +102,39 @@ public class TestLattices extends TestCase {
 	    }
 	}
 
+	public void testSellingReducedFloatingForm() {
+	    final double c = Math.cos(Math.PI * 2 / 3);
+	    final Matrix G = new Matrix(new double[][] { { 1, c, 0 }, { c, 1, 0 },
+	            { 0, 0, 1.5 } });
+	    final Vector b[] = { new Vector(new int[] { 5, 7, 1 }),
+	            new Vector(new int[] { 2, 3, 0 }), new Vector(new int[] { 9, 4, 1 }) };
+	    final Vector v[] = Lattices.sellingReduced(b, G);
+	    final Vector w[] = new Vector[] { v[0], v[1], v[2],
+	            (Vector) v[0].negative().minus(v[1]).minus(v[2]) };
+	    for (int i = 0; i < 3; ++i) {
+	        for (int j = i + 1; j < 4; ++j) {
+	            assertTrue(Vector.dot(w[i], w[j], G).isLessOrEqual(
+	                    new FloatingPoint(1e-12)));
+	        }
+	    }
+	    final Matrix A = (Matrix) Vector.toMatrix(v).dividedBy(Vector.toMatrix(b));
+	    assertTrue(A.determinant().abs().isOne());
+	}
+
+	public void testGaussReducedRational() {
+	    final Matrix G = Matrix.one(2);
+	    final Vector b[] = { (Vector) new Vector(new int[] { 7, 3 }).dividedBy(4),
+	            (Vector) new Vector(new int[] { 9, 5 }).dividedBy(4) };
+	    final Vector v[] = Lattices.gaussReduced(new Vector[] { b[0], b[1] }, G);
+	    assertFalse(Vector.dot(v[0], v[1], G).isPositive());
+	    assertEquals(new Fraction(9, 8), Vector.dot(v[0], v[0], G).plus(
+	            Vector.dot(v[1], v[1], G)));
+	    final Matrix A = (Matrix) Vector.toMatrix(v).dividedBy(Vector.toMatrix(b));
+	    assertTrue(A.determinant().abs().isOne());
+	    for (int i = 0; i < 2; ++i) {
+	        for (int j = 0; j < 2; ++j) {
+	            assertTrue(A.get(i, j) instanceof Whole);
+	        }
+	    }
+	}
 }
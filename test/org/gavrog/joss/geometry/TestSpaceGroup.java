@@ -200,4 +200,25 @@ public class TestSpaceGroup extends TestCase {
         ops = (Set) map.get(new OperatorType(3, true, 3, false));
         assertEquals(1, ops.size());
     }
+    
+    public void testFromCatalogue() {
+        final SpaceGroup G = SpaceGroup.fromCatalogue(3, "Fddd");
+        assertSame(G, SpaceGroup.fromCatalogue(3, "Fddd"));
+        assertSame(G, SpaceGroup.fromCatalogue(3, "Fddd:2"));
+        assertNotSame(G, SpaceGroup.fromCatalogue(3, "Fddd:1"));
+        assertNull(SpaceGroup.fromCatalogue(3, "Fxyz"));
+        
+        assertEquals(Fddd.getOperators(), G.getOperators());
+        assertEquals(Fddd.primitiveOperators(), G.primitiveOperators());
+        assertEquals(Fddd.primitiveOperatorsSorted(), G
+                .primitiveOperatorsSorted());
+        assertSame(G.primitiveOperators(), G.primitiveOperators());
+        assertSame(G.configurationSpaceForGramMatrix(), G
+                .configurationSpaceForGramMatrix());
+        try {
+            G.primitiveOperators().clear();
+            fail("should throw an UnsupportedOperationException");
+        } catch (UnsupportedOperationException success) {
+        }
+    }
 }
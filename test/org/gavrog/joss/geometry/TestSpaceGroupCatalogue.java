@@ -16,6 +16,11 @@ limitations under the License.
 
 package org.gavrog.joss.geometry;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -40,4 +45,69 @@ public class TestSpaceGroupCatalogue extends TestCase {
         assertNotNull(T);
         assertEquals(new CoordinateChange(Operator.identity(3)), T);
     }
+    
+    public void testBinaryTable() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SpaceGroupCatalogue.writeBinaryTable(out);
+        
+        final List names = new ArrayList();
+        final List ops = new ArrayList();
+        final List transforms = new ArrayList();
+        for (int d = 2; d <= 3; ++d) {
+            for (final Iterator iter = SpaceGroupCatalogue.allKnownSettings(d);
+                    iter.hasNext();) {
+                final String name = (String) iter.next();
+                names.add(name);
+                ops.add(SpaceGroupCatalogue.operators(d, name));
+                transforms.add(SpaceGroupCatalogue.transform(d, name));
+            }
+        }
+        final List lookup = new ArrayList();
+        for (final Iterator iter = SpaceGroupCatalogue.lookupInfo(); iter
+                .hasNext();) {
+            lookup.add(iter.next());
+        }
+        
+        try {
+            assertFalse(SpaceGroupCatalogue.readBinaryTable(
+                    new ByteArrayInputStream(out.toByteArray()), 0));
+            assertTrue(SpaceGroupCatalogue.readBinaryTable(
+                    new ByteArrayInputStream(out.toByteArray()), -1));
+            
+            int k = 0;
+            for (int d = 2; d <= 3; ++d) {
+                for (final Iterator iter = SpaceGroupCatalogue
+                        .allKnownSettings(d); iter.hasNext(); ++k) {
+                    final String name = (String) iter.next();
+                    assertEquals(names.get(k), name);
+                    final List expected = (List) ops.get(k);
+                    final List found = SpaceGroupCatalogue.operators(d, name);
+                    assertEquals(expected, found);
+                    for (int i = 0; i < expected.size(); ++i) {
+                        assertEquals(expected.get(i).hashCode(), found.get(i)
+                                .hashCode());
+                    }
+                    assertEquals(transforms.get(k), SpaceGroupCatalogue
+                            .transform(d, name));
+                }
+            }
+            assertEquals(names.size(), k);
+            
+            k = 0;
+            for (final Iterator iter = SpaceGroupCatalogue.lookupInfo(); iter
+                    .hasNext(); ++k) {
+                final SpaceGroupCatalogue.Lookup expected =
+                    (SpaceGroupCatalogue.Lookup) lookup.get(k);
+                final SpaceGroupCatalogue.Lookup found =
+                    (SpaceGroupCatalogue.Lookup) iter.next();
+                assertEquals(expected.name, found.name);
+                assertSame(expected.system, found.system);
+                assertEquals(expected.centering, found.centering);
+                assertEquals(expected.fromStd, found.fromStd);
+            }
+            assertEquals(lookup.size(), k);
+        } finally {
+            SpaceGroupCatalogue.load();
+        }
+    }
 }
@@ -121,6 +121,26 @@ public class TestSpaceGroupFinder extends TestCase {
         assertEquals("", failed.toString());
     }
     
+    public void testCachedResults() {
+        final List gens = new ArrayList();
+        gens.add(new Operator("-x,-y,z"));
+        gens.add(new Operator("x+1/2,-y+1/2,-z"));
+        final SpaceGroupFinder first = new SpaceGroupFinder(new SpaceGroup(3, gens));
+        final List reversed = new ArrayList();
+        reversed.add(gens.get(1));
+        reversed.add(gens.get(0));
+        final SpaceGroupFinder second = new SpaceGroupFinder(new SpaceGroup(3,
+                reversed));
+        assertEquals("P21212", first.getExtendedGroupName());
+        assertEquals(first.getExtendedGroupName(), second.getExtendedGroupName());
+        assertEquals(first.getCrystalSystem(), second.getCrystalSystem());
+        assertEquals(first.getToStd(), second.getToStd());
+        assertEquals(first.getFromStd(), second.getFromStd());
+        
+        final SpaceGroupFinder other = new SpaceGroupFinder(new SpaceGroup(3, "P2221"));
+        assertEquals("P2221", other.getGroupName());
+    }
+    
     public void test_dme() {
         final List ops = new ArrayList();
         ops.add(new Operator("-x+1,-x+y-z,-z+1"));
@@ -581,6 +581,14 @@ public class TestPeriodicGraph extends TestCase {
                 .canonical().toString());
     }
     
+    public void testCanonicalMap() {
+        final PeriodicGraph H = cds.minimalImage();
+        final Morphism phi = H.canonicalMap();
+        assertTrue(phi.isIsomorphism());
+        assertEquals(H.canonical().toString(), phi.getImageGraph().toString());
+        assertSame(phi, H.canonicalMap());
+    }
+
     public void testHex() {
         verifyKey("3 1 1 -1 -1 0 1 1 -1 0 0 1 1 0 -1 0 1 1 0 0 -1");
     }
@@ -0,0 +1,115 @@
+/*
+   Copyright 2010 Olaf Delgado-Friedrichs
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.basic;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.gavrog.box.collections.NiftyList;
+import org.gavrog.joss.pgraphs.io.NetParser;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestSystreKey extends TestCase {
+    final String srs_key = "3 1 2 0 0 0 1 3 0 0 0 1 4 0 0 0 2 3 0 1 0 2 4 1 0 0 3 4 0 0 1";
+
+    public void testRoundTrip() {
+        final int values[] = new int[] { 3, 0, -1, 63, -64, 64, -65, 8191,
+                Integer.MAX_VALUE, Integer.MIN_VALUE };
+        final SystreKey key = new SystreKey(values);
+        assertTrue(Arrays.equals(values, key.toIntArray()));
+        assertEquals(values.length, key.size());
+        assertEquals(key, SystreKey.fromString(key.toString()));
+
+        final SystreKey srs = SystreKey.fromString(srs_key);
+        assertEquals(srs_key, srs.toString());
+        assertEquals(31, srs.size());
+        assertEquals(31, srs.packedLength());
+        assertEquals(srs, SystreKey.fromString(" " + srs_key.replaceAll(" ", "\t ")));
+    }
+
+    public void testInvalid() {
+        try {
+            SystreKey.fromString("srs");
+            fail("should throw a NumberFormatException");
+        } catch (NumberFormatException success) {
+        }
+        try {
+            SystreKey.fromString("  ");
+            fail("should throw a NumberFormatException");
+        } catch (NumberFormatException success) {
+        }
+    }
+
+    public void testEqualsAndHashCode() {
+        final SystreKey a = SystreKey.fromString(srs_key);
+        final SystreKey b = new SystreKey(a.toIntArray());
+        final SystreKey c = SystreKey.fromString(srs_key + " 1");
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a.longHashCode(), b.longHashCode());
+        assertFalse(a.equals(c));
+        assertFalse(a.equals(srs_key));
+    }
+
+    public void testCompareTo() {
+        final String keys[] = new String[] { "3 1 2 0 0 0", "3 1 2 0 0 -1",
+                "3 1 2 0 0 200", "3 1 2 0 0", "2 1 2 0 0 0", "3 1 2 0 0 0 1",
+                "3 1 2 0 0 -65", "3 1 2 0 0 64", "3 1 2 0 0 2147483647",
+                "3 1 2 0 0 -2147483648", "3 1 2 128 0 0" };
+        for (int i = 0; i < keys.length; ++i) {
+            for (int j = 0; j < keys.length; ++j) {
+                final int expected = sign(list(keys[i]).compareTo(list(keys[j])));
+                final int actual = sign(SystreKey.fromString(keys[i]).compareTo(
+                        SystreKey.fromString(keys[j])));
+                assertEquals(keys[i] + " vs " + keys[j], expected, actual);
+            }
+        }
+    }
+
+    public void testGraph() {
+        final PeriodicGraph G = NetParser.stringToNet(""
+                + "PERIODIC_GRAPH\n"
+                + "  1 2  0 0 0\n"
+                + "  1 3  0 0 0\n"
+                + "  1 4  0 0 0\n"
+                + "  2 3  1 0 0\n"
+                + "  2 4  0 1 0\n"
+                + "  3 4  0 0 1\n"
+                + "END\n");
+        final SystreKey key = G.getPackedSystreKey();
+        assertEquals(G.getSystreKey(), key.toString());
+        assertEquals(G.canonical(), PeriodicGraph.fromSystreKey(key));
+        assertEquals(G.getSystreKey(), PeriodicGraph.fromSystreKey(key)
+                .getSystreKey());
+    }
+
+    private static NiftyList list(final String key) {
+        final NiftyList result = new NiftyList();
+        final String fields[] = key.split(" ");
+        for (int i = 0; i < fields.length; ++i) {
+            result.add(new Integer(fields[i]));
+        }
+        return result;
+    }
+
+    private static int sign(final int n) {
+        return n < 0 ? -1 : n > 0 ? 1 : 0;
+    }
+}
@@ -261,4 +261,16 @@ public class TestUndirectedGraph extends TestCase {
         assertTrue(incidences.contains(v1));
         assertTrue(incidences.contains(v4));
     }
+    
+    public void testHashCodeIndependentOfGraph() {
+        final UndirectedGraph H = new UndirectedGraph();
+        final INode w1 = H.newNode();
+        final INode w2 = H.newNode();
+        final IEdge f = H.newEdge(w1, w2);
+        assertEquals(v1.id(), w1.id());
+        assertEquals(v1.hashCode(), w1.hashCode());
+        assertFalse(v1.equals(w1));
+        assertEquals(e1.hashCode(), f.hashCode());
+        assertFalse(e1.equals(f));
+    }
 }
@@ -0,0 +1,62 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.embed;
+
+import junit.framework.TestCase;
+
+import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
+import org.gavrog.joss.pgraphs.io.NetParser;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestEmbedder extends TestCase {
+    private PeriodicGraph lon;
+
+    public void setUp() throws Exception {
+        lon = NetParser.stringToNet(""
+                + "PERIODIC_GRAPH\n"
+                + "  1 2  0 0 0\n"
+                + "  1 2  0 1 0\n"
+                + "  1 2  1 0 0\n"
+                + "  1 3  0 0 0\n"
+                + "  2 4  0 0 0\n"
+                + "  3 4  0 0 1\n"
+                + "  3 4  0 1 1\n"
+                + "  3 4  1 0 1\n"
+                + "END\n").minimalImage();
+    }
+
+    public void testStepLimit() {
+        final Embedder unlimited = new Embedder(lon);
+        unlimited.setRelaxPositions(true);
+        unlimited.go(10000);
+        final int steps = unlimited.stepsPerformed();
+        assertTrue(steps > 20);
+        assertFalse(unlimited.stepLimitReached());
+
+        final Embedder limited = new Embedder(lon);
+        limited.setRelaxPositions(true);
+        limited.setStepLimit(20);
+        limited.go(10000);
+        assertTrue(limited.stepLimitReached());
+        assertTrue(limited.stepsPerformed() < steps);
+        final int before = limited.stepsPerformed();
+        limited.go(10000);
+        assertEquals(before, limited.stepsPerformed());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.embed;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.gavrog.jane.compounds.Matrix;
+import org.gavrog.joss.geometry.Point;
+import org.gavrog.joss.geometry.Vector;
+import org.gavrog.joss.pgraphs.basic.IEdge;
+import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
+import org.gavrog.joss.pgraphs.io.NetParser;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestEmbeddingCache extends TestCase {
+    private PeriodicGraph lon;
+    private PeriodicGraph lonRelabelled;
+    private PeriodicGraph dia;
+    private PeriodicGraph pcu;
+    private File location;
+
+    public void setUp() throws Exception {
+        lon = NetParser.stringToNet(""
+                + "PERIODIC_GRAPH\n"
+                + "  1 2  0 0 0\n"
+                + "  1 2  0 1 0\n"
+                + "  1 2  1 0 0\n"
+                + "  1 3  0 0 0\n"
+                + "  2 4  0 0 0\n"
+                + "  3 4  0 0 1\n"
+                + "  3 4  0 1 1\n"
+                + "  3 4  1 0 1\n"
+                + "END\n").minimalImage();
+        // --- the same net with nodes renumbered, some of them moved to
+        //     other cells, and a different basis (a' = a + b)
+        lonRelabelled = NetParser.stringToNet(""
+                + "PERIODIC_GRAPH\n"
+                + "  3 1  0 0 0\n"
+                + "  3 1  0 1 0\n"
+                + "  3 1  1 -1 0\n"
+                + "  3 4  0 0 1\n"
+                + "  1 2  0 0 0\n"
+                + "  4 2  0 0 0\n"
+                + "  4 2  0 1 0\n"
+                + "  4 2  1 -1 0\n"
+                + "END\n").minimalImage();
+        dia = NetParser.stringToNet(""
+                + "PERIODIC_GRAPH\n"
+                + "  1 2  0 0 0\n"
+                + "  1 2  1 0 0\n"
+                + "  1 2  0 1 0\n"
+                + "  1 2  0 0 1\n"
+                + "END\n").minimalImage();
+        pcu = NetParser.stringToNet(""
+                + "PERIODIC_GRAPH\n"
+                + "  1 1  1 0 0\n"
+                + "  1 1  0 1 0\n"
+                + "  1 1  0 0 1\n"
+                + "END\n").minimalImage();
+        location = File.createTempFile("embeddings", ".cache");
+        location.delete();
+        location.deleteOnExit();
+    }
+
+    public void tearDown() throws Exception {
+        location.delete();
+    }
+
+    private static Embedder relaxed(final PeriodicGraph G) {
+        final Embedder embedder = new Embedder(G);
+        embedder.setRelaxPositions(false);
+        embedder.go(500);
+        embedder.setRelaxPositions(true);
+        embedder.go(10000);
+        embedder.normalize();
+        return embedder;
+    }
+
+    private static void assertClose(final Matrix A, final Matrix B) {
+        final double a[][] = A.asDoubleArray();
+        final double b[][] = B.asDoubleArray();
+        for (int i = 0; i < a.length; ++i) {
+            for (int j = 0; j < a[i].length; ++j) {
+                assertEquals(a[i][j], b[i][j], 1e-3);
+            }
+        }
+    }
+
+    private static double[] edgeVector(final PeriodicGraph G, final Map pos,
+            final IEdge e) {
+        final Point p = (Point) pos.get(e.source());
+        final Point q = (Point) pos.get(e.target());
+        final Vector s = G.getShift(e);
+        return ((Vector) q.plus(s).minus(p)).asDoubleArray();
+    }
+
+    public void testRestoreRelabelled() throws IOException {
+        assertEquals(lon.getSystreKey(), lonRelabelled.getSystreKey());
+        assertFalse(lon.toString().equals(lonRelabelled.toString()));
+
+        final EmbeddingCache cache = new EmbeddingCache(location, 0);
+        cache.store(relaxed(lon));
+        cache.save();
+        assertTrue(location.exists());
+
+        final EmbeddingCache reloaded = new EmbeddingCache(location, 0);
+        assertEquals(1, reloaded.size());
+        final Embedder warm = new Embedder(lonRelabelled);
+        assertTrue(reloaded.restore(warm));
+        final Embedder cold = relaxed(lonRelabelled);
+
+        assertClose(cold.getGramMatrix(), warm.getGramMatrix());
+        final Map warmPos = warm.getPositions();
+        final Map coldPos = cold.getPositions();
+        for (final Iterator edges = lonRelabelled.edges(); edges.hasNext();) {
+            final IEdge e = (IEdge) edges.next();
+            final double w[] = edgeVector(lonRelabelled, warmPos, e);
+            final double c[] = edgeVector(lonRelabelled, coldPos, e);
+            for (int i = 0; i < w.length; ++i) {
+                assertEquals(c[i], w[i], 1e-3);
+            }
+        }
+
+        assertFalse(reloaded.restore(new Embedder(dia)));
+    }
+
+    public void testEviction() throws IOException {
+        final EmbeddingCache cache = new EmbeddingCache(location, 2);
+        cache.store(relaxed(lon));
+        cache.store(relaxed(dia));
+        assertTrue(cache.restore(new Embedder(lon)));
+        cache.store(relaxed(pcu));
+        assertEquals(2, cache.size());
+
+        // --- dia was used least recently
+        assertTrue(cache.restore(new Embedder(lon)));
+        assertTrue(cache.restore(new Embedder(pcu)));
+        assertFalse(cache.restore(new Embedder(dia)));
+
+        cache.save();
+        assertEquals(2, new EmbeddingCache(location, 0).size());
+        assertEquals(1, new EmbeddingCache(location, 1).size());
+    }
+
+    public void testDamagedFile() throws IOException {
+        final EmbeddingCache cache = new EmbeddingCache(location, 0);
+        cache.store(relaxed(dia));
+        cache.store(relaxed(pcu));
+        cache.save();
+        final String text = new String(readAll(location));
+
+        // --- a truncated file keeps the complete entries
+        write(location, text.substring(0, text.lastIndexOf("node")));
+        EmbeddingCache damaged = new EmbeddingCache(location, 0);
+        assertEquals(1, damaged.size());
+        assertTrue(damaged.restore(new Embedder(dia)));
+
+        // --- garbage is ignored
+        write(location, "key 3 1 1 0 0 1\ngram 1 x 0\nnode 0 0 0\nend\n");
+        damaged = new EmbeddingCache(location, 0);
+        assertEquals(0, damaged.size());
+        write(location, text.replaceFirst("node", "node 0.5"));
+        damaged = new EmbeddingCache(location, 0);
+        assertEquals(0, damaged.size());
+
+        // --- and the next save replaces the damaged file
+        damaged.store(relaxed(pcu));
+        damaged.save();
+        assertEquals(1, new EmbeddingCache(location, 0).size());
+    }
+
+    private static char[] readAll(final File file) throws IOException {
+        final FileReader in = new FileReader(file);
+        final char buf[] = new char[(int) file.length()];
+        int n = 0;
+        while (n < buf.length) {
+            n += in.read(buf, n, buf.length - n);
+        }
+        in.close();
+        return buf;
+    }
+
+    private static void write(final File file, final String text)
+            throws IOException {
+        final Writer out = new FileWriter(file);
+        out.write(text);
+        out.close();
+    }
+}
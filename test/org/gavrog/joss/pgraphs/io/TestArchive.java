@@ -20,9 +20,13 @@ import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import junit.framework.TestCase;
 
+import org.gavrog.box.simple.DataFormatException;
 import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
 import org.gavrog.joss.pgraphs.io.Archive.Entry;
 
@@ -76,6 +80,26 @@ public class TestArchive extends TestCase {
         assertNull(Entry.read(input));
     }
     
+    public void testDeferredChecksum() {
+        final String bad = srs_entry.replaceFirst(srs_digest, "0123456789abcdef");
+        try {
+            Entry.read(new BufferedReader(new StringReader(bad)));
+            fail("should throw a DataFormatException");
+        } catch (DataFormatException success) {
+        }
+        
+        final Archive arc = new Archive(keyVersion);
+        arc.addAll(new BufferedReader(new StringReader(bad + srs_entry
+                .replaceAll(srs_key, "1 1 1 1").replaceAll(srs_digest,
+                        new Entry("1 1 1 1", keyVersion, srs_name)
+                                .getDigestString()))), false);
+        assertEquals(2, arc.size());
+        assertFalse(arc.getByKey(srs_key).hasValidChecksum());
+        assertTrue(arc.getByKey("1 1 1 1").hasValidChecksum());
+        assertEquals(1, arc.invalidEntries().size());
+        assertEquals(srs_key, ((Entry) arc.invalidEntries().get(0)).getKey());
+    }
+    
     public void testArchiveRead() {
         final Archive rcsr = new Archive("1.0");
         final String path = "org/gavrog/apps/systre/rcsr.arc";
@@ -90,4 +114,46 @@ public class TestArchive extends TestCase {
         assertEquals(keyVersion, entry.getKeyVersion());
         assertEquals(rcsr.get(srs_name), entry);
     }
+    
+    public void testConcurrentAdd() throws Exception {
+        final Archive arc = new Archive("1.0");
+        arc.setErrorOnOverwrite(true);
+        final List stored = Collections.synchronizedList(new ArrayList());
+        final List errors = Collections.synchronizedList(new ArrayList());
+        final Thread threads[] = new Thread[8];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 200; ++i) {
+                        final int n = (i + offset * 7) % 200 + 1;
+                        final String key = "1 1 1 " + n;
+                        final Entry entry = new Entry(key, "1.0", "net" + n);
+                        if (arc.putIfAbsent(entry) == null) {
+                            stored.add(entry);
+                        }
+                        try {
+                            arc.add(new Entry(key, "1.0", "other"));
+                        } catch (IllegalArgumentException ex) {
+                            errors.add(ex);
+                        }
+                    }
+                }
+            };
+        }
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t].join();
+        }
+        assertEquals(200, stored.size());
+        assertEquals(200, arc.size());
+        assertEquals(200, arc.keySet().size());
+        assertEquals(8 * 200, errors.size());
+        for (int i = 0; i < stored.size(); ++i) {
+            final Entry entry = (Entry) stored.get(i);
+            assertSame(entry, arc.getByKey(entry.getKey()));
+        }
+    }
 }
@@ -0,0 +1,117 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gavrog.joss.pgraphs.basic.PeriodicGraph;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestArchiveIndex extends TestCase {
+    final PeriodicGraph srs = net("1 2 0 0 0, 1 3 0 0 0, 1 4 0 0 0,"
+            + "2 3 1 0 0, 2 4 0 1 0, 3 4 0 0 1");
+    final PeriodicGraph dia = net("1 2 0 0 0, 1 2 1 0 0, 1 2 0 1 0, 1 2 0 0 1");
+    final PeriodicGraph pcu = net("1 1 1 0 0, 1 1 0 1 0, 1 1 0 0 1");
+    final PeriodicGraph bcu = net("1 1 1 0 0, 1 1 0 1 0, 1 1 0 0 1, 1 1 1 1 1");
+
+    private static PeriodicGraph net(final String edges) {
+        return NetParser.stringToNet("PERIODIC_GRAPH\n"
+                + edges.replaceAll(",", "\n") + "\nEND\n");
+    }
+
+    private ArchiveIndex index;
+
+    public void setUp() {
+        final Archive arc = new Archive("1.0");
+        arc.add(dia, "dia");
+        arc.add(srs, "srs");
+        arc.add(pcu, "pcu");
+        final List skipped = new ArrayList();
+        index = ArchiveIndex.build(arc, skipped);
+        assertEquals(0, skipped.size());
+    }
+
+    public void testFingerprint() {
+        final NetFingerprint fp = new NetFingerprint(srs);
+        assertEquals(3, fp.getDimension());
+        assertEquals("I4132", fp.getGroupName());
+        assertEquals(1, fp.numberOfNodeOrbits());
+        assertEquals(1, fp.numberOfEdgeOrbits());
+        assertTrue(Arrays.equals(new int[] { 3, 6, 12, 24, 35, 48, 69, 86, 108,
+                138 }, fp.coordinationSequence(0)));
+        assertEquals(0.0, fp.distance(fp), 0.0);
+        final NetFingerprint other = new NetFingerprint(dia);
+        assertEquals(fp.distance(other), other.distance(fp), 0.0);
+        assertTrue(fp.distance(other) > 1.0);
+    }
+
+    public void testNearest() {
+        assertEquals(3, index.size());
+        final List matches = index.nearest(new NetFingerprint(srs), 2);
+        assertEquals(2, matches.size());
+        final ArchiveIndex.Match first = (ArchiveIndex.Match) matches.get(0);
+        assertEquals("srs", first.getName());
+        assertEquals(srs.getSystreKey(), first.getKey());
+        assertEquals(0.0, first.getDistance(), 0.0);
+
+        final List all = index.nearest(new NetFingerprint(bcu), 5);
+        assertEquals(3, all.size());
+        for (int i = 1; i < all.size(); ++i) {
+            final ArchiveIndex.Match a = (ArchiveIndex.Match) all.get(i - 1);
+            final ArchiveIndex.Match b = (ArchiveIndex.Match) all.get(i);
+            assertTrue(a.getDistance() <= b.getDistance());
+        }
+        assertEquals("pcu", ((ArchiveIndex.Match) all.get(0)).getName());
+    }
+
+    public void testNearestNone() {
+        final NetFingerprint query = new NetFingerprint(srs);
+        assertEquals(0, index.nearest(query, 0).size());
+        assertEquals(0, index.nearest(query, -1).size());
+        assertEquals(0, index.nearest(dia, 0, false).size());
+        assertEquals(0, index.nearest(dia, 0, true).size());
+    }
+
+    public void testIsomorphicOnly() {
+        final List matches = index.nearest(dia, 5, true);
+        assertEquals(1, matches.size());
+        assertEquals("dia", ((ArchiveIndex.Match) matches.get(0)).getName());
+        assertEquals(0, index.nearest(bcu, 5, true).size());
+    }
+
+    public void testReadWrite() throws Exception {
+        final StringWriter out = new StringWriter();
+        index.write(out);
+        final ArchiveIndex copy = ArchiveIndex.read(new BufferedReader(
+                new StringReader(out.toString())));
+        assertEquals(index.size(), copy.size());
+        final StringWriter again = new StringWriter();
+        copy.write(again);
+        assertEquals(out.toString(), again.toString());
+        assertEquals("srs", ((ArchiveIndex.Match) copy.nearest(
+                new NetFingerprint(srs), 1).get(0)).getName());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gavrog.joss.pgraphs.io.Archive.Entry;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestArchiveMerge extends TestCase {
+    final String srs_key = "3 1 2 0 0 0 1 3 0 0 0 1 4 0 0 0 2 3 0 1 0 2 4 1 0 0 3 4 0 0 1";
+    final String dia_key = "3 1 2 0 0 0 1 2 0 0 1 1 2 0 1 0 1 2 1 0 0";
+    final String pcu_key = "3 1 1 0 0 1 1 1 0 1 0 1 1 1 0 0";
+    final String hcb_key = "2 1 2 0 0 1 2 0 1 1 2 1 0";
+    final String sql_key = "2 1 1 0 1 1 1 1 0";
+    final String bcu_key = "3 1 1 0 0 1 1 1 0 1 0 1 1 1 0 0 1 1 1 1 1";
+
+    private List files = new ArrayList();
+
+    public void tearDown() {
+        for (final Iterator iter = files.iterator(); iter.hasNext();) {
+            ((File) iter.next()).delete();
+        }
+    }
+
+    private File archive(final String entries[]) throws Exception {
+        final File file = File.createTempFile("test", ".arc");
+        files.add(file);
+        final FileWriter out = new FileWriter(file);
+        for (int i = 0; i < entries.length; i += 2) {
+            out.write(new Entry(entries[i], "1.0", entries[i + 1]).toString());
+            out.write("\n");
+        }
+        out.close();
+        return file;
+    }
+
+    public void testMerge() throws Exception {
+        final List inputs = new ArrayList();
+        inputs.add(archive(new String[] {
+                srs_key, "srs", dia_key, "dia", pcu_key, "pcu", sql_key, "sql" }));
+        inputs.add(archive(new String[] {
+                srs_key, "srs", dia_key, "diamond", pcu_key, "pcu", hcb_key, "sql" }));
+        inputs.add(archive(new String[] { pcu_key, "cubic", bcu_key, "bcu" }));
+
+        final StringWriter merged = new StringWriter();
+        final ByteArrayOutputStream report = new ByteArrayOutputStream();
+        final int n = new ArchiveMerge(2, null).merge(inputs, merged,
+                new PrintStream(report));
+        assertEquals(6, n);
+        assertEquals(""
+                + "Removed:\n"
+                + "    sql\n"
+                + "Renamed:\n"
+                + "    dia => diamond\n"
+                + "    pcu => cubic\n"
+                + "Added:\n"
+                + "    bcu\n"
+                + "Same name for different nets:\n"
+                + "    sql\n"
+                + "Conflicting names for the same net:\n"
+                + "    pcu, cubic\n",
+                report.toString().replaceAll("\r", ""));
+
+        final Archive result = new Archive("1.0");
+        result.addAll(new StringReader(merged.toString()));
+        assertEquals(6, result.size());
+        assertEquals("srs", result.getByKey(srs_key).getName());
+        assertEquals("diamond", result.getByKey(dia_key).getName());
+        assertEquals("cubic", result.getByKey(pcu_key).getName());
+        assertEquals("sql", result.getByKey(sql_key).getName());
+        assertEquals("sql", result.getByKey(hcb_key).getName());
+        assertEquals("bcu", result.getByKey(bcu_key).getName());
+    }
+
+    public void testIdentical() throws Exception {
+        final String entries[] = new String[] { srs_key, "srs", dia_key, "dia" };
+        final List inputs = new ArrayList();
+        inputs.add(archive(entries));
+        inputs.add(archive(entries));
+        final ByteArrayOutputStream report = new ByteArrayOutputStream();
+        assertEquals(2, new ArchiveMerge(1, null).merge(inputs, null,
+                new PrintStream(report)));
+        assertEquals("", report.toString());
+    }
+
+    public void testSorter() throws Exception {
+        final ArchiveMerge.ExternalSorter sorter = new ArchiveMerge.ExternalSorter(
+                3, null);
+        final String words[] = new String[] { "pcu", "dia", "srs", "bcu", "nbo",
+                "dia", "acs", "ths" };
+        for (int i = 0; i < words.length; ++i) {
+            sorter.add(words[i]);
+        }
+        final List result = new ArrayList();
+        try {
+            for (final Iterator iter = sorter.iterator(); iter.hasNext();) {
+                result.add(iter.next());
+            }
+            assertEquals(3, sorter.numberOfRuns());
+        } finally {
+            sorter.dispose();
+        }
+        assertEquals("[acs, bcu, dia, dia, nbo, pcu, srs, ths]", result.toString());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+
+import junit.framework.TestCase;
+
+import org.gavrog.joss.pgraphs.io.Archive.Entry;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestArchiveWriter extends TestCase {
+    private File target;
+    private File journal;
+
+    public void setUp() throws Exception {
+        target = File.createTempFile("test", ".arc");
+        target.delete();
+        journal = new File(target.getPath() + ".part");
+    }
+
+    public void tearDown() {
+        target.delete();
+        journal.delete();
+    }
+
+    private static Entry entry(final int n) {
+        return new Entry("1 1 1 " + n, "1.0", "net" + n);
+    }
+
+    private static Archive read(final File file) throws Exception {
+        final Archive arc = new Archive("1.0");
+        final FileReader reader = new FileReader(file);
+        try {
+            arc.addAll(reader);
+        } finally {
+            reader.close();
+        }
+        return arc;
+    }
+
+    public void testBatches() throws Exception {
+        final ArchiveWriter writer = new ArchiveWriter(target, 3, 3600000);
+        writer.write(entry(1));
+        writer.write(entry(2));
+        assertEquals(0, journal.length());
+        writer.write(entry(3));
+        assertEquals(3, read(journal).size());
+        writer.write(entry(4));
+        assertFalse(target.exists());
+        writer.checkpoint();
+        assertEquals(4, read(target).size());
+        writer.write(entry(5));
+        writer.close();
+        assertFalse(journal.exists());
+        final Archive arc = read(target);
+        assertEquals(5, arc.size());
+        assertEquals("net5", arc.getByKey("1 1 1 5").getName());
+    }
+
+    public void testRecovery() throws Exception {
+        final FileWriter out = new FileWriter(journal);
+        out.write(entry(1).toString());
+        out.write("\n");
+        out.write(entry(2).toString());
+        out.write("\n");
+        final String torn = entry(3).toString();
+        out.write(torn.substring(0, torn.indexOf("checksum") + 15));
+        out.close();
+
+        final ArchiveWriter writer = new ArchiveWriter(target, 10, 3600000);
+        assertEquals(2, writer.recoveredEntries().size());
+        assertEquals(2, read(journal).size());
+        writer.write(entry(2));
+        writer.write(entry(3));
+        writer.close();
+        final Archive arc = read(target);
+        assertEquals(3, arc.size());
+        assertEquals("[1 1 1 1, 1 1 1 2, 1 1 1 3]", arc.keySet().toString());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gavrog.box.simple.DataFormatException;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestBlockIndex extends TestCase {
+    private static final String cgd = ""
+            + "# some nets\n"
+            + "PERIODIC_GRAPH\n"
+            + "  ID pcu\n"
+            + "  EDGES 1 1 1 0 0\n"
+            + "        1 1 0 1 0\n"
+            + "        1 1 0 0 1\n"
+            + "END\r\n"
+            + "\r\n"
+            + "PERIODIC_GRAPH\r"
+            + "  NAME \"hcb\" 2\r"
+            + "        \"layer\"\r"
+            + "  EDGES 1 2 0 0\r"
+            + "        1 2 1 0\r"
+            + "        1 2 0 1\r"
+            + "END\r"
+            + "PERIODIC_GRAPH\n"
+            + "  EDGES 1 1 1 \"0\n"
+            + "END\n"
+            + "# done\n";
+
+    private static final String ds = ""
+            + "#@ name first\n"
+            + "<1.1:1 3:1,1,1,1:4,3,4>\n"
+            + "# no name\n"
+            + "<1.1:2 3:2,1 2,1 2,2:\n"
+            + "  6,3 2,6>\n"
+            + "#@ name third\n"
+            + "<1.1:1 3:1,1,1,1:4,3,4> # comment\n";
+
+    private File file(final String extension, final String text)
+            throws IOException {
+        final File file = File.createTempFile("test", extension);
+        file.deleteOnExit();
+        BlockIndex.sidecar(file).deleteOnExit();
+        final Writer out = new FileWriter(file);
+        out.write(text);
+        out.close();
+        return file;
+    }
+
+    public void testNets() throws IOException {
+        final BlockIndex index = BlockIndex.build(file(".cgd", cgd));
+        assertEquals(3, index.size());
+        assertEquals("pcu", index.getName(0));
+        assertEquals("hcb 2; layer", index.getName(1));
+        assertNull(index.getName(2));
+        assertEquals(0, index.getLineNumber(0));
+        assertEquals(7, index.getLineNumber(1));
+        assertEquals(15, index.getLineNumber(2));
+
+        final List nets = Net.list(index.getFile().getPath(), false);
+        assertEquals(3, nets.size());
+        final Net hcb = (Net) nets.get(1);
+        assertEquals("hcb 2; layer", hcb.getName());
+        assertEquals(2, hcb.getDimension());
+        assertSame(hcb, nets.get(1));
+        try {
+            nets.get(2);
+            fail("should throw an exception");
+        } catch (DataFormatException success) {
+            assertTrue(success.getMessage().endsWith("line 17"));
+        }
+    }
+
+    public void testSymbols() throws IOException {
+        final BlockIndex index = BlockIndex.build(file(".ds", ds));
+        assertEquals(3, index.size());
+        assertEquals("first", index.getName(0));
+        assertNull(index.getName(1));
+        assertEquals("third", index.getName(2));
+
+        final BlockList nets = Net.list(index.getFile().getPath(), false);
+        assertEquals(3, ((Net) nets.get(2)).getDimension());
+        nets.add(1, nets.get(0));
+        assertEquals(4, nets.size());
+        assertSame(nets.get(0), nets.get(1));
+    }
+
+    private BlockList texts(final BlockIndex index, final boolean keep) {
+        return new BlockList(index, 1) {
+            protected Object parse(final Reader input, final int i) {
+                final StringBuffer text = new StringBuffer();
+                try {
+                    int c;
+                    while ((c = input.read()) >= 0) {
+                        text.append((char) c);
+                    }
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+                return text;
+            }
+
+            protected String nameOf(final Object x) {
+                return x.toString();
+            }
+
+            protected boolean keep(final Object x) {
+                return keep;
+            }
+        };
+    }
+
+    public void testKeep() throws IOException {
+        final BlockIndex index = BlockIndex.build(file(".cgd", cgd));
+
+        final BlockList cached = texts(index, false);
+        final Object first = cached.get(0);
+        assertSame(first, cached.get(0));
+        cached.get(1);
+        assertNotSame(first, cached.get(0));
+
+        final BlockList kept = texts(index, true);
+        ((StringBuffer) kept.get(0)).append("changed");
+        kept.get(1);
+        kept.get(2);
+        assertTrue(kept.get(0).toString().endsWith("changed"));
+        assertTrue(kept.getName(0).endsWith("changed"));
+    }
+
+    public void testSidecar() throws IOException {
+        final File file = file(".cgd", cgd);
+        final File sidecar = BlockIndex.sidecar(file);
+        assertFalse(sidecar.exists());
+        BlockIndex.forFile(file, false);
+        assertFalse(sidecar.exists());
+        BlockIndex.forFile(file, true);
+        assertTrue(sidecar.exists());
+
+        final BlockIndex index = BlockIndex.forFile(file, false);
+        assertEquals(3, index.size());
+        assertEquals("hcb 2; layer", index.getName(1));
+        assertNull(index.getName(2));
+        assertEquals(15, index.getLineNumber(2));
+
+        // --- a changed file must be indexed again
+        final Writer out = new FileWriter(file, true);
+        out.write("PERIODIC_GRAPH\n  NAME extra\nEND\n");
+        out.close();
+        file.setLastModified(file.lastModified() + 2000);
+        final BlockIndex changed = BlockIndex.forFile(file, false);
+        assertEquals(4, changed.size());
+        assertEquals("extra", changed.getName(3));
+        sidecar.delete();
+    }
+}
@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.gavrog.box.simple.DataFormatException;
 import org.gavrog.jane.numbers.FloatingPoint;
 import org.gavrog.jane.numbers.Fraction;
 import org.gavrog.jane.numbers.Whole;
@@ -95,4 +96,116 @@ public class TestGenericParser extends TestCase {
         assertEquals(3, block.getEntries("junk").size());
         assertEquals(1, block.getEntries("void").size());
     }
+    
+    public void testSkipBlock() {
+        final StringReader test = new StringReader(""
+            + "# comment\n"
+            + "FIRST\n"
+            + "  NAME \"END\"\n"
+            + "  ENDING 1 2\n"
+            + "end# the end\n"
+            + "\n"
+            + "SECOND\n"
+            + "  NAME x\n"
+            + "END\n"
+            + "THIRD\n"
+            + "  NAME y\n");
+        final GenericParser parser = new GenericParser(test);
+        assertFalse(parser.atEnd());
+        assertTrue(parser.skipBlock());
+        assertEquals(5, parser.getLineNumber());
+        final GenericParser.Block block = parser.parseDataBlock();
+        assertEquals("second", block.getType());
+        assertEquals("x", block.getEntriesAsString("name"));
+        try {
+            parser.skipBlock();
+            fail("should throw an exception");
+        } catch (DataFormatException success) {
+        }
+        assertFalse(parser.skipBlock());
+    }
+
+    public void testReadBlockText() {
+        final StringReader test = new StringReader(""
+            + "# comment\n"
+            + "FIRST\n"
+            + "  NAME \"END\"\n"
+            + "# inner comment\n"
+            + "\n"
+            + "  EDGES 1 2\r\n"
+            + "end# the end\n"
+            + "\n"
+            + "SECOND\n"
+            + "  NAME x\n");
+        final GenericParser parser = new GenericParser(test);
+        GenericParser.RawBlock block = parser.readBlockText();
+        assertEquals(1, block.lineNumber);
+        assertEquals("FIRST\nNAME \"END\"\n\n\nEDGES 1 2\nend# the end\n",
+                block.text);
+        block = parser.readBlockText();
+        assertEquals(8, block.lineNumber);
+        assertEquals("SECOND\nNAME x\n", block.text);
+        assertNull(parser.readBlockText());
+
+        final GenericParser second = new GenericParser(new StringReader(
+                block.text), block.text.length());
+        second.setLineNumber(block.lineNumber);
+        try {
+            second.parseDataBlock();
+            fail("should throw an exception");
+        } catch (DataFormatException success) {
+        }
+        assertEquals(10, second.getLineNumber());
+    }
+
+    public void testTokens() {
+        final StringReader test = new StringReader(""
+            + "NUMBERS\r\n"
+            + "  INT 0 +7 -300 1234567890 12345678901\r"
+            + "  FRAC 2/4 1/-3 1/0.5 1/2/3\n"
+            + "  FLOAT .5 1e3 -2.5E-1 1.5f 1e\r\n"
+            + "  TEXT \"a # b\" x#y\n"
+            + "END\n"
+            + "BROKEN\n"
+            + "  TEXT \"abc\n"
+            + "END\n");
+        final GenericParser parser = new GenericParser(test);
+        final GenericParser.Entry entries[] = parser.parseDataBlock().getEntries();
+        assertEquals(4, entries.length);
+        assertEquals(6, parser.getLineNumber());
+
+        List row = entries[0].values;
+        assertEquals(2, entries[0].lineNumber);
+        assertEquals(new Whole(0), row.get(0));
+        assertEquals(new Whole(7), row.get(1));
+        assertEquals(new Whole(-300), row.get(2));
+        assertEquals(new Whole(1234567890), row.get(3));
+        assertEquals(new FloatingPoint(12345678901.0), row.get(4));
+
+        row = entries[1].values;
+        assertEquals(3, entries[1].lineNumber);
+        assertEquals(new Fraction(1, 2), row.get(0));
+        assertEquals(new Fraction(-1, 3), row.get(1));
+        assertEquals("1/0.5", row.get(2));
+        assertEquals("1/2/3", row.get(3));
+
+        row = entries[2].values;
+        assertEquals(new FloatingPoint(0.5), row.get(0));
+        assertEquals(new FloatingPoint(1000), row.get(1));
+        assertEquals(new FloatingPoint(-0.25), row.get(2));
+        assertEquals(new FloatingPoint(1.5), row.get(3));
+        assertEquals("1e", row.get(4));
+
+        row = entries[3].values;
+        assertEquals(2, row.size());
+        assertEquals("a # b", row.get(0));
+        assertEquals("x", row.get(1));
+
+        try {
+            parser.parseDataBlock();
+            fail("should throw an exception");
+        } catch (DataFormatException success) {
+            assertTrue(success.getMessage().endsWith("line 8"));
+        }
+    }
 }
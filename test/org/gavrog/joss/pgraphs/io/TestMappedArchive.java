@@ -0,0 +1,159 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gavrog.joss.pgraphs.io.Archive.Entry;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestMappedArchive extends TestCase {
+    final String srs_key = "3 1 2 0 0 0 1 3 0 0 0 1 4 0 0 0 2 3 0 1 0 2 4 1 0 0 3 4 0 0 1";
+    final String dia_key = "3 1 2 0 0 0 1 2 0 0 1 1 2 0 1 0 1 2 1 0 0";
+
+    private Archive rcsr;
+    private File file;
+
+    public void setUp() throws Exception {
+        rcsr = new Archive("1.0");
+        final String path = "org/gavrog/apps/systre/rcsr.arc";
+        final InputStream stream = ClassLoader.getSystemResourceAsStream(path);
+        rcsr.addAll(new BufferedReader(new InputStreamReader(stream)));
+        file = File.createTempFile("test", ".barc");
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    private Iterator entries(final Archive arc) {
+        final List result = new ArrayList();
+        for (final Iterator iter = arc.keySet().iterator(); iter.hasNext();) {
+            result.add(arc.getByKey((String) iter.next()));
+        }
+        return result.iterator();
+    }
+
+    public void testLookup() throws Exception {
+        assertEquals(rcsr.size(), MappedArchive.write(entries(rcsr), "1.0", -1, file));
+        final Archive packed = new MappedArchive(file);
+        assertEquals(rcsr.size(), packed.size());
+        assertEquals("1.0", packed.getKeyVersion());
+
+        final Entry srs = packed.getByKey(srs_key);
+        assertEquals("srs", srs.getName());
+        assertEquals(rcsr.getByKey(srs_key).toString(), srs.toString());
+        assertEquals(srs.toString(), packed.getByName("srs").toString());
+        assertEquals(srs.toString(), packed.get("srs").toString());
+        assertNull(packed.getByKey("3 1 1 0 0 1"));
+        assertNull(packed.getByName("no such net"));
+
+        final List keys = new ArrayList(packed.keySet());
+        assertEquals(new ArrayList(rcsr.keySet()), keys);
+        for (final Iterator iter = keys.iterator(); iter.hasNext();) {
+            final String key = (String) iter.next();
+            assertTrue(packed.keySet().contains(key));
+            assertEquals(rcsr.getByKey(key).toString(),
+                    packed.getByKey(key).toString());
+        }
+    }
+
+    public void testPackAndUnpack() throws Exception {
+        final Entry first = new Entry(srs_key, "1.0", "srs");
+        final Entry second = new Entry(dia_key, "1.0", "dia");
+        final Entry third = new Entry(srs_key, "1.0", "srs-again");
+        third.setDescription("overrides the first entry");
+
+        final File text = File.createTempFile("test", ".arc");
+        try {
+            final FileWriter writer = new FileWriter(text);
+            writer.write(first + "\n" + second + "\n" + third + "\n");
+            writer.close();
+            assertEquals(2, MappedArchive.pack(text, file));
+        } finally {
+            text.delete();
+        }
+
+        final MappedArchive packed = new MappedArchive(file);
+        assertEquals(2, packed.size());
+        assertEquals("srs-again", packed.getByKey(srs_key).getName());
+        assertEquals("srs", packed.getByName("srs").getName());
+        assertEquals(dia_key, packed.getByName("dia").getKey());
+
+        final StringWriter out = new StringWriter();
+        assertEquals(2, packed.unpack(out));
+        final Archive unpacked = new Archive("1.0");
+        unpacked.addAll(new StringReader(out.toString()));
+        assertEquals(2, unpacked.size());
+        assertEquals(third.toString(), unpacked.getByKey(srs_key).toString());
+        assertEquals(second.toString(), unpacked.getByKey(dia_key).toString());
+    }
+
+    public void testSharedName() throws Exception {
+        final Entry first = new Entry(srs_key, "1.0", "net");
+        final Entry second = new Entry(dia_key, "1.0", "net");
+        second.setDescription("shares the name of the first entry");
+
+        final File text = File.createTempFile("test", ".arc");
+        try {
+            final FileWriter writer = new FileWriter(text);
+            writer.write(first + "\n" + second + "\n");
+            writer.close();
+            assertEquals(2, MappedArchive.pack(text, file));
+        } finally {
+            text.delete();
+        }
+
+        final MappedArchive packed = new MappedArchive(file);
+        assertEquals(2, packed.size());
+        assertEquals(2, new ArrayList(packed.keySet()).size());
+        assertEquals(dia_key, packed.getByName("net").getKey());
+        assertEquals(first.toString(), packed.getByKey(srs_key).toString());
+        assertEquals(second.toString(), packed.getByKey(dia_key).toString());
+
+        final StringWriter out = new StringWriter();
+        assertEquals(2, packed.unpack(out));
+        final Archive unpacked = new Archive("1.0");
+        unpacked.addAll(new StringReader(out.toString()));
+        assertEquals(2, unpacked.size());
+        assertEquals(first.toString(), unpacked.getByKey(srs_key).toString());
+        assertEquals(second.toString(), unpacked.getByKey(dia_key).toString());
+    }
+
+    public void testReadOnly() throws Exception {
+        MappedArchive.write(entries(rcsr), "1.0", -1, file);
+        final Archive packed = new MappedArchive(file);
+        try {
+            packed.add(new Entry(srs_key, "1.0", "srs"));
+            fail("should throw an UnsupportedOperationException");
+        } catch (UnsupportedOperationException success) {
+        }
+    }
+}
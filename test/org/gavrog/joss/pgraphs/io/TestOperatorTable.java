@@ -0,0 +1,66 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gavrog.joss.geometry.Operator;
+import org.gavrog.joss.geometry.SpaceGroup;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestOperatorTable extends TestCase {
+    final OperatorTable table = new OperatorTable(new ArrayList(SpaceGroup
+            .fromCatalogue(3, "Fd-3m").getOperators()));
+
+    public void testProducts() {
+        final int n = table.size();
+        assertEquals(192, n);
+        for (int i = 0; i < n; ++i) {
+            final int j = (7 * i + 3) % n;
+            final Operator ab = (Operator) table.get(i).times(table.get(j));
+            assertEquals(ab.modZ(), table.get(table.product(i, j)));
+            final int k = table.inverse(i);
+            assertEquals(Operator.identity(3), table.get(table.product(i, k)));
+        }
+    }
+
+    public void testCosets() {
+        final int e = table.indexOf(Operator.identity(3));
+        final int t = table.indexOf(new Operator("x+1/2,y+1/2,z"));
+        assertTrue(table.formGroup(new int[] { e }));
+        assertTrue(table.formGroup(new int[] { e, t }));
+        assertFalse(table.formGroup(new int[] { t }));
+
+        assertEquals(192, table.cosetRepresentatives(new int[] { e }).length);
+        final int reps[] = table.cosetRepresentatives(new int[] { e, t });
+        assertEquals(96, reps.length);
+        final List seen = new ArrayList();
+        for (int i = 0; i < reps.length; ++i) {
+            final Integer a = new Integer(reps[i]);
+            final Integer b = new Integer(table.product(t, reps[i]));
+            assertFalse(seen.contains(a));
+            assertFalse(seen.contains(b));
+            seen.add(a);
+            seen.add(b);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+Copyright 2010 Olaf Delgado-Friedrichs
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.gavrog.joss.pgraphs.io;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.gavrog.jane.compounds.Matrix;
+
+/**
+ * @author Olaf Delgado
+ */
+public class TestPointIndex extends TestCase {
+    final static double gram[][] = new double[][] {
+            { 4.0, 1.0, 0.5 }, { 1.0, 9.0, -2.0 }, { 0.5, -2.0, 6.0 } };
+
+    private static double dist2(final double p[], final double q[]) {
+        double s = 0;
+        for (int i = 0; i < 3; ++i) {
+            for (int j = 0; j < 3; ++j) {
+                s += (p[i] - q[i]) * gram[i][j] * (p[j] - q[j]);
+            }
+        }
+        return s;
+    }
+
+    public void testAgainstBruteForce() {
+        final Random random = new Random(4711);
+        final double points[][] = new double[500][3];
+        for (int k = 0; k < points.length; ++k) {
+            for (int i = 0; i < 3; ++i) {
+                points[k][i] = random.nextInt(20) / 4.0;
+            }
+        }
+        final PointIndex index = new PointIndex(points, new Matrix(gram));
+        final PointIndex.Filter odd = new PointIndex.Filter() {
+            public boolean accept(final int i) {
+                return i % 2 == 1;
+            }
+        };
+
+        for (int n = 0; n < 50; ++n) {
+            final double p[] = points[random.nextInt(points.length)];
+            final int k = 1 + random.nextInt(6);
+            final int found[] = index.nearest(p, k, odd);
+
+            final double d[] = new double[points.length / 2];
+            for (int i = 0; i < d.length; ++i) {
+                d[i] = dist2(p, points[2 * i + 1]);
+            }
+            Arrays.sort(d);
+            final double limit = d[k - 1] + 1e-6;
+            int expected = 0;
+            for (int i = 0; i < d.length; ++i) {
+                if (d[i] <= limit) {
+                    ++expected;
+                }
+            }
+
+            assertEquals(expected, found.length);
+            for (int i = 0; i < found.length; ++i) {
+                assertEquals(1, found[i] % 2);
+                assertTrue(dist2(p, points[found[i]]) <= limit);
+            }
+        }
+    }
+
+    public void testEmpty() {
+        final PointIndex index = new PointIndex(new double[0][], new Matrix(gram));
+        assertEquals(0, index.nearest(new double[] { 0, 0, 0 }, 3, null).length);
+    }
+}